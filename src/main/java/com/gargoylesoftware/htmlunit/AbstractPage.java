@@ -50,7 +50,7 @@ public class AbstractPage implements Page {
      */
     @Override
     public void cleanUp() {
-        if (getEnclosingWindow().getWebClient().getCache().getCachedResponse(webResponse_.getWebRequest()) == null) {
+        if (!getEnclosingWindow().getWebClient().getCache().isCached(webResponse_.getWebRequest())) {
             webResponse_.cleanUp();
         }
     }
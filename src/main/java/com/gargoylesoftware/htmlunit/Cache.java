@@ -14,13 +14,19 @@
  */
 package com.gargoylesoftware.htmlunit;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -28,13 +34,24 @@ import org.apache.http.client.utils.DateUtils;
 
 import com.gargoylesoftware.css.dom.CSSStyleSheetImpl;
 import com.gargoylesoftware.htmlunit.util.HeaderUtils;
+import com.gargoylesoftware.htmlunit.util.NameValuePair;
 import com.gargoylesoftware.htmlunit.util.UrlUtils;
+import com.gargoylesoftware.htmlunit.util.WebResponseWrapper;
 
 /**
  * <p>Simple cache implementation which caches compiled JavaScript files and parsed CSS snippets. Caching
  * compiled JavaScript files avoids unnecessary web requests and additional compilation overhead, while
  * caching parsed CSS snippets avoids very expensive CSS parsing.</p>
  *
+ * <p>The cache is bounded by a number of entries and optionally by the size in bytes of the cached content;
+ * the least recently used entries are evicted first. Lookups don't block each other: the entries are held
+ * in a concurrent map, and the recency order is updated only if its lock is available, so that under
+ * contention the order is approximate.</p>
+ *
+ * <p>One instance can be shared by several {@link WebClient}s, also used from different threads. The
+ * entries are never modified, but replaced. The compiled scripts and parsed style sheets are stored
+ * per {@link BrowserVersion}, as their creation depends on it; they must not be modified once cached.</p>
+ *
  * @author Marc Guillemot
  * @author Daniel Gredler
  * @author Ahmed Ashour
@@ -44,7 +61,10 @@ import com.gargoylesoftware.htmlunit.util.UrlUtils;
 public class Cache implements Serializable {
 
     /** The maximum size of the cache. */
-    private int maxSize_ = 40;
+    private volatile int maxSize_ = 40;
+
+    /** The maximum size in bytes of the cached content, unlimited by default. */
+    private volatile long maxSizeInBytes_ = Long.MAX_VALUE;
 
     private static final Pattern DATE_HEADER_PATTERN = Pattern.compile("-?\\d+");
     private static final long DELAY = 10 * org.apache.commons.lang3.time.DateUtils.MILLIS_PER_MINUTE;
@@ -55,120 +75,263 @@ public class Cache implements Serializable {
      * method triggers DNS lookups of the URL hostnames' IPs. As of this writing, the HtmlUnit unit tests
      * run ~20% faster whey keying on strings rather than on {@link java.net.URL} instances.
      */
-    private final Map<String, Entry> entries_ = Collections.synchronizedMap(new HashMap<String, Entry>(maxSize_));
+    private final Map<String, Entry> entries_ = new ConcurrentHashMap<>();
+
+    /**
+     * Guards the recency list, the weights and the size in bytes; the entries map itself
+     * is only modified while holding it.
+     */
+    private final ReentrantLock lock_ = new ReentrantLock();
+    /** The least recently used entry. */
+    private transient Entry head_;
+    /** The most recently used entry. */
+    private transient Entry tail_;
+    private long sizeInBytes_;
+
+    private final LongAdder hitCount_ = new LongAdder();
+    private final LongAdder missCount_ = new LongAdder();
+    private final LongAdder evictionCount_ = new LongAdder();
+
+    /*
+     * Whether a subclass overrides the methods without browser version; the methods with a
+     * browser version then go through them, so that the overrides are still used.
+     */
+    private final boolean overridesCacheIfPossible_ =
+            overrides("cacheIfPossible", WebRequest.class, WebResponse.class, Object.class);
+    private final boolean overridesCache_ = overrides("cache", String.class, CSSStyleSheetImpl.class);
+    private final boolean overridesGetCachedObject_ = overrides("getCachedObject", WebRequest.class);
+    private final boolean overridesGetCachedStyleSheet_ = overrides("getCachedStyleSheet", String.class);
 
     /**
-     * A cache entry.
+     * Returns whether the class of this cache overrides the specified public method of this class.
      */
-    private static class Entry implements Comparable<Entry>, Serializable {
+    private boolean overrides(final String name, final Class<?>... parameterTypes) {
+        try {
+            return getClass().getMethod(name, parameterTypes).getDeclaringClass() != Cache.class;
+        }
+        catch (final NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A cache entry. Entries are replaced rather than modified; only the links of the
+     * recency list and the weight change, while holding the lock.
+     */
+    private static class Entry implements Serializable {
         private final String key_;
-        private WebResponse response_;
-        private Object value_;
-        private long lastAccess_;
-        private long createdAt_;
+        private final WebResponse response_;
+        /** The cached objects (compiled scripts, style sheets) per browser version. */
+        private final Map<BrowserVersion, Object> values_;
+        private final long createdAt_;
+        private long weight_;
+        private transient Entry previous_;
+        private transient Entry next_;
 
-        Entry(final String key, final WebResponse response, final Object value) {
+        Entry(final String key, final WebResponse response, final BrowserVersion browserVersion,
+                final Object value) {
+            this(key, response, value == null ? Collections.<BrowserVersion, Object>emptyMap()
+                    : Collections.singletonMap(browserVersion, value), System.currentTimeMillis());
+        }
+
+        Entry(final String key, final WebResponse response, final Map<BrowserVersion, Object> values,
+                final long createdAt) {
             key_ = key;
             response_ = response;
-            value_ = value;
-            createdAt_ = System.currentTimeMillis();
-            lastAccess_ = createdAt_;
+            values_ = values;
+            createdAt_ = createdAt;
         }
 
         /**
-         * {@inheritDoc}
+         * Returns a copy of this entry, additionally holding the specified object.
          */
-        @Override
-        public int compareTo(final Entry other) {
-            if (lastAccess_ < other.lastAccess_) {
-                return -1;
-            }
-            if (lastAccess_ == other.lastAccess_) {
-                return 0;
-            }
-            return 1;
+        private Entry withValue(final BrowserVersion browserVersion, final Object value) {
+            final Map<BrowserVersion, Object> values = new HashMap<>(values_);
+            values.put(browserVersion, value);
+            return new Entry(key_, response_, Collections.unmodifiableMap(values), createdAt_);
         }
 
         /**
-         * {@inheritDoc}
+         * Returns the object cached for the specified browser version or, if there is none,
+         * the object cached without browser version.
          */
-        @Override
-        public boolean equals(final Object obj) {
-            return obj instanceof Entry && lastAccess_ == ((Entry) obj).lastAccess_;
+        private Object getValue(final BrowserVersion browserVersion) {
+            final Object value = values_.get(browserVersion);
+            if (value != null || browserVersion == null) {
+                return value;
+            }
+            return values_.get(null);
         }
 
         /**
-         * {@inheritDoc}
+         * Returns the object cached without browser version or, if there is none,
+         * the one cached for any browser version.
          */
-        @Override
-        public int hashCode() {
-            return ((Long) lastAccess_).hashCode();
+        private Object getAnyValue() {
+            final Object value = values_.get(null);
+            if (value != null || values_.isEmpty()) {
+                return value;
+            }
+            return values_.values().iterator().next();
         }
 
         /**
-         * Updates the last access date.
+         * Returns the approximate number of bytes held by this entry: the length of the content
+         * or, for style sheets, of the CSS snippet.
          */
-        public void touch() {
-            lastAccess_ = System.currentTimeMillis();
+        private long computeWeight() {
+            if (response_ != null) {
+                return response_.getContentLength();
+            }
+            return 2L * key_.length();
         }
 
         /**
-         * <p>Check freshness return value if
-         * a) s-maxage specified
-         * b) max-age specified
-         * c) expired specified
-         * otherwise return {@code null}</p>
-         *
-         * @see <a href="https://tools.ietf.org/html/rfc7234">RFC 7234</a>
-         *
-         * @param response
-         * @param createdAt
-         * @return freshnessLifetime
+         * Returns whether the weight can be computed without reading from the network.
          */
+        private boolean isDownloaded() {
+            return response_ == null || response_.isContentDownloaded();
+        }
+
         private boolean isStillFresh(final long now) {
-            long freshnessLifetime = 0;
-            if (!HeaderUtils.containsPrivate(response_) && HeaderUtils.containsSMaxage(response_)) {
-                // check s-maxage
-                freshnessLifetime = HeaderUtils.sMaxage(response_);
-            }
-            else if (HeaderUtils.containsMaxAge(response_)) {
-                // check max-age
-                freshnessLifetime = HeaderUtils.maxAge(response_);
+            return Cache.isStillFresh(response_, createdAt_, now);
+        }
+    }
+
+    /**
+     * <p>Check freshness return value if
+     * a) no-cache specified
+     * b) s-maxage specified
+     * c) max-age specified
+     * d) expired specified
+     * otherwise the response is fresh if it was cached because of its <tt>Last-Modified</tt> header.</p>
+     *
+     * @see <a href="https://tools.ietf.org/html/rfc7234">RFC 7234</a>
+     *
+     * @param response the response
+     * @param createdAt the time the response was received
+     * @param now the current time
+     * @return whether the response is still fresh
+     */
+    static boolean isStillFresh(final WebResponse response, final long createdAt, final long now) {
+        if (HeaderUtils.containsNoCache(response)) {
+            return false;
+        }
+
+        long freshnessLifetime = 0;
+        if (!HeaderUtils.containsPrivate(response) && HeaderUtils.containsSMaxage(response)) {
+            // check s-maxage
+            freshnessLifetime = HeaderUtils.sMaxage(response);
+        }
+        else if (HeaderUtils.containsMaxAge(response)) {
+            // check max-age
+            freshnessLifetime = HeaderUtils.maxAge(response);
+        }
+        else if (response.getResponseHeaderValue(HttpHeader.EXPIRES) != null) {
+            final Date expires = parseDateHeader(response, HttpHeader.EXPIRES);
+            if (expires != null) {
+                // use the same logic as in isCacheableContent()
+                return expires.getTime() - now > DELAY;
             }
-            else if (response_.getResponseHeaderValue(HttpHeader.EXPIRES) != null) {
-                final Date expires = parseDateHeader(response_, HttpHeader.EXPIRES);
-                if (expires != null) {
-                    // use the same logic as in isCacheableContent()
-                    return expires.getTime() - now > DELAY;
+        }
+        else {
+            // responses cached only because of their ETag have to be revalidated
+            return response.getResponseHeaderValue(HttpHeader.LAST_MODIFIED) != null;
+        }
+        return now - createdAt < freshnessLifetime * org.apache.commons.lang3.time.DateUtils.MILLIS_PER_SECOND;
+    }
+
+    /**
+     * Returns whether the response can be revalidated with a conditional request,
+     * i.e. whether it has an <tt>ETag</tt> or a <tt>Last-Modified</tt> header.
+     *
+     * @param response the response
+     * @return whether the response can be revalidated
+     */
+    static boolean hasValidator(final WebResponse response) {
+        return response.getResponseHeaderValue(HttpHeader.ETAG) != null
+                || response.getResponseHeaderValue(HttpHeader.LAST_MODIFIED) != null;
+    }
+
+    /**
+     * A cached response whose headers were updated by a revalidation.
+     */
+    private static final class RevalidatedWebResponse extends WebResponseWrapper {
+        private final WebResponse response_;
+        private final List<NameValuePair> headers_;
+
+        RevalidatedWebResponse(final WebResponse response, final List<NameValuePair> headers) {
+            super(response);
+            response_ = response;
+            headers_ = Collections.unmodifiableList(headers);
+        }
+
+        @Override
+        public List<NameValuePair> getResponseHeaders() {
+            return headers_;
+        }
+
+        @Override
+        public String getResponseHeaderValue(final String headerName) {
+            for (final NameValuePair pair : headers_) {
+                if (pair.getName().equalsIgnoreCase(headerName)) {
+                    return pair.getValue();
                 }
             }
-            else {
-                return true;
-            }
-            return now - createdAt_ < freshnessLifetime * org.apache.commons.lang3.time.DateUtils.MILLIS_PER_SECOND;
+            return null;
         }
     }
 
     /**
      * Caches the specified object, if the corresponding request and response objects indicate
-     * that it is cacheable.
+     * that it is cacheable. The object is cached without browser version: it is returned for
+     * every browser version.
      *
      * @param request the request corresponding to the specified compiled script
      * @param response the response corresponding to the specified compiled script
      * @param toCache the object that is to be cached, if possible (may be for instance a compiled script or
      * simply a WebResponse)
      * @return whether the response was cached or not
+     * @see #cacheIfPossible(WebRequest, WebResponse, Object, BrowserVersion)
      */
     public boolean cacheIfPossible(final WebRequest request, final WebResponse response, final Object toCache) {
+        return cacheIfPossible(request, response, toCache, null);
+    }
+
+    /**
+     * Caches the specified object created for the specified browser version, if the corresponding request
+     * and response objects indicate that it is cacheable. If the response was itself taken from the cache,
+     * the object is added to the ones already cached for other browser versions.
+     *
+     * @param request the request corresponding to the specified compiled script
+     * @param response the response corresponding to the specified compiled script
+     * @param toCache the object that is to be cached, if possible (may be for instance a compiled script or
+     * {@code null} to cache only the response); it must not be modified afterwards
+     * @param browserVersion the browser version the object was created for
+     * @return whether the response was cached or not
+     * @see #cacheIfPossible(WebRequest, WebResponse, Object)
+     */
+    public boolean cacheIfPossible(final WebRequest request, final WebResponse response, final Object toCache,
+            final BrowserVersion browserVersion) {
+        if (overridesCacheIfPossible_ && browserVersion != null) {
+            return cacheIfPossible(request, response, toCache);
+        }
         if (isCacheable(request, response)) {
             final URL url = request.getUrl();
             if (url == null) {
                 return false;
             }
 
-            final Entry entry = new Entry(UrlUtils.normalize(url), response, toCache);
-            entries_.put(entry.key_, entry);
-            deleteOverflow();
+            final String key = UrlUtils.normalize(url);
+            if (toCache != null && response instanceof WebResponseFromCache) {
+                final Entry cachedEntry = entries_.get(key);
+                if (cachedEntry != null
+                        && cachedEntry.response_ == ((WebResponseFromCache) response).getCachedResponse()) {
+                    put(cachedEntry.withValue(browserVersion, toCache));
+                    return true;
+                }
+            }
+            put(new Entry(key, response, browserVersion, toCache));
             return true;
         }
 
@@ -183,28 +346,223 @@ public class Cache implements Serializable {
      * responses requires checking dynamically (see {@link #isCacheableContent(WebResponse)}), and headers often
      * aren't set up correctly, disallowing caching when in fact it should be allowed.
      *
+     * <p>The style sheet is cached without browser version: it is returned for every browser version.</p>
+     *
      * @param css the CSS snippet from which <tt>styleSheet</tt> is derived
      * @param styleSheet the parsed version of <tt>css</tt>
+     * @see #cache(String, CSSStyleSheetImpl, BrowserVersion)
      */
     public void cache(final String css, final CSSStyleSheetImpl styleSheet) {
-        final Entry entry = new Entry(css, null, styleSheet);
-        entries_.put(entry.key_, entry);
-        deleteOverflow();
+        cache(css, styleSheet, null);
     }
 
     /**
-     * Truncates the cache to the maximal number of entries.
+     * Caches the parsed version of the specified CSS snippet for the specified browser version.
+     *
+     * @param css the CSS snippet from which <tt>styleSheet</tt> is derived
+     * @param styleSheet the parsed version of <tt>css</tt>, it must not be modified afterwards
+     * @param browserVersion the browser version the style sheet was parsed for
+     * @see #cache(String, CSSStyleSheetImpl)
      */
-    protected void deleteOverflow() {
-        synchronized (entries_) {
-            while (entries_.size() > maxSize_) {
-                final Entry oldestEntry = Collections.min(entries_.values());
-                entries_.remove(oldestEntry.key_);
-                if (oldestEntry.response_ != null) {
-                    oldestEntry.response_.cleanUp();
+    public void cache(final String css, final CSSStyleSheetImpl styleSheet, final BrowserVersion browserVersion) {
+        if (overridesCache_ && browserVersion != null) {
+            cache(css, styleSheet);
+            return;
+        }
+        final Entry cachedEntry = entries_.get(css);
+        if (cachedEntry == null) {
+            put(new Entry(css, null, browserVersion, styleSheet));
+        }
+        else {
+            put(cachedEntry.withValue(browserVersion, styleSheet));
+        }
+    }
+
+    /**
+     * Caches the specified response, received at the specified time, without checking if it is cacheable.
+     * This allows subclasses to restore responses cached earlier.
+     *
+     * @param request the request corresponding to the specified response
+     * @param response the response
+     * @param createdAt the time the response was received
+     */
+    protected void cacheResponse(final WebRequest request, final WebResponse response, final long createdAt) {
+        final URL url = request.getUrl();
+        if (url == null) {
+            return;
+        }
+
+        put(new Entry(UrlUtils.normalize(url), response, Collections.<BrowserVersion, Object>emptyMap(),
+                createdAt));
+    }
+
+    /**
+     * Adds the entry as the most recently used one, replacing the entry with the same key if any,
+     * and evicts the least recently used entries if the cache is too large.
+     */
+    private void put(final Entry entry) {
+        // the content length is only determined when needed, it requires the content to be downloaded
+        final boolean weigh = maxSizeInBytes_ != Long.MAX_VALUE;
+        final boolean deferWeight = weigh && !entry.isDownloaded();
+        final long weight = weigh && !deferWeight ? entry.computeWeight() : 0;
+        final List<Entry> evicted;
+        lock_.lock();
+        try {
+            final Entry previous = entries_.put(entry.key_, entry);
+            if (previous != null) {
+                unlink(previous);
+            }
+            entry.weight_ = weight;
+            linkLast(entry);
+            evicted = evict();
+        }
+        finally {
+            lock_.unlock();
+        }
+        cleanUp(evicted);
+        if (deferWeight) {
+            deferWeight(entry);
+        }
+    }
+
+    /**
+     * Weighs the entry once its streamed content is completely read by its consumer (e.g. the parser),
+     * instead of reading it from the network here.
+     */
+    private void deferWeight(final Entry entry) {
+        entry.response_.whenContentDownloaded(() -> {
+            final long weight = entry.computeWeight();
+            final List<Entry> evicted;
+            lock_.lock();
+            try {
+                if (entries_.get(entry.key_) != entry || maxSizeInBytes_ == Long.MAX_VALUE) {
+                    return;
                 }
+                sizeInBytes_ += weight - entry.weight_;
+                entry.weight_ = weight;
+                evicted = evict();
+            }
+            finally {
+                lock_.unlock();
+            }
+            cleanUp(evicted);
+        });
+    }
+
+    /**
+     * Truncates the cache to the maximal number of entries and the maximal size in bytes.
+     */
+    protected void deleteOverflow() {
+        final List<Entry> evicted;
+        lock_.lock();
+        try {
+            evicted = evict();
+        }
+        finally {
+            lock_.unlock();
+        }
+        cleanUp(evicted);
+    }
+
+    /**
+     * Removes the least recently used entries as long as the cache is too large; requires the lock.
+     */
+    private List<Entry> evict() {
+        List<Entry> evicted = Collections.emptyList();
+        while (head_ != null && (entries_.size() > maxSize_ || sizeInBytes_ > maxSizeInBytes_)) {
+            final Entry oldestEntry = head_;
+            entries_.remove(oldestEntry.key_, oldestEntry);
+            unlink(oldestEntry);
+            if (evicted.isEmpty()) {
+                evicted = new ArrayList<>();
+            }
+            evicted.add(oldestEntry);
+            evictionCount_.increment();
+        }
+        return evicted;
+    }
+
+    private static void cleanUp(final List<Entry> entries) {
+        for (final Entry entry : entries) {
+            if (entry.response_ != null) {
+                entry.response_.cleanUp();
+            }
+        }
+    }
+
+    /**
+     * Appends the entry to the recency list; requires the lock.
+     */
+    private void linkLast(final Entry entry) {
+        entry.previous_ = tail_;
+        entry.next_ = null;
+        if (tail_ == null) {
+            head_ = entry;
+        }
+        else {
+            tail_.next_ = entry;
+        }
+        tail_ = entry;
+        sizeInBytes_ += entry.weight_;
+    }
+
+    /**
+     * Removes the entry from the recency list; requires the lock.
+     */
+    private void unlink(final Entry entry) {
+        if (entry.previous_ == null && head_ != entry) {
+            // already unlinked
+            return;
+        }
+        if (entry.previous_ == null) {
+            head_ = entry.next_;
+        }
+        else {
+            entry.previous_.next_ = entry.next_;
+        }
+        if (entry.next_ == null) {
+            tail_ = entry.previous_;
+        }
+        else {
+            entry.next_.previous_ = entry.previous_;
+        }
+        entry.previous_ = null;
+        entry.next_ = null;
+        sizeInBytes_ -= entry.weight_;
+    }
+
+    /**
+     * Marks the entry as the most recently used one. This is skipped if another thread holds
+     * the lock, lookups never wait for each other.
+     */
+    private void touch(final Entry entry) {
+        if (tail_ == entry || !lock_.tryLock()) {
+            return;
+        }
+        try {
+            if (entries_.get(entry.key_) == entry) {
+                unlink(entry);
+                linkLast(entry);
             }
         }
+        finally {
+            lock_.unlock();
+        }
+    }
+
+    /**
+     * Removes the entry with the specified key, if it is the specified one.
+     */
+    private void removeEntry(final String key, final Entry entry) {
+        lock_.lock();
+        try {
+            if (entries_.remove(key, entry)) {
+                unlink(entry);
+            }
+        }
+        finally {
+            lock_.unlock();
+        }
     }
 
     /**
@@ -229,8 +587,9 @@ public class Cache implements Serializable {
      * <tt>Last-Modified</tt> time) to estimate a plausible expiration time".</p>
      *
      * <p>The current implementation considers as dynamic content everything except responses with a
-     * <tt>Last-Modified</tt> header with a date older than 10 minutes or with an <tt>Expires</tt> header
-     * specifying expiration in more than 10 minutes.</p>
+     * positive <tt>max-age</tt> or <tt>s-maxage</tt> directive, with a <tt>Last-Modified</tt> header with
+     * a date older than 10 minutes, with an <tt>Expires</tt> header specifying expiration in more than
+     * 10 minutes, or with an <tt>ETag</tt> header (allowing to revalidate the response once stale).</p>
      *
      * @see <a href="https://tools.ietf.org/html/rfc7234">RFC 7234</a>
      * @see <a href="http://www.w3.org/Protocols/rfc2616/rfc2616-sec13.html">RFC 2616</a>
@@ -248,14 +607,20 @@ public class Cache implements Serializable {
         // If there is a Cache-Control header with the max-age or s-maxage directive
         // in the response, the Expires header is ignored.
         Date expires = null;
-        if (!HeaderUtils.containsMaxAgeOrSMaxage(response)) {
+        if (HeaderUtils.containsMaxAgeOrSMaxage(response)) {
+            if (HeaderUtils.maxAge(response) > 0 || HeaderUtils.sMaxage(response) > 0) {
+                return true;
+            }
+        }
+        else {
             expires = parseDateHeader(response, HttpHeader.EXPIRES);
         }
 
         final long now = getCurrentTimestamp();
 
         return expires != null && (expires.getTime() - now > DELAY)
-                || (expires == null && lastModified != null && now - lastModified.getTime() > DELAY);
+                || (expires == null && lastModified != null && now - lastModified.getTime() > DELAY)
+                || response.getResponseHeaderValue(HttpHeader.ETAG) != null;
     }
 
     /**
@@ -309,20 +674,156 @@ public class Cache implements Serializable {
      * no corresponding cached object, this method returns {@code null}.
      *
      * <p>Calculates and check if object still fresh(RFC 7234) otherwise returns {@code null}.</p>
-     * @see <a href="https://tools.ietf.org/html/rfc7234">RFC 7234</a>
+     *
+     * <p>HtmlUnit caches the objects per browser version; this returns the object cached without
+     * browser version or, if there is none, the one cached for any browser version.</p>
      *
      * @param request the request whose corresponding cached compiled script is sought
      * @return the cached object corresponding to the specified request if any
+     * @see <a href="https://tools.ietf.org/html/rfc7234">RFC 7234</a>
+     * @see #getCachedObject(WebRequest, BrowserVersion)
      */
     public Object getCachedObject(final WebRequest request) {
         final Entry cachedEntry = getCacheEntry(request);
         if (cachedEntry == null) {
             return null;
         }
-        return cachedEntry.value_;
+        return cachedEntry.getAnyValue();
+    }
+
+    /**
+     * Returns the object cached for the specified request and browser version, or else the one
+     * cached without browser version. If there is no corresponding cached object, this method
+     * returns {@code null}.
+     *
+     * @param request the request whose corresponding cached compiled script is sought
+     * @param browserVersion the browser version the object was created for
+     * @return the cached object corresponding to the specified request if any
+     */
+    public Object getCachedObject(final WebRequest request, final BrowserVersion browserVersion) {
+        if (overridesGetCachedObject_) {
+            return getCachedObject(request);
+        }
+        final Entry cachedEntry = getCacheEntry(request);
+        if (cachedEntry == null) {
+            return null;
+        }
+        return cachedEntry.getValue(browserVersion);
+    }
+
+    /**
+     * Returns the cached response corresponding to the specified request, if it is no longer fresh
+     * but can be revalidated with a conditional request. If there is no such response,
+     * this method returns {@code null}.
+     *
+     * @see <a href="https://tools.ietf.org/html/rfc7232">RFC 7232</a>
+     *
+     * @param request the request whose corresponding response is sought
+     * @return the cached response to revalidate if any
+     */
+    public WebResponse getResponseToRevalidate(final WebRequest request) {
+        final Entry cachedEntry = getEntry(request);
+        if (cachedEntry == null || cachedEntry.response_ == null
+                || cachedEntry.isStillFresh(getCurrentTimestamp())) {
+            return null;
+        }
+        return cachedEntry.response_;
+    }
+
+    /**
+     * Updates the cached response corresponding to the specified request after the server
+     * confirmed with a <tt>304 Not Modified</tt> response that it is still valid.
+     * The headers of the <tt>304</tt> response replace the stored ones and the response is fresh again.
+     *
+     * @param request the conditional request
+     * @param notModifiedResponse the <tt>304 Not Modified</tt> response
+     * @return the updated cached response, or {@code null} if there is no cached response anymore
+     */
+    public WebResponse revalidated(final WebRequest request, final WebResponse notModifiedResponse) {
+        final Entry cachedEntry = getEntry(request);
+        if (cachedEntry == null || cachedEntry.response_ == null) {
+            return null;
+        }
+
+        WebResponse response = cachedEntry.response_;
+        if (response instanceof RevalidatedWebResponse) {
+            response = ((RevalidatedWebResponse) response).response_;
+        }
+        final List<NameValuePair> headers = mergeHeaders(cachedEntry.response_.getResponseHeaders(),
+                notModifiedResponse.getResponseHeaders());
+
+        // the content is unchanged, so is the cached object
+        final Entry entry = new Entry(cachedEntry.key_, new RevalidatedWebResponse(response, headers),
+                cachedEntry.values_, getCurrentTimestamp());
+        put(entry);
+        return entry.response_;
+    }
+
+    /**
+     * Returns the stored headers updated with the ones of a <tt>304 Not Modified</tt> response.
+     *
+     * @param storedHeaders the headers of the cached response
+     * @param newHeaders the headers of the <tt>304 Not Modified</tt> response
+     * @return the updated headers
+     */
+    static List<NameValuePair> mergeHeaders(final List<NameValuePair> storedHeaders,
+            final List<NameValuePair> newHeaders) {
+        final List<NameValuePair> headers = new ArrayList<>();
+        for (final NameValuePair header : storedHeaders) {
+            if (!isUpdated(header.getName(), newHeaders)) {
+                headers.add(header);
+            }
+        }
+        for (final NameValuePair header : newHeaders) {
+            if (isUpdated(header.getName(), newHeaders)) {
+                headers.add(header);
+            }
+        }
+        return headers;
+    }
+
+    private static boolean isUpdated(final String name, final List<NameValuePair> newHeaders) {
+        // the headers describing the content of the 304 response itself are not taken
+        if (HttpHeader.CONTENT_LENGTH.equalsIgnoreCase(name)
+                || "Content-Encoding".equalsIgnoreCase(name)
+                || "Transfer-Encoding".equalsIgnoreCase(name)) {
+            return false;
+        }
+        for (final NameValuePair header : newHeaders) {
+            if (header.getName().equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether there is a cached response for the specified request, even if it is no longer fresh.
+     *
+     * @param request the request
+     * @return whether there is a cached response for the request
+     */
+    public boolean isCached(final WebRequest request) {
+        final Entry cachedEntry = getEntry(request);
+        return cachedEntry != null && cachedEntry.response_ != null;
     }
 
     private Entry getCacheEntry(final WebRequest request) {
+        final Entry cachedEntry = getEntry(request);
+        if (cachedEntry == null || !cachedEntry.isStillFresh(getCurrentTimestamp())) {
+            missCount_.increment();
+            return null;
+        }
+        hitCount_.increment();
+        touch(cachedEntry);
+        return cachedEntry;
+    }
+
+    /**
+     * Returns the entry for the specified request, even if no longer fresh; the entries
+     * no longer fresh are removed, unless they can be revalidated.
+     */
+    private Entry getEntry(final WebRequest request) {
         if (HttpMethod.GET != request.getHttpMethod()) {
             return null;
         }
@@ -338,32 +839,73 @@ public class Cache implements Serializable {
             return null;
         }
 
-        if (cachedEntry.isStillFresh(getCurrentTimestamp())) {
-            synchronized (entries_) {
-                cachedEntry.touch();
-            }
-            return cachedEntry;
+        if (cachedEntry.response_ != null && !cachedEntry.isStillFresh(getCurrentTimestamp())
+                && !hasValidator(cachedEntry.response_)) {
+            removeEntry(normalizedUrl, cachedEntry);
+            return null;
+        }
+        return cachedEntry;
+    }
+
+    /**
+     * Removes the cached response corresponding to the specified request.
+     *
+     * @param request the request whose corresponding response is to be removed
+     */
+    public void remove(final WebRequest request) {
+        final URL url = request.getUrl();
+        if (url == null) {
+            return;
+        }
+
+        final String normalizedUrl = UrlUtils.normalize(url);
+        final Entry cachedEntry = entries_.get(normalizedUrl);
+        if (cachedEntry != null) {
+            removeEntry(normalizedUrl, cachedEntry);
         }
-        entries_.remove(UrlUtils.normalize(url));
-        return null;
     }
 
     /**
      * Returns the cached parsed version of the specified CSS snippet. If there is no
      * corresponding cached stylesheet, this method returns {@code null}.
      *
+     * <p>HtmlUnit caches the style sheets per browser version; this returns the style sheet cached
+     * without browser version or, if there is none, the one cached for any browser version.</p>
+     *
      * @param css the CSS snippet whose cached stylesheet is sought
      * @return the cached stylesheet corresponding to the specified CSS snippet
+     * @see #getCachedStyleSheet(String, BrowserVersion)
      */
     public CSSStyleSheetImpl getCachedStyleSheet(final String css) {
         final Entry cachedEntry = entries_.get(css);
-        if (cachedEntry == null) {
-            return null;
+        return countStyleSheetLookup(cachedEntry, cachedEntry == null ? null : cachedEntry.getAnyValue());
+    }
+
+    /**
+     * Returns the parsed version of the specified CSS snippet cached for the specified browser version,
+     * or else the one cached without browser version. If there is no corresponding cached stylesheet,
+     * this method returns {@code null}.
+     *
+     * @param css the CSS snippet whose cached stylesheet is sought
+     * @param browserVersion the browser version the style sheet was parsed for
+     * @return the cached stylesheet corresponding to the specified CSS snippet
+     */
+    public CSSStyleSheetImpl getCachedStyleSheet(final String css, final BrowserVersion browserVersion) {
+        if (overridesGetCachedStyleSheet_) {
+            return getCachedStyleSheet(css);
         }
-        synchronized (entries_) {
-            cachedEntry.touch();
+        final Entry cachedEntry = entries_.get(css);
+        return countStyleSheetLookup(cachedEntry, cachedEntry == null ? null : cachedEntry.getValue(browserVersion));
+    }
+
+    private CSSStyleSheetImpl countStyleSheetLookup(final Entry cachedEntry, final Object styleSheet) {
+        if (styleSheet == null) {
+            missCount_.increment();
+            return null;
         }
-        return (CSSStyleSheetImpl) cachedEntry.value_;
+        hitCount_.increment();
+        touch(cachedEntry);
+        return (CSSStyleSheetImpl) styleSheet;
     }
 
     /**
@@ -390,6 +932,57 @@ public class Cache implements Serializable {
         deleteOverflow();
     }
 
+    /**
+     * Returns the maximum size in bytes of the cached content; unlimited by default.
+     *
+     * @return the maximum size in bytes of the cached content
+     */
+    public long getMaxSizeInBytes() {
+        return maxSizeInBytes_;
+    }
+
+    /**
+     * Sets the maximum size in bytes of the cached content, the length of the cached responses
+     * and of the cached CSS snippets. Use {@link Long#MAX_VALUE} for no limit.
+     *
+     * <p>Note that determining the length of a response requires its content to be completely
+     * downloaded, therefore the length is only determined if there is a limit, and the length of
+     * a response streamed while it is parsed only once it is completely read.</p>
+     *
+     * @param maxSizeInBytes the maximum size in bytes (must be &gt;= 0)
+     */
+    public void setMaxSizeInBytes(final long maxSizeInBytes) {
+        if (maxSizeInBytes < 0) {
+            throw new IllegalArgumentException("Illegal value for maxSizeInBytes: " + maxSizeInBytes);
+        }
+        final List<Entry> evicted;
+        final List<Entry> deferred = new ArrayList<>();
+        lock_.lock();
+        try {
+            final boolean wasUnlimited = maxSizeInBytes_ == Long.MAX_VALUE;
+            maxSizeInBytes_ = maxSizeInBytes;
+            if (wasUnlimited && maxSizeInBytes != Long.MAX_VALUE) {
+                for (Entry entry = head_; entry != null; entry = entry.next_) {
+                    if (entry.isDownloaded()) {
+                        entry.weight_ = entry.computeWeight();
+                        sizeInBytes_ += entry.weight_;
+                    }
+                    else {
+                        deferred.add(entry);
+                    }
+                }
+            }
+            evicted = evict();
+        }
+        finally {
+            lock_.unlock();
+        }
+        cleanUp(evicted);
+        for (final Entry entry : deferred) {
+            deferWeight(entry);
+        }
+    }
+
     /**
      * Returns the number of entries in the cache.
      *
@@ -399,35 +992,100 @@ public class Cache implements Serializable {
         return entries_.size();
     }
 
+    /**
+     * Returns the size in bytes of the cached content. This is only determined
+     * if a maximum size in bytes is set.
+     *
+     * @return the size in bytes of the cached content
+     * @see #setMaxSizeInBytes(long)
+     */
+    public long getSizeInBytes() {
+        lock_.lock();
+        try {
+            return sizeInBytes_;
+        }
+        finally {
+            lock_.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of lookups of responses, compiled scripts and style sheets
+     * which found a fresh entry.
+     *
+     * @return the number of cache hits
+     */
+    public long getHitCount() {
+        return hitCount_.sum();
+    }
+
+    /**
+     * Returns the number of lookups of responses, compiled scripts and style sheets
+     * which found no fresh entry.
+     *
+     * @return the number of cache misses
+     */
+    public long getMissCount() {
+        return missCount_.sum();
+    }
+
+    /**
+     * Returns the number of entries evicted because the cache was too large.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictionCount() {
+        return evictionCount_.sum();
+    }
+
     /**
      * Clears the cache.
      */
     public void clear() {
-        synchronized (entries_) {
-            for (final Entry entry : entries_.values()) {
-                if (entry.response_ != null) {
-                    entry.response_.cleanUp();
-                }
-            }
+        final List<Entry> removed;
+        lock_.lock();
+        try {
+            removed = new ArrayList<>(entries_.values());
             entries_.clear();
+            head_ = null;
+            tail_ = null;
+            sizeInBytes_ = 0;
+        }
+        finally {
+            lock_.unlock();
         }
+        cleanUp(removed);
     }
 
     /**
      * Removes outdated entries from the cache.
      */
     public void clearOutdated() {
-        synchronized (entries_) {
+        lock_.lock();
+        try {
             final long now = getCurrentTimestamp();
 
-            final Iterator<Map.Entry<String, Entry>> iter = entries_.entrySet().iterator();
-            while (iter.hasNext()) {
-                final Map.Entry<String, Entry> entry = iter.next();
-                if (entry.getValue().response_ == null
-                        || !entry.getValue().isStillFresh(now)) {
-                    iter.remove();
+            Entry entry = head_;
+            while (entry != null) {
+                final Entry next = entry.next_;
+                if (entry.response_ == null || !entry.isStillFresh(now)) {
+                    entries_.remove(entry.key_, entry);
+                    unlink(entry);
                 }
+                entry = next;
             }
         }
+        finally {
+            lock_.unlock();
+        }
+    }
+
+    private void readObject(final ObjectInputStream stream) throws IOException, ClassNotFoundException {
+        stream.defaultReadObject();
+        // the recency order is not serialized
+        sizeInBytes_ = 0;
+        for (final Entry entry : entries_.values()) {
+            linkLast(entry);
+        }
     }
 }
@@ -0,0 +1,350 @@
+/*
+ * Copyright (c) 2002-2019 Gargoyle Software Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gargoylesoftware.htmlunit;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpStatus;
+
+import com.gargoylesoftware.htmlunit.util.NameValuePair;
+import com.gargoylesoftware.htmlunit.util.UrlUtils;
+
+/**
+ * A {@link Cache} additionally storing the cacheable responses in a directory, where they are found again
+ * by other instances, e.g. after a restart of the JVM.
+ *
+ * <p>Responses no longer fresh are kept as long as they have an <tt>ETag</tt> or <tt>Last-Modified</tt>
+ * header: the {@link WebClient} revalidates them with a conditional request and reuses them if the
+ * server answers <tt>304 Not Modified</tt>.</p>
+ *
+ * <p>Only the responses are stored; the compiled scripts and parsed style sheets are cached in memory
+ * only. The content is stored decoded, without its <tt>Content-Encoding</tt>, and the <tt>Set-Cookie</tt>
+ * headers are not stored. The stored responses survive {@link #clear()}, they are deleted using
+ * {@link #deleteStoredResponses()}. A response streamed while it is parsed is stored once it is
+ * completely read, and not at all if reading it fails.</p>
+ *
+ * @author Ronald Brill
+ */
+public class DiskCache extends Cache {
+
+    private static final Log LOG = LogFactory.getLog(DiskCache.class);
+
+    /** The version of the format of the stored headers. */
+    private static final int FORMAT_VERSION = 1;
+    private static final String HEADERS_SUFFIX = ".headers";
+    private static final String BODY_SUFFIX = ".body";
+
+    private final File directory_;
+
+    /**
+     * Creates a new instance storing the responses in the specified directory.
+     * @param directory the directory, created if needed
+     * @throws IOException if the directory can't be created
+     */
+    public DiskCache(final File directory) throws IOException {
+        FileUtils.forceMkdir(directory);
+        directory_ = directory;
+    }
+
+    /**
+     * Returns the directory where the responses are stored.
+     * @return the directory
+     */
+    public File getDirectory() {
+        return directory_;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean cacheIfPossible(final WebRequest request, final WebResponse response, final Object toCache,
+            final BrowserVersion browserVersion) {
+        if (!super.cacheIfPossible(request, response, toCache, browserVersion)) {
+            return false;
+        }
+        if (response.getStatusCode() == HttpStatus.SC_OK && !(response instanceof WebResponseFromCache)) {
+            final URL url = request.getUrl();
+            final long createdAt = getCurrentTimestamp();
+            // a response streamed while it is parsed is stored once the parser has read it
+            response.whenContentDownloaded(() -> store(url, response, createdAt));
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public WebResponse getCachedResponse(final WebRequest request) {
+        final WebResponse response = super.getCachedResponse(request);
+        if (response != null || isCached(request) || !load(request)) {
+            return response;
+        }
+        return super.getCachedResponse(request);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public WebResponse getResponseToRevalidate(final WebRequest request) {
+        final WebResponse response = super.getResponseToRevalidate(request);
+        if (response != null || isCached(request) || !load(request)) {
+            return response;
+        }
+        return super.getResponseToRevalidate(request);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public WebResponse revalidated(final WebRequest request, final WebResponse notModifiedResponse) {
+        final WebResponse response = super.revalidated(request, notModifiedResponse);
+        if (response != null) {
+            final File headersFile = getFile(request.getUrl(), HEADERS_SUFFIX);
+            if (headersFile.exists()) {
+                try {
+                    writeHeaders(request.getUrl(), response, getCurrentTimestamp());
+                }
+                catch (final IOException e) {
+                    LOG.warn("Failed to store the revalidated response of " + request.getUrl(), e);
+                }
+            }
+        }
+        return response;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove(final WebRequest request) {
+        super.remove(request);
+        if (request.getUrl() != null) {
+            delete(request.getUrl());
+        }
+    }
+
+    /**
+     * Deletes the stored responses; the ones in memory are removed using {@link #clear()}.
+     * As {@link WebClient#close()} clears the cache, the stored responses are intentionally
+     * not deleted by {@link #clear()}.
+     */
+    public void deleteStoredResponses() {
+        final File[] files = directory_.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                if (file.getName().endsWith(HEADERS_SUFFIX) || file.getName().endsWith(BODY_SUFFIX)) {
+                    FileUtils.deleteQuietly(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes outdated entries from the cache, including the stored responses no longer
+     * fresh that can't be revalidated.
+     */
+    @Override
+    public void clearOutdated() {
+        super.clearOutdated();
+
+        final File[] files = directory_.listFiles((dir, name) -> name.endsWith(HEADERS_SUFFIX));
+        if (files == null) {
+            return;
+        }
+        final long now = getCurrentTimestamp();
+        for (final File file : files) {
+            final StoredResponse stored = readHeaders(file);
+            if (stored == null
+                    || !isStillFresh(stored.response_, stored.createdAt_, now) && !hasValidator(stored.response_)) {
+                delete(file);
+            }
+        }
+    }
+
+    /**
+     * Stores the response in the directory; the content is written first, then the headers.
+     */
+    private void store(final URL url, final WebResponse response, final long createdAt) {
+        final File bodyFile = getFile(url, BODY_SUFFIX);
+        try {
+            final File tmp = File.createTempFile("htmlunit", BODY_SUFFIX, directory_);
+            try (InputStream in = response.getContentAsStream();
+                    OutputStream out = Files.newOutputStream(tmp.toPath())) {
+                IOUtils.copy(in, out);
+            }
+            catch (final IOException e) {
+                FileUtils.deleteQuietly(tmp);
+                throw e;
+            }
+            Files.move(tmp.toPath(), bodyFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            writeHeaders(url, response, createdAt);
+        }
+        catch (final IOException e) {
+            LOG.warn("Failed to store the response of " + url, e);
+            delete(url);
+        }
+    }
+
+    private void writeHeaders(final URL url, final WebResponse response, final long createdAt) throws IOException {
+        final File tmp = File.createTempFile("htmlunit", HEADERS_SUFFIX, directory_);
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(tmp.toPath()))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(UrlUtils.normalize(url));
+            out.writeLong(createdAt);
+            out.writeInt(response.getStatusCode());
+            out.writeUTF(response.getStatusMessage());
+
+            final List<NameValuePair> headers = new ArrayList<>();
+            for (final NameValuePair header : response.getResponseHeaders()) {
+                // the content is stored decoded, the cookies belong to the session that received them
+                if (!HttpHeader.CONTENT_LENGTH.equalsIgnoreCase(header.getName())
+                        && !"Content-Encoding".equalsIgnoreCase(header.getName())
+                        && !"Transfer-Encoding".equalsIgnoreCase(header.getName())
+                        && !"Set-Cookie".equalsIgnoreCase(header.getName())
+                        && !"Set-Cookie2".equalsIgnoreCase(header.getName())) {
+                    headers.add(header);
+                }
+            }
+            out.writeInt(headers.size());
+            for (final NameValuePair header : headers) {
+                out.writeUTF(header.getName());
+                out.writeUTF(header.getValue());
+            }
+        }
+        catch (final IOException e) {
+            FileUtils.deleteQuietly(tmp);
+            throw e;
+        }
+        Files.move(tmp.toPath(), getFile(url, HEADERS_SUFFIX).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads the stored response for the request into the memory.
+     * @return whether a response was found
+     */
+    private boolean load(final WebRequest request) {
+        final URL url = request.getUrl();
+        if (HttpMethod.GET != request.getHttpMethod() || url == null) {
+            return false;
+        }
+
+        final File headersFile = getFile(url, HEADERS_SUFFIX);
+        final File bodyFile = getFile(url, BODY_SUFFIX);
+        if (!headersFile.exists() || !bodyFile.exists()) {
+            return false;
+        }
+
+        final StoredResponse stored = readHeaders(headersFile);
+        if (stored == null || !stored.url_.equals(UrlUtils.normalize(url))) {
+            return false;
+        }
+
+        final DownloadedContent content;
+        if (bodyFile.length() == 0) {
+            content = new DownloadedContent.InMemory(null);
+        }
+        else {
+            content = new DownloadedContent.OnFile(bodyFile, false);
+        }
+        final WebResponseData data = new WebResponseData(content, stored.statusCode_, stored.statusMessage_,
+                stored.headers_);
+        final WebResponse response = new WebResponse(data, new WebRequest(url, HttpMethod.GET), 0);
+        cacheResponse(request, response, stored.createdAt_);
+        return true;
+    }
+
+    /**
+     * Reads the stored headers; returns {@code null} if the file can't be read.
+     */
+    private static StoredResponse readHeaders(final File file) {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file.toPath()))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            final String url = in.readUTF();
+            final long createdAt = in.readLong();
+            final int statusCode = in.readInt();
+            final String statusMessage = in.readUTF();
+            final int count = in.readInt();
+            final List<NameValuePair> headers = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                headers.add(new NameValuePair(in.readUTF(), in.readUTF()));
+            }
+            return new StoredResponse(url, createdAt, statusCode, statusMessage, headers);
+        }
+        catch (final IOException e) {
+            LOG.warn("Failed to read the stored response " + file, e);
+            return null;
+        }
+    }
+
+    private void delete(final URL url) {
+        delete(getFile(url, HEADERS_SUFFIX));
+    }
+
+    private static void delete(final File headersFile) {
+        final String path = headersFile.getPath();
+        FileUtils.deleteQuietly(headersFile);
+        FileUtils.deleteQuietly(new File(path.substring(0, path.length() - HEADERS_SUFFIX.length()) + BODY_SUFFIX));
+    }
+
+    private File getFile(final URL url, final String suffix) {
+        return new File(directory_, DigestUtils.sha1Hex(UrlUtils.normalize(url)) + suffix);
+    }
+
+    /**
+     * The stored information of a response.
+     */
+    private static final class StoredResponse {
+        private final String url_;
+        private final long createdAt_;
+        private final int statusCode_;
+        private final String statusMessage_;
+        private final List<NameValuePair> headers_;
+        private final WebResponse response_;
+
+        StoredResponse(final String url, final long createdAt, final int statusCode, final String statusMessage,
+                final List<NameValuePair> headers) {
+            url_ = url;
+            createdAt_ = createdAt;
+            statusCode_ = statusCode;
+            statusMessage_ = statusMessage;
+            headers_ = headers;
+            response_ = new WebResponse(new WebResponseData(null, statusCode, statusMessage, headers), null, 0);
+        }
+    }
+}
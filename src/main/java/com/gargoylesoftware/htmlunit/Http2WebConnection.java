@@ -0,0 +1,404 @@
+/*
+ * Copyright (c) 2002-2019 Gargoyle Software Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gargoylesoftware.htmlunit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.Credentials;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.cookie.ClientCookie;
+import org.apache.http.cookie.CookieOrigin;
+import org.apache.http.cookie.CookieSpec;
+import org.apache.http.cookie.CookieSpecProvider;
+import org.apache.http.cookie.MalformedCookieException;
+import org.apache.http.message.BasicHeader;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.HttpProxy;
+import org.eclipse.jetty.client.ProxyConfiguration;
+import org.eclipse.jetty.client.Socks4Proxy;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.util.BytesContentProvider;
+import org.eclipse.jetty.client.util.InputStreamResponseListener;
+import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.http2.client.HTTP2Client;
+import org.eclipse.jetty.http2.client.http.HttpClientTransportOverHTTP2;
+import org.eclipse.jetty.util.HttpCookieStore;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+
+import com.gargoylesoftware.htmlunit.httpclient.HtmlUnitCookieSpecProvider;
+import com.gargoylesoftware.htmlunit.util.Cookie;
+import com.gargoylesoftware.htmlunit.util.MimeType;
+import com.gargoylesoftware.htmlunit.util.NameValuePair;
+import com.gargoylesoftware.htmlunit.util.UrlUtils;
+
+/**
+ * A {@link WebConnection} speaking HTTP/2, based on the HTTP/2 client of Jetty.
+ *
+ * <p>All requests to the same origin are multiplexed as streams of a single connection, and the
+ * headers are compressed with HPACK. URLs with the http scheme use HTTP/2 with prior knowledge (h2c);
+ * for https URLs HTTP/2 is negotiated with ALPN, which requires ALPN support of the JVM.
+ * Servers not supporting HTTP/2 can't be used with this connection, use {@link HttpWebConnection} instead.</p>
+ *
+ * <p>Like {@link HttpWebConnection}, the cookies are handled by the {@link CookieManager} of the
+ * {@link WebClient}, matched, formatted, parsed and validated with the same cookie spec, and the redirects
+ * are followed by the {@link WebClient}. The proxy of the request is used (socks proxies with SOCKS4).</p>
+ *
+ * <p>Only Basic authentication is supported, with the credentials of the request or of the
+ * {@link WebClient#getCredentialsProvider() credentials provider}; servers asking for another scheme
+ * (e.g. Digest or NTLM) or proxies requiring authentication need {@link HttpWebConnection}.</p>
+ *
+ * <pre>
+ * webClient.setWebConnection(new Http2WebConnection(webClient));
+ * </pre>
+ *
+ * <p>The HTTP/2 client of Jetty is an optional dependency of HtmlUnit; to use this connection,
+ * add it to your project, in the Jetty version used by HtmlUnit:</p>
+ * <pre>
+ * &lt;dependency&gt;
+ *     &lt;groupId&gt;org.eclipse.jetty.http2&lt;/groupId&gt;
+ *     &lt;artifactId&gt;http2-http-client-transport&lt;/artifactId&gt;
+ *     &lt;version&gt;...&lt;/version&gt;
+ * &lt;/dependency&gt;
+ * </pre>
+ *
+ * @author Ronald Brill
+ */
+public class Http2WebConnection implements WebConnection {
+
+    private static final Log LOG = LogFactory.getLog(Http2WebConnection.class);
+
+    /** The headers of HTTP/1.1 not allowed in HTTP/2 requests. */
+    private static final Set<String> CONNECTION_HEADERS = new HashSet<>(Arrays.asList(
+            "connection", "host", "keep-alive", "proxy-connection", "te", "transfer-encoding", "upgrade"));
+
+    private final WebClient webClient_;
+    private final CookieSpecProvider cookieSpecProvider_;
+    private final Map<String, HttpClient> httpClients_ = new HashMap<>();
+
+    /**
+     * Creates a new HTTP/2 web connection instance.
+     * @param webClient the WebClient that is using this connection
+     */
+    public Http2WebConnection(final WebClient webClient) {
+        webClient_ = webClient;
+        cookieSpecProvider_ = new HtmlUnitCookieSpecProvider(webClient.getBrowserVersion());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public WebResponse getResponse(final WebRequest webRequest) throws IOException {
+        final URL url = UrlUtils.encodeUrl(webRequest.getUrl(), false, webRequest.getCharset());
+        final HttpClient httpClient = getHttpClient(webRequest);
+
+        final long startTime = System.currentTimeMillis();
+        InputStreamResponseListener listener = send(httpClient, webRequest, url, null);
+        Response response = waitForResponse(listener, url);
+
+        if (response.getStatus() == HttpStatus.UNAUTHORIZED_401
+                && StringUtils.startsWithIgnoreCase(response.getHeaders().get("WWW-Authenticate"), "basic")) {
+            final String authorization = getBasicAuthorization(webRequest, url);
+            if (authorization != null) {
+                listener.getInputStream().close();
+                listener = send(httpClient, webRequest, url, authorization);
+                response = waitForResponse(listener, url);
+            }
+        }
+
+        final List<NameValuePair> headers = new ArrayList<>();
+        for (final HttpField field : response.getHeaders()) {
+            headers.add(new NameValuePair(field.getName(), field.getValue()));
+            if ("set-cookie".equalsIgnoreCase(field.getName())) {
+                addCookie(field.getValue(), url);
+            }
+        }
+
+        final DownloadedContent content = downloadResponseBody(listener.getInputStream(),
+                response.getHeaders().get(HttpHeader.CONTENT_TYPE));
+        final long loadTime = System.currentTimeMillis() - startTime;
+
+        String statusMessage = response.getReason();
+        if (statusMessage == null) {
+            statusMessage = HttpStatus.getMessage(response.getStatus());
+        }
+        final WebResponseData responseData = new WebResponseData(content, response.getStatus(), statusMessage,
+                headers);
+        return new WebResponse(responseData, webRequest, loadTime);
+    }
+
+    private InputStreamResponseListener send(final HttpClient httpClient, final WebRequest webRequest,
+            final URL url, final String authorization) throws IOException {
+        final Charset charset = webRequest.getCharset();
+        final HttpMethod method = webRequest.getHttpMethod();
+
+        URI uri;
+        try {
+            uri = UrlUtils.toURI(url, url.getQuery());
+            if ((method == HttpMethod.GET || method == HttpMethod.HEAD || method == HttpMethod.DELETE
+                    || method == HttpMethod.OPTIONS || method == HttpMethod.TRACE)
+                    && !webRequest.getRequestParameters().isEmpty()) {
+                final org.apache.http.NameValuePair[] httpClientPairs =
+                        NameValuePair.toHttpClient(webRequest.getRequestParameters());
+                uri = UrlUtils.toURI(url, URLEncodedUtils.format(Arrays.asList(httpClientPairs), charset));
+            }
+        }
+        catch (final URISyntaxException e) {
+            throw new IOException("Unable to create URI from URL: " + url.toExternalForm()
+                    + " (reason: " + e.getMessage() + ")", e);
+        }
+
+        final Request request = httpClient.newRequest(uri).method(method.name());
+        final int timeout = webClient_.getOptions().getTimeout();
+        if (timeout > 0) {
+            request.idleTimeout(timeout, TimeUnit.MILLISECONDS);
+        }
+
+        request.header(HttpHeader.USER_AGENT, webClient_.getBrowserVersion().getUserAgent());
+        final Map<String, String> additionalHeaders = webRequest.getAdditionalHeaders();
+        synchronized (additionalHeaders) {
+            for (final Map.Entry<String, String> header : additionalHeaders.entrySet()) {
+                if (!CONNECTION_HEADERS.contains(header.getKey().toLowerCase(Locale.ROOT))) {
+                    request.header(header.getKey(), header.getValue());
+                }
+            }
+        }
+        if (webClient_.getOptions().isDoNotTrackEnabled()) {
+            request.header(HttpHeader.DNT, "1");
+        }
+
+        addCookieHeaders(request, url);
+        if (authorization != null) {
+            request.header("Authorization", authorization);
+        }
+
+        if (method == HttpMethod.POST || method == HttpMethod.PUT || method == HttpMethod.PATCH) {
+            final HttpEntity entity = HttpWebConnection.buildRequestEntity(webRequest, charset);
+            if (entity != null) {
+                final ByteArrayOutputStream body = new ByteArrayOutputStream();
+                entity.writeTo(body);
+                final String contentType = entity.getContentType() == null ? null : entity.getContentType().getValue();
+                request.content(new BytesContentProvider(contentType, body.toByteArray()));
+            }
+        }
+
+        final InputStreamResponseListener listener = new InputStreamResponseListener();
+        request.send(listener);
+        return listener;
+    }
+
+    /**
+     * Adds the cookies matching the url, like the RequestAddCookies interceptor of HttpClient does.
+     */
+    private void addCookieHeaders(final Request request, final URL url) {
+        final CookieManager cookieManager = webClient_.getCookieManager();
+        if (!cookieManager.isCookiesEnabled()) {
+            return;
+        }
+        cookieManager.clearExpired(new Date());
+
+        final CookieSpec cookieSpec = cookieSpecProvider_.create(null);
+        final CookieOrigin origin = cookieManager.buildCookieOrigin(url);
+        final List<org.apache.http.cookie.Cookie> matches = new ArrayList<>();
+        for (final org.apache.http.cookie.Cookie cookie : Cookie.toHttpClient(cookieManager.getCookies())) {
+            if (cookieSpec.match(cookie, origin)) {
+                matches.add(cookie);
+            }
+        }
+        if (!matches.isEmpty()) {
+            for (final Header header : cookieSpec.formatCookies(matches)) {
+                request.header(header.getName(), header.getValue());
+            }
+        }
+    }
+
+    /**
+     * Stores the cookie of a <tt>Set-Cookie</tt> header if it is valid for the url,
+     * like the ResponseProcessCookies interceptor of HttpClient does.
+     */
+    private void addCookie(final String setCookie, final URL url) {
+        final CookieManager cookieManager = webClient_.getCookieManager();
+        if (!cookieManager.isCookiesEnabled()) {
+            return;
+        }
+
+        final CookieSpec cookieSpec = cookieSpecProvider_.create(null);
+        final CookieOrigin origin = cookieManager.buildCookieOrigin(url);
+        try {
+            for (final org.apache.http.cookie.Cookie cookie
+                    : cookieSpec.parse(new BasicHeader("Set-Cookie", setCookie), origin)) {
+                try {
+                    cookieSpec.validate(cookie, origin);
+                    cookieManager.addCookie(new Cookie((ClientCookie) cookie));
+                }
+                catch (final MalformedCookieException e) {
+                    LOG.warn("Cookie rejected: '" + setCookie + "'. " + e.getMessage());
+                }
+            }
+        }
+        catch (final MalformedCookieException e) {
+            LOG.warn("Invalid cookie header: '" + setCookie + "'. " + e.getMessage());
+        }
+    }
+
+    private Response waitForResponse(final InputStreamResponseListener listener, final URL url) throws IOException {
+        final int timeout = webClient_.getOptions().getTimeout();
+        try {
+            return listener.get(timeout > 0 ? timeout : Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the response of " + url);
+        }
+        catch (final TimeoutException e) {
+            throw new SocketTimeoutException("No response from " + url + " within " + timeout + "ms");
+        }
+        catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Request to " + url + " failed", cause);
+        }
+    }
+
+    private DownloadedContent downloadResponseBody(final InputStream is, final String contentType)
+            throws IOException {
+        final WebClientOptions options = webClient_.getOptions();
+        if (options.isStreamHtmlResponses() && StringUtils.startsWithIgnoreCase(contentType, MimeType.TEXT_HTML)) {
+            return new StreamingDownloadedContent(is, options.getMaxInMemory());
+        }
+        try (InputStream content = is) {
+            return HttpWebConnection.downloadContent(content, options.getMaxInMemory());
+        }
+    }
+
+    private String getBasicAuthorization(final WebRequest webRequest, final URL url) {
+        Credentials credentials = webRequest.getCredentials();
+        if (credentials == null) {
+            credentials = webRequest.getUrlCredentials();
+        }
+        if (credentials == null) {
+            credentials = webClient_.getCredentialsProvider().getCredentials(
+                    new AuthScope(url.getHost(), url.getPort()));
+        }
+        if (credentials == null || credentials.getUserPrincipal() == null) {
+            return null;
+        }
+
+        final String userPassword = credentials.getUserPrincipal().getName() + ':'
+                + StringUtils.defaultString(credentials.getPassword());
+        return "Basic " + Base64.getEncoder().encodeToString(userPassword.getBytes(UTF_8));
+    }
+
+    /**
+     * Returns the client for the proxy of the specified request; the clients are created on first use.
+     * @param webRequest the request
+     * @return the client
+     * @throws IOException if the client can't be started
+     */
+    private synchronized HttpClient getHttpClient(final WebRequest webRequest) throws IOException {
+        final String proxyHost = webRequest.getProxyHost();
+        final String key;
+        if (proxyHost == null) {
+            key = "";
+        }
+        else {
+            key = (webRequest.isSocksProxy() ? "socks:" : "http:") + proxyHost + ':' + webRequest.getProxyPort();
+        }
+
+        HttpClient httpClient = httpClients_.get(key);
+        if (httpClient == null) {
+            final WebClientOptions options = webClient_.getOptions();
+            final SslContextFactory sslContextFactory = new SslContextFactory(options.isUseInsecureSSL());
+            httpClient = new HttpClient(new HttpClientTransportOverHTTP2(new HTTP2Client()), sslContextFactory);
+            // redirects, cookies and content encodings are handled by HtmlUnit
+            httpClient.setFollowRedirects(false);
+            httpClient.setCookieStore(new HttpCookieStore.Empty());
+            httpClient.getContentDecoderFactories().clear();
+            httpClient.setUserAgentField(null);
+            if (options.getTimeout() > 0) {
+                httpClient.setConnectTimeout(options.getTimeout());
+            }
+
+            if (proxyHost != null) {
+                final ProxyConfiguration.Proxy proxy;
+                if (webRequest.isSocksProxy()) {
+                    proxy = new Socks4Proxy(proxyHost, webRequest.getProxyPort());
+                }
+                else {
+                    proxy = new HttpProxy(proxyHost, webRequest.getProxyPort());
+                }
+                httpClient.getProxyConfiguration().getProxies().add(proxy);
+            }
+
+            try {
+                httpClient.start();
+            }
+            catch (final Exception e) {
+                throw new IOException("Unable to start the HTTP/2 client", e);
+            }
+            httpClients_.put(key, httpClient);
+        }
+        return httpClient;
+    }
+
+    /**
+     * Stops the clients and closes their connections.
+     */
+    @Override
+    public synchronized void close() {
+        for (final HttpClient httpClient : httpClients_.values()) {
+            try {
+                httpClient.stop();
+            }
+            catch (final Exception e) {
+                LOG.error("Exception while stopping the HTTP/2 client", e);
+            }
+        }
+        httpClients_.clear();
+    }
+}
@@ -38,6 +38,15 @@ public final class HttpHeader {
     /** Last-Modified. */
     public static final String LAST_MODIFIED = "Last-Modified";
 
+    /** ETag. */
+    public static final String ETAG = "ETag";
+
+    /** If-None-Match. */
+    public static final String IF_NONE_MATCH = "If-None-Match";
+
+    /** If-Modified-Since. */
+    public static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+
     /** Expires. */
     public static final String EXPIRES = "Expires";
 
@@ -32,6 +32,8 @@ import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
@@ -101,6 +103,7 @@ import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpProcessor;
 import org.apache.http.protocol.HttpProcessorBuilder;
 import org.apache.http.protocol.RequestContent;
 import org.apache.http.protocol.RequestTargetHost;
@@ -113,6 +116,7 @@ import com.gargoylesoftware.htmlunit.httpclient.HtmlUnitRedirectStrategie;
 import com.gargoylesoftware.htmlunit.httpclient.HtmlUnitSSLConnectionSocketFactory;
 import com.gargoylesoftware.htmlunit.httpclient.SocksConnectionSocketFactory;
 import com.gargoylesoftware.htmlunit.util.KeyDataPair;
+import com.gargoylesoftware.htmlunit.util.MimeType;
 import com.gargoylesoftware.htmlunit.util.NameValuePair;
 import com.gargoylesoftware.htmlunit.util.UrlUtils;
 
@@ -137,7 +141,10 @@ public class HttpWebConnection implements WebConnection {
 
     private static final String HACKED_COOKIE_POLICY = "mine";
 
-    // have one per thread because this is (re)configured for every call (see configureHttpProcessorBuilder)
+    /** The context attribute holding the request specific interceptors when the client is shared. */
+    private static final String REQUEST_INTERCEPTORS = "htmlunit.request-interceptors";
+
+    // have one per thread because this is (re)configured for every call (see makeHttpMethod)
     // do not use a ThreadLocal because this in only accessed form this class
     private final Map<Thread, HttpClientBuilder> httpClientBuilder_ = new WeakHashMap<>();
     private final WebClient webClient_;
@@ -147,12 +154,24 @@ public class HttpWebConnection implements WebConnection {
     private final WebClientOptions usedOptions_;
     private PoolingHttpClientConnectionManager connectionManager_;
 
+    /**
+     * The connection managers replaced after a change of the SSL or proxy settings;
+     * they are shut down once no request uses them anymore.
+     */
+    private final List<PoolingHttpClientConnectionManager> retiredConnectionManagers_ = new ArrayList<>();
+    /** The number of requests being executed per connection manager. */
+    private final Map<PoolingHttpClientConnectionManager, Integer> executingRequests_ = new IdentityHashMap<>();
+
     /** Authentication cache shared among all threads of a web client. */
     private final AuthCache sharedAuthCache_ = new SynchronizedAuthCache();
 
     /** Maintains a separate {@link HttpClientContext} object per HttpWebConnection and thread. */
     private final Map<Thread, HttpClientContext> httpClientContextByThread_ = new WeakHashMap<>();
 
+    /** The client shared by all threads if {@link WebClientOptions#isSharedHttpClient()} is enabled. */
+    private volatile CloseableHttpClient sharedHttpClient_;
+    private HttpClientBuilder sharedHttpClientBuilder_;
+
     /**
      * Creates a new HTTP web connection instance.
      * @param webClient the WebClient that is using this connection
@@ -168,12 +187,22 @@ public class HttpWebConnection implements WebConnection {
      */
     @Override
     public WebResponse getResponse(final WebRequest request) throws IOException {
-        final HttpClientBuilder builder = reconfigureHttpClientIfNeeded(getHttpClientBuilder());
+        // the shared client is configured once, the request specific parts are set on a new context
+        final HttpClientBuilder builder;
+        final HttpClientContext httpContext;
+        if (webClient_.getOptions().isSharedHttpClient()) {
+            builder = null;
+            httpContext = createHttpContext();
+        }
+        else {
+            builder = reconfigureHttpClientIfNeeded(getHttpClientBuilder());
+            httpContext = getHttpContext();
+        }
 
         HttpUriRequest httpMethod = null;
         try {
             try {
-                httpMethod = makeHttpMethod(request, builder);
+                httpMethod = makeHttpMethod(request, builder, httpContext);
             }
             catch (final URISyntaxException e) {
                 throw new IOException("Unable to create URI from URL: " + request.getUrl().toExternalForm()
@@ -182,20 +211,15 @@ public class HttpWebConnection implements WebConnection {
             final HttpHost hostConfiguration = getHostConfiguration(request);
             final long startTime = System.currentTimeMillis();
 
-            final HttpContext httpContext = getHttpContext();
             HttpResponse httpResponse = null;
             try {
-                try (CloseableHttpClient closeableHttpClient = builder.build()) {
-                    httpResponse = closeableHttpClient.execute(hostConfiguration, httpMethod, httpContext);
-                }
+                httpResponse = execute(builder, hostConfiguration, httpMethod, httpContext);
             }
             catch (final SSLPeerUnverifiedException s) {
                 // Try to use only SSLv3 instead
                 if (webClient_.getOptions().isUseInsecureSSL()) {
                     HtmlUnitSSLConnectionSocketFactory.setUseSSL3Only(httpContext, true);
-                    try (CloseableHttpClient closeableHttpClient = builder.build()) {
-                        httpResponse = closeableHttpClient.execute(hostConfiguration, httpMethod, httpContext);
-                    }
+                    httpResponse = execute(builder, hostConfiguration, httpMethod, httpContext);
                 }
                 else {
                     throw s;
@@ -206,7 +230,12 @@ public class HttpWebConnection implements WebConnection {
                 // Calling code may catch the StackOverflowError, but due to the leak, the httpClient_ may
                 // come out of connections and throw a ConnectionPoolTimeoutException.
                 // => best solution, discard the HttpClient instance.
-                httpClientBuilder_.remove(Thread.currentThread());
+                if (builder == null) {
+                    sharedHttpClient_ = null;
+                }
+                else {
+                    httpClientBuilder_.remove(Thread.currentThread());
+                }
                 throw e;
             }
 
@@ -221,6 +250,67 @@ public class HttpWebConnection implements WebConnection {
         }
     }
 
+    /**
+     * Executes the request with a client built from the specified builder or,
+     * if the builder is {@code null}, with the shared client.
+     */
+    private HttpResponse execute(final HttpClientBuilder builder, final HttpHost hostConfiguration,
+            final HttpUriRequest httpMethod, final HttpContext httpContext) throws IOException {
+        final CloseableHttpClient httpClient;
+        final PoolingHttpClientConnectionManager connectionManager;
+        synchronized (this) {
+            if (builder == null) {
+                httpClient = getSharedHttpClient();
+            }
+            else {
+                httpClient = reconfigureHttpClientIfNeeded(builder).build();
+            }
+            connectionManager = connectionManager_;
+            executingRequests_.merge(connectionManager, 1, Integer::sum);
+        }
+
+        try {
+            if (builder == null) {
+                return httpClient.execute(hostConfiguration, httpMethod, httpContext);
+            }
+            try (CloseableHttpClient closeableHttpClient = httpClient) {
+                return closeableHttpClient.execute(hostConfiguration, httpMethod, httpContext);
+            }
+        }
+        finally {
+            synchronized (this) {
+                executingRequests_.computeIfPresent(connectionManager,
+                    (manager, count) -> count == 1 ? null : count - 1);
+                shutdownRetiredConnectionManagers();
+            }
+        }
+    }
+
+    /**
+     * Returns the client shared by all threads, builds it on first use
+     * and again if the settings of the WebClient have changed.
+     */
+    private CloseableHttpClient getSharedHttpClient() {
+        CloseableHttpClient httpClient = sharedHttpClient_;
+        if (httpClient == null || isReconfigurationNeeded()) {
+            synchronized (this) {
+                httpClient = sharedHttpClient_;
+                if (httpClient == null || isReconfigurationNeeded()) {
+                    if (sharedHttpClientBuilder_ == null) {
+                        sharedHttpClientBuilder_ = initHttpClientBuilder(createHttpClientBuilder());
+                    }
+                    final HttpClientBuilder builder = reconfigureHttpClientIfNeeded(sharedHttpClientBuilder_);
+                    final List<HttpRequestInterceptor> interceptors = new ArrayList<>();
+                    interceptors.add(new ContextHttpRequestInterceptor());
+                    builder.setHttpProcessor(buildHttpProcessor(interceptors));
+                    httpClient = builder.build();
+                    sharedHttpClient_ = httpClient;
+                }
+            }
+        }
+        return httpClient;
+    }
+
     /**
      * Called when the response has been generated. Default action is to release
      * the HttpMethod's connection. Subclasses may override.
@@ -242,27 +332,33 @@ public class HttpWebConnection implements WebConnection {
     /**
      * Returns the {@link HttpClientContext} for the current thread. Creates a new one if necessary.
      */
-    private synchronized HttpContext getHttpContext() {
+    private synchronized HttpClientContext getHttpContext() {
         HttpClientContext httpClientContext = httpClientContextByThread_.get(Thread.currentThread());
         if (httpClientContext == null) {
-            httpClientContext = new HttpClientContext();
-
-            // set the shared authentication cache
-            httpClientContext.setAttribute(HttpClientContext.AUTH_CACHE, sharedAuthCache_);
-
+            httpClientContext = createHttpContext();
             httpClientContextByThread_.put(Thread.currentThread(), httpClientContext);
         }
         return httpClientContext;
     }
 
-    private void setProxy(final HttpRequestBase httpRequest, final WebRequest webRequest) {
+    /**
+     * Creates a new {@link HttpClientContext} using the shared authentication cache.
+     */
+    private HttpClientContext createHttpContext() {
+        final HttpClientContext httpClientContext = new HttpClientContext();
+        httpClientContext.setAttribute(HttpClientContext.AUTH_CACHE, sharedAuthCache_);
+        return httpClientContext;
+    }
+
+    private void setProxy(final HttpRequestBase httpRequest, final WebRequest webRequest,
+            final HttpContext httpContext) {
         final InetAddress localAddress = webClient_.getOptions().getLocalAddress();
         final RequestConfig.Builder requestBuilder = createRequestConfigBuilder(getTimeout(), localAddress);
 
         if (webRequest.getProxyHost() != null) {
             final HttpHost proxy = new HttpHost(webRequest.getProxyHost(), webRequest.getProxyPort());
             if (webRequest.isSocksProxy()) {
-                SocksConnectionSocketFactory.setSocksProxy(getHttpContext(), proxy);
+                SocksConnectionSocketFactory.setSocksProxy(httpContext, proxy);
             }
             else {
                 requestBuilder.setProxy(proxy);
@@ -278,15 +374,16 @@ public class HttpWebConnection implements WebConnection {
     /**
      * Creates an <tt>HttpMethod</tt> instance according to the specified parameters.
      * @param webRequest the request
-     * @param httpClientBuilder the httpClientBuilder that will be configured
+     * @param httpClientBuilder the httpClientBuilder that will be configured,
+     *        or {@code null} if the shared client is used
+     * @param httpContext the context of the request
      * @return the <tt>HttpMethod</tt> instance constructed according to the specified parameters
      * @throws IOException
      * @throws URISyntaxException
      */
-    private HttpUriRequest makeHttpMethod(final WebRequest webRequest, final HttpClientBuilder httpClientBuilder)
-        throws URISyntaxException {
+    private HttpUriRequest makeHttpMethod(final WebRequest webRequest, final HttpClientBuilder httpClientBuilder,
+            final HttpClientContext httpContext) throws URISyntaxException {
 
-        final HttpContext httpContext = getHttpContext();
         final Charset charset = webRequest.getCharset();
         // Make sure that the URL is fully encoded. IE actually sends some Unicode chars in request
         // URLs; because of this we allow some Unicode chars in URLs. However, at this point we're
@@ -299,7 +396,7 @@ public class HttpWebConnection implements WebConnection {
             uri = URI.create(getVirtualHost());
         }
         final HttpRequestBase httpMethod = buildHttpMethod(webRequest.getHttpMethod(), uri);
-        setProxy(httpMethod, webRequest);
+        setProxy(httpMethod, webRequest, httpContext);
 
         if (!(httpMethod instanceof HttpEntityEnclosingRequest)) {
             // this is the case for GET as well as TRACE, DELETE, OPTIONS and HEAD
@@ -312,50 +409,18 @@ public class HttpWebConnection implements WebConnection {
             }
         }
         else { // POST as well as PUT and PATCH
-            final HttpEntityEnclosingRequest method = (HttpEntityEnclosingRequest) httpMethod;
-
-            if (webRequest.getEncodingType() == FormEncodingType.URL_ENCODED && method instanceof HttpPost) {
-                final HttpPost postMethod = (HttpPost) method;
-                if (webRequest.getRequestBody() == null) {
-                    final List<NameValuePair> pairs = webRequest.getRequestParameters();
-                    final org.apache.http.NameValuePair[] httpClientPairs = NameValuePair.toHttpClient(pairs);
-                    final String query = URLEncodedUtils.format(Arrays.asList(httpClientPairs), charset);
-                    final StringEntity urlEncodedEntity = new StringEntity(query, charset);
-                    urlEncodedEntity.setContentType(URLEncodedUtils.CONTENT_TYPE);
-                    postMethod.setEntity(urlEncodedEntity);
-                }
-                else {
-                    final String body = StringUtils.defaultString(webRequest.getRequestBody());
-                    final StringEntity urlEncodedEntity = new StringEntity(body, charset);
-                    urlEncodedEntity.setContentType(URLEncodedUtils.CONTENT_TYPE);
-                    postMethod.setEntity(urlEncodedEntity);
-                }
-            }
-            else if (FormEncodingType.MULTIPART == webRequest.getEncodingType()) {
-                final Charset c = getCharset(charset, webRequest.getRequestParameters());
-                final MultipartEntityBuilder builder = MultipartEntityBuilder.create().setLaxMode();
-                builder.setCharset(c);
-
-                for (final NameValuePair pair : webRequest.getRequestParameters()) {
-                    if (pair instanceof KeyDataPair) {
-                        buildFilePart((KeyDataPair) pair, builder);
-                    }
-                    else {
-                        builder.addTextBody(pair.getName(), pair.getValue(),
-                                ContentType.create("text/plain", charset));
-                    }
-                }
-                method.setEntity(builder.build());
-            }
-            else { // for instance a PUT or PATCH request
-                final String body = webRequest.getRequestBody();
-                if (body != null) {
-                    method.setEntity(new StringEntity(body, charset));
-                }
+            final HttpEntity entity = buildRequestEntity(webRequest, charset);
+            if (entity != null) {
+                ((HttpEntityEnclosingRequest) httpMethod).setEntity(entity);
             }
         }
 
-        configureHttpProcessorBuilder(httpClientBuilder, webRequest);
+        if (httpClientBuilder == null) {
+            httpContext.setAttribute(REQUEST_INTERCEPTORS, getHttpRequestInterceptors(webRequest));
+        }
+        else {
+            httpClientBuilder.setHttpProcessor(buildHttpProcessor(getHttpRequestInterceptors(webRequest)));
+        }
 
         // Tell the client where to get its credentials from
         // (it may have changed on the webClient since last call to getHttpClientFor(...))
@@ -379,12 +444,66 @@ public class HttpWebConnection implements WebConnection {
             // updating our client to keep the credentials for the next request
             credentialsProvider.setCredentials(authScope, requestCredentials);
         }
-        httpClientBuilder.setDefaultCredentialsProvider(credentialsProvider);
-        httpContext.removeAttribute(HttpClientContext.CREDS_PROVIDER);
-        httpContext.removeAttribute(HttpClientContext.TARGET_AUTH_STATE);
+        if (httpClientBuilder == null) {
+            httpContext.setCredentialsProvider(credentialsProvider);
+        }
+        else {
+            httpClientBuilder.setDefaultCredentialsProvider(credentialsProvider);
+            httpContext.removeAttribute(HttpClientContext.CREDS_PROVIDER);
+            httpContext.removeAttribute(HttpClientContext.TARGET_AUTH_STATE);
+        }
         return httpMethod;
     }
 
+    /**
+     * Builds the body of a POST, PUT or PATCH request.
+     * @param webRequest the request
+     * @param charset the charset of the request
+     * @return the body or {@code null} if the request has none
+     */
+    static HttpEntity buildRequestEntity(final WebRequest webRequest, final Charset charset) {
+        if (webRequest.getEncodingType() == FormEncodingType.URL_ENCODED
+                && webRequest.getHttpMethod() == HttpMethod.POST) {
+            if (webRequest.getRequestBody() == null) {
+                final List<NameValuePair> pairs = webRequest.getRequestParameters();
+                final org.apache.http.NameValuePair[] httpClientPairs = NameValuePair.toHttpClient(pairs);
+                final String query = URLEncodedUtils.format(Arrays.asList(httpClientPairs), charset);
+                final StringEntity urlEncodedEntity = new StringEntity(query, charset);
+                urlEncodedEntity.setContentType(URLEncodedUtils.CONTENT_TYPE);
+                return urlEncodedEntity;
+            }
+
+            final String body = StringUtils.defaultString(webRequest.getRequestBody());
+            final StringEntity urlEncodedEntity = new StringEntity(body, charset);
+            urlEncodedEntity.setContentType(URLEncodedUtils.CONTENT_TYPE);
+            return urlEncodedEntity;
+        }
+
+        if (FormEncodingType.MULTIPART == webRequest.getEncodingType()) {
+            final Charset c = getCharset(charset, webRequest.getRequestParameters());
+            final MultipartEntityBuilder builder = MultipartEntityBuilder.create().setLaxMode();
+            builder.setCharset(c);
+
+            for (final NameValuePair pair : webRequest.getRequestParameters()) {
+                if (pair instanceof KeyDataPair) {
+                    buildFilePart((KeyDataPair) pair, builder);
+                }
+                else {
+                    builder.addTextBody(pair.getName(), pair.getValue(),
+                            ContentType.create("text/plain", charset));
+                }
+            }
+            return builder.build();
+        }
+
+        // for instance a PUT or PATCH request
+        final String body = webRequest.getRequestBody();
+        if (body != null) {
+            return new StringEntity(body, charset);
+        }
+        return null;
+    }
+
     private static String escapeQuery(final String query) {
         if (query == null) {
             return null;
@@ -409,7 +528,7 @@ public class HttpWebConnection implements WebConnection {
         return null;
     }
 
-    void buildFilePart(final KeyDataPair pairWithFile, final MultipartEntityBuilder builder) {
+    static void buildFilePart(final KeyDataPair pairWithFile, final MultipartEntityBuilder builder) {
         String mimeType = pairWithFile.getMimeType();
         if (mimeType == null) {
             mimeType = "application/octet-stream";
@@ -516,23 +635,26 @@ public class HttpWebConnection implements WebConnection {
         final Thread currentThread = Thread.currentThread();
         HttpClientBuilder builder = httpClientBuilder_.get(currentThread);
         if (builder == null) {
-            builder = createHttpClientBuilder();
-
-            // this factory is required later
-            // to be sure this is done, we do it outside the createHttpClient() call
-            final RegistryBuilder<CookieSpecProvider> registeryBuilder
-                = RegistryBuilder.<CookieSpecProvider>create()
-                            .register(HACKED_COOKIE_POLICY, htmlUnitCookieSpecProvider_);
-            builder.setDefaultCookieSpecRegistry(registeryBuilder.build());
-
-            builder.setDefaultCookieStore(new HtmlUnitCookieStore(webClient_.getCookieManager()));
-            builder.setUserAgent(webClient_.getBrowserVersion().getUserAgent());
+            builder = initHttpClientBuilder(createHttpClientBuilder());
             httpClientBuilder_.put(currentThread, builder);
         }
 
         return builder;
     }
 
+    private HttpClientBuilder initHttpClientBuilder(final HttpClientBuilder builder) {
+        // this factory is required later
+        // to be sure this is done, we do it outside the createHttpClient() call
+        final RegistryBuilder<CookieSpecProvider> registeryBuilder
+            = RegistryBuilder.<CookieSpecProvider>create()
+                        .register(HACKED_COOKIE_POLICY, htmlUnitCookieSpecProvider_);
+        builder.setDefaultCookieSpecRegistry(registeryBuilder.build());
+
+        builder.setDefaultCookieStore(new HtmlUnitCookieStore(webClient_.getCookieManager()));
+        builder.setUserAgent(webClient_.getBrowserVersion().getUserAgent());
+        return builder;
+    }
+
     /**
      * Returns the timeout to use for socket and connection timeouts for HttpConnectionManager.
      * Is overridden to 0 by StreamingWebConnection which keeps reading after a timeout and
@@ -556,7 +678,7 @@ public class HttpWebConnection implements WebConnection {
         builder.setRedirectStrategy(new HtmlUnitRedirectStrategie());
         configureTimeout(builder, getTimeout());
         configureHttpsScheme(builder);
-        builder.setMaxConnPerRoute(6);
+        configureConnectionPool(builder);
 
         builder.setConnectionManagerShared(true);
         return builder;
@@ -597,21 +719,18 @@ public class HttpWebConnection implements WebConnection {
      * React on changes that may have occurred on the WebClient settings.
      * Registering as a listener would be probably better.
      */
-    private HttpClientBuilder reconfigureHttpClientIfNeeded(final HttpClientBuilder httpClientBuilder) {
-        final WebClientOptions options = webClient_.getOptions();
-
+    private synchronized HttpClientBuilder reconfigureHttpClientIfNeeded(final HttpClientBuilder httpClientBuilder) {
         // register new SSL factory only if settings have changed
-        if (options.isUseInsecureSSL() != usedOptions_.isUseInsecureSSL()
-                || options.getSSLClientCertificateStore() != usedOptions_.getSSLClientCertificateStore()
-                || options.getSSLTrustStore() != usedOptions_.getSSLTrustStore()
-                || options.getSSLClientCipherSuites() != usedOptions_.getSSLClientCipherSuites()
-                || options.getSSLClientProtocols() != usedOptions_.getSSLClientProtocols()
-                || options.getProxyConfig() != usedOptions_.getProxyConfig()) {
+        if (isHttpsSchemeChanged()) {
             configureHttpsScheme(httpClientBuilder);
 
             if (connectionManager_ != null) {
-                connectionManager_.shutdown();
+                // other threads may still read a response from a connection of the current manager
+                connectionManager_.closeIdleConnections(0, TimeUnit.MILLISECONDS);
+                retiredConnectionManagers_.add(connectionManager_);
                 connectionManager_ = null;
+                sharedHttpClient_ = null;
+                shutdownRetiredConnectionManagers();
             }
         }
 
@@ -620,6 +739,10 @@ public class HttpWebConnection implements WebConnection {
             configureTimeout(httpClientBuilder, timeout);
         }
 
+        if (isConnectionPoolChanged()) {
+            configureConnectionPool(httpClientBuilder);
+        }
+
         if (connectionManager_ == null) {
             connectionManager_ = createConnectionManager(httpClientBuilder);
         }
@@ -628,6 +751,57 @@ public class HttpWebConnection implements WebConnection {
         return httpClientBuilder;
     }
 
+    /**
+     * Shuts down the replaced connection managers not used by a request being executed
+     * and without leased connections, i.e. whose responses are completely read; requires the lock.
+     */
+    private void shutdownRetiredConnectionManagers() {
+        for (final Iterator<PoolingHttpClientConnectionManager> iterator = retiredConnectionManagers_.iterator();
+                iterator.hasNext();) {
+            final PoolingHttpClientConnectionManager connectionManager = iterator.next();
+            if (!executingRequests_.containsKey(connectionManager)
+                    && connectionManager.getTotalStats().getLeased() == 0) {
+                connectionManager.shutdown();
+                iterator.remove();
+            }
+        }
+    }
+
+    private boolean isReconfigurationNeeded() {
+        return isHttpsSchemeChanged() || getTimeout() != usedOptions_.getTimeout() || isConnectionPoolChanged();
+    }
+
+    private boolean isHttpsSchemeChanged() {
+        final WebClientOptions options = webClient_.getOptions();
+        return options.isUseInsecureSSL() != usedOptions_.isUseInsecureSSL()
+                || options.getSSLClientCertificateStore() != usedOptions_.getSSLClientCertificateStore()
+                || options.getSSLTrustStore() != usedOptions_.getSSLTrustStore()
+                || options.getSSLClientCipherSuites() != usedOptions_.getSSLClientCipherSuites()
+                || options.getSSLClientProtocols() != usedOptions_.getSSLClientProtocols()
+                || options.getProxyConfig() != usedOptions_.getProxyConfig();
+    }
+
+    private boolean isConnectionPoolChanged() {
+        final WebClientOptions options = webClient_.getOptions();
+        return options.getMaxConnectionsTotal() != usedOptions_.getMaxConnectionsTotal()
+                || options.getMaxConnectionsPerRoute() != usedOptions_.getMaxConnectionsPerRoute();
+    }
+
+    private void configureConnectionPool(final HttpClientBuilder builder) {
+        final WebClientOptions options = webClient_.getOptions();
+        builder.setMaxConnTotal(options.getMaxConnectionsTotal());
+        builder.setMaxConnPerRoute(options.getMaxConnectionsPerRoute());
+
+        // the pool can be resized while in use
+        if (connectionManager_ != null) {
+            connectionManager_.setMaxTotal(options.getMaxConnectionsTotal());
+            connectionManager_.setDefaultMaxPerRoute(options.getMaxConnectionsPerRoute());
+        }
+
+        usedOptions_.setMaxConnectionsTotal(options.getMaxConnectionsTotal());
+        usedOptions_.setMaxConnectionsPerRoute(options.getMaxConnectionsPerRoute());
+    }
+
     private void configureHttpsScheme(final HttpClientBuilder builder) {
         final WebClientOptions options = webClient_.getOptions();
 
@@ -644,9 +818,9 @@ public class HttpWebConnection implements WebConnection {
         usedOptions_.setProxyConfig(options.getProxyConfig());
     }
 
-    private void configureHttpProcessorBuilder(final HttpClientBuilder builder, final WebRequest webRequest) {
+    private static HttpProcessor buildHttpProcessor(final List<HttpRequestInterceptor> interceptors) {
         final HttpProcessorBuilder b = HttpProcessorBuilder.create();
-        for (final HttpRequestInterceptor i : getHttpRequestInterceptors(webRequest)) {
+        for (final HttpRequestInterceptor i : interceptors) {
             b.add(i);
         }
 
@@ -659,7 +833,7 @@ public class HttpWebConnection implements WebConnection {
         b.add(new RequestAcceptEncoding());
         b.add(new RequestAuthCache());
         b.add(new ResponseProcessCookies());
-        builder.setHttpProcessor(b.build());
+        return b.build();
     }
 
     /**
@@ -709,11 +883,27 @@ public class HttpWebConnection implements WebConnection {
             return new DownloadedContent.InMemory(null);
         }
 
+        final WebClientOptions options = webClient_.getOptions();
+        if (options.isStreamHtmlResponses() && isHtml(httpEntity)) {
+            final InputStream is = httpEntity.getContent();
+            if (is == null) {
+                return new DownloadedContent.InMemory(null);
+            }
+            // the body is read while the page is parsed, the connection is released when done
+            return new StreamingDownloadedContent(is, options.getMaxInMemory());
+        }
+
         try (InputStream is = httpEntity.getContent()) {
-            return downloadContent(is, webClient_.getOptions().getMaxInMemory());
+            return downloadContent(is, options.getMaxInMemory());
         }
     }
 
+    private static boolean isHtml(final HttpEntity httpEntity) {
+        final Header contentType = httpEntity.getContentType();
+        return contentType != null
+                && StringUtils.startsWithIgnoreCase(contentType.getValue().trim(), MimeType.TEXT_HTML);
+    }
+
     /**
      * Reads the content of the stream and saves it in memory or on the file system.
      * @param is the stream to read
@@ -976,6 +1166,24 @@ public class HttpWebConnection implements WebConnection {
         }
     }
 
+    /**
+     * Runs the request specific interceptors stored in the context; used by the shared client.
+     */
+    private static final class ContextHttpRequestInterceptor implements HttpRequestInterceptor {
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void process(final HttpRequest request, final HttpContext context) throws HttpException, IOException {
+            final List<HttpRequestInterceptor> interceptors =
+                    (List<HttpRequestInterceptor>) context.getAttribute(REQUEST_INTERCEPTORS);
+            if (interceptors != null) {
+                for (final HttpRequestInterceptor interceptor : interceptors) {
+                    interceptor.process(request, context);
+                }
+            }
+        }
+    }
+
     /**
      * An authentication cache that is synchronized.
      */
@@ -1013,10 +1221,20 @@ public class HttpWebConnection implements WebConnection {
     @Override
     public void close() {
         httpClientBuilder_.clear();
+        synchronized (this) {
+            sharedHttpClient_ = null;
+            sharedHttpClientBuilder_ = null;
+        }
 
-        if (connectionManager_ != null) {
-            connectionManager_.shutdown();
-            connectionManager_ = null;
+        synchronized (this) {
+            if (connectionManager_ != null) {
+                connectionManager_.shutdown();
+                connectionManager_ = null;
+            }
+            for (final PoolingHttpClientConnectionManager connectionManager : retiredConnectionManagers_) {
+                connectionManager.shutdown();
+            }
+            retiredConnectionManagers_.clear();
         }
     }
 
@@ -19,12 +19,15 @@ import java.net.InetAddress;
 import java.net.URL;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
+import java.util.LinkedHashMap;
 import java.util.Locale;
+import java.util.Map;
 import java.util.TimeZone;
 
 import org.apache.commons.net.util.SubnetUtils;
 
 import net.sourceforge.htmlunit.corejs.javascript.Context;
+import net.sourceforge.htmlunit.corejs.javascript.Function;
 import net.sourceforge.htmlunit.corejs.javascript.FunctionObject;
 import net.sourceforge.htmlunit.corejs.javascript.NativeFunction;
 import net.sourceforge.htmlunit.corejs.javascript.Scriptable;
@@ -41,8 +44,23 @@ import net.sourceforge.htmlunit.corejs.javascript.Undefined;
  */
 public final class ProxyAutoConfig {
     private static final String TIMEZONE_GMT = "GMT";
-
-    private ProxyAutoConfig() {
+    private static final int MAX_CACHED_HOSTS = 1_000;
+
+    private final Scriptable scope_;
+    private final Function findProxyForURL_;
+    private final long resultTimeToLive_;
+    private final Map<String, CachedResult> results_;
+
+    private ProxyAutoConfig(final Scriptable scope, final Function findProxyForURL, final long resultTimeToLive) {
+        scope_ = scope;
+        findProxyForURL_ = findProxyForURL;
+        resultTimeToLive_ = resultTimeToLive;
+        results_ = new LinkedHashMap<String, CachedResult>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, CachedResult> eldest) {
+                return size() > MAX_CACHED_HOSTS;
+            }
+        };
     }
 
     /**
@@ -52,40 +70,78 @@ public final class ProxyAutoConfig {
      * @return semicolon-separated result
      */
     public static String evaluate(final String content, final URL url) {
+        return compile(content, 0).evaluate(url);
+    }
+
+    /**
+     * Evaluates the specified content once, the returned instance calls the <tt>FindProxyForURL</tt>
+     * method of the content without evaluating it again.
+     * @param content the JavaScript content
+     * @param resultTimeToLive the number of milliseconds the result of <tt>FindProxyForURL</tt> is reused
+     *        for other URLs with the same host; {@code 0} or less to call <tt>FindProxyForURL</tt> for every URL
+     * @return the compiled proxy auto-config
+     */
+    public static ProxyAutoConfig compile(final String content, final long resultTimeToLive) {
         final Context cx = Context.enter();
         try {
-            final ProxyAutoConfig config = new ProxyAutoConfig();
             final Scriptable scope = cx.initStandardObjects();
 
-            config.defineMethod("isPlainHostName", scope);
-            config.defineMethod("dnsDomainIs", scope);
-            config.defineMethod("localHostOrDomainIs", scope);
-            config.defineMethod("isResolvable", scope);
-            config.defineMethod("isInNet", scope);
-            config.defineMethod("dnsResolve", scope);
-            config.defineMethod("myIpAddress", scope);
-            config.defineMethod("dnsDomainLevels", scope);
-            config.defineMethod("shExpMatch", scope);
-            config.defineMethod("weekdayRange", scope);
-            config.defineMethod("dateRange", scope);
-            config.defineMethod("timeRange", scope);
+            defineMethod("isPlainHostName", scope);
+            defineMethod("dnsDomainIs", scope);
+            defineMethod("localHostOrDomainIs", scope);
+            defineMethod("isResolvable", scope);
+            defineMethod("isInNet", scope);
+            defineMethod("dnsResolve", scope);
+            defineMethod("myIpAddress", scope);
+            defineMethod("dnsDomainLevels", scope);
+            defineMethod("shExpMatch", scope);
+            defineMethod("weekdayRange", scope);
+            defineMethod("dateRange", scope);
+            defineMethod("timeRange", scope);
 
             cx.evaluateString(scope, "var ProxyConfig = function() {}; ProxyConfig.bindings = {}", "<init>", 1, null);
             cx.evaluateString(scope, content, "<Proxy Auto-Config>", 1, null);
-            final Object[] functionArgs = {url.toExternalForm(), url.getHost()};
             final Object fObj = scope.get("FindProxyForURL", scope);
 
-            final NativeFunction f = (NativeFunction) fObj;
-            final Object result = f.call(cx, scope, scope, functionArgs);
-            return Context.toString(result);
+            return new ProxyAutoConfig(scope, (NativeFunction) fObj, resultTimeToLive);
         }
         finally {
             Context.exit();
         }
     }
 
-    private void defineMethod(final String methodName, final Scriptable scope) {
-        for (Method method : getClass().getMethods()) {
+    /**
+     * Calls the <tt>FindProxyForURL</tt> method of the compiled content.
+     * @param url the URL to be retrieved
+     * @return semicolon-separated result
+     */
+    public synchronized String evaluate(final URL url) {
+        final String host = url.getHost();
+        final long now = System.currentTimeMillis();
+        if (resultTimeToLive_ > 0) {
+            final CachedResult cached = results_.get(host);
+            if (cached != null && cached.expiration_ > now) {
+                return cached.value_;
+            }
+        }
+
+        final Context cx = Context.enter();
+        try {
+            final Object[] functionArgs = {url.toExternalForm(), host};
+            final Object result = findProxyForURL_.call(cx, scope_, scope_, functionArgs);
+            final String value = Context.toString(result);
+            if (resultTimeToLive_ > 0) {
+                results_.put(host, new CachedResult(value, now + resultTimeToLive_));
+            }
+            return value;
+        }
+        finally {
+            Context.exit();
+        }
+    }
+
+    private static void defineMethod(final String methodName, final Scriptable scope) {
+        for (Method method : ProxyAutoConfig.class.getMethods()) {
             if (method.getName().equals(methodName)) {
                 final FunctionObject functionObject = new FunctionObject(methodName, method, scope);
                 ((ScriptableObject) scope).defineProperty(methodName, functionObject, ScriptableObject.EMPTY);
@@ -466,4 +522,14 @@ public final class ProxyAutoConfig {
         }
         return calendar;
     }
+
+    private static final class CachedResult {
+        private final String value_;
+        private final long expiration_;
+
+        CachedResult(final String value, final long expiration) {
+            value_ = value;
+            expiration_ = expiration;
+        }
+    }
 }
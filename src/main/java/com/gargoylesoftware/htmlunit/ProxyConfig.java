@@ -34,6 +34,8 @@ public class ProxyConfig implements Serializable {
     private final Map<String, Pattern> proxyBypassHosts_ = new HashMap<>();
     private String proxyAutoConfigUrl_;
     private String proxyAutoConfigContent_;
+    private long proxyAutoConfigResultTimeToLive_;
+    private transient ProxyAutoConfig proxyAutoConfig_;
 
     /**
      * Creates a new instance.
@@ -177,7 +179,41 @@ public class ProxyConfig implements Serializable {
      * Sets the proxy auto-config content.
      * @param proxyAutoConfigContent the proxy auto-config content
      */
-    protected void setProxyAutoConfigContent(final String proxyAutoConfigContent) {
+    protected synchronized void setProxyAutoConfigContent(final String proxyAutoConfigContent) {
         proxyAutoConfigContent_ = proxyAutoConfigContent;
+        proxyAutoConfig_ = null;
+    }
+
+    /**
+     * Returns the number of milliseconds the proxy determined by the proxy auto-config
+     * is reused for other URLs with the same host.
+     * @return the time to live of the proxy auto-config results (default value is <tt>0</tt>)
+     */
+    public long getProxyAutoConfigResultTimeToLive() {
+        return proxyAutoConfigResultTimeToLive_;
+    }
+
+    /**
+     * Sets the number of milliseconds the proxy determined by the proxy auto-config
+     * is reused for other URLs with the same host. A value of 0 or less means that
+     * <tt>FindProxyForURL</tt> is called for every URL; this is required if the
+     * proxy auto-config script uses the complete URL and not only the host.
+     * @param timeToLive the time to live of the proxy auto-config results
+     */
+    public synchronized void setProxyAutoConfigResultTimeToLive(final long timeToLive) {
+        proxyAutoConfigResultTimeToLive_ = timeToLive;
+        proxyAutoConfig_ = null;
+    }
+
+    /**
+     * Returns the proxy auto-config compiled from the {@link #getProxyAutoConfigContent() content}.
+     * The content is evaluated only once and reused for all requests.
+     * @return the compiled proxy auto-config or {@code null} if there is no content
+     */
+    protected synchronized ProxyAutoConfig getProxyAutoConfig() {
+        if (proxyAutoConfig_ == null && proxyAutoConfigContent_ != null) {
+            proxyAutoConfig_ = ProxyAutoConfig.compile(proxyAutoConfigContent_, proxyAutoConfigResultTimeToLive_);
+        }
+        return proxyAutoConfig_;
     }
 }
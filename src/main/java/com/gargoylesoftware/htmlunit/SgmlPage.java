@@ -74,7 +74,7 @@ public abstract class SgmlPage extends DomNode implements Page, Document, Docume
      */
     @Override
     public void cleanUp() {
-        if (getWebClient().getCache().getCachedResponse(webResponse_.getWebRequest()) == null) {
+        if (!getWebClient().getCache().isCached(webResponse_.getWebRequest())) {
             webResponse_.cleanUp();
         }
     }
@@ -0,0 +1,344 @@
+/*
+ * Copyright (c) 2002-2019 Gargoyle Software Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gargoylesoftware.htmlunit;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.io.ObjectStreamException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.ConnectionClosedException;
+
+/**
+ * A {@link DownloadedContent} read from the network while it is consumed.
+ *
+ * <p>The bytes are read from the source stream only when a stream returned by {@link #getInputStream()}
+ * needs them, and are kept (in memory or, above the maximum in memory, in a temporary file) for the
+ * other and later streams. This allows e.g. to parse a page while it is still downloaded.
+ * {@link #length()} reads the rest of the content. Actions needing the complete content, e.g. storing
+ * it, are deferred using {@link #whenComplete(Runnable)}.</p>
+ *
+ * @author Ronald Brill
+ */
+final class StreamingDownloadedContent implements DownloadedContent {
+
+    private static final Log LOG = LogFactory.getLog(StreamingDownloadedContent.class);
+
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    private final int maxInMemory_;
+    private transient InputStream source_;
+    private transient byte[] bytes_ = new byte[CHUNK_SIZE];
+    private transient File file_;
+    private transient OutputStream fileOutput_;
+    private transient RandomAccessFile fileInput_;
+    private long length_;
+    private transient boolean downloaded_;
+    private transient List<Runnable> completionActions_;
+
+    /**
+     * Creates a new instance.
+     * @param source the stream to read the content from; closed when completely read or on {@link #cleanUp()}
+     * @param maxInMemory the maximum bytes to store in memory, after which the content is saved to a file
+     */
+    StreamingDownloadedContent(final InputStream source, final int maxInMemory) {
+        source_ = source;
+        maxInMemory_ = maxInMemory;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new ContentInputStream();
+    }
+
+    @Override
+    public synchronized void cleanUp() {
+        closeSource();
+        IOUtils.closeQuietly(fileOutput_);
+        IOUtils.closeQuietly(fileInput_);
+        fileOutput_ = null;
+        fileInput_ = null;
+        completionActions_ = null;
+        if (file_ != null) {
+            FileUtils.deleteQuietly(file_);
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        final boolean empty;
+        synchronized (this) {
+            try {
+                fill(0);
+            }
+            catch (final IOException e) {
+                LOG.warn("Error while reading from stream.", e);
+            }
+            empty = length_ == 0;
+        }
+        runCompletionActions();
+        return empty;
+    }
+
+    @Override
+    public long length() {
+        final long length;
+        synchronized (this) {
+            try {
+                fill(Long.MAX_VALUE);
+            }
+            catch (final IOException e) {
+                LOG.warn("Error while reading from stream.", e);
+            }
+            length = length_;
+        }
+        runCompletionActions();
+        return length;
+    }
+
+    /**
+     * Returns whether the content is completely read from the source.
+     * @return whether the content is completely read
+     */
+    synchronized boolean isComplete() {
+        return source_ == null;
+    }
+
+    /**
+     * Runs the specified action once the content is completely read from the source, by the thread reading
+     * its end, or immediately if this is already the case. The action is dropped if reading fails or the
+     * content is cleaned up before.
+     * @param action the action
+     */
+    void whenComplete(final Runnable action) {
+        synchronized (this) {
+            if (!downloaded_) {
+                if (source_ != null) {
+                    if (completionActions_ == null) {
+                        completionActions_ = new ArrayList<>(1);
+                    }
+                    completionActions_.add(action);
+                }
+                return;
+            }
+        }
+        action.run();
+    }
+
+    /**
+     * Runs the pending actions if the content is completely read; called without holding
+     * the monitor, as the actions may need other locks.
+     */
+    private void runCompletionActions() {
+        final List<Runnable> actions;
+        synchronized (this) {
+            if (!downloaded_ || completionActions_ == null) {
+                return;
+            }
+            actions = completionActions_;
+            completionActions_ = null;
+        }
+        for (final Runnable action : actions) {
+            action.run();
+        }
+    }
+
+    /**
+     * Reads from the source until the byte at the specified position is available
+     * or the source is completely read.
+     * @param position the position
+     * @throws IOException in case of read issues
+     */
+    private void fill(final long position) throws IOException {
+        final byte[] buffer = new byte[CHUNK_SIZE];
+        while (source_ != null && length_ <= position) {
+            final int nbRead;
+            try {
+                nbRead = source_.read(buffer);
+            }
+            catch (final ConnectionClosedException e) {
+                LOG.warn("Connection was closed while reading from stream.", e);
+                closeSource();
+                return;
+            }
+            catch (final EOFException e) {
+                // this might happen with broken gzip content
+                LOG.warn("EOFException while reading from stream.", e);
+                closeSource();
+                return;
+            }
+            catch (final IOException e) {
+                closeSource();
+                throw e;
+            }
+
+            if (nbRead == -1) {
+                closeSource();
+                if (fileOutput_ != null) {
+                    fileOutput_.close();
+                    fileOutput_ = null;
+                }
+                downloaded_ = true;
+            }
+            else {
+                append(buffer, nbRead);
+            }
+        }
+    }
+
+    private void append(final byte[] buffer, final int count) throws IOException {
+        if (file_ == null && length_ + count > maxInMemory_) {
+            // we have exceeded the max for memory, let's write everything to a temporary file
+            file_ = File.createTempFile("htmlunit", ".tmp");
+            file_.deleteOnExit();
+            fileOutput_ = Files.newOutputStream(file_.toPath());
+            fileOutput_.write(bytes_, 0, (int) length_);
+            bytes_ = null;
+        }
+
+        if (file_ == null) {
+            final int newLength = (int) length_ + count;
+            if (newLength > bytes_.length) {
+                bytes_ = Arrays.copyOf(bytes_, Math.max(newLength, bytes_.length * 2));
+            }
+            System.arraycopy(buffer, 0, bytes_, (int) length_, count);
+        }
+        else {
+            fileOutput_.write(buffer, 0, count);
+        }
+        length_ += count;
+    }
+
+    private void closeSource() {
+        if (source_ != null) {
+            IOUtils.closeQuietly(source_);
+            source_ = null;
+        }
+    }
+
+    /**
+     * Reads the content at the specified position, downloading it if needed.
+     * @param position the position
+     * @param buffer the buffer to read into
+     * @param offset the offset in the buffer
+     * @param length the maximum number of bytes to read
+     * @return the number of bytes read or -1 at the end of the content
+     * @throws IOException in case of read issues
+     */
+    private synchronized int read(final long position, final byte[] buffer, final int offset, final int length)
+            throws IOException {
+        fill(position);
+        if (position >= length_) {
+            return -1;
+        }
+
+        final int count = (int) Math.min(length, length_ - position);
+        if (file_ == null) {
+            System.arraycopy(bytes_, (int) position, buffer, offset, count);
+        }
+        else {
+            if (fileOutput_ != null) {
+                fileOutput_.flush();
+            }
+            if (fileInput_ == null) {
+                fileInput_ = new RandomAccessFile(file_, "r");
+            }
+            fileInput_.seek(position);
+            fileInput_.readFully(buffer, offset, count);
+        }
+        return count;
+    }
+
+    @Override
+    protected void finalize() throws Throwable {
+        super.finalize();
+        cleanUp();
+    }
+
+    /**
+     * Serializes the complete content.
+     * @return the content kept in memory
+     * @throws ObjectStreamException in case of read issues
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        try (InputStream is = getInputStream()) {
+            return new DownloadedContent.InMemory(IOUtils.toByteArray(is));
+        }
+        catch (final IOException e) {
+            final InvalidObjectException exception = new InvalidObjectException(e.getMessage());
+            exception.initCause(e);
+            throw exception;
+        }
+    }
+
+    /**
+     * A stream reading the content from the beginning.
+     */
+    private final class ContentInputStream extends InputStream {
+        private long position_;
+        private long mark_;
+
+        @Override
+        public int read() throws IOException {
+            final byte[] buffer = new byte[1];
+            if (read(buffer, 0, 1) == -1) {
+                return -1;
+            }
+            return buffer[0] & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            final int count = StreamingDownloadedContent.this.read(position_, buffer, offset, length);
+            if (count > 0) {
+                position_ += count;
+            }
+            else {
+                runCompletionActions();
+            }
+            return count;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(final int readlimit) {
+            mark_ = position_;
+        }
+
+        @Override
+        public synchronized void reset() {
+            position_ = mark_;
+        }
+    }
+}
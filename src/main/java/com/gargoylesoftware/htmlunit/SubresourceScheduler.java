@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2002-2019 Gargoyle Software Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gargoylesoftware.htmlunit;
+
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * <span style="color:red">INTERNAL API - SUBJECT TO CHANGE AT ANY TIME - USE AT YOUR OWN RISK.</span><br>
+ *
+ * Runs the downloads of the subresources of pages (scripts, stylesheets, images) on a pool of threads.
+ *
+ * <p>Like browsers, the scheduler limits the number of downloads running in parallel for a host
+ * (see {@link WebClientOptions#setMaxSubresourceDownloadsPerHost(int)}). The waiting downloads are
+ * started by priority and then in the order they have been scheduled.</p>
+ *
+ * @author Ronald Brill
+ */
+public final class SubresourceScheduler {
+
+    /**
+     * The priority of a download.
+     */
+    public enum Priority {
+        /** Resources blocking the parser or the rendering, like scripts and stylesheets. */
+        HIGH,
+        /** Other resources, like images. */
+        LOW
+    }
+
+    private final int maxDownloads_;
+    private final int maxDownloadsPerHost_;
+    private final ExecutorService executor_;
+    private final TreeSet<Download> waiting_ = new TreeSet<>();
+    private final Map<String, Integer> runningPerHost_ = new HashMap<>();
+    private int running_;
+    private long sequence_;
+    private boolean shutdown_;
+
+    /**
+     * Creates a new instance.
+     * @param maxDownloads the number of threads, the maximum number of downloads and tasks running in parallel
+     * @param maxDownloadsPerHost the maximum number of downloads running in parallel for a host
+     */
+    public SubresourceScheduler(final int maxDownloads, final int maxDownloadsPerHost) {
+        if (maxDownloads < 1 || maxDownloadsPerHost < 1) {
+            throw new IllegalArgumentException("The number of downloads has to be positive.");
+        }
+        maxDownloads_ = maxDownloads;
+        maxDownloadsPerHost_ = maxDownloadsPerHost;
+        executor_ = Executors.newFixedThreadPool(maxDownloads, runnable -> {
+            final Thread thread = new Thread(runnable, "HtmlUnit subresource loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Runs a task not downloading anything itself (e.g. scanning a page) on the pool. The task takes
+     * one of the threads like a download with a high priority, but is not limited per host.
+     * The task is ignored if the scheduler has been shut down.
+     * @param task the task
+     */
+    public synchronized void execute(final Runnable task) {
+        if (shutdown_) {
+            return;
+        }
+        waiting_.add(new Download(null, Priority.HIGH, sequence_++, task));
+        dispatch();
+    }
+
+    /**
+     * Schedules the download of the specified url.
+     * The download is ignored if the scheduler has been shut down.
+     * @param url the url to download, to limit the downloads per host
+     * @param priority the priority
+     * @param download the download
+     */
+    public synchronized void schedule(final URL url, final Priority priority, final Runnable download) {
+        if (shutdown_) {
+            return;
+        }
+        waiting_.add(new Download(url.getHost(), priority, sequence_++, download));
+        dispatch();
+    }
+
+    /**
+     * Returns the number of downloads and tasks waiting to be started.
+     * @return the number of waiting downloads and tasks
+     */
+    public synchronized int getWaitingCount() {
+        return waiting_.size();
+    }
+
+    /**
+     * Stops all threads; the waiting downloads are discarded.
+     */
+    public synchronized void shutdown() {
+        shutdown_ = true;
+        waiting_.clear();
+        executor_.shutdownNow();
+    }
+
+    private void dispatch() {
+        final Iterator<Download> iterator = waiting_.iterator();
+        while (running_ < maxDownloads_ && iterator.hasNext()) {
+            final Download download = iterator.next();
+            if (download.host_ == null) {
+                iterator.remove();
+                running_++;
+                executor_.execute(download);
+                continue;
+            }
+            final int runningForHost = runningPerHost_.getOrDefault(download.host_, 0);
+            if (runningForHost < maxDownloadsPerHost_) {
+                iterator.remove();
+                runningPerHost_.put(download.host_, runningForHost + 1);
+                running_++;
+                executor_.execute(download);
+            }
+        }
+    }
+
+    private synchronized void done(final String host) {
+        if (host != null) {
+            final int runningForHost = runningPerHost_.get(host) - 1;
+            if (runningForHost == 0) {
+                runningPerHost_.remove(host);
+            }
+            else {
+                runningPerHost_.put(host, runningForHost);
+            }
+        }
+        running_--;
+        if (!shutdown_) {
+            dispatch();
+        }
+    }
+
+    /**
+     * A scheduled download, or task if the host is {@code null}.
+     */
+    private final class Download implements Runnable, Comparable<Download> {
+        private final String host_;
+        private final Priority priority_;
+        private final long order_;
+        private final Runnable runnable_;
+
+        Download(final String host, final Priority priority, final long order, final Runnable runnable) {
+            host_ = host;
+            priority_ = priority;
+            order_ = order;
+            runnable_ = runnable;
+        }
+
+        @Override
+        public void run() {
+            try {
+                runnable_.run();
+            }
+            finally {
+                done(host_);
+            }
+        }
+
+        @Override
+        public int compareTo(final Download other) {
+            final int result = priority_.compareTo(other.priority_);
+            if (result != 0) {
+                return result;
+            }
+            return Long.compare(order_, other.order_);
+        }
+    }
+}
@@ -180,6 +180,7 @@ public class WebClient implements Serializable, AutoCloseable {
     private CSSErrorHandler cssErrorHandler_ = new DefaultCssErrorHandler();
     private OnbeforeunloadHandler onbeforeunloadHandler_;
     private Cache cache_ = new Cache();
+    private transient SubresourceScheduler subresourceScheduler_;
 
     /** target "_blank". */
     private static final String TARGET_BLANK = "_blank";
@@ -1358,13 +1359,12 @@ public class WebClient implements Serializable, AutoCloseable {
             final ProxyConfig proxyConfig = getOptions().getProxyConfig();
             if (proxyConfig.getProxyAutoConfigUrl() != null) {
                 if (!UrlUtils.sameFile(new URL(proxyConfig.getProxyAutoConfigUrl()), url)) {
-                    String content = proxyConfig.getProxyAutoConfigContent();
-                    if (content == null) {
-                        content = getPage(proxyConfig.getProxyAutoConfigUrl())
+                    if (proxyConfig.getProxyAutoConfigContent() == null) {
+                        final String content = getPage(proxyConfig.getProxyAutoConfigUrl())
                             .getWebResponse().getContentAsString();
                         proxyConfig.setProxyAutoConfigContent(content);
                     }
-                    final String allValue = ProxyAutoConfig.evaluate(content, url);
+                    final String allValue = proxyConfig.getProxyAutoConfig().evaluate(url);
                     if (LOG.isDebugEnabled()) {
                         LOG.debug("Proxy Auto-Config: value '" + allValue + "' for URL " + url);
                     }
@@ -1398,17 +1398,43 @@ public class WebClient implements Serializable, AutoCloseable {
 
         // Retrieve the response, either from the cache or from the server.
         final WebResponse fromCache = getCache().getCachedResponse(webRequest);
-        final WebResponse webResponse;
-        if (fromCache != null) {
+        WebResponse webResponse;
+        boolean cached = fromCache != null;
+        if (cached) {
             webResponse = new WebResponseFromCache(fromCache, webRequest);
         }
         else {
+            final WebResponse toRevalidate = getCache().getResponseToRevalidate(webRequest);
+            final List<String> conditionalHeaders = addConditionalHeaders(webRequest, toRevalidate);
             try {
                 webResponse = getWebConnection().getResponse(webRequest);
             }
             catch (final NoHttpResponseException e) {
                 return new WebResponse(responseDataNoHttpResponse_, webRequest, 0);
             }
+            finally {
+                for (final String name : conditionalHeaders) {
+                    webRequest.removeAdditionalHeader(name);
+                }
+            }
+
+            if (!conditionalHeaders.isEmpty()) {
+                final int statusCode = webResponse.getStatusCode();
+                if (statusCode == HttpStatus.SC_NOT_MODIFIED) {
+                    WebResponse revalidated = getCache().revalidated(webRequest, webResponse);
+                    if (revalidated == null) {
+                        // removed from the cache in the meantime, the held response is still valid
+                        revalidated = toRevalidate;
+                    }
+                    webResponse.cleanUp();
+                    webResponse = new WebResponseFromCache(revalidated, webRequest);
+                    cached = true;
+                }
+                else if (statusCode >= HttpStatus.SC_OK && statusCode < HttpStatus.SC_MULTIPLE_CHOICES) {
+                    // the new response replaces the cached one, if cacheable; errors keep the cached one
+                    getCache().remove(webRequest);
+                }
+            }
         }
 
         // Continue according to the HTTP status code.
@@ -1477,12 +1503,41 @@ public class WebClient implements Serializable, AutoCloseable {
             }
         }
 
-        if (fromCache == null) {
+        if (!cached) {
             getCache().cacheIfPossible(webRequest, webResponse, null);
         }
         return webResponse;
     }
 
+    /**
+     * Adds the headers making the request a conditional one, allowing the server to confirm
+     * that the specified cached response is still valid. Nothing is added if the request
+     * is already conditional.
+     * @param webRequest the request
+     * @param toRevalidate the cached response to revalidate, may be {@code null}
+     * @return the names of the headers added
+     */
+    private static List<String> addConditionalHeaders(final WebRequest webRequest, final WebResponse toRevalidate) {
+        if (toRevalidate == null
+                || webRequest.isAdditionalHeader(HttpHeader.IF_NONE_MATCH)
+                || webRequest.isAdditionalHeader(HttpHeader.IF_MODIFIED_SINCE)) {
+            return Collections.emptyList();
+        }
+
+        final List<String> added = new ArrayList<>(2);
+        final String etag = toRevalidate.getResponseHeaderValue(HttpHeader.ETAG);
+        if (etag != null) {
+            webRequest.setAdditionalHeader(HttpHeader.IF_NONE_MATCH, etag);
+            added.add(HttpHeader.IF_NONE_MATCH);
+        }
+        final String lastModified = toRevalidate.getResponseHeaderValue(HttpHeader.LAST_MODIFIED);
+        if (lastModified != null) {
+            webRequest.setAdditionalHeader(HttpHeader.IF_MODIFIED_SINCE, lastModified);
+            added.add(HttpHeader.IF_MODIFIED_SINCE);
+        }
+        return added;
+    }
+
     /**
      * Adds the headers that are sent with every request to the specified {@link WebRequest} instance.
      * @param wrs the <tt>WebRequestSettings</tt> instance to modify
@@ -1793,6 +1848,22 @@ public class WebClient implements Serializable, AutoCloseable {
         return cache_;
     }
 
+    /**
+     * <span style="color:red">INTERNAL API - SUBJECT TO CHANGE AT ANY TIME - USE AT YOUR OWN RISK.</span><br>
+     *
+     * Returns the scheduler used to download the subresources of pages in the background
+     * (see {@link WebClientOptions#setPreloadSubresources(boolean)}). It is created with the
+     * limits of the options at the first call and stopped on {@link #close()}.
+     * @return the scheduler
+     */
+    public synchronized SubresourceScheduler getSubresourceScheduler() {
+        if (subresourceScheduler_ == null) {
+            subresourceScheduler_ = new SubresourceScheduler(getOptions().getMaxSubresourceDownloads(),
+                    getOptions().getMaxSubresourceDownloadsPerHost());
+        }
+        return subresourceScheduler_;
+    }
+
     /**
      * Sets the cache to use.
      * @param cache the new cache (must not be {@code null})
@@ -1931,6 +2002,13 @@ public class WebClient implements Serializable, AutoCloseable {
             }
         }
 
+        synchronized (this) {
+            if (subresourceScheduler_ != null) {
+                subresourceScheduler_.shutdown();
+                subresourceScheduler_ = null;
+            }
+        }
+
         try {
             webConnection_.close();
         }
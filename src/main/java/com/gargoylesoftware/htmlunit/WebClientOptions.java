@@ -30,6 +30,7 @@ import java.security.KeyStore;
 public class WebClientOptions implements Serializable {
 
     private boolean javaScriptEnabled_ = true;
+    private boolean lazyJavaScriptInitialization_;
     private boolean cssEnabled_ = true;
     private boolean printContentOnFailingStatusCode_ = true;
     private boolean throwExceptionOnFailingStatusCode_ = true;
@@ -52,6 +53,13 @@ public class WebClientOptions implements Serializable {
     private boolean useInsecureSSL_; // default is secure SSL
     private String sslInsecureProtocol_;
     private int maxInMemory_ = 500 * 1024;
+    private boolean streamHtmlResponses_;
+    private boolean preloadSubresources_;
+    private int maxSubresourceDownloads_ = 12;
+    private int maxSubresourceDownloadsPerHost_ = 6;
+    private boolean sharedHttpClient_;
+    private int maxConnectionsTotal_ = 20;
+    private int maxConnectionsPerRoute_ = 6;
     private int historySizeLimit_ = 50;
     private int historyPageCacheLimit_ = Integer.MAX_VALUE;
     private InetAddress localAddress_;
@@ -228,6 +236,30 @@ public class WebClientOptions implements Serializable {
         return javaScriptEnabled_;
     }
 
+    /**
+     * Enables/disables the lazy initialization of the JavaScript host classes. If enabled, the
+     * prototypes and constructors of most host classes are not created together with the window
+     * but the first time a script (or HtmlUnit itself) uses them. This speeds up the creation of
+     * windows (including frames) and reduces the memory required for each window.
+     * <p>Enumerating the properties of the window (e.g. {@code Object.getOwnPropertyNames(window)}
+     * or {@code for...in}) configures all host classes not used so far.</p>
+     * By default, this is disabled.
+     *
+     * @param enabled {@code true} to enable the lazy initialization
+     */
+    public void setLazyJavaScriptInitialization(final boolean enabled) {
+        lazyJavaScriptInitialization_ = enabled;
+    }
+
+    /**
+     * Returns {@code true} if the JavaScript host classes are initialized on first use.
+     *
+     * @return {@code true} if the lazy initialization is enabled
+     */
+    public boolean isLazyJavaScriptInitialization() {
+        return lazyJavaScriptInitialization_;
+    }
+
     /**
      * Enables/disables CSS support. By default, this property is enabled.
      * If disabled HtmlUnit will not download the linked css files and also
@@ -537,6 +569,176 @@ public class WebClientOptions implements Serializable {
         maxInMemory_ = maxInMemory;
     }
 
+    /**
+     * Enables/disables the streaming of HTML responses. If enabled, the body of a {@code text/html}
+     * response is not completely downloaded before the page is created; the parser reads it from the
+     * network while building the DOM, so parsing overlaps the download.
+     * <p>The connection stays in use until the body is completely read or the page is cleaned up.
+     * The load time of the {@link WebResponse} does not include the download of the body.</p>
+     * By default, this is disabled.
+     *
+     * @param enabled {@code true} to enable the streaming of HTML responses
+     */
+    public void setStreamHtmlResponses(final boolean enabled) {
+        streamHtmlResponses_ = enabled;
+    }
+
+    /**
+     * Returns {@code true} if the body of HTML responses is parsed while it is downloaded.
+     *
+     * @return {@code true} if the streaming of HTML responses is enabled
+     */
+    public boolean isStreamHtmlResponses() {
+        return streamHtmlResponses_;
+    }
+
+    /**
+     * Enables/disables the preloading of subresources. If enabled, the content of an HTML page is
+     * scanned ahead of the parser and the referenced scripts, stylesheets and (if images are downloaded,
+     * see {@link #setDownloadImages(boolean)}) images are downloaded in parallel, while the parser
+     * waits for a blocking script. The page uses the preloaded responses when it needs them.
+     * <p>The web connection and the cache have to support calls from several threads.</p>
+     * By default, this is disabled.
+     *
+     * @param enabled {@code true} to enable the preloading of subresources
+     */
+    public void setPreloadSubresources(final boolean enabled) {
+        preloadSubresources_ = enabled;
+    }
+
+    /**
+     * Returns {@code true} if the subresources of HTML pages are downloaded ahead of the parser.
+     *
+     * @return {@code true} if the preloading of subresources is enabled
+     */
+    public boolean isPreloadSubresources() {
+        return preloadSubresources_;
+    }
+
+    /**
+     * Sets the maximum number of subresources downloaded in parallel in the background
+     * (see {@link #setPreloadSubresources(boolean)}). Changes have no effect once the
+     * first download has been started.
+     * The default is 12.
+     *
+     * <p>This only applies to the subresources found by the preloading; without preloading
+     * (and for the subresources added later by scripts) the downloads are done one by one on
+     * the thread that needs them.</p>
+     *
+     * @param maxDownloads the maximum number of parallel downloads
+     */
+    public void setMaxSubresourceDownloads(final int maxDownloads) {
+        if (maxDownloads < 1) {
+            throw new IllegalArgumentException("The number of downloads has to be positive.");
+        }
+        maxSubresourceDownloads_ = maxDownloads;
+    }
+
+    /**
+     * Returns the maximum number of subresources downloaded in parallel in the background.
+     *
+     * @return the maximum number of parallel downloads
+     */
+    public int getMaxSubresourceDownloads() {
+        return maxSubresourceDownloads_;
+    }
+
+    /**
+     * Sets the maximum number of subresources downloaded in parallel in the background from
+     * the same host, like the connection limit per host of browsers. Changes have no effect once the
+     * first download has been started.
+     * The default is 6.
+     *
+     * <p>Like {@link #setMaxSubresourceDownloads(int)}, this only applies to the subresources
+     * found by the preloading (see {@link #setPreloadSubresources(boolean)}).</p>
+     *
+     * @param maxDownloadsPerHost the maximum number of parallel downloads per host
+     */
+    public void setMaxSubresourceDownloadsPerHost(final int maxDownloadsPerHost) {
+        if (maxDownloadsPerHost < 1) {
+            throw new IllegalArgumentException("The number of downloads has to be positive.");
+        }
+        maxSubresourceDownloadsPerHost_ = maxDownloadsPerHost;
+    }
+
+    /**
+     * Returns the maximum number of subresources downloaded in parallel in the background from the same host.
+     *
+     * @return the maximum number of parallel downloads per host
+     */
+    public int getMaxSubresourceDownloadsPerHost() {
+        return maxSubresourceDownloadsPerHost_;
+    }
+
+    /**
+     * Enables/disables the sharing of one HTTP client by all threads using the {@link HttpWebConnection}.
+     * If disabled, every thread has its own client configured for each request; if enabled, the client
+     * is configured once and the requests only carry their own context, so threads don't wait for each
+     * other and reuse the pooled connections of the other threads.
+     * <p>This should be enabled if several threads use the same {@link WebClient}, e.g. when preloading
+     * subresources (see {@link #setPreloadSubresources(boolean)}).</p>
+     * By default, this is disabled.
+     *
+     * @param enabled {@code true} to share one HTTP client by all threads
+     */
+    public void setSharedHttpClient(final boolean enabled) {
+        sharedHttpClient_ = enabled;
+    }
+
+    /**
+     * Returns {@code true} if all threads share one HTTP client.
+     *
+     * @return {@code true} if all threads share one HTTP client
+     */
+    public boolean isSharedHttpClient() {
+        return sharedHttpClient_;
+    }
+
+    /**
+     * Sets the maximum number of connections of the connection pool of the {@link HttpWebConnection}.
+     * The default is 20.
+     *
+     * @param maxConnections the maximum number of connections
+     */
+    public void setMaxConnectionsTotal(final int maxConnections) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("The number of connections has to be positive.");
+        }
+        maxConnectionsTotal_ = maxConnections;
+    }
+
+    /**
+     * Returns the maximum number of connections of the connection pool.
+     *
+     * @return the maximum number of connections
+     */
+    public int getMaxConnectionsTotal() {
+        return maxConnectionsTotal_;
+    }
+
+    /**
+     * Sets the maximum number of connections of the connection pool of the {@link HttpWebConnection}
+     * to the same route (host and proxy), like the connection limit per host of browsers.
+     * The default is 6.
+     *
+     * @param maxConnections the maximum number of connections per route
+     */
+    public void setMaxConnectionsPerRoute(final int maxConnections) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("The number of connections has to be positive.");
+        }
+        maxConnectionsPerRoute_ = maxConnections;
+    }
+
+    /**
+     * Returns the maximum number of connections of the connection pool to the same route.
+     *
+     * @return the maximum number of connections per route
+     */
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute_;
+    }
+
     /**
      * Returns the maximum number of {@link Page pages} kept in {@link WebWindow#getHistory()}.
      * @return the maximum number of pages in history
@@ -22,9 +22,11 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
+import java.lang.ref.SoftReference;
 import java.net.URL;
 import java.nio.charset.Charset;
 import java.util.List;
+import java.util.Objects;
 
 import org.apache.commons.io.ByteOrderMark;
 import org.apache.commons.io.IOUtils;
@@ -58,6 +60,24 @@ public class WebResponse implements Serializable {
     private WebResponseData responseData_;
     private WebRequest request_;
     private boolean defaultCharsetUtf8_;
+    private transient volatile Charset sniffedCharset_;
+    private transient volatile boolean charsetSniffed_;
+    private transient volatile SoftReference<DecodedContent> decodedContent_;
+
+    /**
+     * The content decoded as string, with the parameters used.
+     */
+    private static final class DecodedContent {
+        private final Charset encoding_;
+        private final boolean ignoreUtf8Bom_;
+        private final String content_;
+
+        DecodedContent(final Charset encoding, final boolean ignoreUtf8Bom, final String content) {
+            encoding_ = encoding;
+            ignoreUtf8Bom_ = ignoreUtf8Bom;
+            content_ = content;
+        }
+    }
 
     /**
      * Constructs with all data.
@@ -156,8 +176,14 @@ public class WebResponse implements Serializable {
      *         or {@code null} if none was specified
      */
     public Charset getContentCharsetOrNull() {
+        if (charsetSniffed_) {
+            return sniffedCharset_;
+        }
         try (InputStream is = getContentAsStream()) {
-            return EncodingSniffer.sniffEncoding(getResponseHeaders(), is);
+            final Charset charset = EncodingSniffer.sniffEncoding(getResponseHeaders(), is);
+            sniffedCharset_ = charset;
+            charsetSniffed_ = true;
+            return charset;
         }
         catch (final IOException e) {
             LOG.warn("Error trying to sniff encoding.", e);
@@ -224,6 +250,20 @@ public class WebResponse implements Serializable {
      * @return the response content as a string or null if the content retrieval was failing
      */
     public String getContentAsString(final Charset encoding, final boolean ignoreUtf8Bom) {
+        final SoftReference<DecodedContent> reference = decodedContent_;
+        final DecodedContent decoded = reference == null ? null : reference.get();
+        if (decoded != null && decoded.ignoreUtf8Bom_ == ignoreUtf8Bom && Objects.equals(decoded.encoding_, encoding)) {
+            return decoded.content_;
+        }
+
+        final String content = decodeContent(encoding, ignoreUtf8Bom);
+        if (content != null) {
+            decodedContent_ = new SoftReference<>(new DecodedContent(encoding, ignoreUtf8Bom, content));
+        }
+        return content;
+    }
+
+    private String decodeContent(final Charset encoding, final boolean ignoreUtf8Bom) {
         if (responseData_ != null) {
             try (InputStream in = responseData_.getInputStream()) {
                 if (in != null) {
@@ -263,6 +303,29 @@ public class WebResponse implements Serializable {
         return responseData_.getContentLength();
     }
 
+    /**
+     * Returns whether the content is completely downloaded, i.e. whether determining its length
+     * does not need to read from the network.
+     * @return whether the content is completely downloaded
+     */
+    boolean isContentDownloaded() {
+        return responseData_ == null || responseData_.isComplete();
+    }
+
+    /**
+     * Runs the specified action once the content is completely downloaded, immediately if this is
+     * already the case. The action is dropped if the download fails or the response is cleaned up before.
+     * @param action the action
+     */
+    void whenContentDownloaded(final Runnable action) {
+        if (responseData_ == null) {
+            action.run();
+        }
+        else {
+            responseData_.whenComplete(action);
+        }
+    }
+
     /**
      * Returns the response content as an input stream.
      * @return the response content as an input stream
@@ -284,6 +347,7 @@ public class WebResponse implements Serializable {
      * Clean up the response data.
      */
     public void cleanUp() {
+        decodedContent_ = null;
         if (responseData_ != null) {
             responseData_.cleanUp();
         }
@@ -16,9 +16,12 @@ package com.gargoylesoftware.htmlunit;
 
 import static java.nio.charset.StandardCharsets.ISO_8859_1;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.io.Serializable;
+import java.lang.ref.SoftReference;
 import java.util.Collections;
 import java.util.List;
 import java.util.zip.GZIPInputStream;
@@ -26,6 +29,7 @@ import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.ByteArrayOutputStream;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
@@ -46,10 +50,14 @@ import com.gargoylesoftware.htmlunit.util.NameValuePair;
 public class WebResponseData implements Serializable {
     private static final Log LOG = LogFactory.getLog(WebResponseData.class);
 
+    /** The maximum size of the decompressed content kept for the next reads. */
+    private static final int MAX_DECOMPRESSED_IN_MEMORY = 16 * 1024 * 1024;
+
     private final int statusCode_;
     private final String statusMessage_;
     private final List<NameValuePair> responseHeaders_;
     private final DownloadedContent downloadedContent_;
+    private transient volatile SoftReference<byte[]> decompressedContent_;
 
     /**
      * Constructs with a raw byte[] (mostly for testing).
@@ -191,7 +199,60 @@ public class WebResponseData implements Serializable {
      * @throws IOException in case of IO problems
      */
     public InputStream getInputStream() throws IOException {
-        return getStream(downloadedContent_, getResponseHeaders());
+        final List<NameValuePair> headers = getResponseHeaders();
+        if (getHeader(headers, "content-encoding") == null || !isComplete()) {
+            return getStream(downloadedContent_, headers);
+        }
+
+        final SoftReference<byte[]> reference = decompressedContent_;
+        final byte[] decompressed = reference == null ? null : reference.get();
+        if (decompressed != null) {
+            return new ByteArrayInputStream(decompressed);
+        }
+
+        // decompress only once, unless the content is too big to be kept in memory
+        final InputStream stream = getStream(downloadedContent_, headers);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        boolean tooBig = false;
+        try {
+            tooBig = IOUtils.copyLarge(stream, out, 0, MAX_DECOMPRESSED_IN_MEMORY + 1L) > MAX_DECOMPRESSED_IN_MEMORY;
+            if (tooBig) {
+                return new SequenceInputStream(out.toInputStream(), stream);
+            }
+        }
+        finally {
+            if (!tooBig) {
+                stream.close();
+            }
+        }
+
+        final byte[] bytes = out.toByteArray();
+        decompressedContent_ = new SoftReference<>(bytes);
+        return new ByteArrayInputStream(bytes);
+    }
+
+    /**
+     * Returns whether the content is completely downloaded; the content streamed
+     * while it is consumed is not decompressed in advance.
+     * @return whether the content is completely downloaded
+     */
+    boolean isComplete() {
+        return !(downloadedContent_ instanceof StreamingDownloadedContent)
+                || ((StreamingDownloadedContent) downloadedContent_).isComplete();
+    }
+
+    /**
+     * Runs the specified action once the content is completely downloaded, immediately if it is not
+     * streamed while consumed. The action is dropped if the download fails or the data is cleaned up before.
+     * @param action the action
+     */
+    void whenComplete(final Runnable action) {
+        if (downloadedContent_ instanceof StreamingDownloadedContent) {
+            ((StreamingDownloadedContent) downloadedContent_).whenComplete(action);
+        }
+        else {
+            action.run();
+        }
     }
 
     /**
@@ -227,6 +288,7 @@ public class WebResponseData implements Serializable {
      * Clean up the downloaded content.
      */
     public void cleanUp() {
+        decompressedContent_ = null;
         downloadedContent_.cleanUp();
     }
 }
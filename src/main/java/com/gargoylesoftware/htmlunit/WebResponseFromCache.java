@@ -14,17 +14,27 @@
  */
 package com.gargoylesoftware.htmlunit;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.charset.Charset;
+
 import com.gargoylesoftware.htmlunit.util.WebResponseWrapper;
 
 /**
  * A {@link WebResponse} implementation to deliver with content from cache. The response
  * is the same but the request may have some variation like an anchor.
  *
+ * <p>The cached response may be used by several clients at the same time, therefore
+ * {@link #defaultCharsetUtf8()} only affects this instance.</p>
+ *
  * @author Marc Guillemot
+ * @author Ronald Brill
  */
 class WebResponseFromCache extends WebResponseWrapper {
 
+    private final WebResponse cachedResponse_;
     private final WebRequest request_;
+    private boolean defaultCharsetUtf8_;
 
     /**
      * Wraps the provide response for the given request
@@ -33,9 +43,45 @@ class WebResponseFromCache extends WebResponseWrapper {
      */
     WebResponseFromCache(final WebResponse cachedResponse, final WebRequest currentRequest) {
         super(cachedResponse);
+        cachedResponse_ = cachedResponse;
         request_ = currentRequest;
     }
 
+    /**
+     * Returns the wrapped response, as stored in the cache.
+     * @return the cached response
+     */
+    WebResponse getCachedResponse() {
+        return cachedResponse_;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Charset getContentCharset() {
+        if (defaultCharsetUtf8_ && getContentCharsetOrNull() == null) {
+            return UTF_8;
+        }
+        return super.getContentCharset();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getContentAsString() {
+        return getContentAsString(getContentCharset());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void defaultCharsetUtf8() {
+        defaultCharsetUtf8_ = true;
+    }
+
     /**
      * {@inheritDoc}
      */
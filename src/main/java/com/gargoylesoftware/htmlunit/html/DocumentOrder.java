@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2002-2019 Gargoyle Software Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gargoylesoftware.htmlunit.html;
+
+import static org.w3c.dom.Node.DOCUMENT_POSITION_CONTAINS;
+import static org.w3c.dom.Node.DOCUMENT_POSITION_PRECEDING;
+
+import java.io.Serializable;
+import java.util.Comparator;
+import java.util.Iterator;
+
+/**
+ * Compares the nodes of a page by their document order in constant time.
+ *
+ * <p>Every node of the page gets a key increasing in document order. A node added to the page
+ * gets keys between the ones of the nodes before and after it; if there is no room left, the keys
+ * are marked invalid and all nodes are renumbered on the next comparison. Removed nodes lose their
+ * key.</p>
+ *
+ * @author Ronald Brill
+ */
+final class DocumentOrder implements Comparator<DomNode>, Serializable {
+
+    /** The key of a node without a valid position. */
+    static final long UNORDERED = Long.MIN_VALUE;
+
+    /** The distance between the keys of adjacent nodes after renumbering. */
+    private static final long RENUMBER_SPACING = 1L << 32;
+
+    /** The maximum distance between the keys of added nodes. */
+    private static final long INSERT_SPACING = 1L << 20;
+
+    private final DomNode root_;
+    private boolean valid_;
+
+    /**
+     * Creates a new instance.
+     * @param root the root of the tree (the page)
+     */
+    DocumentOrder(final DomNode root) {
+        root_ = root;
+    }
+
+    /**
+     * Assigns keys to the specified node and its descendants after they have been added to the tree.
+     * @param node the added node
+     */
+    void nodeAdded(final DomNode node) {
+        if (!valid_) {
+            return;
+        }
+
+        DomNode previous = node.getPreviousSibling();
+        if (previous == null) {
+            previous = node.getParentNode();
+        }
+        else {
+            while (previous.getLastChild() != null) {
+                previous = previous.getLastChild();
+            }
+        }
+
+        long next = Long.MAX_VALUE;
+        for (DomNode n = node; n != null; n = n.getParentNode()) {
+            final DomNode nextSibling = n.getNextSibling();
+            if (nextSibling != null) {
+                next = nextSibling.getDocumentOrder();
+                break;
+            }
+        }
+
+        if (previous == null || previous.getDocumentOrder() == UNORDERED || next == UNORDERED) {
+            valid_ = false;
+            return;
+        }
+
+        int count = 1;
+        for (final Iterator<DomNode> it = node.getDescendants().iterator(); it.hasNext(); it.next()) {
+            count++;
+        }
+
+        long order = previous.getDocumentOrder();
+        final long step = Math.min(INSERT_SPACING, (next - order) / (count + 1));
+        if (step < 1) {
+            valid_ = false;
+            return;
+        }
+
+        order += step;
+        node.setDocumentOrder(order);
+        for (final DomNode descendant : node.getDescendants()) {
+            order += step;
+            descendant.setDocumentOrder(order);
+        }
+    }
+
+    /**
+     * Compares the document position of two nodes of the page.
+     * @param node1 the first node
+     * @param node2 the second node
+     * @return a negative integer if the first node precedes the second one, zero if both are the same node
+     *         and a positive integer otherwise
+     */
+    @Override
+    public int compare(final DomNode node1, final DomNode node2) {
+        if (node1 == node2) {
+            return 0;
+        }
+
+        // detached nodes stay unordered, renumbering would not help for them
+        if (!valid_ || isUnorderedInTree(node1) || isUnorderedInTree(node2)) {
+            renumber();
+        }
+
+        final long order1 = node1.getDocumentOrder();
+        final long order2 = node2.getDocumentOrder();
+        if (order1 == UNORDERED || order2 == UNORDERED) {
+            // not part of the tree
+            final short relation = node1.compareDocumentPosition(node2);
+            if ((relation & DOCUMENT_POSITION_CONTAINS) != 0 || (relation & DOCUMENT_POSITION_PRECEDING) != 0) {
+                return 1;
+            }
+            return -1;
+        }
+        return Long.compare(order1, order2);
+    }
+
+    /**
+     * Returns whether the specified node is part of the tree but has no key yet.
+     * @param node the node to check
+     * @return {@code true} if the node needs a key
+     */
+    private static boolean isUnorderedInTree(final DomNode node) {
+        return node.getDocumentOrder() == UNORDERED && node.isAttachedToPage();
+    }
+
+    /**
+     * Assigns new keys to all nodes of the tree.
+     */
+    private void renumber() {
+        long order = 0;
+        root_.setDocumentOrder(order);
+        for (final DomNode descendant : root_.getDescendants()) {
+            order += RENUMBER_SPACING;
+            descendant.setDocumentOrder(order);
+        }
+        valid_ = true;
+    }
+}
@@ -20,7 +20,10 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.io.StringWriter;
-import java.util.ArrayList;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -30,6 +33,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -87,11 +91,11 @@ public class DomElement extends DomNamespaceNode implements Element {
     /** The map holding the attributes, keyed by name. */
     private NamedAttrNodeMapImpl attributes_ = new NamedAttrNodeMapImpl(this, isAttributeCaseSensitive());
 
-    /** The map holding the namespaces, keyed by URI. */
-    private Map<String, String> namespaces_ = new HashMap<>();
+    /** The map holding the namespaces, keyed by URI ({@code null} if there are none). */
+    private Map<String, String> namespaces_;
 
     /** Cache for the styles. */
-    private String styleString_ = new String();
+    private String styleString_;
     private Map<String, StyleElement> styleMap_;
 
     /**
@@ -117,7 +121,7 @@ public class DomElement extends DomNamespaceNode implements Element {
                 entry.setParentNode(this);
                 final String attrNamespaceURI = entry.getNamespaceURI();
                 if (attrNamespaceURI != null) {
-                    namespaces_.put(attrNamespaceURI, entry.getPrefix());
+                    putNamespace(attrNamespaceURI, entry.getPrefix());
                 }
             }
         }
@@ -359,7 +363,10 @@ public class DomElement extends DomNamespaceNode implements Element {
             qualifiedName = localName;
         }
         else {
-            final String prefix = namespaces_.get(namespaceURI);
+            String prefix = null;
+            if (namespaces_ != null) {
+                prefix = namespaces_.get(namespaceURI);
+            }
             if (prefix == null) {
                 qualifiedName = null;
             }
@@ -508,8 +515,15 @@ public class DomElement extends DomNamespaceNode implements Element {
         attributes_.put(qualifiedName, newAttr);
 
         if (namespaceURI != null) {
-            namespaces_.put(namespaceURI, newAttr.getPrefix());
+            putNamespace(namespaceURI, newAttr.getPrefix());
+        }
+    }
+
+    private void putNamespace(final String namespaceURI, final String prefix) {
+        if (namespaces_ == null) {
+            namespaces_ = new HashMap<>();
         }
+        namespaces_.put(namespaceURI, prefix);
     }
 
     /**
@@ -1536,12 +1550,24 @@ public class DomElement extends DomNamespaceNode implements Element {
 
 /**
  * The {@link NamedNodeMap} to store the node attributes.
+ *
+ * <p>The attributes are stored in insertion order in two small arrays, because most elements only have
+ * a few attributes. Elements with many attributes get an additional hash map to find the attributes
+ * by name.</p>
  */
 class NamedAttrNodeMapImpl implements Map<String, DomAttr>, NamedNodeMap, Serializable {
     protected static final NamedAttrNodeMapImpl EMPTY_MAP = new NamedAttrNodeMapImpl();
 
-    private final Map<String, DomAttr> map_ = new LinkedHashMap<>();
-    private final List<String> attrPositions_ = new ArrayList<>();
+    /** Above this number of attributes, the attributes are also indexed by name. */
+    private static final int MAX_LINEAR_SEARCH = 8;
+
+    private static final String[] NO_NAMES = {};
+    private static final DomAttr[] NO_ATTRIBUTES = {};
+
+    private String[] names_ = NO_NAMES;
+    private DomAttr[] attributes_ = NO_ATTRIBUTES;
+    private int size_;
+    private Map<String, DomAttr> index_;
     private final DomElement domNode_;
     private final boolean caseSensitive_;
 
@@ -1563,6 +1589,7 @@ class NamedAttrNodeMapImpl implements Map<String, DomAttr>, NamedNodeMap, Serial
     NamedAttrNodeMapImpl(final DomElement domNode, final boolean caseSensitive,
             final Map<String, DomAttr> attributes) {
         this(domNode, caseSensitive);
+        ensureCapacity(attributes.size());
         putAll(attributes);
     }
 
@@ -1605,10 +1632,10 @@ class NamedAttrNodeMapImpl implements Map<String, DomAttr>, NamedNodeMap, Serial
      */
     @Override
     public Node item(final int index) {
-        if (index < 0 || index >= attrPositions_.size()) {
+        if (index < 0 || index >= size_) {
             return null;
         }
-        return map_.get(attrPositions_.get(index));
+        return attributes_[index];
     }
 
     /**
@@ -1652,11 +1679,38 @@ class NamedAttrNodeMapImpl implements Map<String, DomAttr>, NamedNodeMap, Serial
     @Override
     public DomAttr put(final String key, final DomAttr value) {
         final String name = fixName(key);
-        final DomAttr previous = map_.put(name, value);
-        if (null == previous) {
-            attrPositions_.add(name);
+        final int position = indexOf(name);
+        if (position != -1) {
+            final DomAttr previous = attributes_[position];
+            attributes_[position] = value;
+            if (index_ != null) {
+                index_.put(name, value);
+            }
+            return previous;
+        }
+
+        ensureCapacity(size_ + 1);
+        names_[size_] = name;
+        attributes_[size_] = value;
+        size_++;
+        if (index_ != null) {
+            index_.put(name, value);
+        }
+        else if (size_ > MAX_LINEAR_SEARCH) {
+            index_ = new HashMap<>();
+            for (int i = 0; i < size_; i++) {
+                index_.put(names_[i], attributes_[i]);
+            }
+        }
+        return null;
+    }
+
+    private void ensureCapacity(final int capacity) {
+        if (capacity > names_.length) {
+            final int newCapacity = Math.max(capacity, Math.max(4, names_.length * 2));
+            names_ = Arrays.copyOf(names_, newCapacity);
+            attributes_ = Arrays.copyOf(attributes_, newCapacity);
         }
-        return previous;
     }
 
     /**
@@ -1665,20 +1719,56 @@ class NamedAttrNodeMapImpl implements Map<String, DomAttr>, NamedNodeMap, Serial
     @Override
     public DomAttr remove(final Object key) {
         if (key instanceof String) {
-            final String name = fixName((String) key);
-            attrPositions_.remove(name);
-            return map_.remove(name);
+            final int position = indexOf(fixName((String) key));
+            if (position != -1) {
+                return removeAt(position);
+            }
         }
         return null;
     }
 
+    private DomAttr removeAt(final int position) {
+        final DomAttr previous = attributes_[position];
+        if (index_ != null) {
+            index_.remove(names_[position]);
+        }
+        final int moved = size_ - position - 1;
+        if (moved > 0) {
+            System.arraycopy(names_, position + 1, names_, position, moved);
+            System.arraycopy(attributes_, position + 1, attributes_, position, moved);
+        }
+        size_--;
+        names_[size_] = null;
+        attributes_[size_] = null;
+        return previous;
+    }
+
+    /**
+     * Returns the position of the attribute.
+     * @param name the fixed name
+     * @return the position or -1
+     */
+    private int indexOf(final String name) {
+        if (index_ != null && !index_.containsKey(name)) {
+            return -1;
+        }
+        for (int i = 0; i < size_; i++) {
+            if (names_[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public void clear() {
-        attrPositions_.clear();
-        map_.clear();
+        names_ = NO_NAMES;
+        attributes_ = NO_ATTRIBUTES;
+        size_ = 0;
+        index_ = null;
     }
 
     /**
@@ -1699,7 +1789,7 @@ class NamedAttrNodeMapImpl implements Map<String, DomAttr>, NamedNodeMap, Serial
     public boolean containsKey(final Object key) {
         if (key instanceof String) {
             final String name = fixName((String) key);
-            return map_.containsKey(name);
+            return indexOf(name) != -1;
         }
         return false;
     }
@@ -1711,7 +1801,7 @@ class NamedAttrNodeMapImpl implements Map<String, DomAttr>, NamedNodeMap, Serial
     public DomAttr get(final Object key) {
         if (key instanceof String) {
             final String name = fixName((String) key);
-            return map_.get(name);
+            return getDirect(name);
         }
         return null;
     }
@@ -1721,7 +1811,15 @@ class NamedAttrNodeMapImpl implements Map<String, DomAttr>, NamedNodeMap, Serial
      * @param the key
      */
     protected DomAttr getDirect(final String key) {
-        return map_.get(key);
+        if (index_ != null) {
+            return index_.get(key);
+        }
+        for (int i = 0; i < size_; i++) {
+            if (names_[i].equals(key)) {
+                return attributes_[i];
+            }
+        }
+        return null;
     }
 
     /**
@@ -1729,7 +1827,12 @@ class NamedAttrNodeMapImpl implements Map<String, DomAttr>, NamedNodeMap, Serial
      */
     @Override
     public boolean containsValue(final Object value) {
-        return map_.containsValue(value);
+        for (int i = 0; i < size_; i++) {
+            if (Objects.equals(attributes_[i], value)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -1737,7 +1840,22 @@ class NamedAttrNodeMapImpl implements Map<String, DomAttr>, NamedNodeMap, Serial
      */
     @Override
     public Set<Map.Entry<String, DomAttr>> entrySet() {
-        return map_.entrySet();
+        return new AbstractSet<Map.Entry<String, DomAttr>>() {
+            @Override
+            public Iterator<Map.Entry<String, DomAttr>> iterator() {
+                return new PositionIterator<Map.Entry<String, DomAttr>>() {
+                    @Override
+                    Map.Entry<String, DomAttr> get(final int position) {
+                        return new AttributeEntry(names_[position], attributes_[position]);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size_;
+            }
+        };
     }
 
     /**
@@ -1745,7 +1863,7 @@ class NamedAttrNodeMapImpl implements Map<String, DomAttr>, NamedNodeMap, Serial
      */
     @Override
     public boolean isEmpty() {
-        return map_.isEmpty();
+        return size_ == 0;
     }
 
     /**
@@ -1753,7 +1871,27 @@ class NamedAttrNodeMapImpl implements Map<String, DomAttr>, NamedNodeMap, Serial
      */
     @Override
     public Set<String> keySet() {
-        return map_.keySet();
+        return new AbstractSet<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                return new PositionIterator<String>() {
+                    @Override
+                    String get(final int position) {
+                        return names_[position];
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(final Object o) {
+                return o instanceof String && indexOf((String) o) != -1;
+            }
+
+            @Override
+            public int size() {
+                return size_;
+            }
+        };
     }
 
     /**
@@ -1761,7 +1899,7 @@ class NamedAttrNodeMapImpl implements Map<String, DomAttr>, NamedNodeMap, Serial
      */
     @Override
     public int size() {
-        return map_.size();
+        return size_;
     }
 
     /**
@@ -1769,6 +1907,78 @@ class NamedAttrNodeMapImpl implements Map<String, DomAttr>, NamedNodeMap, Serial
      */
     @Override
     public Collection<DomAttr> values() {
-        return map_.values();
+        return new AbstractCollection<DomAttr>() {
+            @Override
+            public Iterator<DomAttr> iterator() {
+                return new PositionIterator<DomAttr>() {
+                    @Override
+                    DomAttr get(final int position) {
+                        return attributes_[position];
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size_;
+            }
+        };
+    }
+
+    /**
+     * An entry of the {@link #entrySet()}; like the entries of a {@link LinkedHashMap},
+     * {@link #setValue(DomAttr)} replaces the attribute in the map.
+     */
+    private final class AttributeEntry extends AbstractMap.SimpleEntry<String, DomAttr> {
+        AttributeEntry(final String name, final DomAttr attribute) {
+            super(name, attribute);
+        }
+
+        @Override
+        public DomAttr setValue(final DomAttr value) {
+            final int position = indexOf(getKey());
+            if (position != -1) {
+                attributes_[position] = value;
+                if (index_ != null) {
+                    index_.put(getKey(), value);
+                }
+            }
+            return super.setValue(value);
+        }
+    }
+
+    /**
+     * Iterates over the positions of the attributes, supporting the removal of the current one.
+     * @param <T> the type of the iterated objects
+     */
+    private abstract class PositionIterator<T> implements Iterator<T> {
+        private int next_;
+        private int current_ = -1;
+
+        abstract T get(int position);
+
+        @Override
+        public boolean hasNext() {
+            return next_ < size_;
+        }
+
+        @Override
+        public T next() {
+            if (next_ >= size_) {
+                throw new NoSuchElementException();
+            }
+            current_ = next_++;
+            return get(current_);
+        }
+
+        @Override
+        public void remove() {
+            if (current_ == -1) {
+                throw new IllegalStateException();
+            }
+            removeAt(current_);
+            next_ = current_;
+            current_ = -1;
+        }
     }
 }
@@ -16,11 +16,11 @@ package com.gargoylesoftware.htmlunit.html;
 
 import static com.gargoylesoftware.htmlunit.BrowserVersionFeatures.DOM_NORMALIZE_REMOVE_CHILDREN;
 import static com.gargoylesoftware.htmlunit.BrowserVersionFeatures.QUERYSELECTORALL_NOT_IN_QUIRKS;
+import static com.gargoylesoftware.htmlunit.BrowserVersionFeatures.QUERYSELECTOR_CSS3_PSEUDO_REQUIRE_ATTACHED_NODE;
 import static com.gargoylesoftware.htmlunit.BrowserVersionFeatures.XPATH_ATTRIBUTE_CASE_SENSITIVE;
 import static com.gargoylesoftware.htmlunit.BrowserVersionFeatures.XPATH_SELECTION_NAMESPACES;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.io.StringWriter;
@@ -28,11 +28,15 @@ import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import org.apache.xml.utils.PrefixResolver;
 import org.w3c.dom.DOMException;
@@ -45,9 +49,14 @@ import com.gargoylesoftware.css.parser.CSSErrorHandler;
 import com.gargoylesoftware.css.parser.CSSException;
 import com.gargoylesoftware.css.parser.CSSOMParser;
 import com.gargoylesoftware.css.parser.CSSParseException;
+import com.gargoylesoftware.css.parser.condition.Condition;
+import com.gargoylesoftware.css.parser.condition.Condition.ConditionType;
 import com.gargoylesoftware.css.parser.javacc.CSS3Parser;
+import com.gargoylesoftware.css.parser.selector.ElementSelector;
 import com.gargoylesoftware.css.parser.selector.Selector;
+import com.gargoylesoftware.css.parser.selector.Selector.SelectorType;
 import com.gargoylesoftware.css.parser.selector.SelectorList;
+import com.gargoylesoftware.css.parser.selector.SimpleSelector;
 import com.gargoylesoftware.htmlunit.BrowserVersion;
 import com.gargoylesoftware.htmlunit.BrowserVersionFeatures;
 import com.gargoylesoftware.htmlunit.IncorrectnessListener;
@@ -58,6 +67,7 @@ import com.gargoylesoftware.htmlunit.WebClient;
 import com.gargoylesoftware.htmlunit.html.HtmlElement.DisplayStyle;
 import com.gargoylesoftware.htmlunit.html.xpath.XPathHelper;
 import com.gargoylesoftware.htmlunit.javascript.SimpleScriptable;
+import com.gargoylesoftware.htmlunit.javascript.host.css.AncestorFilter;
 import com.gargoylesoftware.htmlunit.javascript.host.css.CSSStyleDeclaration;
 import com.gargoylesoftware.htmlunit.javascript.host.css.CSSStyleSheet;
 import com.gargoylesoftware.htmlunit.javascript.host.css.StyleAttributes;
@@ -145,9 +155,6 @@ public abstract class DomNode implements Cloneable, Serializable, Node {
      */
     private Object scriptObject_;
 
-    /** The ready state is is an IE-only value that is available to a large number of elements. */
-    private String readyState_;
-
     /**
      * The line number in the source page where the DOM node starts.
      */
@@ -170,25 +177,72 @@ public abstract class DomNode implements Cloneable, Serializable, Node {
 
     private boolean attachedToPage_;
 
-    private transient Object listeners_lock_ = new Object();
+    /** The key of the document order, see {@link DocumentOrder}. */
+    private long documentOrder_ = DocumentOrder.UNORDERED;
+
+    /** The rarely used fields, {@code null} until one of them is set. */
+    private volatile RareData rareData_;
+
+    private static final AtomicReferenceFieldUpdater<DomNode, RareData> RARE_DATA_UPDATER
+            = AtomicReferenceFieldUpdater.newUpdater(DomNode.class, RareData.class, "rareData_");
 
-    /** The listeners which are to be notified of characterData change. */
-    private Collection<CharacterDataChangeListener> characterDataListeners_;
-    private List<CharacterDataChangeListener> characterDataListenersList_;
+    /**
+     * The fields most nodes don't use. They are kept in a separate object
+     * to reduce the size of the nodes.
+     */
+    private static final class RareData implements Serializable {
+        /** The ready state is is an IE-only value that is available to a large number of elements. */
+        private String readyState_ = READY_STATE_LOADING;
 
-    private Collection<DomChangeListener> domListeners_;
-    private List<DomChangeListener> domListenersList_;
-    private Map<String, Object> userData_;
+        /**
+         * Guards the listeners; not the node itself, because the scripts of a page
+         * are executed holding the lock of the page.
+         */
+        private Object listenersLock_ = new Object();
+
+        /** The listeners which are to be notified of characterData change. */
+        private Collection<CharacterDataChangeListener> characterDataListeners_;
+        private List<CharacterDataChangeListener> characterDataListenersList_;
+
+        private Collection<DomChangeListener> domListeners_;
+        private List<DomChangeListener> domListenersList_;
+        private Map<String, Object> userData_;
+
+        RareData copy() {
+            final RareData copy = new RareData();
+            copy.readyState_ = readyState_;
+            // the listeners are shared with the copy, so is their lock
+            copy.listenersLock_ = listenersLock_;
+            copy.characterDataListeners_ = characterDataListeners_;
+            copy.characterDataListenersList_ = characterDataListenersList_;
+            copy.domListeners_ = domListeners_;
+            copy.domListenersList_ = domListenersList_;
+            copy.userData_ = userData_;
+            return copy;
+        }
+    }
 
     /**
      * Creates a new instance.
      * @param page the page which contains this node
      */
     protected DomNode(final SgmlPage page) {
-        readyState_ = READY_STATE_LOADING;
         page_ = page;
     }
 
+    /**
+     * Returns the rarely used fields, creating them if needed.
+     * @return the rarely used fields
+     */
+    private RareData getRareData() {
+        final RareData rareData = rareData_;
+        if (rareData != null) {
+            return rareData;
+        }
+        RARE_DATA_UPDATER.compareAndSet(this, null, new RareData());
+        return rareData_;
+    }
+
     /**
      * Sets the line and column numbers in the source page where the DOM node starts.
      *
@@ -397,6 +451,22 @@ public abstract class DomNode implements Cloneable, Serializable, Node {
         nextSibling_ = next;
     }
 
+    /**
+     * Returns the key of the document order of this node.
+     * @return the key or {@link DocumentOrder#UNORDERED}
+     */
+    long getDocumentOrder() {
+        return documentOrder_;
+    }
+
+    /**
+     * Sets the key of the document order of this node.
+     * @param documentOrder the key
+     */
+    void setDocumentOrder(final long documentOrder) {
+        documentOrder_ = documentOrder;
+    }
+
     /**
      * Returns this node's node type.
      * @return this node's node type
@@ -673,8 +743,8 @@ public abstract class DomNode implements Cloneable, Serializable, Node {
     @Override
     public Object getUserData(final String key) {
         Object value = null;
-        if (userData_ != null) {
-            value = userData_.get(key);
+        if (rareData_ != null && rareData_.userData_ != null) {
+            value = rareData_.userData_.get(key);
         }
         return value;
     }
@@ -684,10 +754,11 @@ public abstract class DomNode implements Cloneable, Serializable, Node {
      */
     @Override
     public Object setUserData(final String key, final Object data, final UserDataHandler handler) {
-        if (userData_ == null) {
-            userData_ = new HashMap<>();
+        final RareData rareData = getRareData();
+        if (rareData.userData_ == null) {
+            rareData.userData_ = new HashMap<>();
         }
-        return userData_.put(key, data);
+        return rareData.userData_.put(key, data);
     }
 
     /**
@@ -884,6 +955,10 @@ public abstract class DomNode implements Cloneable, Serializable, Node {
         newnode.scriptObject_ = null;
         newnode.firstChild_ = null;
         newnode.attachedToPage_ = false;
+        newnode.documentOrder_ = DocumentOrder.UNORDERED;
+        if (rareData_ != null) {
+            newnode.rareData_ = rareData_.copy();
+        }
 
         // if deep, clone the children too.
         if (deep) {
@@ -1176,16 +1251,18 @@ public abstract class DomNode implements Cloneable, Serializable, Node {
         previousSibling_ = null;
         parent_ = null;
         attachedToPage_ = false;
+        documentOrder_ = DocumentOrder.UNORDERED;
         for (DomNode descendant : getDescendants()) {
             descendant.attachedToPage_ = false;
+            descendant.documentOrder_ = DocumentOrder.UNORDERED;
         }
     }
 
     private void fireRemoval(final DomNode exParent) {
         final HtmlPage htmlPage = getHtmlPageOrNull();
         if (htmlPage != null) {
-            // some of the actions executed on removal need an intact parent relationship (e.g. for the
-            // DocumentPositionComparator) so we have to restore it temporarily
+            // some of the actions executed on removal need an intact parent relationship
+            // so we have to restore it temporarily
             parent_ = exParent;
             htmlPage.notifyNodeRemoved(this);
             parent_ = null;
@@ -1503,7 +1580,10 @@ public abstract class DomNode implements Cloneable, Serializable, Node {
      * @return this node's ready state
      */
     public String getReadyState() {
-        return readyState_;
+        if (rareData_ == null) {
+            return READY_STATE_LOADING;
+        }
+        return rareData_.readyState_;
     }
 
     /**
@@ -1511,7 +1591,7 @@ public abstract class DomNode implements Cloneable, Serializable, Node {
      * @param state this node's ready state
      */
     public void setReadyState(final String state) {
-        readyState_ = state;
+        getRareData().readyState_ = state;
     }
 
     /**
@@ -1634,13 +1714,8 @@ public abstract class DomNode implements Cloneable, Serializable, Node {
      * @see #getByXPath(String)
      * @see #getCanonicalXPath()
      */
-    @SuppressWarnings("unchecked")
     public <X> X getFirstByXPath(final String xpathExpr, final PrefixResolver resolver) {
-        final List<?> results = getByXPath(xpathExpr, resolver);
-        if (results.isEmpty()) {
-            return null;
-        }
-        return (X) results.get(0);
+        return XPathHelper.getFirstByXPath(this, xpathExpr, resolver, hasFeature(XPATH_ATTRIBUTE_CASE_SENSITIVE));
     }
 
     /**
@@ -1678,12 +1753,13 @@ public abstract class DomNode implements Cloneable, Serializable, Node {
     public void addDomChangeListener(final DomChangeListener listener) {
         WebAssert.notNull("listener", listener);
 
-        synchronized (listeners_lock_) {
-            if (domListeners_ == null) {
-                domListeners_ = new LinkedHashSet<>();
+        final RareData rareData = getRareData();
+        synchronized (rareData.listenersLock_) {
+            if (rareData.domListeners_ == null) {
+                rareData.domListeners_ = new LinkedHashSet<>();
             }
-            domListeners_.add(listener);
-            domListenersList_ = null;
+            rareData.domListeners_.add(listener);
+            rareData.domListenersList_ = null;
         }
     }
 
@@ -1697,10 +1773,14 @@ public abstract class DomNode implements Cloneable, Serializable, Node {
     public void removeDomChangeListener(final DomChangeListener listener) {
         WebAssert.notNull("listener", listener);
 
-        synchronized (listeners_lock_) {
-            if (domListeners_ != null) {
-                domListeners_.remove(listener);
-                domListenersList_ = null;
+        final RareData rareData = rareData_;
+        if (rareData == null) {
+            return;
+        }
+        synchronized (rareData.listenersLock_) {
+            if (rareData.domListeners_ != null) {
+                rareData.domListeners_.remove(listener);
+                rareData.domListenersList_ = null;
             }
         }
     }
@@ -1735,12 +1815,13 @@ public abstract class DomNode implements Cloneable, Serializable, Node {
     public void addCharacterDataChangeListener(final CharacterDataChangeListener listener) {
         WebAssert.notNull("listener", listener);
 
-        synchronized (listeners_lock_) {
-            if (characterDataListeners_ == null) {
-                characterDataListeners_ = new LinkedHashSet<>();
+        final RareData rareData = getRareData();
+        synchronized (rareData.listenersLock_) {
+            if (rareData.characterDataListeners_ == null) {
+                rareData.characterDataListeners_ = new LinkedHashSet<>();
             }
-            characterDataListeners_.add(listener);
-            characterDataListenersList_ = null;
+            rareData.characterDataListeners_.add(listener);
+            rareData.characterDataListenersList_ = null;
         }
     }
 
@@ -1754,10 +1835,14 @@ public abstract class DomNode implements Cloneable, Serializable, Node {
     public void removeCharacterDataChangeListener(final CharacterDataChangeListener listener) {
         WebAssert.notNull("listener", listener);
 
-        synchronized (listeners_lock_) {
-            if (characterDataListeners_ != null) {
-                characterDataListeners_.remove(listener);
-                characterDataListenersList_ = null;
+        final RareData rareData = rareData_;
+        if (rareData == null) {
+            return;
+        }
+        synchronized (rareData.listenersLock_) {
+            if (rareData.characterDataListeners_ != null) {
+                rareData.characterDataListeners_.remove(listener);
+                rareData.characterDataListenersList_ = null;
             }
         }
     }
@@ -1802,26 +1887,34 @@ public abstract class DomNode implements Cloneable, Serializable, Node {
     }
 
     private List<DomChangeListener> safeGetDomListeners() {
-        synchronized (listeners_lock_) {
-            if (domListeners_ == null) {
+        final RareData rareData = rareData_;
+        if (rareData == null) {
+            return null;
+        }
+        synchronized (rareData.listenersLock_) {
+            if (rareData.domListeners_ == null) {
                 return null;
             }
-            if (domListenersList_ == null) {
-                domListenersList_ = new ArrayList<>(domListeners_);
+            if (rareData.domListenersList_ == null) {
+                rareData.domListenersList_ = new ArrayList<>(rareData.domListeners_);
             }
-            return domListenersList_;
+            return rareData.domListenersList_;
         }
     }
 
     private List<CharacterDataChangeListener> safeGetCharacterDataListeners() {
-        synchronized (listeners_lock_) {
-            if (characterDataListeners_ == null) {
+        final RareData rareData = rareData_;
+        if (rareData == null) {
+            return null;
+        }
+        synchronized (rareData.listenersLock_) {
+            if (rareData.characterDataListeners_ == null) {
                 return null;
             }
-            if (characterDataListenersList_ == null) {
-                characterDataListenersList_ = new ArrayList<>(characterDataListeners_);
+            if (rareData.characterDataListenersList_ == null) {
+                rareData.characterDataListenersList_ = new ArrayList<>(rareData.characterDataListeners_);
             }
-            return characterDataListenersList_;
+            return rareData.characterDataListenersList_;
         }
     }
 
@@ -1832,28 +1925,118 @@ public abstract class DomNode implements Cloneable, Serializable, Node {
      * @return list of all found nodes
      */
     public DomNodeList<DomNode> querySelectorAll(final String selectors) {
+        return new StaticDomNodeList(querySelectorAll(selectors, false));
+    }
+
+    /**
+     * Retrieves the element nodes from descendants of this node that match any selector
+     * within the supplied selector strings.
+     * @param selectors one or more CSS selectors separated by commas
+     * @param firstOnly whether to stop after the first match
+     * @return list of the found nodes
+     */
+    private List<DomNode> querySelectorAll(final String selectors, final boolean firstOnly) {
         try {
             final BrowserVersion browserVersion = getPage().getWebClient().getBrowserVersion();
             final SelectorList selectorList = getSelectorList(selectors, browserVersion);
 
             final List<DomNode> elements = new ArrayList<>();
             if (selectorList != null) {
-                for (final DomElement child : getDomElementDescendants()) {
-                    for (Selector selector : selectorList) {
-                        if (CSSStyleSheet.selects(browserVersion, selector, child, null, true)) {
+                Iterable<DomElement> candidates = getElementsByIdOfSelectors(selectorList);
+                if (candidates == null) {
+                    candidates = getDomElementDescendants();
+                }
+
+                // most candidates of descendant selectors are rejected by a bloom filter of their ancestors
+                final int[][] ancestorHashes = new int[selectorList.size()][];
+                boolean useAncestorFilter = false;
+                for (int i = 0; i < ancestorHashes.length; i++) {
+                    ancestorHashes[i] = AncestorFilter.getAncestorHashes(selectorList.get(i));
+                    useAncestorFilter |= ancestorHashes[i].length > 0;
+                }
+                final Map<DomNode, AncestorFilter> ancestorFilters = new IdentityHashMap<>();
+
+                for (final DomElement child : candidates) {
+                    AncestorFilter ancestorFilter = null;
+                    if (useAncestorFilter) {
+                        ancestorFilter = AncestorFilter.of(child, ancestorFilters);
+                    }
+                    for (int i = 0; i < ancestorHashes.length; i++) {
+                        if (ancestorFilter != null && !ancestorFilter.mayMatch(ancestorHashes[i])) {
+                            continue;
+                        }
+                        if (CSSStyleSheet.selects(browserVersion, selectorList.get(i), child, null, true)) {
                             elements.add(child);
                             break;
                         }
                     }
+                    if (firstOnly && !elements.isEmpty()) {
+                        break;
+                    }
                 }
             }
-            return new StaticDomNodeList(elements);
+            return elements;
         }
         catch (final IOException e) {
             throw new CSSException("Error parsing CSS selectors from '" + selectors + "': " + e.getMessage());
         }
     }
 
+    /**
+     * If every selector requires an id from the matched element, returns the descendants with one of
+     * these ids (in document order) using the id map of the page; otherwise {@code null}.
+     * The map is only used if it is complete, see {@link HtmlPage#isIdMapComplete()}.
+     * @param selectorList the selectors
+     * @return the candidates or {@code null} if all descendants have to be checked
+     */
+    private List<DomElement> getElementsByIdOfSelectors(final SelectorList selectorList) {
+        final SgmlPage page = getPage();
+        if (!(page instanceof HtmlPage) || (this != page && !isAttachedToPage())
+                || !((HtmlPage) page).isIdMapComplete()) {
+            return null;
+        }
+
+        final Set<DomElement> candidates;
+        if (selectorList.size() == 1) {
+            candidates = new LinkedHashSet<>();
+        }
+        else {
+            candidates = new TreeSet<>(((HtmlPage) page).getDocumentOrder());
+        }
+        for (final Selector selector : selectorList) {
+            final String id = getRequiredId(selector);
+            if (id == null) {
+                return null;
+            }
+            for (final DomElement element : ((HtmlPage) page).getElementsById(id)) {
+                if (element != this && isAncestorOf(element)) {
+                    candidates.add(element);
+                }
+            }
+        }
+        return new ArrayList<>(candidates);
+    }
+
+    /**
+     * Returns the id the element matched by the specified selector needs to have.
+     * @param selector the selector
+     * @return the id or {@code null} if the selector does not require a specific id
+     */
+    private static String getRequiredId(final Selector selector) {
+        final SimpleSelector simpleSelector = selector.getSimpleSelector();
+        if (SelectorType.ELEMENT_NODE_SELECTOR == simpleSelector.getSelectorType()) {
+            final List<Condition> conditions = ((ElementSelector) simpleSelector).getConditions();
+            if (conditions != null) {
+                for (final Condition condition : conditions) {
+                    if (ConditionType.ID_CONDITION == condition.getConditionType()) {
+                        return condition.getValue();
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
     /**
      * Returns the {@link SelectorList}.
      * @param selectors the selectors
@@ -1863,6 +2046,24 @@ public abstract class DomNode implements Cloneable, Serializable, Node {
      */
     protected SelectorList getSelectorList(final String selectors, final BrowserVersion browserVersion)
             throws IOException {
+        int documentMode = 9;
+        if (browserVersion.hasFeature(QUERYSELECTORALL_NOT_IN_QUIRKS)) {
+            final Object sobj = getPage().getScriptableObject();
+            if (sobj instanceof HTMLDocument) {
+                documentMode = ((HTMLDocument) sobj).getDocumentMode();
+            }
+        }
+
+        // the validation of css3 pseudo classes depends on this node in this case
+        final boolean cacheable = !hasFeature(QUERYSELECTOR_CSS3_PSEUDO_REQUIRE_ATTACHED_NODE)
+                || isAttachedToPage() || hasChildNodes();
+        if (cacheable) {
+            final SelectorList cached = SelectorListCache.get(selectors, documentMode, browserVersion);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
         final CSSOMParser parser = new CSSOMParser(new CSS3Parser());
         final CheckErrorHandler errorHandler = new CheckErrorHandler();
         parser.setErrorHandler(errorHandler);
@@ -1874,15 +2075,11 @@ public abstract class DomNode implements Cloneable, Serializable, Node {
         }
 
         if (selectorList != null) {
-            int documentMode = 9;
-            if (browserVersion.hasFeature(QUERYSELECTORALL_NOT_IN_QUIRKS)) {
-                final Object sobj = getPage().getScriptableObject();
-                if (sobj instanceof HTMLDocument) {
-                    documentMode = ((HTMLDocument) sobj).getDocumentMode();
-                }
-            }
             CSSStyleSheet.validateSelectors(selectorList, documentMode, this);
 
+            if (cacheable) {
+                SelectorListCache.put(selectors, documentMode, browserVersion, selectorList);
+            }
         }
         return selectorList;
     }
@@ -1895,7 +2092,7 @@ public abstract class DomNode implements Cloneable, Serializable, Node {
      */
     @SuppressWarnings("unchecked")
     public <N extends DomNode> N querySelector(final String selectors) {
-        final DomNodeList<DomNode> list = querySelectorAll(selectors);
+        final List<DomNode> list = querySelectorAll(selectors, true);
         if (!list.isEmpty()) {
             return (N) list.get(0);
         }
@@ -2000,9 +2197,4 @@ public abstract class DomNode implements Cloneable, Serializable, Node {
         }
         return (DomElement) node;
     }
-
-    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
-        in.defaultReadObject();
-        listeners_lock_ = new Object();
-    }
 }
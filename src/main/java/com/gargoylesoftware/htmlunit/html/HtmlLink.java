@@ -199,7 +199,13 @@ public class HtmlLink extends HtmlElement {
                 request = getWebRequest();
             }
             try {
-                cachedWebResponse_ = webclient.loadWebResponse(request);
+                final HtmlPage htmlPage = getHtmlPageOrNull();
+                if (htmlPage == null) {
+                    cachedWebResponse_ = webclient.loadWebResponse(request);
+                }
+                else {
+                    cachedWebResponse_ = htmlPage.loadSubresource(request);
+                }
                 final int statusCode = cachedWebResponse_.getStatusCode();
                 final boolean successful = statusCode >= HttpStatus.SC_OK
                                                 && statusCode < HttpStatus.SC_MULTIPLE_CHOICES;
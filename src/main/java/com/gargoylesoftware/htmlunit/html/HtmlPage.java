@@ -27,7 +27,6 @@ import java.io.File;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.io.Serializable;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.charset.Charset;
@@ -41,8 +40,6 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.SortedSet;
-import java.util.TreeSet;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
@@ -72,6 +69,7 @@ import com.gargoylesoftware.htmlunit.SgmlPage;
 import com.gargoylesoftware.htmlunit.TopLevelWindow;
 import com.gargoylesoftware.htmlunit.WebAssert;
 import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.WebClientOptions;
 import com.gargoylesoftware.htmlunit.WebRequest;
 import com.gargoylesoftware.htmlunit.WebResponse;
 import com.gargoylesoftware.htmlunit.WebWindow;
@@ -146,17 +144,24 @@ public class HtmlPage extends SgmlPage {
 
     private static final Log LOG = LogFactory.getLog(HtmlPage.class);
 
-    private static final Comparator<DomElement> documentPositionComparator = new DocumentPositionComparator();
-
     private HTMLParserDOMBuilder domBuilder_;
     private transient Charset originalCharset_;
 
-    private Map<String, SortedSet<DomElement>> idMap_
-            = Collections.synchronizedMap(new HashMap<String, SortedSet<DomElement>>());
-    private Map<String, SortedSet<DomElement>> nameMap_
-            = Collections.synchronizedMap(new HashMap<String, SortedSet<DomElement>>());
+    private DocumentOrder documentOrder_ = new DocumentOrder(this);
+
+    /** The elements with a specific id or name, in document order. */
+    private Map<String, List<DomElement>> idMap_
+            = Collections.synchronizedMap(new HashMap<String, List<DomElement>>());
+    private Map<String, List<DomElement>> nameMap_
+            = Collections.synchronizedMap(new HashMap<String, List<DomElement>>());
+
+    /**
+     * Whether elements other than {@link HtmlElement}s (e.g. SVG elements) were added; the maps
+     * are not updated if their attributes change.
+     */
+    private boolean nonHtmlElementsAdded_;
 
-    private SortedSet<BaseFrameElement> frameElements_ = new TreeSet<>(documentPositionComparator);
+    private List<BaseFrameElement> frameElements_ = new ArrayList<>();
     private int parserCount_;
     private int snippetParserCount_;
     private int inlineSnippetParserCount_;
@@ -170,27 +175,13 @@ public class HtmlPage extends SgmlPage {
     private ElementFromPointHandler elementFromPointHandler_;
     private DomElement elementWithFocus_;
     private List<Range> selectionRanges_ = new ArrayList<>(3);
+    private transient PreloadScanner preloadScanner_;
 
     private static final List<String> TABBABLE_TAGS = Arrays.asList(HtmlAnchor.TAG_NAME, HtmlArea.TAG_NAME,
             HtmlButton.TAG_NAME, HtmlInput.TAG_NAME, HtmlObject.TAG_NAME, HtmlSelect.TAG_NAME, HtmlTextArea.TAG_NAME);
     private static final List<String> ACCEPTABLE_TAG_NAMES = Arrays.asList(HtmlAnchor.TAG_NAME, HtmlArea.TAG_NAME,
             HtmlButton.TAG_NAME, HtmlInput.TAG_NAME, HtmlLabel.TAG_NAME, HtmlLegend.TAG_NAME, HtmlTextArea.TAG_NAME);
 
-    static class DocumentPositionComparator implements Comparator<DomElement>, Serializable {
-        @Override
-        public int compare(final DomElement elt1, final DomElement elt2) {
-            final short relation = elt1.compareDocumentPosition(elt2);
-            if (relation == 0) {
-                return 0; // same node
-            }
-            if ((relation & DOCUMENT_POSITION_CONTAINS) != 0 || (relation & DOCUMENT_POSITION_PRECEDING) != 0) {
-                return 1;
-            }
-
-            return -1;
-        }
-    }
-
     /**
      * Creates an instance of HtmlPage.
      * An HtmlPage instance is normally retrieved with {@link WebClient#getPage(String)}.
@@ -328,6 +319,10 @@ public class HtmlPage extends SgmlPage {
             return;
         }
         cleaning_ = true;
+        if (preloadScanner_ != null) {
+            preloadScanner_.cancel();
+            preloadScanner_ = null;
+        }
         super.cleanUp();
         executeEventHandlersIfNeeded(Event.TYPE_UNLOAD);
         deregisterFramesIfNeeded();
@@ -599,9 +594,9 @@ public class HtmlPage extends SgmlPage {
      */
     @Override
     public DomElement getElementById(final String elementId) {
-        final SortedSet<DomElement> elements = idMap_.get(elementId);
+        final List<DomElement> elements = idMap_.get(elementId);
         if (elements != null) {
-            return elements.first();
+            return elements.get(0);
         }
         return null;
     }
@@ -1005,6 +1000,40 @@ public class HtmlPage extends SgmlPage {
         return JavaScriptLoadResult.SUCCESS;
     }
 
+    /**
+     * <span style="color:red">INTERNAL API - SUBJECT TO CHANGE AT ANY TIME - USE AT YOUR OWN RISK.</span><br>
+     *
+     * Starts to download the scripts, stylesheets and images referenced by the content of this page
+     * in the background, if enabled (see {@link WebClientOptions#setPreloadSubresources(boolean)}).
+     * Called before the content is parsed.
+     */
+    public void startPreloading() {
+        final WebClient client = getWebClient();
+        if (client.getOptions().isPreloadSubresources()) {
+            preloadScanner_ = new PreloadScanner(this);
+            preloadScanner_.start(getWebResponse(), client.getSubresourceScheduler());
+        }
+    }
+
+    /**
+     * Loads the response for a script, stylesheet or image of this page; the response is
+     * taken from the preloaded ones if available. Like {@link WebClient#loadWebResponse(WebRequest)},
+     * this fixes the url of the request.
+     * @param request the request
+     * @return the response
+     * @throws IOException if an IO problem occurs
+     */
+    WebResponse loadSubresource(final WebRequest request) throws IOException {
+        final PreloadScanner preloadScanner = preloadScanner_;
+        if (preloadScanner != null) {
+            final WebResponse response = preloadScanner.take(request);
+            if (response != null) {
+                return response;
+            }
+        }
+        return getWebClient().loadWebResponse(request);
+    }
+
     /**
      * Loads JavaScript from the specified URL. This method may return {@code null} if
      * there is a problem loading the code from the specified URL.
@@ -1033,12 +1062,12 @@ public class HtmlPage extends SgmlPage {
         // our cache is a bit strange;
         // loadWebResponse check the cache for the web response
         // AND also fixes the request url for the following cache lookups
-        final WebResponse response = client.loadWebResponse(request);
+        final WebResponse response = loadSubresource(request);
 
         // now we can look into the cache with the fixed request for
         // a cached script
         final Cache cache = client.getCache();
-        final Object cachedScript = cache.getCachedObject(request);
+        final Object cachedScript = cache.getCachedObject(request, client.getBrowserVersion());
         if (cachedScript instanceof Script) {
             return cachedScript;
         }
@@ -1102,7 +1131,7 @@ public class HtmlPage extends SgmlPage {
         if (null != scriptCode) {
             final AbstractJavaScriptEngine<?> javaScriptEngine = client.getJavaScriptEngine();
             final Object script = javaScriptEngine.compile(this, scriptCode, url.toExternalForm(), 1);
-            if (script != null && cache.cacheIfPossible(request, response, script)) {
+            if (script != null && cache.cacheIfPossible(request, response, script, client.getBrowserVersion())) {
                 // no cleanup if the response is stored inside the cache
                 return script;
             }
@@ -1652,7 +1681,7 @@ public class HtmlPage extends SgmlPage {
      * @return the elements with the specified name attribute
      */
     public List<DomElement> getElementsById(final String elementId) {
-        final SortedSet<DomElement> elements = idMap_.get(elementId);
+        final List<DomElement> elements = idMap_.get(elementId);
         if (elements != null) {
             return new ArrayList<>(elements);
         }
@@ -1670,9 +1699,9 @@ public class HtmlPage extends SgmlPage {
      */
     @SuppressWarnings("unchecked")
     public <E extends DomElement> E getElementByName(final String name) throws ElementNotFoundException {
-        final SortedSet<DomElement> elements = nameMap_.get(name);
+        final List<DomElement> elements = nameMap_.get(name);
         if (elements != null) {
-            return (E) elements.first();
+            return (E) elements.get(0);
         }
         throw new ElementNotFoundException("*", "name", name);
     }
@@ -1686,7 +1715,7 @@ public class HtmlPage extends SgmlPage {
      * @return the elements with the specified name attribute
      */
     public List<DomElement> getElementsByName(final String name) {
-        final SortedSet<DomElement> elements = nameMap_.get(name);
+        final List<DomElement> elements = nameMap_.get(name);
         if (elements != null) {
             return new ArrayList<>(elements);
         }
@@ -1723,15 +1752,21 @@ public class HtmlPage extends SgmlPage {
      * @param node the node that has just been added to the document
      */
     void notifyNodeAdded(final DomNode node) {
+        documentOrder_.nodeAdded(node);
+
         if (node instanceof DomElement) {
             addMappedElement((DomElement) node, true);
 
+            if (!nonHtmlElementsAdded_) {
+                nonHtmlElementsAdded_ = containsNonHtmlElement((DomElement) node);
+            }
+
             if (node instanceof BaseFrameElement) {
-                frameElements_.add((BaseFrameElement) node);
+                addInDocumentOrder(frameElements_, (BaseFrameElement) node);
             }
             for (final HtmlElement child : node.getHtmlElementDescendants()) {
                 if (child instanceof BaseFrameElement) {
-                    frameElements_.add((BaseFrameElement) child);
+                    addInDocumentOrder(frameElements_, (BaseFrameElement) child);
                 }
             }
 
@@ -1766,6 +1801,27 @@ public class HtmlPage extends SgmlPage {
         }
     }
 
+    private static boolean containsNonHtmlElement(final DomElement element) {
+        if (!(element instanceof HtmlElement)) {
+            return true;
+        }
+        for (final DomElement descendant : element.getDomElementDescendants()) {
+            if (!(descendant instanceof HtmlElement)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether the ID map contains all elements having an id. This is not the case if elements
+     * other than {@link HtmlElement}s were added, the map is not updated if their id changes.
+     * @return whether the ID map is complete
+     */
+    boolean isIdMapComplete() {
+        return !nonHtmlElementsAdded_;
+    }
+
     /**
      * Adds an element to the ID and name maps, if necessary.
      * @param element the element to be added to the ID and name maps
@@ -1786,19 +1842,19 @@ public class HtmlPage extends SgmlPage {
         }
     }
 
-    private void addElement(final Map<String, SortedSet<DomElement>> map, final DomElement element,
+    private void addElement(final Map<String, List<DomElement>> map, final DomElement element,
             final String attribute, final boolean recurse) {
         final String value = getAttributeValue(element, attribute);
 
         if (DomElement.ATTRIBUTE_NOT_DEFINED != value) {
-            SortedSet<DomElement> elements = map.get(value);
+            List<DomElement> elements = map.get(value);
             if (elements == null) {
-                elements = new TreeSet<>(documentPositionComparator);
+                elements = new ArrayList<>(1);
                 elements.add(element);
                 map.put(value, elements);
             }
-            else if (!elements.contains(element)) {
-                elements.add(element);
+            else {
+                addInDocumentOrder(elements, element);
             }
         }
         if (recurse) {
@@ -1808,6 +1864,42 @@ public class HtmlPage extends SgmlPage {
         }
     }
 
+    /**
+     * Inserts the element into the list sorted in document order, if not already contained.
+     * @param elements the elements in document order
+     * @param element the element to add
+     * @param <E> the element type
+     */
+    private <E extends DomElement> void addInDocumentOrder(final List<E> elements, final E element) {
+        final int size = elements.size();
+        if (size == 0) {
+            elements.add(element);
+            return;
+        }
+
+        // elements are usually added in document order (e.g. while parsing)
+        final int last = documentOrder_.compare(elements.get(size - 1), element);
+        if (last < 0) {
+            elements.add(element);
+        }
+        else if (last > 0) {
+            final int index = Collections.binarySearch(elements, element, documentOrder_);
+            if (index < 0) {
+                elements.add(-index - 1, element);
+            }
+        }
+    }
+
+    /**
+     * <span style="color:red">INTERNAL API - SUBJECT TO CHANGE AT ANY TIME - USE AT YOUR OWN RISK.</span><br>
+     *
+     * Returns the comparator of the document order of the nodes of this page.
+     * @return the comparator
+     */
+    public Comparator<DomNode> getDocumentOrder() {
+        return documentOrder_;
+    }
+
     private static String getAttributeValue(final DomElement element, final String attribute) {
         // first try real attributes
         String value = element.getAttribute(attribute);
@@ -1854,12 +1946,12 @@ public class HtmlPage extends SgmlPage {
         }
     }
 
-    private void removeElement(final Map<String, SortedSet<DomElement>> map, final DomElement element,
+    private void removeElement(final Map<String, List<DomElement>> map, final DomElement element,
             final String attribute, final boolean recurse) {
         final String value = getAttributeValue(element, attribute);
 
         if (DomElement.ATTRIBUTE_NOT_DEFINED != value) {
-            final SortedSet<DomElement> elements = map.remove(value);
+            final List<DomElement> elements = map.remove(value);
             if (elements != null && (elements.size() != 1 || !elements.contains(element))) {
                 elements.remove(element);
                 map.put(value, elements);
@@ -1964,8 +2056,9 @@ public class HtmlPage extends SgmlPage {
         final HtmlPage result = (HtmlPage) super.clone();
         result.elementWithFocus_ = null;
 
-        result.idMap_ = Collections.synchronizedMap(new HashMap<String, SortedSet<DomElement>>());
-        result.nameMap_ = Collections.synchronizedMap(new HashMap<String, SortedSet<DomElement>>());
+        result.documentOrder_ = new DocumentOrder(result);
+        result.idMap_ = Collections.synchronizedMap(new HashMap<String, List<DomElement>>());
+        result.nameMap_ = Collections.synchronizedMap(new HashMap<String, List<DomElement>>());
 
         return result;
     }
@@ -1987,7 +2080,7 @@ public class HtmlPage extends SgmlPage {
             }
             result.selectionRanges_ = new ArrayList<>(3);
             result.afterLoadActions_ = new ArrayList<>();
-            result.frameElements_ = new TreeSet<>(documentPositionComparator);
+            result.frameElements_ = new ArrayList<>();
             for (DomNode child = getFirstChild(); child != null; child = child.getNextSibling()) {
                 result.appendChild(child.cloneNode(true));
             }
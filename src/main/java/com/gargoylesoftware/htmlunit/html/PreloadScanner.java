@@ -0,0 +1,429 @@
+/*
+ * Copyright (c) 2002-2019 Gargoyle Software Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gargoylesoftware.htmlunit.html;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.text.StringEscapeUtils;
+
+import com.gargoylesoftware.htmlunit.BrowserVersion;
+import com.gargoylesoftware.htmlunit.HttpHeader;
+import com.gargoylesoftware.htmlunit.SubresourceScheduler;
+import com.gargoylesoftware.htmlunit.SubresourceScheduler.Priority;
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.WebClientOptions;
+import com.gargoylesoftware.htmlunit.WebRequest;
+import com.gargoylesoftware.htmlunit.WebResponse;
+
+/**
+ * Scans the content of a page ahead of the parser and downloads the referenced scripts,
+ * stylesheets and images in the background.
+ *
+ * <p>The requests are built like the ones of {@link HtmlPage#loadExternalJavaScriptFile},
+ * {@link HtmlLink#getWebRequest()} and {@link HtmlImage}; when the page needs one of them,
+ * {@link #take(WebRequest)} returns the preloaded response (waiting for it if needed).
+ * A resource is preloaded at most once, a request made before the scanner found the
+ * resource is not preloaded anymore.</p>
+ *
+ * @author Ronald Brill
+ */
+final class PreloadScanner {
+
+    private static final Log LOG = LogFactory.getLog(PreloadScanner.class);
+
+    /** Marks the resources already requested by the page. */
+    private static final Preload CLAIMED = new Preload(null, null);
+
+    private final WebClient webClient_;
+    private final WebRequest referringRequest_;
+    private final Charset charset_;
+    private final Map<String, Preload> preloads_ = new HashMap<>();
+    private boolean cancelled_;
+
+    /**
+     * Creates a new instance.
+     * @param page the page being parsed
+     */
+    PreloadScanner(final HtmlPage page) {
+        webClient_ = page.getWebClient();
+        referringRequest_ = page.getWebResponse().getWebRequest();
+        charset_ = page.getCharset();
+    }
+
+    /**
+     * Scans the content of the specified response in the background.
+     * @param webResponse the response of the page
+     * @param scheduler the scheduler running the scan and the downloads
+     */
+    void start(final WebResponse webResponse, final SubresourceScheduler scheduler) {
+        scheduler.execute(() -> {
+            try {
+                scan(webResponse.getContentAsString(), scheduler);
+            }
+            catch (final RuntimeException e) {
+                LOG.warn("Preload scanning of '" + referringRequest_.getUrl() + "' failed.", e);
+            }
+        });
+    }
+
+    /**
+     * Returns the preloaded response for the specified request. If the download has not started yet,
+     * it is done by the calling thread. The url of the request is fixed like
+     * {@link WebClient#loadWebResponse(WebRequest)} does.
+     * @param request the request
+     * @return the response or {@code null} if the resource was not preloaded
+     * @throws IOException if the download failed
+     */
+    WebResponse take(final WebRequest request) throws IOException {
+        final Preload preload;
+        synchronized (preloads_) {
+            preload = preloads_.put(key(request), CLAIMED);
+        }
+        if (preload == null || preload == CLAIMED) {
+            return null;
+        }
+
+        preload.run();
+        try {
+            final WebResponse response = preload.get();
+            request.setUrl(preload.request_.getUrl());
+            return response;
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading '" + request.getUrl() + "'.");
+        }
+        catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Cancels the downloads not yet started and stops the scan. The responses preloaded but not
+     * taken by the page are cleaned up, the ones still downloading once they are complete.
+     */
+    void cancel() {
+        final List<Preload> preloads;
+        synchronized (preloads_) {
+            cancelled_ = true;
+            preloads = new ArrayList<>(preloads_.values());
+            preloads_.clear();
+        }
+        for (final Preload preload : preloads) {
+            if (preload != CLAIMED) {
+                preload.discard();
+            }
+        }
+    }
+
+    private void scan(final String html, final SubresourceScheduler scheduler) {
+        final WebClientOptions options = webClient_.getOptions();
+        final BrowserVersion browser = webClient_.getBrowserVersion();
+        final String referer = referringRequest_.getUrl().toExternalForm();
+
+        URL base = referringRequest_.getUrl();
+        boolean baseFound = false;
+
+        final int length = html.length();
+        int index = 0;
+        while ((index = html.indexOf('<', index)) != -1) {
+            if (html.startsWith("<!--", index)) {
+                final int end = html.indexOf("-->", index + 4);
+                if (end == -1) {
+                    return;
+                }
+                index = end + 3;
+                continue;
+            }
+
+            final int nameStart = index + 1;
+            int nameEnd = nameStart;
+            while (nameEnd < length && Character.isLetterOrDigit(html.charAt(nameEnd))) {
+                nameEnd++;
+            }
+            if (nameEnd == nameStart) {
+                // end tag, doctype or text
+                index++;
+                continue;
+            }
+
+            final String tagName = html.substring(nameStart, nameEnd).toLowerCase(Locale.ROOT);
+            final Map<String, String> attributes = new HashMap<>();
+            index = parseAttributes(html, nameEnd, attributes);
+
+            final String url;
+            switch (tagName) {
+                case "base":
+                    url = attributes.get("href");
+                    if (!baseFound && url != null) {
+                        baseFound = true;
+                        base = expandUrl(base, url);
+                        if (base == null) {
+                            return;
+                        }
+                    }
+                    continue;
+
+                case "script":
+                    index = skipRawText(html, index, tagName);
+                    if (!options.isJavaScriptEnabled() || !isJavaScript(attributes.get("type"))) {
+                        continue;
+                    }
+                    url = attributes.get("src");
+                    break;
+
+                case "link":
+                    final String rel = attributes.get("rel");
+                    if (!options.isCssEnabled() || rel == null || !"stylesheet".equalsIgnoreCase(rel.trim())) {
+                        continue;
+                    }
+                    url = attributes.get("href");
+                    break;
+
+                case "img":
+                    if (!options.isDownloadImages()) {
+                        continue;
+                    }
+                    url = attributes.get("src");
+                    break;
+
+                case "style":
+                case "textarea":
+                case "title":
+                case "xmp":
+                    index = skipRawText(html, index, tagName);
+                    continue;
+
+                default:
+                    continue;
+            }
+
+            if (StringUtils.isBlank(url)) {
+                continue;
+            }
+            final URL resourceUrl = expandUrl(base, url);
+            if (resourceUrl == null
+                    || !"http".equals(resourceUrl.getProtocol()) && !"https".equals(resourceUrl.getProtocol())) {
+                continue;
+            }
+
+            final WebRequest request;
+            Priority priority = Priority.HIGH;
+            if ("script".equals(tagName)) {
+                request = new WebRequest(resourceUrl);
+                request.setAdditionalHeaders(new HashMap<>(referringRequest_.getAdditionalHeaders()));
+                request.setAdditionalHeader(HttpHeader.ACCEPT, browser.getScriptAcceptHeader());
+            }
+            else {
+                final String accept = "link".equals(tagName)
+                        ? browser.getCssAcceptHeader() : browser.getImgAcceptHeader();
+                request = new WebRequest(resourceUrl, accept, browser.getAcceptEncodingHeader());
+                request.setCharset(charset_);
+                if ("img".equals(tagName)) {
+                    priority = Priority.LOW;
+                }
+            }
+            request.setAdditionalHeader(HttpHeader.REFERER, referer);
+
+            if (!preload(request, priority, scheduler)) {
+                return;
+            }
+        }
+    }
+
+    private boolean preload(final WebRequest request, final Priority priority,
+            final SubresourceScheduler scheduler) {
+        final Preload preload = new Preload(webClient_, request);
+        synchronized (preloads_) {
+            if (cancelled_) {
+                return false;
+            }
+            if (preloads_.putIfAbsent(key(request), preload) != null) {
+                return true;
+            }
+        }
+        scheduler.schedule(request.getUrl(), priority, preload);
+        return true;
+    }
+
+    /**
+     * Parses the attributes of a start tag.
+     * @param html the content
+     * @param start the position after the tag name
+     * @param attributes the map to fill with the lower case names and the decoded values
+     * @return the position after the start tag
+     */
+    private static int parseAttributes(final String html, final int start, final Map<String, String> attributes) {
+        final int length = html.length();
+        int index = start;
+        while (index < length) {
+            final char c = html.charAt(index);
+            if (c == '>') {
+                return index + 1;
+            }
+            if (Character.isWhitespace(c) || c == '/') {
+                index++;
+                continue;
+            }
+
+            final int nameStart = index;
+            while (index < length && !isAttributeNameEnd(html.charAt(index))) {
+                index++;
+            }
+            final String name = html.substring(nameStart, index).toLowerCase(Locale.ROOT);
+
+            while (index < length && Character.isWhitespace(html.charAt(index))) {
+                index++;
+            }
+            String value = "";
+            if (index < length && html.charAt(index) == '=') {
+                index++;
+                while (index < length && Character.isWhitespace(html.charAt(index))) {
+                    index++;
+                }
+                if (index < length) {
+                    final char quote = html.charAt(index);
+                    final int valueStart;
+                    final int valueEnd;
+                    if (quote == '"' || quote == '\'') {
+                        valueStart = index + 1;
+                        final int end = html.indexOf(quote, valueStart);
+                        valueEnd = end == -1 ? length : end;
+                        index = Math.min(valueEnd + 1, length);
+                    }
+                    else {
+                        valueStart = index;
+                        while (index < length
+                                && !Character.isWhitespace(html.charAt(index)) && html.charAt(index) != '>') {
+                            index++;
+                        }
+                        valueEnd = index;
+                    }
+                    value = StringEscapeUtils.unescapeHtml4(html.substring(valueStart, valueEnd));
+                }
+            }
+            attributes.putIfAbsent(name, value);
+        }
+        return length;
+    }
+
+    private static boolean isAttributeNameEnd(final char c) {
+        return Character.isWhitespace(c) || c == '=' || c == '>';
+    }
+
+    private static int skipRawText(final String html, final int start, final String tagName) {
+        final int end = StringUtils.indexOfIgnoreCase(html, "</" + tagName, start);
+        if (end == -1) {
+            return html.length();
+        }
+        return end;
+    }
+
+    private static boolean isJavaScript(final String type) {
+        if (StringUtils.isBlank(type)) {
+            return true;
+        }
+        final String lowerCaseType = type.trim().toLowerCase(Locale.ROOT);
+        return lowerCaseType.contains("javascript") || lowerCaseType.contains("ecmascript");
+    }
+
+    private static URL expandUrl(final URL base, final String relativeUrl) {
+        try {
+            return WebClient.expandUrl(base, relativeUrl);
+        }
+        catch (final MalformedURLException e) {
+            return null;
+        }
+    }
+
+    private static String key(final WebRequest request) {
+        return request.getUrl().toExternalForm() + ' ' + request.getAdditionalHeaders().get(HttpHeader.ACCEPT);
+    }
+
+    /**
+     * The download of a resource.
+     */
+    private static final class Preload extends FutureTask<WebResponse> {
+        private final WebClient webClient_;
+        private final WebRequest request_;
+        private volatile boolean discarded_;
+
+        Preload(final WebClient webClient, final WebRequest request) {
+            super(() -> webClient.loadWebResponse(request));
+            webClient_ = webClient;
+            request_ = request;
+        }
+
+        /**
+         * Cancels the download if not started yet, otherwise cleans up the response once loaded.
+         */
+        void discard() {
+            discarded_ = true;
+            if (!cancel(false) && isDone()) {
+                cleanUpResponse();
+            }
+        }
+
+        @Override
+        protected void done() {
+            if (discarded_) {
+                cleanUpResponse();
+            }
+        }
+
+        private void cleanUpResponse() {
+            if (isCancelled()) {
+                return;
+            }
+            try {
+                final WebResponse response = get();
+                // no cleanup if the response is stored inside the cache
+                if (!webClient_.getCache().isCached(request_)) {
+                    response.cleanUp();
+                }
+            }
+            catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            catch (final ExecutionException e) {
+                // nothing to clean up
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2002-2019 Gargoyle Software Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gargoylesoftware.htmlunit.html;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.gargoylesoftware.css.parser.selector.SelectorList;
+import com.gargoylesoftware.htmlunit.BrowserVersion;
+
+/**
+ * JVM-wide cache of the parsed and validated {@link SelectorList}s used by
+ * {@link DomNode#querySelectorAll(String)}, {@link DomNode#querySelector(String)}
+ * and {@link DomElement#matches(String)}.
+ *
+ * <p>The selector lists are keyed by the selector text, the document mode and the
+ * {@link BrowserVersion}, because the validation depends on both. The cached lists are
+ * only read, never modified; the least recently used lists are evicted when the
+ * number of entries exceeds the maximum size.</p>
+ *
+ * @author Ronald Brill
+ */
+final class SelectorListCache {
+
+    /** The maximum number of cached selector lists. */
+    static final int MAX_SIZE = 1_000;
+
+    private static final Map<Key, SelectorList> ENTRIES_ = new LinkedHashMap<Key, SelectorList>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Key, SelectorList> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    private SelectorListCache() {
+    }
+
+    /**
+     * Returns the cached selector list.
+     * @param selectors the selector text
+     * @param documentMode the document mode used for the validation
+     * @param browserVersion the browser version
+     * @return the cached selector list or {@code null}
+     */
+    static SelectorList get(final String selectors, final int documentMode, final BrowserVersion browserVersion) {
+        synchronized (ENTRIES_) {
+            return ENTRIES_.get(new Key(selectors, documentMode, browserVersion));
+        }
+    }
+
+    /**
+     * Caches the validated selector list.
+     * @param selectors the selector text
+     * @param documentMode the document mode used for the validation
+     * @param browserVersion the browser version
+     * @param selectorList the parsed and validated selector list
+     */
+    static void put(final String selectors, final int documentMode, final BrowserVersion browserVersion,
+            final SelectorList selectorList) {
+        synchronized (ENTRIES_) {
+            ENTRIES_.put(new Key(selectors, documentMode, browserVersion), selectorList);
+        }
+    }
+
+    /**
+     * Returns the number of cached selector lists.
+     * @return the number of cached selector lists
+     */
+    static int size() {
+        synchronized (ENTRIES_) {
+            return ENTRIES_.size();
+        }
+    }
+
+    /**
+     * Removes all selector lists from the cache.
+     */
+    static void clear() {
+        synchronized (ENTRIES_) {
+            ENTRIES_.clear();
+        }
+    }
+
+    private static final class Key {
+        private final String selectors_;
+        private final int documentMode_;
+        private final BrowserVersion browserVersion_;
+
+        Key(final String selectors, final int documentMode, final BrowserVersion browserVersion) {
+            selectors_ = selectors;
+            documentMode_ = documentMode;
+            browserVersion_ = browserVersion;
+        }
+
+        @Override
+        public int hashCode() {
+            return selectors_.hashCode() * 31 + documentMode_;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return browserVersion_ == other.browserVersion_
+                    && documentMode_ == other.documentMode_
+                    && selectors_.equals(other.selectors_);
+        }
+    }
+}
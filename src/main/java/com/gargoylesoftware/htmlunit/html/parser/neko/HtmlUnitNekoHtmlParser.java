@@ -202,6 +202,7 @@ public final class HtmlUnitNekoHtmlParser implements HTMLParser {
         throws IOException {
 
         webWindow.setEnclosedPage(page);
+        page.startPreloading();
 
         final URL url = webResponse.getWebRequest().getUrl();
         final HtmlUnitNekoDOMBuilder domBuilder = new HtmlUnitNekoDOMBuilder(this, page, url, null);
@@ -0,0 +1,1330 @@
+/*
+ * Copyright (c) 2002-2019 Gargoyle Software Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gargoylesoftware.htmlunit.html.xpath;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import com.gargoylesoftware.htmlunit.SgmlPage;
+import com.gargoylesoftware.htmlunit.html.DomAttr;
+import com.gargoylesoftware.htmlunit.html.DomElement;
+import com.gargoylesoftware.htmlunit.html.DomNode;
+import com.gargoylesoftware.htmlunit.html.HtmlPage;
+
+/**
+ * An XPath 1.0 expression evaluated directly on the {@link DomNode}s, without building the DTM of Xalan.
+ *
+ * <p>The expressions are compiled by {@link NativeXPathParser}, which rejects what is not supported here
+ * (variables, namespace prefixes, the namespace axis and the functions {@code id}, {@code lang} and
+ * {@code name}); these are evaluated by Xalan. Like the DTM of Xalan, adjacent text nodes are one
+ * text node and the document types and namespace declarations are not part of the tree.</p>
+ *
+ * <p>The names of the nodes are read like Xalan does, so the evaluation has to happen while
+ * {@link XPathHelper#isProcessingXPath()}.</p>
+ *
+ * @author Ronald Brill
+ */
+final class NativeXPath {
+
+    /** The type of the node-set results. */
+    static final int NODE_SET = 0;
+    /** The type of the number results. */
+    static final int NUMBER = 1;
+    /** The type of the string results. */
+    static final int STRING = 2;
+    /** The type of the boolean results. */
+    static final int BOOLEAN = 3;
+
+    private final Expr expr_;
+
+    /**
+     * Creates a new instance.
+     * @param expr the compiled expression
+     */
+    NativeXPath(final Expr expr) {
+        expr_ = expr;
+    }
+
+    /**
+     * Evaluates the expression.
+     * @param contextNode the context node
+     * @return the nodes in document order as {@link List}, or a {@link Double}, {@link Boolean} or {@link String}
+     */
+    Object evaluate(final DomNode contextNode) {
+        return expr_.evaluate(contextNode, 1, 1);
+    }
+
+    /**
+     * Evaluates the expression, stopping at the first node in document order if possible.
+     * @param contextNode the context node
+     * @return the first node or {@code null} for node-set expressions, the value otherwise
+     */
+    Object evaluateFirst(final DomNode contextNode) {
+        if (expr_ instanceof PathExpr) {
+            return ((PathExpr) expr_).evaluateFirst(contextNode);
+        }
+        final Object result = evaluate(contextNode);
+        if (result instanceof List) {
+            final List<?> nodes = (List<?>) result;
+            return nodes.isEmpty() ? null : nodes.get(0);
+        }
+        return result;
+    }
+
+    /**
+     * The axes.
+     */
+    enum Axis {
+        ANCESTOR(true), ANCESTOR_OR_SELF(true), ATTRIBUTE(false), CHILD(false), DESCENDANT(false),
+        DESCENDANT_OR_SELF(false), FOLLOWING(false), FOLLOWING_SIBLING(false), PARENT(true), PRECEDING(true),
+        PRECEDING_SIBLING(true), SELF(false);
+
+        private final boolean reverse_;
+
+        Axis(final boolean reverse) {
+            reverse_ = reverse;
+        }
+
+        /**
+         * Returns the axis of the specified name.
+         * @param name the name used in expressions
+         * @return the axis or {@code null} if not supported
+         */
+        static Axis forName(final String name) {
+            for (final Axis axis : values()) {
+                if (axis.name().replace('_', '-').toLowerCase(Locale.ROOT).equals(name)) {
+                    return axis;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A node test.
+     */
+    static final class NodeTest {
+        /** Matches the nodes of the principal node type with the name (any name if {@code null}). */
+        static final int NAME = 0;
+        /** Matches all nodes. */
+        static final int NODE = 1;
+        /** Matches the text nodes. */
+        static final int TEXT = 2;
+        /** Matches the comments. */
+        static final int COMMENT = 3;
+        /** Matches the processing instructions with the name (any name if {@code null}). */
+        static final int PROCESSING_INSTRUCTION = 4;
+
+        private final int kind_;
+        private final String name_;
+
+        NodeTest(final int kind, final String name) {
+            kind_ = kind;
+            name_ = name;
+        }
+
+        boolean matches(final DomNode node, final Axis axis) {
+            final short type = node.getNodeType();
+            switch (kind_) {
+                case NODE:
+                    return true;
+
+                case TEXT:
+                    return type == Node.TEXT_NODE || type == Node.CDATA_SECTION_NODE;
+
+                case COMMENT:
+                    return type == Node.COMMENT_NODE;
+
+                case PROCESSING_INSTRUCTION:
+                    return type == Node.PROCESSING_INSTRUCTION_NODE
+                            && (name_ == null || name_.equals(node.getNodeName()));
+
+                default:
+                    final short principalType = axis == Axis.ATTRIBUTE ? Node.ATTRIBUTE_NODE : Node.ELEMENT_NODE;
+                    if (type != principalType) {
+                        return false;
+                    }
+                    if (name_ == null) {
+                        return true;
+                    }
+                    final String namespace = node.getNamespaceURI();
+                    return name_.equals(getLocalName(node)) && (namespace == null || namespace.isEmpty());
+            }
+        }
+    }
+
+    /**
+     * A step of a location path.
+     */
+    static final class Step {
+        private final Axis axis_;
+        private final NodeTest test_;
+        private final Expr[] predicates_;
+
+        Step(final Axis axis, final NodeTest test, final Expr[] predicates) {
+            axis_ = axis;
+            test_ = test;
+            predicates_ = predicates;
+        }
+
+        Axis getAxis() {
+            return axis_;
+        }
+
+        NodeTest getTest() {
+            return test_;
+        }
+
+        Expr[] getPredicates() {
+            return predicates_;
+        }
+
+        /**
+         * Returns whether the predicates depend on the position of the nodes.
+         * @return whether the predicates depend on the position of the nodes
+         */
+        boolean isPositional() {
+            for (final Expr predicate : predicates_) {
+                if (predicate.getType() == NUMBER || predicate.usesPosition()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Returns the nodes selected from the specified context node, in the order of the axis.
+         */
+        List<DomNode> select(final DomNode context) {
+            List<DomNode> nodes = new ArrayList<>();
+            collect(axis_, test_, context, nodes);
+            for (final Expr predicate : predicates_) {
+                nodes = filter(nodes, predicate);
+            }
+            return nodes;
+        }
+
+        /**
+         * Returns the nodes selected from the specified context nodes, in document order.
+         */
+        List<DomNode> apply(final List<DomNode> contexts) {
+            if (contexts.size() == 1) {
+                final List<DomNode> nodes = select(contexts.get(0));
+                if (axis_.reverse_) {
+                    Collections.reverse(nodes);
+                }
+                return nodes;
+            }
+
+            final List<DomNode> nodes = new ArrayList<>();
+            for (final DomNode context : contexts) {
+                nodes.addAll(select(context));
+            }
+            return sort(nodes);
+        }
+
+        /**
+         * Returns whether the node passes the predicates, which don't depend on the position.
+         */
+        boolean accept(final DomNode node) {
+            for (final Expr predicate : predicates_) {
+                if (!toBoolean(predicate.evaluate(node, 1, 1))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * An expression.
+     */
+    abstract static class Expr {
+
+        /**
+         * Evaluates this expression.
+         * @param node the context node
+         * @param position the context position
+         * @param size the context size
+         * @return the nodes in document order as {@link List}, or a {@link Double}, {@link Boolean}
+         *         or {@link String}
+         */
+        abstract Object evaluate(DomNode node, int position, int size);
+
+        /**
+         * Returns the type of the result.
+         * @return {@link #NODE_SET}, {@link #NUMBER}, {@link #STRING} or {@link #BOOLEAN}
+         */
+        abstract int getType();
+
+        /**
+         * Returns whether this expression uses the context position or size.
+         * @return whether this expression uses the context position or size
+         */
+        boolean usesPosition() {
+            return false;
+        }
+
+        @SuppressWarnings("unchecked")
+        List<DomNode> evaluateNodes(final DomNode node, final int position, final int size) {
+            return (List<DomNode>) evaluate(node, position, size);
+        }
+    }
+
+    /**
+     * A literal or number.
+     */
+    static final class Constant extends Expr {
+        private final Object value_;
+
+        Constant(final Object value) {
+            value_ = value;
+        }
+
+        @Override
+        Object evaluate(final DomNode node, final int position, final int size) {
+            return value_;
+        }
+
+        @Override
+        int getType() {
+            return value_ instanceof Double ? NUMBER : STRING;
+        }
+    }
+
+    /**
+     * An expression with two operands.
+     */
+    abstract static class BinaryExpr extends Expr {
+        private final Expr left_;
+        private final Expr right_;
+
+        BinaryExpr(final Expr left, final Expr right) {
+            left_ = left;
+            right_ = right;
+        }
+
+        Expr getLeft() {
+            return left_;
+        }
+
+        Expr getRight() {
+            return right_;
+        }
+
+        @Override
+        boolean usesPosition() {
+            return left_.usesPosition() || right_.usesPosition();
+        }
+    }
+
+    /**
+     * The {@code and} and {@code or} operators.
+     */
+    static final class LogicalExpr extends BinaryExpr {
+        private final boolean or_;
+
+        LogicalExpr(final boolean or, final Expr left, final Expr right) {
+            super(left, right);
+            or_ = or;
+        }
+
+        @Override
+        Object evaluate(final DomNode node, final int position, final int size) {
+            final boolean left = toBoolean(getLeft().evaluate(node, position, size));
+            if (left == or_) {
+                return left;
+            }
+            return toBoolean(getRight().evaluate(node, position, size));
+        }
+
+        @Override
+        int getType() {
+            return BOOLEAN;
+        }
+    }
+
+    /**
+     * The comparison operators.
+     */
+    static final class CompareExpr extends BinaryExpr {
+        private final String operator_;
+
+        CompareExpr(final String operator, final Expr left, final Expr right) {
+            super(left, right);
+            operator_ = operator;
+        }
+
+        @Override
+        Object evaluate(final DomNode node, final int position, final int size) {
+            return compare(operator_, getLeft().evaluate(node, position, size),
+                    getRight().evaluate(node, position, size));
+        }
+
+        @Override
+        int getType() {
+            return BOOLEAN;
+        }
+    }
+
+    /**
+     * The arithmetic operators.
+     */
+    static final class ArithmeticExpr extends BinaryExpr {
+        private final String operator_;
+
+        ArithmeticExpr(final String operator, final Expr left, final Expr right) {
+            super(left, right);
+            operator_ = operator;
+        }
+
+        @Override
+        Object evaluate(final DomNode node, final int position, final int size) {
+            final double left = toNumber(getLeft().evaluate(node, position, size));
+            final double right = toNumber(getRight().evaluate(node, position, size));
+            switch (operator_) {
+                case "+":
+                    return left + right;
+                case "-":
+                    return left - right;
+                case "*":
+                    return left * right;
+                case "div":
+                    return left / right;
+                default:
+                    return left % right;
+            }
+        }
+
+        @Override
+        int getType() {
+            return NUMBER;
+        }
+    }
+
+    /**
+     * The unary minus.
+     */
+    static final class NegateExpr extends Expr {
+        private final Expr operand_;
+
+        NegateExpr(final Expr operand) {
+            operand_ = operand;
+        }
+
+        @Override
+        Object evaluate(final DomNode node, final int position, final int size) {
+            return -toNumber(operand_.evaluate(node, position, size));
+        }
+
+        @Override
+        int getType() {
+            return NUMBER;
+        }
+
+        @Override
+        boolean usesPosition() {
+            return operand_.usesPosition();
+        }
+    }
+
+    /**
+     * The union of two node-sets.
+     */
+    static final class UnionExpr extends BinaryExpr {
+
+        UnionExpr(final Expr left, final Expr right) {
+            super(left, right);
+        }
+
+        @Override
+        Object evaluate(final DomNode node, final int position, final int size) {
+            final List<DomNode> nodes = new ArrayList<>(getLeft().evaluateNodes(node, position, size));
+            nodes.addAll(getRight().evaluateNodes(node, position, size));
+            return sort(nodes);
+        }
+
+        @Override
+        int getType() {
+            return NODE_SET;
+        }
+    }
+
+    /**
+     * A primary expression filtered by predicates.
+     */
+    static final class FilterExpr extends Expr {
+        private final Expr primary_;
+        private final Expr[] predicates_;
+
+        FilterExpr(final Expr primary, final Expr[] predicates) {
+            primary_ = primary;
+            predicates_ = predicates;
+        }
+
+        @Override
+        Object evaluate(final DomNode node, final int position, final int size) {
+            List<DomNode> nodes = primary_.evaluateNodes(node, position, size);
+            for (final Expr predicate : predicates_) {
+                nodes = filter(nodes, predicate);
+            }
+            return nodes;
+        }
+
+        @Override
+        int getType() {
+            return NODE_SET;
+        }
+
+        @Override
+        boolean usesPosition() {
+            return primary_.usesPosition();
+        }
+    }
+
+    /**
+     * A location path, optionally starting with a filter expression.
+     */
+    static final class PathExpr extends Expr {
+        private final boolean absolute_;
+        private final Expr filter_;
+        private final Step[] steps_;
+
+        PathExpr(final boolean absolute, final Expr filter, final Step[] steps) {
+            absolute_ = absolute;
+            filter_ = filter;
+            steps_ = steps;
+        }
+
+        private List<DomNode> getStartNodes(final DomNode node, final int position, final int size) {
+            if (filter_ != null) {
+                return filter_.evaluateNodes(node, position, size);
+            }
+            if (absolute_) {
+                return Collections.singletonList(getRoot(node));
+            }
+            return Collections.singletonList(node);
+        }
+
+        @Override
+        Object evaluate(final DomNode node, final int position, final int size) {
+            List<DomNode> nodes = getStartNodes(node, position, size);
+            for (final Step step : steps_) {
+                if (nodes.isEmpty()) {
+                    break;
+                }
+                nodes = step.apply(nodes);
+            }
+            return nodes;
+        }
+
+        /**
+         * Evaluates all steps but the last one, and stops the last one at the first node
+         * if the node is known to be the first in document order.
+         */
+        Object evaluateFirst(final DomNode node) {
+            if (steps_.length == 0) {
+                final List<DomNode> nodes = evaluateNodes(node, 1, 1);
+                return nodes.isEmpty() ? null : nodes.get(0);
+            }
+
+            List<DomNode> contexts = getStartNodes(node, 1, 1);
+            for (int i = 0; i < steps_.length - 1 && !contexts.isEmpty(); i++) {
+                contexts = steps_[i].apply(contexts);
+            }
+
+            final Step last = steps_[steps_.length - 1];
+            switch (last.axis_) {
+                case DESCENDANT:
+                case DESCENDANT_OR_SELF:
+                    if (!last.isPositional()) {
+                        return findFirstDescendant(last, contexts);
+                    }
+                    final List<DomNode> descendants = contexts.isEmpty() ? contexts : last.apply(contexts);
+                    return descendants.isEmpty() ? null : descendants.get(0);
+
+                case ATTRIBUTE:
+                case SELF:
+                    // the nodes of a context precede the ones of the next contexts
+                    for (final DomNode context : contexts) {
+                        final List<DomNode> nodes = last.select(context);
+                        if (!nodes.isEmpty()) {
+                            return nodes.get(0);
+                        }
+                    }
+                    return null;
+
+                default:
+                    if (last.axis_ == Axis.CHILD && contexts.size() == 1) {
+                        final List<DomNode> nodes = last.select(contexts.get(0));
+                        return nodes.isEmpty() ? null : nodes.get(0);
+                    }
+                    final List<DomNode> nodes = contexts.isEmpty() ? contexts : last.apply(contexts);
+                    return nodes.isEmpty() ? null : nodes.get(0);
+            }
+        }
+
+        /**
+         * Searches the first descendant passing the predicates, which don't depend on the position.
+         */
+        private static DomNode findFirstDescendant(final Step step, final List<DomNode> contexts) {
+            DomNode searched = null;
+            for (final DomNode context : contexts) {
+                // the descendants of a context inside the previous one have been searched already
+                if (searched != null && isDescendant(context, searched)) {
+                    continue;
+                }
+                searched = context;
+
+                if (step.axis_ == Axis.DESCENDANT_OR_SELF
+                        && step.test_.matches(context, step.axis_) && step.accept(context)) {
+                    return context;
+                }
+                if (context.getNodeType() == Node.ATTRIBUTE_NODE) {
+                    continue;
+                }
+                for (DomNode descendant = nextInDocumentOrder(context, context); descendant != null;
+                        descendant = nextInDocumentOrder(descendant, context)) {
+                    if (isXPathNode(descendant) && step.test_.matches(descendant, step.axis_)
+                            && step.accept(descendant)) {
+                        return descendant;
+                    }
+                }
+            }
+            return null;
+        }
+
+        @Override
+        int getType() {
+            return NODE_SET;
+        }
+
+        @Override
+        boolean usesPosition() {
+            return filter_ != null && filter_.usesPosition();
+        }
+    }
+
+    /**
+     * A function call.
+     */
+    static final class FunctionCall extends Expr {
+        private final String name_;
+        private final Expr[] args_;
+        private final int type_;
+
+        FunctionCall(final String name, final Expr[] args, final int type) {
+            name_ = name;
+            args_ = args;
+            type_ = type;
+        }
+
+        @Override
+        int getType() {
+            return type_;
+        }
+
+        @Override
+        boolean usesPosition() {
+            if ("last".equals(name_) || "position".equals(name_)) {
+                return true;
+            }
+            if (args_.length == 0) {
+                // these use the context node only
+                return false;
+            }
+            for (final Expr arg : args_) {
+                if (arg.usesPosition()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private String stringArg(final int index, final DomNode node, final int position, final int size) {
+            if (index >= args_.length) {
+                return stringValue(node);
+            }
+            return NativeXPath.toString(args_[index].evaluate(node, position, size));
+        }
+
+        private double numberArg(final int index, final DomNode node, final int position, final int size) {
+            return toNumber(args_[index].evaluate(node, position, size));
+        }
+
+        private DomNode nodeArg(final DomNode node, final int position, final int size) {
+            if (args_.length == 0) {
+                return node;
+            }
+            final List<DomNode> nodes = args_[0].evaluateNodes(node, position, size);
+            return nodes.isEmpty() ? null : nodes.get(0);
+        }
+
+        @Override
+        Object evaluate(final DomNode node, final int position, final int size) {
+            switch (name_) {
+                case "last":
+                    return (double) size;
+
+                case "position":
+                    return (double) position;
+
+                case "count":
+                    return (double) args_[0].evaluateNodes(node, position, size).size();
+
+                case "local-name":
+                    final DomNode localNameNode = nodeArg(node, position, size);
+                    return localNameNode == null ? "" : getXPathLocalName(localNameNode);
+
+                case "namespace-uri":
+                    final DomNode namespaceNode = nodeArg(node, position, size);
+                    if (namespaceNode == null) {
+                        return "";
+                    }
+                    final String namespace = namespaceNode.getNamespaceURI();
+                    return namespace == null ? "" : namespace;
+
+                case "string":
+                    return stringArg(0, node, position, size);
+
+                case "concat":
+                    final StringBuilder builder = new StringBuilder();
+                    for (int i = 0; i < args_.length; i++) {
+                        builder.append(stringArg(i, node, position, size));
+                    }
+                    return builder.toString();
+
+                case "starts-with":
+                    return stringArg(0, node, position, size).startsWith(stringArg(1, node, position, size));
+
+                case "contains":
+                    return stringArg(0, node, position, size).contains(stringArg(1, node, position, size));
+
+                case "substring-before":
+                    final String before = stringArg(0, node, position, size);
+                    final int beforeIndex = before.indexOf(stringArg(1, node, position, size));
+                    return beforeIndex == -1 ? "" : before.substring(0, beforeIndex);
+
+                case "substring-after":
+                    final String after = stringArg(0, node, position, size);
+                    final String afterSearch = stringArg(1, node, position, size);
+                    final int afterIndex = after.indexOf(afterSearch);
+                    return afterIndex == -1 ? "" : after.substring(afterIndex + afterSearch.length());
+
+                case "substring":
+                    return substring(stringArg(0, node, position, size), numberArg(1, node, position, size),
+                            args_.length > 2 ? numberArg(2, node, position, size) : Double.POSITIVE_INFINITY);
+
+                case "string-length":
+                    return (double) stringArg(0, node, position, size).length();
+
+                case "normalize-space":
+                    return normalizeSpace(stringArg(0, node, position, size));
+
+                case "translate":
+                    return translate(stringArg(0, node, position, size), stringArg(1, node, position, size),
+                            stringArg(2, node, position, size));
+
+                case "lower-case":
+                    return stringArg(0, node, position, size).toLowerCase(Locale.ROOT);
+
+                case "boolean":
+                    return toBoolean(args_[0].evaluate(node, position, size));
+
+                case "not":
+                    return !toBoolean(args_[0].evaluate(node, position, size));
+
+                case "true":
+                    return Boolean.TRUE;
+
+                case "false":
+                    return Boolean.FALSE;
+
+                case "number":
+                    if (args_.length == 0) {
+                        return toNumber(stringValue(node));
+                    }
+                    return numberArg(0, node, position, size);
+
+                case "sum":
+                    double sum = 0;
+                    for (final DomNode item : args_[0].evaluateNodes(node, position, size)) {
+                        sum += toNumber(stringValue(item));
+                    }
+                    return sum;
+
+                case "floor":
+                    return Math.floor(numberArg(0, node, position, size));
+
+                case "ceiling":
+                    return Math.ceil(numberArg(0, node, position, size));
+
+                default: // round
+                    return round(numberArg(0, node, position, size));
+            }
+        }
+    }
+
+    /**
+     * Returns whether the node is part of the XPath data model.
+     */
+    static boolean isXPathNode(final DomNode node) {
+        final short type = node.getNodeType();
+        if (type == Node.TEXT_NODE || type == Node.CDATA_SECTION_NODE) {
+            // adjacent text nodes are one text node, represented by the first one
+            return !isText(node.getPreviousSibling());
+        }
+        return type != Node.DOCUMENT_TYPE_NODE;
+    }
+
+    private static boolean isText(final DomNode node) {
+        if (node == null) {
+            return false;
+        }
+        final short type = node.getNodeType();
+        return type == Node.TEXT_NODE || type == Node.CDATA_SECTION_NODE;
+    }
+
+    private static boolean isAttribute(final DomNode node) {
+        return node.getNodeType() == Node.ATTRIBUTE_NODE;
+    }
+
+    private static boolean isNamespaceDeclaration(final DomNode attribute) {
+        final String name = attribute.getNodeName();
+        return "xmlns".equals(name) || name.startsWith("xmlns:");
+    }
+
+    private static String getLocalName(final DomNode node) {
+        final String localName = node.getLocalName();
+        if (localName == null) {
+            return node.getNodeName();
+        }
+        return localName;
+    }
+
+    private static String getXPathLocalName(final DomNode node) {
+        switch (node.getNodeType()) {
+            case Node.ELEMENT_NODE:
+            case Node.ATTRIBUTE_NODE:
+                return getLocalName(node);
+
+            case Node.PROCESSING_INSTRUCTION_NODE:
+                return node.getNodeName();
+
+            default:
+                return "";
+        }
+    }
+
+    /**
+     * Returns the parent of the node in the XPath data model.
+     */
+    private static DomNode getParent(final DomNode node) {
+        if (isAttribute(node)) {
+            return ((DomAttr) node).getOwnerElement();
+        }
+        return node.getParentNode();
+    }
+
+    private static DomNode getRoot(final DomNode node) {
+        DomNode root = node;
+        DomNode parent = getParent(root);
+        while (parent != null) {
+            root = parent;
+            parent = getParent(root);
+        }
+        return root;
+    }
+
+    private static boolean isDescendant(final DomNode node, final DomNode ancestor) {
+        for (DomNode parent = getParent(node); parent != null; parent = getParent(parent)) {
+            if (parent == ancestor) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the node following the specified one in document order, inside of the specified root
+     * if not {@code null}.
+     */
+    private static DomNode nextInDocumentOrder(final DomNode node, final DomNode root) {
+        final DomNode child = node.getFirstChild();
+        if (child != null) {
+            return child;
+        }
+        return nextSkippingDescendants(node, root);
+    }
+
+    private static DomNode nextSkippingDescendants(final DomNode node, final DomNode root) {
+        for (DomNode current = node; current != null && current != root; current = current.getParentNode()) {
+            final DomNode sibling = current.getNextSibling();
+            if (sibling != null) {
+                return sibling;
+            }
+        }
+        return null;
+    }
+
+    private static void add(final DomNode node, final NodeTest test, final Axis axis, final List<DomNode> nodes) {
+        if (isXPathNode(node) && test.matches(node, axis)) {
+            nodes.add(node);
+        }
+    }
+
+    /**
+     * Collects the nodes of the axis matching the test, in the order of the axis.
+     */
+    static void collect(final Axis axis, final NodeTest test, final DomNode context, final List<DomNode> nodes) {
+        final boolean attribute = isAttribute(context);
+        switch (axis) {
+            case SELF:
+                add(context, test, axis, nodes);
+                break;
+
+            case CHILD:
+                for (DomNode child = context.getFirstChild(); child != null && !attribute;
+                        child = child.getNextSibling()) {
+                    add(child, test, axis, nodes);
+                }
+                break;
+
+            case ATTRIBUTE:
+                if (context instanceof DomElement) {
+                    final NamedNodeMap attributes = context.getAttributes();
+                    for (int i = 0; i < attributes.getLength(); i++) {
+                        final DomNode item = (DomNode) attributes.item(i);
+                        if (!isNamespaceDeclaration(item) && test.matches(item, axis)) {
+                            nodes.add(item);
+                        }
+                    }
+                }
+                break;
+
+            case PARENT:
+                final DomNode parent = getParent(context);
+                if (parent != null) {
+                    add(parent, test, axis, nodes);
+                }
+                break;
+
+            case ANCESTOR_OR_SELF:
+                add(context, test, axis, nodes);
+                // fall through
+            case ANCESTOR:
+                for (DomNode ancestor = getParent(context); ancestor != null; ancestor = getParent(ancestor)) {
+                    add(ancestor, test, axis, nodes);
+                }
+                break;
+
+            case DESCENDANT_OR_SELF:
+                add(context, test, axis, nodes);
+                // fall through
+            case DESCENDANT:
+                if (!attribute) {
+                    for (DomNode descendant = nextInDocumentOrder(context, context); descendant != null;
+                            descendant = nextInDocumentOrder(descendant, context)) {
+                        add(descendant, test, axis, nodes);
+                    }
+                }
+                break;
+
+            case FOLLOWING_SIBLING:
+                for (DomNode sibling = context.getNextSibling(); sibling != null && !attribute;
+                        sibling = sibling.getNextSibling()) {
+                    add(sibling, test, axis, nodes);
+                }
+                break;
+
+            case PRECEDING_SIBLING:
+                for (DomNode sibling = context.getPreviousSibling(); sibling != null && !attribute;
+                        sibling = sibling.getPreviousSibling()) {
+                    add(sibling, test, axis, nodes);
+                }
+                break;
+
+            case FOLLOWING:
+                DomNode following;
+                if (attribute) {
+                    // the children of the owner follow the attribute
+                    final DomNode owner = getParent(context);
+                    following = owner == null ? null : nextInDocumentOrder(owner, null);
+                }
+                else {
+                    following = nextSkippingDescendants(context, null);
+                }
+                for ( ; following != null; following = nextInDocumentOrder(following, null)) {
+                    add(following, test, axis, nodes);
+                }
+                break;
+
+            default: // PRECEDING
+                for (DomNode current = attribute ? getParent(context) : context; current != null;
+                        current = current.getParentNode()) {
+                    for (DomNode sibling = current.getPreviousSibling(); sibling != null;
+                            sibling = sibling.getPreviousSibling()) {
+                        collectReverse(sibling, test, axis, nodes);
+                    }
+                }
+        }
+    }
+
+    /**
+     * Collects the node and its descendants in reverse document order.
+     */
+    private static void collectReverse(final DomNode node, final NodeTest test, final Axis axis,
+            final List<DomNode> nodes) {
+        for (DomNode child = node.getLastChild(); child != null; child = child.getPreviousSibling()) {
+            collectReverse(child, test, axis, nodes);
+        }
+        add(node, test, axis, nodes);
+    }
+
+    /**
+     * Filters the nodes by the predicate; the position of a node is its index in the list.
+     */
+    static List<DomNode> filter(final List<DomNode> nodes, final Expr predicate) {
+        final List<DomNode> result = new ArrayList<>();
+        final int size = nodes.size();
+        for (int i = 0; i < size; i++) {
+            final DomNode node = nodes.get(i);
+            final Object value = predicate.evaluate(node, i + 1, size);
+            if (value instanceof Double ? ((Double) value).doubleValue() == i + 1 : toBoolean(value)) {
+                result.add(node);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sorts the nodes in document order and removes the duplicates.
+     */
+    static List<DomNode> sort(final List<DomNode> nodes) {
+        if (nodes.size() < 2) {
+            return nodes;
+        }
+        nodes.sort(NativeXPath::compareDocumentOrder);
+        final List<DomNode> result = new ArrayList<>(nodes.size());
+        DomNode previous = null;
+        for (final DomNode node : nodes) {
+            if (node != previous) {
+                result.add(node);
+                previous = node;
+            }
+        }
+        return result;
+    }
+
+    private static int compareDocumentOrder(final DomNode node1, final DomNode node2) {
+        if (node1 == node2) {
+            return 0;
+        }
+
+        // the attributes follow their element and precede its children
+        final DomNode owner1 = isAttribute(node1) && getParent(node1) != null ? getParent(node1) : node1;
+        final DomNode owner2 = isAttribute(node2) && getParent(node2) != null ? getParent(node2) : node2;
+        if (owner1 == owner2) {
+            if (owner1 == node1) {
+                return -1;
+            }
+            if (owner2 == node2) {
+                return 1;
+            }
+            return Integer.compare(getAttributeIndex(node1), getAttributeIndex(node2));
+        }
+
+        final SgmlPage page = owner1.getPage();
+        if (page instanceof HtmlPage && owner2.getPage() == page) {
+            return ((HtmlPage) page).getDocumentOrder().compare(owner1, owner2);
+        }
+        final short relation = owner1.compareDocumentPosition(owner2);
+        if ((relation & Node.DOCUMENT_POSITION_CONTAINS) != 0 || (relation & Node.DOCUMENT_POSITION_PRECEDING) != 0) {
+            return 1;
+        }
+        return -1;
+    }
+
+    private static int getAttributeIndex(final DomNode attribute) {
+        final NamedNodeMap attributes = getParent(attribute).getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            if (attributes.item(i) == attribute) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the string-value of the node.
+     */
+    static String stringValue(final DomNode node) {
+        switch (node.getNodeType()) {
+            case Node.ATTRIBUTE_NODE:
+            case Node.COMMENT_NODE:
+            case Node.PROCESSING_INSTRUCTION_NODE:
+                return node.getNodeValue();
+
+            case Node.TEXT_NODE:
+            case Node.CDATA_SECTION_NODE:
+                DomNode next = node.getNextSibling();
+                if (!isText(next)) {
+                    return node.getNodeValue();
+                }
+                final StringBuilder text = new StringBuilder(node.getNodeValue());
+                for ( ; isText(next); next = next.getNextSibling()) {
+                    text.append(next.getNodeValue());
+                }
+                return text.toString();
+
+            default:
+                final StringBuilder builder = new StringBuilder();
+                for (DomNode descendant = nextInDocumentOrder(node, node); descendant != null;
+                        descendant = nextInDocumentOrder(descendant, node)) {
+                    if (isText(descendant)) {
+                        builder.append(descendant.getNodeValue());
+                    }
+                }
+                return builder.toString();
+        }
+    }
+
+    /**
+     * Converts a result to a string.
+     */
+    static String toString(final Object value) {
+        if (value instanceof String) {
+            return (String) value;
+        }
+        if (value instanceof Double) {
+            return toString(((Double) value).doubleValue());
+        }
+        if (value instanceof Boolean) {
+            return value.toString();
+        }
+        final List<?> nodes = (List<?>) value;
+        return nodes.isEmpty() ? "" : stringValue((DomNode) nodes.get(0));
+    }
+
+    private static String toString(final double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "Infinity" : "-Infinity";
+        }
+        if (value == 0) {
+            return "0";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return new BigDecimal(Double.toString(value)).stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * Converts a result to a number.
+     */
+    static double toNumber(final Object value) {
+        if (value instanceof Double) {
+            return ((Double) value).doubleValue();
+        }
+        if (value instanceof Boolean) {
+            return ((Boolean) value).booleanValue() ? 1 : 0;
+        }
+        return toNumber(toString(value));
+    }
+
+    private static double toNumber(final String value) {
+        final String number = value.trim();
+        final int length = number.length();
+        int i = number.startsWith("-") ? 1 : 0;
+        int digits = 0;
+        boolean dot = false;
+        for ( ; i < length; i++) {
+            final char c = number.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits++;
+            }
+            else if (c == '.' && !dot) {
+                dot = true;
+            }
+            else {
+                return Double.NaN;
+            }
+        }
+        if (digits == 0) {
+            return Double.NaN;
+        }
+        return Double.parseDouble(number);
+    }
+
+    /**
+     * Converts a result to a boolean.
+     */
+    static boolean toBoolean(final Object value) {
+        if (value instanceof Boolean) {
+            return ((Boolean) value).booleanValue();
+        }
+        if (value instanceof Double) {
+            final double number = ((Double) value).doubleValue();
+            return number != 0 && !Double.isNaN(number);
+        }
+        if (value instanceof String) {
+            return !((String) value).isEmpty();
+        }
+        return !((List<?>) value).isEmpty();
+    }
+
+    /**
+     * Compares two results like the XPath comparison operators.
+     */
+    static boolean compare(final String operator, final Object left, final Object right) {
+        if (left instanceof List) {
+            if (right instanceof List) {
+                for (final Object leftNode : (List<?>) left) {
+                    final String leftValue = stringValue((DomNode) leftNode);
+                    for (final Object rightNode : (List<?>) right) {
+                        if (compareValues(operator, leftValue, stringValue((DomNode) rightNode))) {
+                            return true;
+                        }
+                    }
+                }
+                return false;
+            }
+            if (right instanceof Boolean) {
+                return compareValues(operator, toBoolean(left), right);
+            }
+            for (final Object node : (List<?>) left) {
+                final String value = stringValue((DomNode) node);
+                if (compareValues(operator, right instanceof Double ? (Object) toNumber(value) : value, right)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (right instanceof List) {
+            return compare(invert(operator), right, left);
+        }
+        return compareValues(operator, left, right);
+    }
+
+    private static String invert(final String operator) {
+        switch (operator) {
+            case "<":
+                return ">";
+            case "<=":
+                return ">=";
+            case ">":
+                return "<";
+            case ">=":
+                return "<=";
+            default:
+                return operator;
+        }
+    }
+
+    private static boolean compareValues(final String operator, final Object left, final Object right) {
+        if ("=".equals(operator) || "!=".equals(operator)) {
+            final boolean equal;
+            if (left instanceof Boolean || right instanceof Boolean) {
+                equal = toBoolean(left) == toBoolean(right);
+            }
+            else if (left instanceof Double || right instanceof Double) {
+                equal = toNumber(left) == toNumber(right);
+            }
+            else {
+                equal = toString(left).equals(toString(right));
+            }
+            return equal == "=".equals(operator);
+        }
+
+        final double leftNumber = toNumber(left);
+        final double rightNumber = toNumber(right);
+        switch (operator) {
+            case "<":
+                return leftNumber < rightNumber;
+            case "<=":
+                return leftNumber <= rightNumber;
+            case ">":
+                return leftNumber > rightNumber;
+            default:
+                return leftNumber >= rightNumber;
+        }
+    }
+
+    private static String substring(final String value, final double start, final double length) {
+        final double first = round(start);
+        final double end = first + round(length);
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < value.length(); i++) {
+            final int position = i + 1;
+            if (position >= first && position < end) {
+                builder.append(value.charAt(i));
+            }
+        }
+        return builder.toString();
+    }
+
+    private static double round(final double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value) || value == 0) {
+            return value;
+        }
+        if (value < 0 && value >= -0.5) {
+            return -0.0;
+        }
+        return Math.floor(value + 0.5);
+    }
+
+    private static String normalizeSpace(final String value) {
+        final StringBuilder builder = new StringBuilder(value.length());
+        boolean space = false;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+                space = builder.length() > 0;
+            }
+            else {
+                if (space) {
+                    builder.append(' ');
+                    space = false;
+                }
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    private static String translate(final String value, final String from, final String to) {
+        final StringBuilder builder = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            final int index = from.indexOf(c);
+            if (index == -1) {
+                builder.append(c);
+            }
+            else if (index < to.length()) {
+                builder.append(to.charAt(index));
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,549 @@
+/*
+ * Copyright (c) 2002-2019 Gargoyle Software Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gargoylesoftware.htmlunit.html.xpath;
+
+import static com.gargoylesoftware.htmlunit.html.xpath.NativeXPath.BOOLEAN;
+import static com.gargoylesoftware.htmlunit.html.xpath.NativeXPath.NODE_SET;
+import static com.gargoylesoftware.htmlunit.html.xpath.NativeXPath.NUMBER;
+import static com.gargoylesoftware.htmlunit.html.xpath.NativeXPath.STRING;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.gargoylesoftware.htmlunit.html.xpath.NativeXPath.ArithmeticExpr;
+import com.gargoylesoftware.htmlunit.html.xpath.NativeXPath.Axis;
+import com.gargoylesoftware.htmlunit.html.xpath.NativeXPath.CompareExpr;
+import com.gargoylesoftware.htmlunit.html.xpath.NativeXPath.Constant;
+import com.gargoylesoftware.htmlunit.html.xpath.NativeXPath.Expr;
+import com.gargoylesoftware.htmlunit.html.xpath.NativeXPath.FilterExpr;
+import com.gargoylesoftware.htmlunit.html.xpath.NativeXPath.FunctionCall;
+import com.gargoylesoftware.htmlunit.html.xpath.NativeXPath.LogicalExpr;
+import com.gargoylesoftware.htmlunit.html.xpath.NativeXPath.NegateExpr;
+import com.gargoylesoftware.htmlunit.html.xpath.NativeXPath.NodeTest;
+import com.gargoylesoftware.htmlunit.html.xpath.NativeXPath.PathExpr;
+import com.gargoylesoftware.htmlunit.html.xpath.NativeXPath.Step;
+import com.gargoylesoftware.htmlunit.html.xpath.NativeXPath.UnionExpr;
+
+/**
+ * Compiles XPath 1.0 expressions into {@link NativeXPath}s.
+ *
+ * <p>Expressions using what {@link NativeXPath} does not support, and invalid expressions, are rejected;
+ * they are evaluated (and reported) by Xalan.</p>
+ *
+ * @author Ronald Brill
+ */
+final class NativeXPathParser {
+
+    /** The token kinds. */
+    private static final char NAME = 'N';
+    private static final char LITERAL = 'L';
+    private static final char NUMBER_LITERAL = 'D';
+    private static final char OPERATOR_NAME = 'W';
+    private static final char MULTIPLY = 'M';
+    private static final char STAR = 'S';
+    private static final char SYMBOL = 'O';
+
+    private static final Expr[] NO_EXPRESSIONS = new Expr[0];
+
+    /** The {@code //} abbreviation. */
+    private static final Step DESCENDANT_OR_SELF_NODE =
+            new Step(Axis.DESCENDANT_OR_SELF, new NodeTest(NodeTest.NODE, null), NO_EXPRESSIONS);
+
+    /** The supported functions: the result type, the minimum and maximum number of arguments. */
+    private static final Map<String, int[]> FUNCTIONS = new HashMap<>();
+
+    static {
+        FUNCTIONS.put("last", new int[] {NUMBER, 0, 0});
+        FUNCTIONS.put("position", new int[] {NUMBER, 0, 0});
+        FUNCTIONS.put("count", new int[] {NUMBER, 1, 1});
+        FUNCTIONS.put("local-name", new int[] {STRING, 0, 1});
+        FUNCTIONS.put("namespace-uri", new int[] {STRING, 0, 1});
+        FUNCTIONS.put("string", new int[] {STRING, 0, 1});
+        FUNCTIONS.put("concat", new int[] {STRING, 2, Integer.MAX_VALUE});
+        FUNCTIONS.put("starts-with", new int[] {BOOLEAN, 2, 2});
+        FUNCTIONS.put("contains", new int[] {BOOLEAN, 2, 2});
+        FUNCTIONS.put("substring-before", new int[] {STRING, 2, 2});
+        FUNCTIONS.put("substring-after", new int[] {STRING, 2, 2});
+        FUNCTIONS.put("substring", new int[] {STRING, 2, 3});
+        FUNCTIONS.put("string-length", new int[] {NUMBER, 0, 1});
+        FUNCTIONS.put("normalize-space", new int[] {STRING, 0, 1});
+        FUNCTIONS.put("translate", new int[] {STRING, 3, 3});
+        FUNCTIONS.put("lower-case", new int[] {STRING, 0, 1});
+        FUNCTIONS.put("boolean", new int[] {BOOLEAN, 1, 1});
+        FUNCTIONS.put("not", new int[] {BOOLEAN, 1, 1});
+        FUNCTIONS.put("true", new int[] {BOOLEAN, 0, 0});
+        FUNCTIONS.put("false", new int[] {BOOLEAN, 0, 0});
+        FUNCTIONS.put("number", new int[] {NUMBER, 0, 1});
+        FUNCTIONS.put("sum", new int[] {NUMBER, 1, 1});
+        FUNCTIONS.put("floor", new int[] {NUMBER, 1, 1});
+        FUNCTIONS.put("ceiling", new int[] {NUMBER, 1, 1});
+        FUNCTIONS.put("round", new int[] {NUMBER, 1, 1});
+    }
+
+    private static final List<String> NODE_TYPES = Arrays.asList("node", "text", "comment", "processing-instruction");
+
+    private final List<String> tokens_ = new ArrayList<>();
+    private final StringBuilder kinds_ = new StringBuilder();
+    private int index_;
+
+    /**
+     * Thrown for the expressions not supported.
+     */
+    private static final class UnsupportedException extends RuntimeException {
+        UnsupportedException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private NativeXPathParser() {
+    }
+
+    /**
+     * Compiles the specified expression.
+     * @param expression the expression, already pre-processed for the case sensitivity
+     * @return the compiled expression or {@code null} if not supported or invalid
+     */
+    static NativeXPath parse(final String expression) {
+        final NativeXPathParser parser = new NativeXPathParser();
+        try {
+            parser.tokenize(expression);
+            final Expr expr = parser.parseOr();
+            if (parser.index_ != parser.tokens_.size()) {
+                return null;
+            }
+            return new NativeXPath(expr);
+        }
+        catch (final UnsupportedException e) {
+            return null;
+        }
+    }
+
+    private void tokenize(final String expression) {
+        final int length = expression.length();
+        int i = 0;
+        while (i < length) {
+            final char c = expression.charAt(i);
+            if (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+                i++;
+                continue;
+            }
+
+            final int start = i;
+            if (c == '"' || c == '\'') {
+                final int end = expression.indexOf(c, i + 1);
+                if (end == -1) {
+                    throw new UnsupportedException();
+                }
+                add(LITERAL, expression.substring(i + 1, end));
+                i = end + 1;
+            }
+            else if (isDigit(c) || c == '.' && i + 1 < length && isDigit(expression.charAt(i + 1))) {
+                while (i < length && isDigit(expression.charAt(i))) {
+                    i++;
+                }
+                if (i < length && expression.charAt(i) == '.') {
+                    i++;
+                    while (i < length && isDigit(expression.charAt(i))) {
+                        i++;
+                    }
+                }
+                add(NUMBER_LITERAL, expression.substring(start, i));
+            }
+            else if (Character.isLetter(c) || c == '_') {
+                if (i > 0 && isDigit(expression.charAt(i - 1))) {
+                    // Xalan rejects names directly following a number
+                    throw new UnsupportedException();
+                }
+                while (i < length && isNameChar(expression.charAt(i))) {
+                    i++;
+                }
+                if (i + 1 < length && expression.charAt(i) == ':' && expression.charAt(i + 1) != ':') {
+                    // a namespace prefix
+                    throw new UnsupportedException();
+                }
+                final String name = expression.substring(start, i);
+                if (isOperatorContext()
+                        && ("and".equals(name) || "or".equals(name) || "div".equals(name) || "mod".equals(name))) {
+                    add(OPERATOR_NAME, name);
+                }
+                else {
+                    add(NAME, name);
+                }
+            }
+            else if (c == '*') {
+                add(isOperatorContext() ? MULTIPLY : STAR, "*");
+                i++;
+            }
+            else {
+                final String twoChars = i + 1 < length ? expression.substring(i, i + 2) : "";
+                if ("--".equals(twoChars)) {
+                    // Xalan rejects this, even if valid
+                    throw new UnsupportedException();
+                }
+                if ("//".equals(twoChars) || "::".equals(twoChars) || "..".equals(twoChars)
+                        || "!=".equals(twoChars) || "<=".equals(twoChars) || ">=".equals(twoChars)) {
+                    add(SYMBOL, twoChars);
+                    i += 2;
+                }
+                else if ("/()[].@,|+-=<>".indexOf(c) != -1) {
+                    add(SYMBOL, String.valueOf(c));
+                    i++;
+                }
+                else {
+                    // variables and invalid characters
+                    throw new UnsupportedException();
+                }
+            }
+        }
+    }
+
+    private void add(final char kind, final String token) {
+        tokens_.add(token);
+        kinds_.append(kind);
+    }
+
+    /**
+     * Returns whether a {@code *} or a name is an operator, following the rules of the XPath specification.
+     */
+    private boolean isOperatorContext() {
+        final int size = tokens_.size();
+        if (size == 0) {
+            return false;
+        }
+        final char kind = kinds_.charAt(size - 1);
+        if (kind == OPERATOR_NAME || kind == MULTIPLY) {
+            return false;
+        }
+        if (kind == SYMBOL) {
+            final String previous = tokens_.get(size - 1);
+            return ")".equals(previous) || "]".equals(previous) || ".".equals(previous) || "..".equals(previous);
+        }
+        return true;
+    }
+
+    private static boolean isDigit(final char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isNameChar(final char c) {
+        return Character.isLetterOrDigit(c) || c == '.' || c == '-' || c == '_';
+    }
+
+    private boolean isKind(final int offset, final char kind) {
+        final int i = index_ + offset;
+        return i < kinds_.length() && kinds_.charAt(i) == kind;
+    }
+
+    private boolean isSymbol(final int offset, final String symbol) {
+        return isKind(offset, SYMBOL) && symbol.equals(tokens_.get(index_ + offset));
+    }
+
+    private boolean acceptSymbol(final String symbol) {
+        if (isSymbol(0, symbol)) {
+            index_++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expectSymbol(final String symbol) {
+        if (!acceptSymbol(symbol)) {
+            throw new UnsupportedException();
+        }
+    }
+
+    private boolean acceptOperatorName(final String name) {
+        if (isKind(0, OPERATOR_NAME) && name.equals(tokens_.get(index_))) {
+            index_++;
+            return true;
+        }
+        return false;
+    }
+
+    private Expr parseOr() {
+        Expr expr = parseAnd();
+        while (acceptOperatorName("or")) {
+            expr = new LogicalExpr(true, expr, parseAnd());
+        }
+        return expr;
+    }
+
+    private Expr parseAnd() {
+        Expr expr = parseEquality();
+        while (acceptOperatorName("and")) {
+            expr = new LogicalExpr(false, expr, parseEquality());
+        }
+        return expr;
+    }
+
+    private Expr parseEquality() {
+        Expr expr = parseRelational();
+        while (isSymbol(0, "=") || isSymbol(0, "!=")) {
+            final String operator = tokens_.get(index_++);
+            expr = new CompareExpr(operator, expr, parseRelational());
+        }
+        return expr;
+    }
+
+    private Expr parseRelational() {
+        Expr expr = parseAdditive();
+        while (isSymbol(0, "<") || isSymbol(0, "<=") || isSymbol(0, ">") || isSymbol(0, ">=")) {
+            final String operator = tokens_.get(index_++);
+            expr = new CompareExpr(operator, expr, parseAdditive());
+        }
+        return expr;
+    }
+
+    private Expr parseAdditive() {
+        Expr expr = parseMultiplicative();
+        while (isSymbol(0, "+") || isSymbol(0, "-")) {
+            final String operator = tokens_.get(index_++);
+            expr = new ArithmeticExpr(operator, expr, parseMultiplicative());
+        }
+        return expr;
+    }
+
+    private Expr parseMultiplicative() {
+        Expr expr = parseUnary();
+        while (isKind(0, MULTIPLY) || isKind(0, OPERATOR_NAME)
+                && ("div".equals(tokens_.get(index_)) || "mod".equals(tokens_.get(index_)))) {
+            final String operator = tokens_.get(index_++);
+            expr = new ArithmeticExpr(operator, expr, parseUnary());
+        }
+        return expr;
+    }
+
+    private Expr parseUnary() {
+        if (acceptSymbol("-")) {
+            return new NegateExpr(parseUnary());
+        }
+        return parseUnion();
+    }
+
+    private Expr parseUnion() {
+        Expr expr = parsePath();
+        while (acceptSymbol("|")) {
+            final Expr right = parsePath();
+            requireNodeSet(expr);
+            requireNodeSet(right);
+            expr = new UnionExpr(expr, right);
+        }
+        return expr;
+    }
+
+    private static void requireNodeSet(final Expr expr) {
+        if (expr.getType() != NODE_SET) {
+            throw new UnsupportedException();
+        }
+    }
+
+    private Expr parsePath() {
+        final List<Step> steps = new ArrayList<>();
+        if (isPrimaryStart()) {
+            Expr expr = parsePrimary();
+            final Expr[] predicates = parsePredicates();
+            if (predicates.length > 0) {
+                requireNodeSet(expr);
+                expr = new FilterExpr(expr, predicates);
+            }
+            if (isSymbol(0, "/") || isSymbol(0, "//")) {
+                requireNodeSet(expr);
+                parseRelativePath(steps);
+                return new PathExpr(false, expr, toArray(steps));
+            }
+            return expr;
+        }
+
+        if (acceptSymbol("/")) {
+            if (isStepStart()) {
+                parseStep(steps);
+                parseRelativePath(steps);
+            }
+            return new PathExpr(true, null, toArray(steps));
+        }
+        if (acceptSymbol("//")) {
+            steps.add(DESCENDANT_OR_SELF_NODE);
+            parseStep(steps);
+            parseRelativePath(steps);
+            return new PathExpr(true, null, toArray(steps));
+        }
+        parseStep(steps);
+        parseRelativePath(steps);
+        return new PathExpr(false, null, toArray(steps));
+    }
+
+    /**
+     * Parses the following steps, each preceded by {@code /} or {@code //}.
+     */
+    private void parseRelativePath(final List<Step> steps) {
+        while (true) {
+            if (acceptSymbol("//")) {
+                steps.add(DESCENDANT_OR_SELF_NODE);
+            }
+            else if (!acceptSymbol("/")) {
+                return;
+            }
+            parseStep(steps);
+        }
+    }
+
+    private boolean isPrimaryStart() {
+        return isKind(0, LITERAL) || isKind(0, NUMBER_LITERAL) || isSymbol(0, "(")
+                || isKind(0, NAME) && isSymbol(1, "(") && !NODE_TYPES.contains(tokens_.get(index_));
+    }
+
+    private boolean isStepStart() {
+        return isKind(0, NAME) || isKind(0, STAR) || isSymbol(0, "@") || isSymbol(0, ".") || isSymbol(0, "..");
+    }
+
+    private static Step[] toArray(final List<Step> steps) {
+        return steps.toArray(new Step[steps.size()]);
+    }
+
+    /**
+     * Parses a step and adds it to the steps; {@code //name} without positional predicates
+     * is optimized to a single step of the descendant axis.
+     */
+    private void parseStep(final List<Step> steps) {
+        final Step step;
+        if (acceptSymbol(".")) {
+            step = new Step(Axis.SELF, new NodeTest(NodeTest.NODE, null), NO_EXPRESSIONS);
+        }
+        else if (acceptSymbol("..")) {
+            step = new Step(Axis.PARENT, new NodeTest(NodeTest.NODE, null), NO_EXPRESSIONS);
+        }
+        else {
+            Axis axis = Axis.CHILD;
+            if (acceptSymbol("@")) {
+                axis = Axis.ATTRIBUTE;
+            }
+            else if (isKind(0, NAME) && isSymbol(1, "::")) {
+                axis = Axis.forName(tokens_.get(index_));
+                if (axis == null) {
+                    throw new UnsupportedException();
+                }
+                index_ += 2;
+            }
+            final NodeTest test = parseNodeTest();
+            step = new Step(axis, test, parsePredicates());
+        }
+
+        final int last = steps.size() - 1;
+        if (last >= 0 && steps.get(last) == DESCENDANT_OR_SELF_NODE
+                && step.getAxis() == Axis.CHILD && !step.isPositional()) {
+            steps.set(last, new Step(Axis.DESCENDANT, step.getTest(), step.getPredicates()));
+        }
+        else {
+            steps.add(step);
+        }
+    }
+
+    private NodeTest parseNodeTest() {
+        if (isKind(0, STAR)) {
+            index_++;
+            return new NodeTest(NodeTest.NAME, null);
+        }
+        if (!isKind(0, NAME)) {
+            throw new UnsupportedException();
+        }
+        final String name = tokens_.get(index_++);
+        if (!acceptSymbol("(")) {
+            return new NodeTest(NodeTest.NAME, name);
+        }
+
+        final NodeTest test;
+        switch (name) {
+            case "node":
+                test = new NodeTest(NodeTest.NODE, null);
+                break;
+
+            case "text":
+                test = new NodeTest(NodeTest.TEXT, null);
+                break;
+
+            case "comment":
+                test = new NodeTest(NodeTest.COMMENT, null);
+                break;
+
+            case "processing-instruction":
+                String target = null;
+                if (isKind(0, LITERAL)) {
+                    target = tokens_.get(index_++);
+                }
+                test = new NodeTest(NodeTest.PROCESSING_INSTRUCTION, target);
+                break;
+
+            default:
+                throw new UnsupportedException();
+        }
+        expectSymbol(")");
+        return test;
+    }
+
+    private Expr[] parsePredicates() {
+        if (!isSymbol(0, "[")) {
+            return NO_EXPRESSIONS;
+        }
+        final List<Expr> predicates = new ArrayList<>();
+        while (acceptSymbol("[")) {
+            predicates.add(parseOr());
+            expectSymbol("]");
+        }
+        return predicates.toArray(new Expr[predicates.size()]);
+    }
+
+    private Expr parsePrimary() {
+        if (isKind(0, LITERAL)) {
+            return new Constant(tokens_.get(index_++));
+        }
+        if (isKind(0, NUMBER_LITERAL)) {
+            return new Constant(Double.valueOf(tokens_.get(index_++)));
+        }
+        if (acceptSymbol("(")) {
+            final Expr expr = parseOr();
+            expectSymbol(")");
+            return expr;
+        }
+
+        final String name = tokens_.get(index_);
+        final int[] function = FUNCTIONS.get(name);
+        if (function == null) {
+            throw new UnsupportedException();
+        }
+        index_ += 2;
+
+        final List<Expr> args = new ArrayList<>();
+        if (!acceptSymbol(")")) {
+            do {
+                args.add(parseOr());
+            }
+            while (acceptSymbol(","));
+            expectSymbol(")");
+        }
+        if (args.size() < function[1] || args.size() > function[2]) {
+            throw new UnsupportedException();
+        }
+        if ("count".equals(name) || "sum".equals(name) || "local-name".equals(name)
+                || "namespace-uri".equals(name)) {
+            for (final Expr arg : args) {
+                requireNodeSet(arg);
+            }
+        }
+        return new FunctionCall(name, args.toArray(new Expr[args.size()]), function[0]);
+    }
+}
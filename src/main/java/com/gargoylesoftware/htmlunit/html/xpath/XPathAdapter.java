@@ -97,7 +97,7 @@ class XPathAdapter {
      * @param attributeCaseSensitive whether or not the attributes should be case-sensitive
      * @return the processed XPath expression
      */
-    private static String preProcessXPath(final String xpath, final boolean caseSensitive,
+    static String preProcessXPath(final String xpath, final boolean caseSensitive,
             final boolean attributeCaseSensitive) {
 
         String path;
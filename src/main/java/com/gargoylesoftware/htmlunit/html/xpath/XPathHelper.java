@@ -15,7 +15,10 @@
 package com.gargoylesoftware.htmlunit.html.xpath;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.xml.transform.TransformerException;
 
@@ -37,11 +40,27 @@ import com.gargoylesoftware.htmlunit.html.DomNode;
  *
  * @author Ahmed Ashour
  * @author Chuck Dumont
+ * @author Ronald Brill
  */
 public final class XPathHelper {
 
     private static ThreadLocal<Boolean> PROCESS_XPATH_ = ThreadLocal.withInitial(() -> Boolean.FALSE);
 
+    /** The number of compiled expressions kept. */
+    private static final int MAX_COMPILED_EXPRESSIONS = 256;
+
+    /** Marks the expressions not supported by {@link NativeXPath}. */
+    private static final Object UNSUPPORTED = new Object();
+
+    /** The compiled expressions (or {@link #UNSUPPORTED}), by case sensitivity and expression. */
+    private static final Map<String, Object> COMPILED_EXPRESSIONS = Collections.synchronizedMap(
+            new LinkedHashMap<String, Object>(MAX_COMPILED_EXPRESSIONS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, Object> eldest) {
+                    return size() > MAX_COMPILED_EXPRESSIONS;
+                }
+            });
+
     /**
      * Private to avoid instantiation.
      */
@@ -59,9 +78,25 @@ public final class XPathHelper {
      * @param caseSensitiveXpathAttributes true if the browser handles xpath attribute names case sensitive
      * @return the list of objects found
      */
-    @SuppressWarnings("unchecked")
     public static <T> List<T> getByXPath(final DomNode node, final String xpathExpr,
             final PrefixResolver resolver, final boolean caseSensitiveXpathAttributes) {
+        return getByXPath(node, xpathExpr, resolver, caseSensitiveXpathAttributes, true);
+    }
+
+    /**
+     * Evaluates an XPath expression from the specified node, returning the resultant nodes.
+     *
+     * @param <T> the type class
+     * @param node the node to start searching from
+     * @param xpathExpr the XPath expression
+     * @param resolver the prefix resolver to use for resolving namespace prefixes, or null
+     * @param caseSensitiveXpathAttributes true if the browser handles xpath attribute names case sensitive
+     * @param useNative whether to evaluate the expression with {@link NativeXPath} if supported
+     * @return the list of objects found
+     */
+    @SuppressWarnings("unchecked")
+    static <T> List<T> getByXPath(final DomNode node, final String xpathExpr,
+            final PrefixResolver resolver, final boolean caseSensitiveXpathAttributes, final boolean useNative) {
         if (xpathExpr == null) {
             throw new IllegalArgumentException("Null is not a valid XPath expression");
         }
@@ -69,6 +104,18 @@ public final class XPathHelper {
         PROCESS_XPATH_.set(Boolean.TRUE);
         final List<T> list = new ArrayList<>();
         try {
+            final NativeXPath nativeXPath = useNative ? compile(node, xpathExpr, caseSensitiveXpathAttributes) : null;
+            if (nativeXPath != null) {
+                final Object result = nativeXPath.evaluate(node);
+                if (result instanceof List) {
+                    list.addAll((List<T>) result);
+                }
+                else {
+                    list.add((T) result);
+                }
+                return list;
+            }
+
             final XObject result = evaluateXPath(node, xpathExpr, resolver, caseSensitiveXpathAttributes);
 
             if (result instanceof XNodeSet) {
@@ -99,6 +146,70 @@ public final class XPathHelper {
         return list;
     }
 
+    /**
+     * Evaluates an XPath expression from the specified node, returning the first resultant node.
+     * Where possible, the evaluation stops as soon as the first node in document order is found.
+     *
+     * @param <T> the type class
+     * @param node the node to start searching from
+     * @param xpathExpr the XPath expression
+     * @param resolver the prefix resolver to use for resolving namespace prefixes, or null
+     * @param caseSensitiveXpathAttributes true if the browser handles xpath attribute names case sensitive
+     * @return the first object found, or {@code null} if none
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T getFirstByXPath(final DomNode node, final String xpathExpr,
+            final PrefixResolver resolver, final boolean caseSensitiveXpathAttributes) {
+        if (xpathExpr == null) {
+            throw new IllegalArgumentException("Null is not a valid XPath expression");
+        }
+
+        PROCESS_XPATH_.set(Boolean.TRUE);
+        try {
+            final NativeXPath nativeXPath = compile(node, xpathExpr, caseSensitiveXpathAttributes);
+            if (nativeXPath != null) {
+                return (T) nativeXPath.evaluateFirst(node);
+            }
+        }
+        catch (final Exception e) {
+            throw new RuntimeException("Could not retrieve XPath >" + xpathExpr + "< on " + node, e);
+        }
+        finally {
+            PROCESS_XPATH_.set(Boolean.FALSE);
+        }
+
+        final List<T> results = getByXPath(node, xpathExpr, resolver, caseSensitiveXpathAttributes, false);
+        if (results.isEmpty()) {
+            return null;
+        }
+        return results.get(0);
+    }
+
+    /**
+     * Returns the compiled expression, from the cache if possible.
+     * @param node the node to start searching from
+     * @param xpathExpr the XPath expression
+     * @param caseSensitiveXpathAttributes true if the browser handles xpath attribute names case sensitive
+     * @return the compiled expression or {@code null} if not supported by {@link NativeXPath}
+     */
+    private static NativeXPath compile(final DomNode node, final String xpathExpr,
+            final boolean caseSensitiveXpathAttributes) {
+        final boolean caseSensitive = node.getPage().hasCaseSensitiveTagNames();
+        final boolean attributeCaseSensitive = caseSensitive || caseSensitiveXpathAttributes;
+
+        final String key = (caseSensitive ? 'c' : 'i') + (attributeCaseSensitive ? "c" : "i") + xpathExpr;
+        Object compiled = COMPILED_EXPRESSIONS.get(key);
+        if (compiled == null) {
+            final String expression = XPathAdapter.preProcessXPath(xpathExpr, caseSensitive, attributeCaseSensitive);
+            compiled = NativeXPathParser.parse(expression);
+            if (compiled == null) {
+                compiled = UNSUPPORTED;
+            }
+            COMPILED_EXPRESSIONS.put(key, compiled);
+        }
+        return compiled == UNSUPPORTED ? null : (NativeXPath) compiled;
+    }
+
     /**
      * Returns whether the thread is currently evaluating XPath expression or no.
      * @return whether the thread is currently evaluating XPath expression or no
@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2002-2019 Gargoyle Software Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gargoylesoftware.htmlunit.javascript;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import com.gargoylesoftware.htmlunit.BrowserVersion;
+
+import net.sourceforge.htmlunit.corejs.javascript.Script;
+
+/**
+ * JVM-wide cache of compiled scripts, shared by all {@link JavaScriptEngine}s.
+ *
+ * <p>The scripts are keyed by a digest of the source code, the {@link BrowserVersion}
+ * (the compilation depends on browser features), the optimization level (interpreted
+ * or compiled to bytecode), the source name and the start line
+ * (both are part of the compiled script and used in error messages).
+ * For compiled scripts, this avoids generating and loading the classes again.
+ * The least recently used scripts are evicted when the total length
+ * of the cached source code exceeds the {@link #getMaxSize() maximum size}.</p>
+ *
+ * @author Ronald Brill
+ */
+public final class CompiledScriptCache {
+
+    /** The default maximum size (in characters of source code). */
+    public static final long DEFAULT_MAX_SIZE = 10_000_000;
+
+    private static final Map<Key, Entry> ENTRIES_ = new LinkedHashMap<>(16, 0.75f, true);
+    private static long MaxSize_ = DEFAULT_MAX_SIZE;
+    private static long Size_;
+
+    private CompiledScriptCache() {
+    }
+
+    /**
+     * Returns the cached script compiled from the specified source.
+     * @param browserVersion the browser version the script was compiled for
+     * @param optimizationLevel the optimization level the script was compiled with
+     * @param sourceCode the source code
+     * @param sourceName the source name
+     * @param startLine the start line
+     * @return the cached script or {@code null}
+     */
+    public static Script get(final BrowserVersion browserVersion, final int optimizationLevel,
+            final String sourceCode, final String sourceName, final int startLine) {
+        return get(new Key(browserVersion, optimizationLevel, sourceCode, sourceName, startLine));
+    }
+
+    /**
+     * Returns the cached script for the specified key.
+     * @param key the key
+     * @return the cached script or {@code null}
+     */
+    static Script get(final Key key) {
+        synchronized (ENTRIES_) {
+            final Entry entry = ENTRIES_.get(key);
+            if (entry == null) {
+                return null;
+            }
+            return entry.script_;
+        }
+    }
+
+    /**
+     * Caches the script compiled from the specified source.
+     * @param browserVersion the browser version the script was compiled for
+     * @param optimizationLevel the optimization level the script was compiled with
+     * @param sourceCode the source code
+     * @param sourceName the source name
+     * @param startLine the start line
+     * @param script the compiled script
+     */
+    public static void put(final BrowserVersion browserVersion, final int optimizationLevel,
+            final String sourceCode, final String sourceName, final int startLine, final Script script) {
+        put(new Key(browserVersion, optimizationLevel, sourceCode, sourceName, startLine),
+                sourceCode.length(), script);
+    }
+
+    /**
+     * Caches the specified script.
+     * @param key the key
+     * @param size the length of the source code
+     * @param script the compiled script
+     */
+    static void put(final Key key, final long size, final Script script) {
+        synchronized (ENTRIES_) {
+            if (MaxSize_ == 0 || size > MaxSize_) {
+                return;
+            }
+            final Entry old = ENTRIES_.put(key, new Entry(script, size));
+            if (old != null) {
+                Size_ -= old.size_;
+            }
+            Size_ += size;
+            shrink();
+        }
+    }
+
+    /**
+     * Returns whether the specified source code is small enough to be cached.
+     * @param sourceCode the source code
+     * @return whether the source code is small enough to be cached
+     */
+    static boolean isCacheable(final String sourceCode) {
+        synchronized (ENTRIES_) {
+            return MaxSize_ > 0 && sourceCode.length() <= MaxSize_;
+        }
+    }
+
+    private static void shrink() {
+        final Iterator<Entry> it = ENTRIES_.values().iterator();
+        while (Size_ > MaxSize_ && it.hasNext()) {
+            Size_ -= it.next().size_;
+            it.remove();
+        }
+    }
+
+    /**
+     * Returns the maximum size of the cache, this is the maximum total length
+     * of the source code of the cached scripts.
+     * @return the maximum size
+     */
+    public static long getMaxSize() {
+        synchronized (ENTRIES_) {
+            return MaxSize_;
+        }
+    }
+
+    /**
+     * Sets the maximum size of the cache, this is the maximum total length
+     * of the source code of the cached scripts. Use {@code 0} to disable the cache.
+     * @param maxSize the new maximum size
+     */
+    public static void setMaxSize(final long maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize must not be negative: " + maxSize);
+        }
+        synchronized (ENTRIES_) {
+            MaxSize_ = maxSize;
+            shrink();
+        }
+    }
+
+    /**
+     * Returns the current size of the cache, this is the total length
+     * of the source code of the cached scripts.
+     * @return the current size
+     */
+    public static long getSize() {
+        synchronized (ENTRIES_) {
+            return Size_;
+        }
+    }
+
+    /**
+     * Returns the number of cached scripts.
+     * @return the number of cached scripts
+     */
+    public static int getScriptCount() {
+        synchronized (ENTRIES_) {
+            return ENTRIES_.size();
+        }
+    }
+
+    /**
+     * Removes all scripts from the cache.
+     */
+    public static void clear() {
+        synchronized (ENTRIES_) {
+            ENTRIES_.clear();
+            Size_ = 0;
+        }
+    }
+
+    /**
+     * The key of a cached script.
+     */
+    static final class Key {
+        private final BrowserVersion browserVersion_;
+        private final int optimizationLevel_;
+        private final byte[] digest_;
+        private final String sourceName_;
+        private final int startLine_;
+        private final int hashCode_;
+
+        /**
+         * Creates the key; the source code itself is not retained, only its digest.
+         * @param browserVersion the browser version
+         * @param optimizationLevel the optimization level
+         * @param sourceCode the source code
+         * @param sourceName the source name
+         * @param startLine the start line
+         */
+        Key(final BrowserVersion browserVersion, final int optimizationLevel, final String sourceCode,
+                final String sourceName, final int startLine) {
+            browserVersion_ = browserVersion;
+            optimizationLevel_ = optimizationLevel;
+            digest_ = DigestUtils.sha256(sourceCode);
+            sourceName_ = sourceName;
+            startLine_ = startLine;
+            hashCode_ = Arrays.hashCode(digest_) * 31 + Objects.hashCode(sourceName) + startLine;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode_;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return browserVersion_ == other.browserVersion_
+                    && optimizationLevel_ == other.optimizationLevel_
+                    && startLine_ == other.startLine_
+                    && Objects.equals(sourceName_, other.sourceName_)
+                    && Arrays.equals(digest_, other.digest_);
+        }
+    }
+
+    private static final class Entry {
+        private final Script script_;
+        private final long size_;
+
+        Entry(final Script script, final long size) {
+            script_ = script;
+            size_ = size;
+        }
+    }
+}
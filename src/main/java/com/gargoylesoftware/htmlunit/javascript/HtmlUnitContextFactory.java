@@ -31,6 +31,7 @@ import com.gargoylesoftware.htmlunit.html.HtmlElement;
 import com.gargoylesoftware.htmlunit.html.HtmlPage;
 import com.gargoylesoftware.htmlunit.javascript.regexp.HtmlUnitRegExpProxy;
 
+import net.sourceforge.htmlunit.corejs.classfile.ClassFileWriter;
 import net.sourceforge.htmlunit.corejs.javascript.Callable;
 import net.sourceforge.htmlunit.corejs.javascript.Context;
 import net.sourceforge.htmlunit.corejs.javascript.ContextAction;
@@ -64,6 +65,7 @@ public class HtmlUnitContextFactory extends ContextFactory {
     private Debugger debugger_;
     private final WrapFactory wrapFactory_ = new HtmlUnitWrapFactory();
     private boolean deminifyFunctionCode_;
+    private int optimizationLevel_ = -1;
 
     /**
      * Creates a new instance of HtmlUnitContextFactory.
@@ -134,6 +136,32 @@ public class HtmlUnitContextFactory extends ContextFactory {
         return deminifyFunctionCode_;
     }
 
+    /**
+     * Sets the Rhino optimization level used to compile the scripts. The default value {@code -1}
+     * runs all scripts in the interpreter; the levels {@code 0} to {@code 9} compile the scripts
+     * to JVM bytecode, which is much faster for long running scripts but makes the compilation
+     * itself more expensive. Compiled scripts are shared through the {@link CompiledScriptCache}.
+     * <p>The interpreter is still used if a {@link #setDebugger(Debugger) debugger} is set,
+     * for <code>eval()</code> and for scripts exceeding the limits of the class file format.</p>
+     *
+     * @param optimizationLevel the new optimization level
+     */
+    public void setOptimizationLevel(final int optimizationLevel) {
+        if (!Context.isValidOptimizationLevel(optimizationLevel)) {
+            throw new IllegalArgumentException("Invalid optimization level: " + optimizationLevel);
+        }
+        optimizationLevel_ = optimizationLevel;
+    }
+
+    /**
+     * Returns the Rhino optimization level used to compile the scripts.
+     *
+     * @return the optimization level (default value is <tt>-1</tt>)
+     */
+    public int getOptimizationLevel() {
+        return optimizationLevel_;
+    }
+
     /**
      * Custom context to store execution time and handle timeouts.
      */
@@ -219,8 +247,30 @@ public class HtmlUnitContextFactory extends ContextFactory {
                 .getThreadLocal(JavaScriptEngine.KEY_STARTING_PAGE);
             source = preProcess(page, source, sourceName, lineno, null);
 
-            return super.compileString(source, compiler, compilationErrorReporter,
-                    sourceName, lineno, securityDomain);
+            final int optimizationLevel = getOptimizationLevel();
+            if (optimizationLevel == -1) {
+                return super.compileString(source, compiler, compilationErrorReporter,
+                        sourceName, lineno, securityDomain);
+            }
+            try {
+                return super.compileString(source, compiler, compilationErrorReporter,
+                        sourceName, lineno, securityDomain);
+            }
+            catch (final RuntimeException e) {
+                // the generated bytecode may exceed the limits of the class file format
+                // (e.g. the size of a method); in this case we use the interpreter.
+                if (!isCodeGenerationLimit(e)) {
+                    throw e;
+                }
+                setOptimizationLevel(-1);
+                try {
+                    return super.compileString(source, compiler, compilationErrorReporter,
+                            sourceName, lineno, securityDomain);
+                }
+                finally {
+                    setOptimizationLevel(optimizationLevel);
+                }
+            }
         }
 
         @Override
@@ -233,8 +283,47 @@ public class HtmlUnitContextFactory extends ContextFactory {
                         compilationErrorReporter, sourceName, lineno, securityDomain);
                 source = decompileFunction(f, 4).trim().replace("\n    ", "\n");
             }
-            return super.compileFunction(scope, source, compiler,
-                    compilationErrorReporter, sourceName, lineno, securityDomain);
+
+            final int optimizationLevel = getOptimizationLevel();
+            if (optimizationLevel == -1) {
+                return super.compileFunction(scope, source, compiler,
+                        compilationErrorReporter, sourceName, lineno, securityDomain);
+            }
+            try {
+                return super.compileFunction(scope, source, compiler,
+                        compilationErrorReporter, sourceName, lineno, securityDomain);
+            }
+            catch (final RuntimeException e) {
+                // see compileString()
+                if (!isCodeGenerationLimit(e)) {
+                    throw e;
+                }
+                setOptimizationLevel(-1);
+                try {
+                    return super.compileFunction(scope, source, compiler,
+                            compilationErrorReporter, sourceName, lineno, securityDomain);
+                }
+                finally {
+                    setOptimizationLevel(optimizationLevel);
+                }
+            }
+        }
+
+        /**
+         * Returns whether the exception reports that the generated bytecode exceeds the limits of
+         * the class file format. Rhino reports these as runtime error while compiling.
+         */
+        private boolean isCodeGenerationLimit(final RuntimeException e) {
+            for (Throwable t = e; t != null; t = t.getCause()) {
+                if (t instanceof ClassFileWriter.ClassFileFormatException) {
+                    return true;
+                }
+            }
+            if (e instanceof EvaluatorException) {
+                final String details = ((EvaluatorException) e).details();
+                return details != null && details.contains("code generation error");
+            }
+            return false;
         }
     }
 
@@ -274,10 +363,16 @@ public class HtmlUnitContextFactory extends ContextFactory {
         final TimeoutContext cx = new TimeoutContext(this);
         cx.setLanguageVersion(Context.VERSION_ES6);
 
-        // Use pure interpreter mode to get observeInstructionCount() callbacks.
-        cx.setOptimizationLevel(-1);
+        // The debugger gets its callbacks only from the interpreter.
+        if (debugger_ == null) {
+            cx.setOptimizationLevel(optimizationLevel_);
+        }
+        else {
+            cx.setOptimizationLevel(-1);
+        }
 
-        // Set threshold on how often we want to receive the callbacks
+        // Set threshold on how often we want to receive the callbacks;
+        // compiled code is instrumented to report its instruction count, too
         cx.setInstructionObserverThreshold(INSTRUCTION_COUNT_THRESHOLD);
 
         cx.setErrorReporter(new HtmlUnitErrorReporter(webClient_.getJavaScriptErrorListener()));
@@ -36,11 +36,14 @@ import java.lang.reflect.Executable;
 import java.lang.reflect.Method;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
@@ -104,10 +107,20 @@ public class JavaScriptEngine implements AbstractJavaScriptEngine<Script> {
 
     private static final Log LOG = LogFactory.getLog(JavaScriptEngine.class);
 
+    /**
+     * Host classes (by JavaScript or simple host class name) that are always configured
+     * during the window initialization, even if lazy initialization is enabled.
+     */
+    private static final Set<String> EAGER_HOST_CLASSES = new HashSet<>(Arrays.asList(
+            "Window", "Image", "Option", "WebKitMutationObserver", "webkitURL",
+            "HTMLImageElement", "HTMLOptionElement", "MutationObserver", "URL", "ActiveXObject"));
+
     private WebClient webClient_;
     private final HtmlUnitContextFactory contextFactory_;
     private final JavaScriptConfiguration jsConfig_;
 
+    private transient Map<String, Class<? extends HtmlUnitScriptable>> lazyHostClasses_;
+
     private transient ThreadLocal<Boolean> javaScriptRunning_;
     private transient ThreadLocal<List<PostponedAction>> postponedActions_;
     private transient boolean holdPostponedActions_;
@@ -251,8 +264,21 @@ public class JavaScriptEngine implements AbstractJavaScriptEngine<Script> {
             reflect.defineProperties();
         }
 
+        // in lazy mode most of the host classes are configured on first access
+        final Map<String, Class<? extends HtmlUnitScriptable>> lazyHostClasses;
+        if (webClient.getOptions().isLazyJavaScriptInitialization()) {
+            lazyHostClasses = getLazyHostClasses();
+        }
+        else {
+            lazyHostClasses = null;
+        }
+
         final String windowClassName = Window.class.getName();
         for (final ClassConfiguration config : jsConfig_.getAll()) {
+            if (lazyHostClasses != null && lazyHostClasses.containsKey(config.getClassName())) {
+                continue;
+            }
+
             final boolean isWindow = windowClassName.equals(config.getHostClass().getName());
             if (isWindow) {
                 configureConstantsPropertiesAndFunctions(config, window);
@@ -261,26 +287,18 @@ public class JavaScriptEngine implements AbstractJavaScriptEngine<Script> {
                 prototypesPerJSName.put(config.getClassName(), prototype);
             }
             else {
-                final HtmlUnitScriptable prototype = configureClass(config, window, browserVersion);
-                if (config.isJsObject()) {
-                    // Place object with prototype property in Window scope
-                    final HtmlUnitScriptable obj = config.getHostClass().newInstance();
-                    prototype.defineProperty("__proto__", prototype, ScriptableObject.DONTENUM);
-                    obj.defineProperty("prototype", prototype, ScriptableObject.DONTENUM); // but not setPrototype!
-                    obj.setParentScope(window);
-                    obj.setClassName(config.getClassName());
-                    ScriptableObject.defineProperty(window, obj.getClassName(), obj, ScriptableObject.DONTENUM);
-                    // this obj won't have prototype, constants need to be configured on it again
-                    configureConstants(config, obj);
-                }
+                final HtmlUnitScriptable prototype = configurePrototype(config, window, browserVersion);
                 prototypes.put(config.getHostClass(), prototype);
                 prototypesPerJSName.put(config.getClassName(), prototype);
             }
         }
 
         for (final ClassConfiguration config : jsConfig_.getAll()) {
-            final Executable jsConstructor = config.getJsConstructor();
             final String jsClassName = config.getClassName();
+            if (lazyHostClasses != null && lazyHostClasses.containsKey(jsClassName)) {
+                continue;
+            }
+
             Scriptable prototype = prototypesPerJSName.get(jsClassName);
             final String hostClassSimpleName = config.getHostClassSimpleName();
 
@@ -303,84 +321,7 @@ public class JavaScriptEngine implements AbstractJavaScriptEngine<Script> {
 
                 default:
             }
-            if (prototype != null && config.isJsObject()) {
-                if (jsConstructor == null) {
-                    final ScriptableObject constructor;
-                    if ("Window".equals(jsClassName)) {
-                        constructor = (ScriptableObject) ScriptableObject.getProperty(window, "constructor");
-                    }
-                    else {
-                        constructor = config.getHostClass().newInstance();
-                        ((SimpleScriptable) constructor).setClassName(config.getClassName());
-                    }
-                    defineConstructor(window, prototype, constructor);
-                    configureConstantsStaticPropertiesAndStaticFunctions(config, constructor);
-                }
-                else {
-                    final BaseFunction function;
-                    if ("Window".equals(jsClassName)) {
-                        function = (BaseFunction) ScriptableObject.getProperty(window, "constructor");
-                    }
-                    else {
-                        function = new RecursiveFunctionObject(jsClassName, jsConstructor, window);
-                    }
-
-                    if ("WebKitMutationObserver".equals(hostClassSimpleName)
-                            || "webkitURL".equals(hostClassSimpleName)
-                            || "Image".equals(hostClassSimpleName)
-                            || "Option".equals(hostClassSimpleName)) {
-                        final Object prototypeProperty = ScriptableObject.getProperty(window, prototype.getClassName());
-
-                        if (function instanceof FunctionObject) {
-                            try {
-                                ((FunctionObject) function).addAsConstructor(window, prototype);
-                            }
-                            catch (final Exception e) {
-                                // TODO see issue #1897
-                                if (LOG.isWarnEnabled()) {
-                                    final String newline = System.lineSeparator();
-                                    LOG.warn("Error during JavaScriptEngine.init(WebWindow, Context)" + newline
-                                            + e.getMessage() + newline
-                                            + "prototype: " + prototype.getClassName());
-                                }
-                            }
-                        }
-
-                        ScriptableObject.defineProperty(window, hostClassSimpleName, function,
-                                ScriptableObject.DONTENUM);
-
-                        // the prototype class name is set as a side effect of functionObject.addAsConstructor
-                        // so we restore its value
-                        if (!hostClassSimpleName.equals(prototype.getClassName())) {
-                            if (prototypeProperty == UniqueTag.NOT_FOUND) {
-                                ScriptableObject.deleteProperty(window, prototype.getClassName());
-                            }
-                            else {
-                                ScriptableObject.defineProperty(window, prototype.getClassName(),
-                                        prototypeProperty, ScriptableObject.DONTENUM);
-                            }
-                        }
-                    }
-                    else {
-                        if (function instanceof FunctionObject) {
-                            try {
-                                ((FunctionObject) function).addAsConstructor(window, prototype);
-                            }
-                            catch (final Exception e) {
-                                // TODO see issue #1897
-                                if (LOG.isWarnEnabled()) {
-                                    final String newline = System.lineSeparator();
-                                    LOG.warn("Error during JavaScriptEngine.init(WebWindow, Context)" + newline
-                                            + e.getMessage() + newline
-                                            + "prototype: " + prototype.getClassName());
-                                }
-                            }
-                        }
-                    }
-
-                    configureConstantsStaticPropertiesAndStaticFunctions(config, function);
-                }
-            }
+            configureConstructor(config, window, prototype);
         }
         window.setPrototype(prototypesPerJSName.get(Window.class.getSimpleName()));
 
@@ -479,9 +420,208 @@ public class JavaScriptEngine implements AbstractJavaScriptEngine<Script> {
                 NumberCustom.class, ScriptableObject.DONTENUM);
 
         window.setPrototypes(prototypes, prototypesPerJSName);
+        if (lazyHostClasses != null) {
+            window.setLazyHostClasses(lazyHostClasses);
+        }
         window.initialize(webWindow);
     }
 
+    /**
+     * Configures the constructor of the specified class inside the window scope.
+     * @param config the configuration settings for the class
+     * @param window the window scope
+     * @param prototype the prototype of the class
+     * @throws InstantiationException if the new class cannot be instantiated
+     * @throws IllegalAccessException if we don't have access to create the new instance
+     */
+    private static void configureConstructor(final ClassConfiguration config, final Window window,
+            final Scriptable prototype) throws InstantiationException, IllegalAccessException {
+        final Executable jsConstructor = config.getJsConstructor();
+        final String jsClassName = config.getClassName();
+        final String hostClassSimpleName = config.getHostClassSimpleName();
+
+        if (prototype != null && config.isJsObject()) {
+            if (jsConstructor == null) {
+                final ScriptableObject constructor;
+                if ("Window".equals(jsClassName)) {
+                    constructor = (ScriptableObject) ScriptableObject.getProperty(window, "constructor");
+                }
+                else {
+                    constructor = config.getHostClass().newInstance();
+                    ((SimpleScriptable) constructor).setClassName(config.getClassName());
+                }
+                defineConstructor(window, prototype, constructor);
+                configureConstantsStaticPropertiesAndStaticFunctions(config, constructor);
+            }
+            else {
+                final BaseFunction function;
+                if ("Window".equals(jsClassName)) {
+                    function = (BaseFunction) ScriptableObject.getProperty(window, "constructor");
+                }
+                else {
+                    function = new RecursiveFunctionObject(jsClassName, jsConstructor, window);
+                }
+
+                if ("WebKitMutationObserver".equals(hostClassSimpleName)
+                        || "webkitURL".equals(hostClassSimpleName)
+                        || "Image".equals(hostClassSimpleName)
+                        || "Option".equals(hostClassSimpleName)) {
+                    final Object prototypeProperty = ScriptableObject.getProperty(window, prototype.getClassName());
+
+                    if (function instanceof FunctionObject) {
+                        try {
+                            ((FunctionObject) function).addAsConstructor(window, prototype);
+                        }
+                        catch (final Exception e) {
+                            // TODO see issue #1897
+                            if (LOG.isWarnEnabled()) {
+                                final String newline = System.lineSeparator();
+                                LOG.warn("Error during JavaScriptEngine.init(WebWindow, Context)" + newline
+                                        + e.getMessage() + newline
+                                        + "prototype: " + prototype.getClassName());
+                            }
+                        }
+                    }
+
+                    ScriptableObject.defineProperty(window, hostClassSimpleName, function,
+                            ScriptableObject.DONTENUM);
+
+                    // the prototype class name is set as a side effect of functionObject.addAsConstructor
+                    // so we restore its value
+                    if (!hostClassSimpleName.equals(prototype.getClassName())) {
+                        if (prototypeProperty == UniqueTag.NOT_FOUND) {
+                            ScriptableObject.deleteProperty(window, prototype.getClassName());
+                        }
+                        else {
+                            ScriptableObject.defineProperty(window, prototype.getClassName(),
+                                    prototypeProperty, ScriptableObject.DONTENUM);
+                        }
+                    }
+                }
+                else {
+                    if (function instanceof FunctionObject) {
+                        try {
+                            ((FunctionObject) function).addAsConstructor(window, prototype);
+                        }
+                        catch (final Exception e) {
+                            // TODO see issue #1897
+                            if (LOG.isWarnEnabled()) {
+                                final String newline = System.lineSeparator();
+                                LOG.warn("Error during JavaScriptEngine.init(WebWindow, Context)" + newline
+                                        + e.getMessage() + newline
+                                        + "prototype: " + prototype.getClassName());
+                            }
+                        }
+                    }
+                }
+
+                configureConstantsStaticPropertiesAndStaticFunctions(config, function);
+            }
+        }
+    }
+
+    /**
+     * Configures the prototype of the specified (non window) class. If the class is a JavaScript object,
+     * an object holding the prototype property is placed in the window scope.
+     * @param config the configuration settings for the class
+     * @param window the window scope
+     * @param browserVersion the browser version
+     * @return the created prototype
+     * @throws InstantiationException if the new class cannot be instantiated
+     * @throws IllegalAccessException if we don't have access to create the new instance
+     */
+    private static HtmlUnitScriptable configurePrototype(final ClassConfiguration config, final Window window,
+            final BrowserVersion browserVersion) throws InstantiationException, IllegalAccessException {
+        final HtmlUnitScriptable prototype = configureClass(config, window, browserVersion);
+        if (config.isJsObject()) {
+            // Place object with prototype property in Window scope
+            final HtmlUnitScriptable obj = config.getHostClass().newInstance();
+            prototype.defineProperty("__proto__", prototype, ScriptableObject.DONTENUM);
+            obj.defineProperty("prototype", prototype, ScriptableObject.DONTENUM); // but not setPrototype!
+            obj.setParentScope(window);
+            obj.setClassName(config.getClassName());
+            ScriptableObject.defineProperty(window, obj.getClassName(), obj, ScriptableObject.DONTENUM);
+            // this obj won't have prototype, constants need to be configured on it again
+            configureConstants(config, obj);
+        }
+        return prototype;
+    }
+
+    /**
+     * Returns the host classes that are configured on first access if lazy initialization is enabled.
+     * These are all classes except the window, the classes sharing their prototype with another one,
+     * the classes defining their own class name and the parents of all of them.
+     * @return a new map of the JavaScript class name and the host class
+     */
+    private Map<String, Class<? extends HtmlUnitScriptable>> getLazyHostClasses() {
+        if (lazyHostClasses_ == null) {
+            final Map<String, Class<? extends HtmlUnitScriptable>> lazyHostClasses = new HashMap<>();
+            for (final ClassConfiguration config : jsConfig_.getAll()) {
+                lazyHostClasses.put(config.getClassName(), config.getHostClass());
+            }
+
+            for (final ClassConfiguration config : jsConfig_.getAll()) {
+                if (EAGER_HOST_CLASSES.contains(config.getClassName())
+                        || EAGER_HOST_CLASSES.contains(config.getHostClassSimpleName())
+                        || definesClassName(config.getHostClass())) {
+                    String className = config.getClassName();
+                    while (!StringUtils.isEmpty(className) && lazyHostClasses.remove(className) != null) {
+                        className = jsConfig_.getClassConfiguration(className).getExtendedClassName();
+                    }
+                }
+            }
+            lazyHostClasses_ = lazyHostClasses;
+        }
+        return new HashMap<>(lazyHostClasses_);
+    }
+
+    /**
+     * Returns whether the host class overrides {@link HtmlUnitScriptable#getClassName()};
+     * these classes are placed in the window scope using a different name.
+     * @param hostClass the host class
+     * @return {@code true} if the host class defines its own class name
+     */
+    private static boolean definesClassName(final Class<? extends HtmlUnitScriptable> hostClass) {
+        try {
+            return hostClass.getMethod("getClassName").getDeclaringClass() != HtmlUnitScriptable.class;
+        }
+        catch (final NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * <span style="color:red">INTERNAL API - SUBJECT TO CHANGE AT ANY TIME - USE AT YOUR OWN RISK.</span><br>
+     *
+     * Configures the prototype and the constructor of a host class that was skipped
+     * by the lazy initialization of the window.
+     * @param config the configuration settings for the class
+     * @param window the window scope
+     * @return the created prototype
+     */
+    public static Scriptable configureLazyHostClass(final ClassConfiguration config, final Window window) {
+        try {
+            final Scriptable parentPrototype;
+            final String extendedClassName = config.getExtendedClassName();
+            if (StringUtils.isEmpty(extendedClassName)) {
+                parentPrototype = ScriptableObject.getObjectPrototype(window);
+            }
+            else {
+                parentPrototype = window.getPrototype(extendedClassName);
+            }
+
+            final HtmlUnitScriptable prototype = configurePrototype(config, window, window.getBrowserVersion());
+            prototype.setPrototype(parentPrototype);
+            window.addPrototype(config.getHostClass(), config.getClassName(), prototype);
+
+            configureConstructor(config, window, prototype);
+            return prototype;
+        }
+        catch (final InstantiationException | IllegalAccessException e) {
+            throw Context.throwAsScriptRuntimeEx(e);
+        }
+    }
+
     private static void defineConstructor(final Window window,
             final Scriptable prototype, final ScriptableObject constructor) {
         constructor.setParentScope(window);
@@ -699,10 +839,22 @@ public class JavaScriptEngine implements AbstractJavaScriptEngine<Script> {
             LOG.trace("Javascript compile " + sourceName + newline + sourceCode + newline);
         }
 
+        final CompiledScriptCache.Key cacheKey = getCompiledScriptCacheKey(sourceCode, sourceName, startLine);
+        if (cacheKey != null) {
+            final Script script = CompiledScriptCache.get(cacheKey);
+            if (script != null) {
+                return script;
+            }
+        }
+
         final ContextAction<Object> action = new HtmlUnitContextAction(scope, owningPage) {
             @Override
             public Object doRun(final Context cx) {
-                return cx.compileString(sourceCode, sourceName, startLine, null);
+                final Script script = cx.compileString(sourceCode, sourceName, startLine, null);
+                if (cacheKey != null && script != null) {
+                    CompiledScriptCache.put(cacheKey, sourceCode.length(), script);
+                }
+                return script;
             }
 
             @Override
@@ -714,6 +866,23 @@ public class JavaScriptEngine implements AbstractJavaScriptEngine<Script> {
         return (Script) getContextFactory().callSecured(action, owningPage);
     }
 
+    /**
+     * Returns the key of the script in the {@link CompiledScriptCache} or {@code null} if the
+     * result of the compilation may differ from the cached one (script pre processor, debugger).
+     */
+    private CompiledScriptCache.Key getCompiledScriptCacheKey(final String sourceCode,
+            final String sourceName, final int startLine) {
+        final WebClient webClient = getWebClient();
+        if (webClient == null
+                || webClient.getScriptPreProcessor() != null
+                || contextFactory_.getDebugger() != null
+                || !CompiledScriptCache.isCacheable(sourceCode)) {
+            return null;
+        }
+        return new CompiledScriptCache.Key(webClient.getBrowserVersion(), contextFactory_.getOptimizationLevel(),
+                sourceCode, sourceName, startLine);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -17,6 +17,11 @@ package com.gargoylesoftware.htmlunit.javascript.background;
 import java.lang.ref.WeakReference;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.logging.Log;
@@ -41,6 +46,27 @@ public class DefaultJavaScriptExecutor implements JavaScriptExecutor {
 
     private transient Thread eventLoopThread_;
 
+    /**
+     * The event loop parks on this queue until the earliest job of one of the job managers is due;
+     * there is at most one entry per job manager, tracked by {@link #scheduled_}.
+     */
+    private final transient DelayQueue<DueJobManager> delayQueue_ = new DelayQueue<>();
+    private final transient Map<JavaScriptJobManager, DueJobManager> scheduled_ = new WeakHashMap<>();
+    private transient volatile boolean pollingRequired_;
+
+    /**
+     * Upper bound for parking; the loop has to wake up from time to time
+     * to notice that the web client was garbage collected.
+     */
+    private static final long MAX_PARK_TIME = 1_000;
+
+    /**
+     * Used if at least one of the job managers is not able to wake us up.
+     * This has to be a multiple of 10ms, otherwise the VM has to fight
+     * with the OS to get such small periods.
+     */
+    private static final long POLLING_INTERVAL = 10;
+
     /** Logging support. */
     private static final Log LOG = LogFactory.getLog(DefaultJavaScriptExecutor.class);
 
@@ -128,31 +154,31 @@ public class DefaultJavaScriptExecutor implements JavaScriptExecutor {
     @Override
     public void run() {
         final boolean trace = LOG.isTraceEnabled();
-        // this has to be a multiple of 10ms
-        // otherwise the VM has to fight with the OS to get such small periods
-        final long sleepInterval = 10;
         while (!shutdown_.get() && !Thread.currentThread().isInterrupted() && webClient_.get() != null) {
-            final JavaScriptJobManager jobManager = getJobManagerWithEarliestJob();
-
-            if (jobManager != null) {
-                final JavaScriptJob earliestJob = jobManager.getEarliestJob();
-                if (earliestJob != null) {
-                    final long waitTime = earliestJob.getTargetExecutionTime() - System.currentTimeMillis();
-
-                    // do we have to execute the earliest job
-                    if (waitTime < 1) {
-                        // execute the earliest job
-                        if (trace) {
-                            LOG.trace("started executing job at " + System.currentTimeMillis());
-                        }
-                        jobManager.runSingleJob(earliestJob);
-                        if (trace) {
-                            LOG.trace("stopped executing job at " + System.currentTimeMillis());
-                        }
-
-                        // job is done, have a look for another one
-                        continue;
-                    }
+            if (pollingRequired_) {
+                scheduleAll();
+            }
+
+            // park until the earliest job is due or a new one was added
+            final DueJobManager due;
+            try {
+                due = delayQueue_.poll(pollingRequired_ ? POLLING_INTERVAL : MAX_PARK_TIME, TimeUnit.MILLISECONDS);
+            }
+            catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (due == null) {
+                continue;
+            }
+
+            final JavaScriptJobManager jobManager = due.jobManager_.get();
+            if (jobManager == null) {
+                continue;
+            }
+            synchronized (scheduled_) {
+                if (scheduled_.get(jobManager) == due) {
+                    scheduled_.remove(jobManager);
                 }
             }
 
@@ -161,16 +187,77 @@ public class DefaultJavaScriptExecutor implements JavaScriptExecutor {
                 break;
             }
 
-            // nothing to do, let's sleep a bit
-            try {
-                Thread.sleep(sleepInterval);
+            final JavaScriptJob earliestJob = jobManager.getEarliestJob();
+            if (earliestJob != null && earliestJob.getTargetExecutionTime() <= System.currentTimeMillis()) {
+                // execute the earliest job
+                if (trace) {
+                    LOG.trace("started executing job at " + System.currentTimeMillis());
+                }
+                jobManager.runSingleJob(earliestJob);
+                if (trace) {
+                    LOG.trace("stopped executing job at " + System.currentTimeMillis());
+                }
             }
-            catch (final InterruptedException e) {
-                Thread.currentThread().interrupt();
+
+            // job is done, queue the next one of this manager
+            schedule(jobManager);
+        }
+    }
+
+    /**
+     * Makes sure the delay queue has an entry for the earliest job of the given job manager.
+     */
+    private void schedule(final JavaScriptJobManager jobManager) {
+        final JavaScriptJob earliestJob = jobManager.getEarliestJob();
+        if (earliestJob == null) {
+            return;
+        }
+
+        final long targetExecutionTime = earliestJob.getTargetExecutionTime();
+        synchronized (scheduled_) {
+            final DueJobManager scheduled = scheduled_.get(jobManager);
+            if (scheduled != null) {
+                if (scheduled.targetExecutionTime_ <= targetExecutionTime) {
+                    // we will be woken up early enough
+                    return;
+                }
+                delayQueue_.remove(scheduled);
             }
+
+            final DueJobManager due = new DueJobManager(jobManager, targetExecutionTime);
+            scheduled_.put(jobManager, due);
+            delayQueue_.add(due);
         }
     }
 
+    /**
+     * Schedules the earliest jobs of all job managers; used if at least one of them
+     * is not able to wake us up.
+     */
+    private void scheduleAll() {
+        final List<JavaScriptJobManager> managers = new LinkedList<>();
+        synchronized (jobManagerList_) {
+            for (WeakReference<JavaScriptJobManager> weakReference : jobManagerList_) {
+                final JavaScriptJobManager jobManager = weakReference.get();
+                if (jobManager != null) {
+                    managers.add(jobManager);
+                }
+            }
+        }
+        for (final JavaScriptJobManager jobManager : managers) {
+            schedule(jobManager);
+        }
+    }
+
+    /**
+     * Wakes up the event loop if the new job is due before the ones already waiting.
+     * @param jobManager the job manager the job was added to
+     */
+    @Override
+    public void jobAdded(final JavaScriptJobManager jobManager) {
+        schedule(jobManager);
+    }
+
     /**
      * Register a window with the eventLoop.
      * @param newWindow the new web window
@@ -179,8 +266,16 @@ public class DefaultJavaScriptExecutor implements JavaScriptExecutor {
     public void addWindow(final WebWindow newWindow) {
         final JavaScriptJobManager jobManager = newWindow.getJobManager();
         if (jobManager != null) {
+            if (jobManager instanceof JavaScriptJobManagerImpl) {
+                ((JavaScriptJobManagerImpl) jobManager).setExecutor(this);
+            }
+            else {
+                // we will not be notified about new jobs
+                pollingRequired_ = true;
+            }
             updateJobMangerList(jobManager);
             startThreadIfNeeded();
+            schedule(jobManager);
         }
     }
 
@@ -214,5 +309,35 @@ public class DefaultJavaScriptExecutor implements JavaScriptExecutor {
         synchronized (jobManagerList_) {
             jobManagerList_.clear();
         }
+        synchronized (scheduled_) {
+            scheduled_.clear();
+            delayQueue_.clear();
+        }
+    }
+
+    /**
+     * The entry of the delay queue for the earliest job of a job manager.
+     */
+    private static final class DueJobManager implements Delayed {
+        private final WeakReference<JavaScriptJobManager> jobManager_;
+        private final long targetExecutionTime_;
+
+        DueJobManager(final JavaScriptJobManager jobManager, final long targetExecutionTime) {
+            jobManager_ = new WeakReference<>(jobManager);
+            targetExecutionTime_ = targetExecutionTime;
+        }
+
+        @Override
+        public long getDelay(final TimeUnit unit) {
+            return unit.convert(targetExecutionTime_ - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(final Delayed other) {
+            if (other instanceof DueJobManager) {
+                return Long.compare(targetExecutionTime_, ((DueJobManager) other).targetExecutionTime_);
+            }
+            return Long.compare(getDelay(TimeUnit.MILLISECONDS), other.getDelay(TimeUnit.MILLISECONDS));
+        }
     }
 }
@@ -31,6 +31,15 @@ public interface JavaScriptExecutor extends Runnable {
      */
     void addWindow(WebWindow newWindow);
 
+    /**
+     * Notifies the executor that a new job was added to the given job manager.
+     * Executors waiting for the next job to become due can use this to wake up.
+     * @param jobManager the job manager the job was added to
+     */
+    default void jobAdded(final JavaScriptJobManager jobManager) {
+        // nothing to do by default
+    }
+
     /**
      * Notes that this thread has been shutdown.
      */
@@ -58,6 +58,9 @@ class JavaScriptJobManagerImpl implements JavaScriptJobManager {
 
     private transient JavaScriptJob currentlyRunningJob_;
 
+    /** The executor to wake up if a new job was added; might be null. */
+    private transient volatile JavaScriptExecutor executor_;
+
     /** A counter used to generate the IDs assigned to {@link JavaScriptJob}s. */
     private static final AtomicInteger NEXT_JOB_ID_ = new AtomicInteger(1);
 
@@ -133,6 +136,11 @@ class JavaScriptJobManagerImpl implements JavaScriptJobManager {
             notify();
         }
 
+        final JavaScriptExecutor executor = executor_;
+        if (executor != null) {
+            executor.jobAdded(this);
+        }
+
         return id;
     }
 
@@ -283,6 +291,14 @@ class JavaScriptJobManagerImpl implements JavaScriptJobManager {
         return window_.get();
     }
 
+    /**
+     * Sets the executor that has to be notified if a new job was added.
+     * @param executor the executor
+     */
+    void setExecutor(final JavaScriptExecutor executor) {
+        executor_ = executor;
+    }
+
     /**
      * Utility method to print current queue.
      */
@@ -421,6 +437,7 @@ class JavaScriptJobManagerImpl implements JavaScriptJobManager {
             LOG.debug("Starting " + periodicJob + "job " + job);
         }
         try {
+            waitForRunningScript();
             job.run();
         }
         catch (final RuntimeException e) {
@@ -441,6 +458,25 @@ class JavaScriptJobManagerImpl implements JavaScriptJobManager {
         return true;
     }
 
+    /**
+     * The executor starts a job as soon as it is due; this might be while the script
+     * that has added the job is still running. The scripts of a page are executed
+     * holding the page lock, therefore we wait until we get the lock. The job itself
+     * runs without the lock; its script execution takes it again, but its I/O (e.g. the
+     * request of an asynchronous XMLHttpRequest) does not block the page.
+     */
+    private void waitForRunningScript() {
+        final WebWindow window = getWindow();
+        if (window != null) {
+            final Page page = window.getEnclosedPage();
+            if (page != null) {
+                synchronized (page) {
+                    // nothing to do, the lock is all we need
+                }
+            }
+        }
+    }
+
     /**
      * Our own serialization (to handle the weak reference)
      * @param in the stream to read form
@@ -0,0 +1,320 @@
+/*
+ * Copyright (c) 2002-2019 Gargoyle Software Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gargoylesoftware.htmlunit.javascript.background;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.WebWindow;
+
+/**
+ * A {@link JavaScriptExecutor} that runs the jobs of all windows using a shared,
+ * bounded thread pool instead of one dedicated thread per {@link WebClient}.
+ *
+ * <p>The jobs of one window are still executed one after the other; two jobs of the
+ * same {@link JavaScriptJobManager} are never running at the same time.</p>
+ *
+ * <p>To use this executor, install a {@link BackgroundJavaScriptFactory} whose
+ * {@link BackgroundJavaScriptFactory#createJavaScriptExecutor(WebClient)} returns
+ * a new instance of this class.</p>
+ *
+ * <p>The shared pool is created by the first executor using it and shut down when the
+ * last of them is shut down, i.e. when the last {@link WebClient} is closed. Its threads
+ * are daemon threads, web clients never closed don't prevent the JVM from exiting.</p>
+ *
+ * <p>Job managers not derived from the default implementation can't notify this executor about
+ * new jobs; they are polled every 10ms.</p>
+ *
+ * @author Ronald Brill
+ */
+public class PooledJavaScriptExecutor implements JavaScriptExecutor {
+
+    /** Logging support. */
+    private static final Log LOG = LogFactory.getLog(PooledJavaScriptExecutor.class);
+
+    /** The interval used to poll job managers that are not able to notify about new jobs. */
+    private static final long POLLING_INTERVAL = 10;
+
+    private static ScheduledExecutorService SharedPool_;
+    private static int SharedPoolUsers_;
+
+    private final transient WeakReference<WebClient> webClient_;
+    private final transient ScheduledExecutorService pool_;
+    private final transient boolean sharedPool_;
+    private final transient Map<JavaScriptJobManager, JobManagerRunner> runners_;
+
+    private final transient AtomicBoolean shutdown_;
+
+    /**
+     * Creates a new executor for the given web client using the pool shared by all
+     * executors of this kind. The pool has one thread per available processor.
+     *
+     * @param webClient the provided webClient
+     */
+    public PooledJavaScriptExecutor(final WebClient webClient) {
+        this(webClient, acquireSharedPool(), true);
+    }
+
+    /**
+     * Creates a new executor for the given web client using the provided pool.
+     * The pool is not shut down by this executor.
+     *
+     * @param webClient the provided webClient
+     * @param pool the pool used to run the jobs
+     */
+    public PooledJavaScriptExecutor(final WebClient webClient, final ScheduledExecutorService pool) {
+        this(webClient, pool, false);
+    }
+
+    private PooledJavaScriptExecutor(final WebClient webClient, final ScheduledExecutorService pool,
+            final boolean sharedPool) {
+        webClient_ = new WeakReference<>(webClient);
+        pool_ = pool;
+        sharedPool_ = sharedPool;
+        runners_ = new WeakHashMap<>();
+        shutdown_ = new AtomicBoolean();
+    }
+
+    /**
+     * Returns the pool shared by all executors created without an explicit pool;
+     * every call has to be balanced by a call of {@link #releaseSharedPool()}.
+     * @return the shared pool
+     */
+    private static synchronized ScheduledExecutorService acquireSharedPool() {
+        if (SharedPool_ == null) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            final ThreadFactory threadFactory = r -> {
+                final Thread thread = new Thread(r, "JS executor pool thread " + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+            final ScheduledThreadPoolExecutor pool =
+                    new ScheduledThreadPoolExecutor(Runtime.getRuntime().availableProcessors(), threadFactory);
+            pool.setRemoveOnCancelPolicy(true);
+            pool.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+            SharedPool_ = pool;
+        }
+        SharedPoolUsers_++;
+        return SharedPool_;
+    }
+
+    /**
+     * Shuts the shared pool down if it is no longer used by any executor.
+     */
+    private static synchronized void releaseSharedPool() {
+        SharedPoolUsers_--;
+        if (SharedPoolUsers_ == 0) {
+            SharedPool_.shutdown();
+            SharedPool_ = null;
+        }
+    }
+
+    /**
+     * The executor does not have a thread of its own; this does nothing.
+     */
+    @Override
+    public void run() {
+        // nothing to do, the jobs are run by the pool
+    }
+
+    /**
+     * Register a window with the executor.
+     * @param newWindow the new web window
+     */
+    @Override
+    public void addWindow(final WebWindow newWindow) {
+        final JavaScriptJobManager jobManager = newWindow.getJobManager();
+        if (jobManager == null || shutdown_.get()) {
+            return;
+        }
+
+        final JobManagerRunner runner;
+        synchronized (runners_) {
+            if (runners_.containsKey(jobManager)) {
+                return;
+            }
+            runner = new JobManagerRunner(jobManager);
+            runners_.put(jobManager, runner);
+        }
+
+        if (jobManager instanceof JavaScriptJobManagerImpl) {
+            ((JavaScriptJobManagerImpl) jobManager).setExecutor(this);
+        }
+        else {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Job manager " + jobManager + " does not notify about new jobs; it will be polled.");
+            }
+            runner.startPolling();
+        }
+        runner.schedule();
+    }
+
+    /**
+     * Schedules the next job of the given job manager.
+     * @param jobManager the job manager the job was added to
+     */
+    @Override
+    public void jobAdded(final JavaScriptJobManager jobManager) {
+        final JobManagerRunner runner;
+        synchronized (runners_) {
+            runner = runners_.get(jobManager);
+        }
+        if (runner != null) {
+            runner.schedule();
+        }
+    }
+
+    /** Notes that this executor has been shutdown. */
+    @Override
+    public void shutdown() {
+        if (!shutdown_.compareAndSet(false, true)) {
+            return;
+        }
+
+        final List<JobManagerRunner> runners;
+        synchronized (runners_) {
+            runners = new ArrayList<>(runners_.values());
+            runners_.clear();
+        }
+        for (final JobManagerRunner runner : runners) {
+            runner.cancel();
+        }
+        webClient_.clear();
+
+        if (sharedPool_) {
+            releaseSharedPool();
+        }
+    }
+
+    private boolean isActive() {
+        return !shutdown_.get() && webClient_.get() != null;
+    }
+
+    /**
+     * Runs the jobs of one job manager; makes sure that only one job of the
+     * manager is running at any time.
+     */
+    private final class JobManagerRunner implements Runnable {
+        private final WeakReference<JavaScriptJobManager> jobManager_;
+        private final AtomicBoolean running_ = new AtomicBoolean();
+
+        private ScheduledFuture<?> future_;
+        private ScheduledFuture<?> pollingFuture_;
+        private long scheduledFor_;
+
+        JobManagerRunner(final JavaScriptJobManager jobManager) {
+            jobManager_ = new WeakReference<>(jobManager);
+        }
+
+        /**
+         * Makes sure this runner is triggered when the earliest job of the manager is due.
+         */
+        void schedule() {
+            final JavaScriptJobManager jobManager = jobManager_.get();
+            if (jobManager == null || !isActive()) {
+                return;
+            }
+
+            final JavaScriptJob earliestJob = jobManager.getEarliestJob();
+            if (earliestJob == null) {
+                return;
+            }
+
+            final long targetExecutionTime = earliestJob.getTargetExecutionTime();
+            synchronized (this) {
+                if (future_ != null && !future_.isDone()) {
+                    if (scheduledFor_ <= targetExecutionTime) {
+                        // we will be triggered early enough
+                        return;
+                    }
+                    future_.cancel(false);
+                }
+
+                final long delay = Math.max(0, targetExecutionTime - System.currentTimeMillis());
+                scheduledFor_ = targetExecutionTime;
+                future_ = pool_.schedule(this, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * Checks the job manager for new jobs from time to time.
+         */
+        synchronized void startPolling() {
+            pollingFuture_ = pool_.scheduleWithFixedDelay(this::poll,
+                    POLLING_INTERVAL, POLLING_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+
+        private void poll() {
+            if (jobManager_.get() == null || !isActive()) {
+                cancel();
+                return;
+            }
+            schedule();
+        }
+
+        synchronized void cancel() {
+            if (future_ != null) {
+                future_.cancel(false);
+                future_ = null;
+            }
+            if (pollingFuture_ != null) {
+                pollingFuture_.cancel(false);
+                pollingFuture_ = null;
+            }
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                future_ = null;
+            }
+
+            final JavaScriptJobManager jobManager = jobManager_.get();
+            if (jobManager == null || !isActive()) {
+                return;
+            }
+
+            if (!running_.compareAndSet(false, true)) {
+                // the running job will schedule the next one
+                return;
+            }
+            try {
+                final JavaScriptJob earliestJob = jobManager.getEarliestJob();
+                if (earliestJob != null && earliestJob.getTargetExecutionTime() <= System.currentTimeMillis()) {
+                    // only one job per run to be fair to the other windows sharing the pool
+                    jobManager.runSingleJob(earliestJob);
+                }
+            }
+            finally {
+                running_.set(false);
+            }
+            schedule();
+        }
+    }
+}
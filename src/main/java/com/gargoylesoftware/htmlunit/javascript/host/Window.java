@@ -49,6 +49,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.gargoylesoftware.css.dom.CSSStyleSheetImpl;
 import com.gargoylesoftware.htmlunit.AlertHandler;
 import com.gargoylesoftware.htmlunit.ConfirmHandler;
 import com.gargoylesoftware.htmlunit.DialogWindow;
@@ -88,6 +89,7 @@ import com.gargoylesoftware.htmlunit.html.HtmlPage;
 import com.gargoylesoftware.htmlunit.html.HtmlSelect;
 import com.gargoylesoftware.htmlunit.html.HtmlStyle;
 import com.gargoylesoftware.htmlunit.html.HtmlTextArea;
+import com.gargoylesoftware.htmlunit.javascript.HtmlUnitScriptable;
 import com.gargoylesoftware.htmlunit.javascript.JavaScriptEngine;
 import com.gargoylesoftware.htmlunit.javascript.PostponedAction;
 import com.gargoylesoftware.htmlunit.javascript.SimpleScriptable;
@@ -95,6 +97,8 @@ import com.gargoylesoftware.htmlunit.javascript.background.BackgroundJavaScriptF
 import com.gargoylesoftware.htmlunit.javascript.background.JavaScriptJob;
 import com.gargoylesoftware.htmlunit.javascript.configuration.CanSetReadOnly;
 import com.gargoylesoftware.htmlunit.javascript.configuration.CanSetReadOnlyStatus;
+import com.gargoylesoftware.htmlunit.javascript.configuration.ClassConfiguration;
+import com.gargoylesoftware.htmlunit.javascript.configuration.JavaScriptConfiguration;
 import com.gargoylesoftware.htmlunit.javascript.configuration.JsxClass;
 import com.gargoylesoftware.htmlunit.javascript.configuration.JsxConstant;
 import com.gargoylesoftware.htmlunit.javascript.configuration.JsxConstructor;
@@ -200,6 +204,8 @@ public class Window extends EventTarget implements Function, AutoCloseable {
     private String status_ = "";
     private Map<Class<? extends Scriptable>, Scriptable> prototypes_ = new HashMap<>();
     private Map<String, Scriptable> prototypesPerJSName_ = new HashMap<>();
+    private Map<String, Class<? extends HtmlUnitScriptable>> lazyHostClasses_;
+    private Map<Class<? extends HtmlUnitScriptable>, String> lazyHostClassNames_;
     private Object controllers_;
     private Object opener_;
     private Object top_ = NOT_FOUND; // top can be set from JS to any value!
@@ -222,83 +228,231 @@ public class Window extends EventTarget implements Function, AutoCloseable {
     }
 
     /**
-     * Cache computed styles when possible, because their calculation is very expensive.
-     * We use a weak hash map because we don't want this cache to be the only reason
-     * nodes are kept around in the JVM, if all other references to them are gone.
+     * Cache of the computed styles and of the style rules matching the elements.
+     *
+     * <p>Instead of searching the cached styles affected by a change, a change only records a
+     * generation number for the changed node (for the node itself and its descendants), for its
+     * parent (for the siblings of the changed node) and optionally for its ancestors (only for
+     * themselves). A cached style is stale if one of these numbers recorded for the element, its
+     * ancestors or its parent is newer than the style itself; this is checked when the style is read.</p>
+     *
+     * <p>The numbers are recorded separately for the changes which may change the matching rules.
+     * Other changes (e.g. of the <tt>style</tt> attribute or of attributes not used by any selector)
+     * only require to apply the matching rules again.</p>
      */
     private static final class CSSPropertiesCache implements Serializable {
-        private transient WeakHashMap<Element, Map<String, CSS2Properties>> computedStyles_ = new WeakHashMap<>();
+        private transient WeakHashMap<Element, ComputedStyles> computedStyles_ = new WeakHashMap<>();
+        private transient Changes styleChanges_ = new Changes();
+        private transient Changes matchingChanges_ = new Changes();
+        private transient List<CSSStyleSheet> sheets_;
+        private long generation_;
 
         public synchronized CSS2Properties get(final Element element, final String normalizedPseudo) {
-            final Map<String, CSS2Properties> elementMap = computedStyles_.get(element);
-            if (elementMap != null) {
-                return elementMap.get(normalizedPseudo);
+            final ComputedStyles styles = computedStyles_.get(element);
+            if (styles == null) {
+                return null;
+            }
+
+            final DomNode node = element.getDomNodeOrDie();
+            if (styleChanges_.isNotChangedSince(node, styles.styleGeneration_)) {
+                return styles.styles_.get(normalizedPseudo);
+            }
+            if (!matchingChanges_.isNotChangedSince(node, styles.matchingGeneration_)) {
+                remove(element);
             }
             return null;
         }
 
-        public synchronized void put(final Element element, final String normalizedPseudo, final CSS2Properties style) {
-            Map<String, CSS2Properties> elementMap = computedStyles_.get(element);
-            if (elementMap == null) {
-                elementMap = new WeakHashMap<>();
-                computedStyles_.put(element, elementMap);
+        /**
+         * Returns the cached rules of the specified sheets matching the specified element.
+         * @param element the element
+         * @param normalizedPseudo the pseudo element
+         * @param sheets the active sheets
+         * @return the matching rules (one entry per sheet) or {@code null}
+         */
+        public synchronized List<MatchingRules> getMatchingRules(final Element element,
+                final String normalizedPseudo, final List<CSSStyleSheet> sheets) {
+            final ComputedStyles styles = computedStyles_.get(element);
+            if (styles == null
+                    || !matchingChanges_.isNotChangedSince(element.getDomNodeOrDie(), styles.matchingGeneration_)) {
+                return null;
+            }
+
+            final List<MatchingRules> matchingRules = styles.matchingRules_.get(normalizedPseudo);
+            if (matchingRules == null || matchingRules.size() != sheets.size()) {
+                return null;
+            }
+            for (int i = 0; i < sheets.size(); i++) {
+                final MatchingRules rules = matchingRules.get(i);
+                if (rules.sheet_ != sheets.get(i) || rules.version_ != rules.sheet_.getRulesVersion()) {
+                    return null;
+                }
+            }
+            return matchingRules;
+        }
+
+        public synchronized void put(final Element element, final String normalizedPseudo, final CSS2Properties style,
+                final List<CSSStyleSheet> sheets, final List<MatchingRules> matchingRules) {
+            final DomNode node = element.getDomNodeOrDie();
+            ComputedStyles styles = computedStyles_.get(element);
+            if (styles == null || !matchingChanges_.isNotChangedSince(node, styles.matchingGeneration_)) {
+                styles = new ComputedStyles(generation_);
+                computedStyles_.put(element, styles);
+            }
+            else if (!styleChanges_.isNotChangedSince(node, styles.styleGeneration_)) {
+                styles.styles_.clear();
+                styles.styleGeneration_ = generation_;
             }
-            elementMap.put(normalizedPseudo, style);
+            styles.styles_.put(normalizedPseudo, style);
+            styles.matchingRules_.put(normalizedPseudo, matchingRules);
+            sheets_ = sheets;
         }
 
-        public synchronized void nodeChanged(final DomNode changed, final boolean clearParents) {
-            final Iterator<Map.Entry<Element, Map<String, CSS2Properties>>> i = computedStyles_.entrySet().iterator();
-            while (i.hasNext()) {
-                final Map.Entry<Element, Map<String, CSS2Properties>> entry = i.next();
-                final DomNode node = entry.getKey().getDomNodeOrDie();
-                if (changed == node
-                    || changed.getParentNode() == node.getParentNode()
-                    || changed.isAncestorOf(node)
-                    || clearParents && node.isAncestorOf(changed)) {
-                    i.remove();
+        /**
+         * Returns whether the rules matching an element may depend on the specified attribute.
+         * @param attributeName the attribute name or {@code null} for the text content
+         * @return whether the matching rules may depend on the attribute
+         */
+        public synchronized boolean isUsedBySelectors(final String attributeName) {
+            if (sheets_ == null) {
+                return true;
+            }
+            for (final CSSStyleSheet sheet : sheets_) {
+                final Set<String> attributes = sheet.getSelectorAttributes();
+                if (attributes == null
+                        || attributeName != null && attributes.contains(attributeName.toLowerCase(Locale.ROOT))) {
+                    return true;
                 }
             }
+            return false;
+        }
+
+        /**
+         * Invalidates the styles of the changed node, of its descendants and siblings and
+         * optionally of its ancestors.
+         * @param changed the changed node
+         * @param parent the parent of the changed node (the former one if the node was removed)
+         * @param clearParents whether the ancestors are affected too
+         * @param affectsMatching whether the change may change the matching rules
+         */
+        public synchronized void nodeChanged(final DomNode changed, final DomNode parent,
+                final boolean clearParents, final boolean affectsMatching) {
+            if (computedStyles_.isEmpty()) {
+                return;
+            }
 
-            // maybe this is a better solution but i have to think a bit more about this
-            //
-            //            if (computedStyles_.isEmpty()) {
-            //                return;
-            //            }
-            //
-            //            // remove all siblings
-            //            DomNode parent = changed.getParentNode();
-            //            if (parent != null) {
-            //                for (DomNode sibling : parent.getChildNodes()) {
-            //                    computedStyles_.remove(sibling.getScriptableObject());
-            //                }
-            //
-            //                if (clearParents) {
-            //                    // remove all parents
-            //                    while (parent != null) {
-            //                        computedStyles_.remove(parent.getScriptableObject());
-            //                        parent = parent.getParentNode();
-            //                    }
-            //                }
-            //            }
-            //
-            //            // remove changed itself and all descendants
-            //            computedStyles_.remove(changed.getScriptableObject());
-            //            for (DomNode descendant : changed.getDescendants()) {
-            //                computedStyles_.remove(descendant.getScriptableObject());
-            //            }
+            generation_++;
+            final Long generation = Long.valueOf(generation_);
+            styleChanges_.nodeChanged(changed, parent, clearParents, generation);
+            if (affectsMatching) {
+                // selectors do not depend on descendants, the ancestors are not affected
+                matchingChanges_.nodeChanged(changed, parent, false, generation);
+            }
         }
 
         public synchronized void clear() {
             computedStyles_.clear();
+            styleChanges_.clear();
+            matchingChanges_.clear();
+            sheets_ = null;
         }
 
-        public synchronized Map<String, CSS2Properties> remove(final Element element) {
-            return computedStyles_.remove(element);
+        public synchronized void remove(final Element element) {
+            computedStyles_.remove(element);
+            if (computedStyles_.isEmpty()) {
+                // nothing can be stale, forget the changes
+                styleChanges_.clear();
+                matchingChanges_.clear();
+            }
         }
 
         private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
             in.defaultReadObject();
             computedStyles_ = new WeakHashMap<>();
+            styleChanges_ = new Changes();
+            matchingChanges_ = new Changes();
+        }
+    }
+
+    /**
+     * The generation numbers of the changes of the nodes, see {@link CSSPropertiesCache}.
+     */
+    private static final class Changes {
+        private final WeakHashMap<DomNode, Long> subtreeChanges_ = new WeakHashMap<>();
+        private final WeakHashMap<DomNode, Long> childrenChanges_ = new WeakHashMap<>();
+        private final WeakHashMap<DomNode, Long> nodeChanges_ = new WeakHashMap<>();
+
+        void nodeChanged(final DomNode changed, final DomNode parent, final boolean clearParents,
+                final Long generation) {
+            subtreeChanges_.put(changed, generation);
+            if (parent != null) {
+                childrenChanges_.put(parent, generation);
+
+                if (clearParents) {
+                    for (DomNode ancestor = parent; ancestor != null; ancestor = ancestor.getParentNode()) {
+                        nodeChanges_.put(ancestor, generation);
+                    }
+                }
+            }
+        }
+
+        boolean isNotChangedSince(final DomNode node, final long generation) {
+            if (!isNotChangedSince(nodeChanges_, node, generation)
+                    || !isNotChangedSince(childrenChanges_, node.getParentNode(), generation)) {
+                return false;
+            }
+            for (DomNode n = node; n != null; n = n.getParentNode()) {
+                if (!isNotChangedSince(subtreeChanges_, n, generation)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean isNotChangedSince(final Map<DomNode, Long> changes, final DomNode node,
+                final long generation) {
+            if (node == null) {
+                return true;
+            }
+            final Long changed = changes.get(node);
+            return changed == null || changed.longValue() <= generation;
+        }
+
+        void clear() {
+            subtreeChanges_.clear();
+            childrenChanges_.clear();
+            nodeChanges_.clear();
+        }
+    }
+
+    /**
+     * The computed styles of an element (one per pseudo element), the rules matching the element
+     * and the generations they were computed in.
+     */
+    private static final class ComputedStyles {
+        private long styleGeneration_;
+        private final long matchingGeneration_;
+        private final Map<String, CSS2Properties> styles_ = new HashMap<>();
+        private final Map<String, List<MatchingRules>> matchingRules_ = new HashMap<>();
+
+        ComputedStyles(final long generation) {
+            styleGeneration_ = generation;
+            matchingGeneration_ = generation;
+        }
+    }
+
+    /**
+     * The rules of a sheet matching an element.
+     */
+    private static final class MatchingRules {
+        private final CSSStyleSheet sheet_;
+        private final Object version_;
+        private final List<CSSStyleSheetImpl.SelectorEntry> rules_;
+
+        MatchingRules(final CSSStyleSheet sheet, final Element element, final String normalizedPseudo) {
+            sheet_ = sheet;
+            version_ = sheet.getRulesVersion();
+            rules_ = sheet.getMatchingRules(element, normalizedPseudo);
         }
     }
 
@@ -341,7 +495,14 @@ public class Window extends EventTarget implements Function, AutoCloseable {
      */
     @Override
     public Scriptable getPrototype(final Class<? extends SimpleScriptable> jsClass) {
-        return prototypes_.get(jsClass);
+        final Scriptable prototype = prototypes_.get(jsClass);
+        if (prototype == null && lazyHostClasses_ != null) {
+            final String className = lazyHostClassNames_.get(jsClass);
+            if (className != null) {
+                return configureLazyHostClass(className);
+            }
+        }
+        return prototype;
     }
 
     /**
@@ -350,7 +511,141 @@ public class Window extends EventTarget implements Function, AutoCloseable {
      * @return the prototype object corresponding to the specified class inside the specified scope
      */
     public Scriptable getPrototype(final String className) {
-        return prototypesPerJSName_.get(className);
+        final Scriptable prototype = prototypesPerJSName_.get(className);
+        if (prototype == null && lazyHostClasses_ != null) {
+            return configureLazyHostClass(className);
+        }
+        return prototype;
+    }
+
+    /**
+     * <span style="color:red">INTERNAL API - SUBJECT TO CHANGE AT ANY TIME - USE AT YOUR OWN RISK.</span><br>
+     *
+     * Sets the host classes whose prototype and constructor are configured on first access.
+     * @param lazyHostClasses a map of the JavaScript class name and the host class
+     */
+    public void setLazyHostClasses(final Map<String, Class<? extends HtmlUnitScriptable>> lazyHostClasses) {
+        if (lazyHostClasses.isEmpty()) {
+            lazyHostClasses_ = null;
+            lazyHostClassNames_ = null;
+        }
+        else {
+            lazyHostClasses_ = lazyHostClasses;
+            lazyHostClassNames_ = new HashMap<>(lazyHostClasses.size() * 2);
+            for (final Map.Entry<String, Class<? extends HtmlUnitScriptable>> entry : lazyHostClasses.entrySet()) {
+                lazyHostClassNames_.put(entry.getValue(), entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * <span style="color:red">INTERNAL API - SUBJECT TO CHANGE AT ANY TIME - USE AT YOUR OWN RISK.</span><br>
+     *
+     * Adds the prototype of a host class configured on first access.
+     * @param hostClass the host class
+     * @param className the JavaScript class name
+     * @param prototype the prototype
+     */
+    public void addPrototype(final Class<? extends HtmlUnitScriptable> hostClass, final String className,
+            final Scriptable prototype) {
+        prototypes_.put(hostClass, prototype);
+        prototypesPerJSName_.put(className, prototype);
+    }
+
+    /**
+     * Configures the prototype and the constructor of the given host class if this was
+     * skipped by the lazy initialization.
+     * @param className the JavaScript class name
+     * @return the prototype or {@code null} if there is no such lazy host class
+     */
+    private Scriptable configureLazyHostClass(final String className) {
+        if (lazyHostClasses_ == null) {
+            return null;
+        }
+        final Class<? extends HtmlUnitScriptable> hostClass = lazyHostClasses_.remove(className);
+        if (hostClass == null) {
+            return null;
+        }
+        lazyHostClassNames_.remove(hostClass);
+        if (lazyHostClasses_.isEmpty()) {
+            lazyHostClasses_ = null;
+            lazyHostClassNames_ = null;
+        }
+
+        final ClassConfiguration config = JavaScriptConfiguration.getInstance(getBrowserVersion())
+                .getClassConfiguration(className);
+        return JavaScriptEngine.configureLazyHostClass(config, this);
+    }
+
+    /**
+     * Configures all host classes skipped by the lazy initialization.
+     */
+    private void configureAllLazyHostClasses() {
+        while (lazyHostClasses_ != null) {
+            configureLazyHostClass(lazyHostClasses_.keySet().iterator().next());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object get(final String name, final Scriptable start) {
+        if (lazyHostClasses_ != null) {
+            configureLazyHostClass(name);
+        }
+        return super.get(name, start);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean has(final String name, final Scriptable start) {
+        if (lazyHostClasses_ != null) {
+            configureLazyHostClass(name);
+        }
+        return super.has(name, start);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void delete(final String name) {
+        if (lazyHostClasses_ != null) {
+            configureLazyHostClass(name);
+        }
+        super.delete(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected ScriptableObject getOwnPropertyDescriptor(final Context cx, final Object id) {
+        if (lazyHostClasses_ != null && id instanceof CharSequence) {
+            configureLazyHostClass(id.toString());
+        }
+        return super.getOwnPropertyDescriptor(cx, id);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object[] getIds() {
+        configureAllLazyHostClasses();
+        return super.getIds();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object[] getAllIds() {
+        configureAllLazyHostClasses();
+        return super.getAllIds();
     }
 
     /**
@@ -1867,19 +2162,31 @@ public class Window extends EventTarget implements Function, AutoCloseable {
         final CSS2Properties style = new CSS2Properties(e.getStyle());
         final Object ownerDocument = e.getOwnerDocument();
         if (ownerDocument instanceof HTMLDocument) {
-            final StyleSheetList sheets = ((HTMLDocument) ownerDocument).getStyleSheets();
-            final boolean trace = LOG.isTraceEnabled();
-            for (int i = 0; i < sheets.getLength(); i++) {
-                final CSSStyleSheet sheet = (CSSStyleSheet) sheets.item(i);
+            final StyleSheetList sheetList = ((HTMLDocument) ownerDocument).getStyleSheets();
+            final List<CSSStyleSheet> sheets = new ArrayList<>(sheetList.getLength());
+            for (int i = 0; i < sheetList.getLength(); i++) {
+                final CSSStyleSheet sheet = (CSSStyleSheet) sheetList.item(i);
                 if (sheet.isActive() && sheet.isEnabled()) {
+                    sheets.add(sheet);
+                }
+            }
+
+            List<MatchingRules> matchingRules = cssPropertiesCache_.getMatchingRules(e, normalizedPseudo, sheets);
+            if (matchingRules == null) {
+                final boolean trace = LOG.isTraceEnabled();
+                matchingRules = new ArrayList<>(sheets.size());
+                for (final CSSStyleSheet sheet : sheets) {
                     if (trace) {
-                        LOG.trace("modifyIfNecessary: " + sheet + ", " + style + ", " + e);
+                        LOG.trace("getMatchingRules: " + sheet + ", " + e);
                     }
-                    sheet.modifyIfNecessary(style, e, normalizedPseudo);
+                    matchingRules.add(new MatchingRules(sheet, e, normalizedPseudo));
                 }
             }
+            for (final MatchingRules rules : matchingRules) {
+                CSSStyleSheet.applyMatchingRules(style, rules.rules_);
+            }
 
-            cssPropertiesCache_.put(e, normalizedPseudo, style);
+            cssPropertiesCache_.put(e, normalizedPseudo, style, sheets, matchingRules);
         }
         return style;
     }
@@ -2107,7 +2414,7 @@ public class Window extends EventTarget implements Function, AutoCloseable {
          */
         @Override
         public void nodeAdded(final DomChangeEvent event) {
-            nodeChanged(event.getChangedNode(), null);
+            nodeChanged(event.getChangedNode(), event.getParentNode(), null);
         }
 
         /**
@@ -2115,7 +2422,7 @@ public class Window extends EventTarget implements Function, AutoCloseable {
          */
         @Override
         public void nodeDeleted(final DomChangeEvent event) {
-            nodeChanged(event.getChangedNode(), null);
+            nodeChanged(event.getChangedNode(), event.getParentNode(), null);
         }
 
         /**
@@ -2123,7 +2430,8 @@ public class Window extends EventTarget implements Function, AutoCloseable {
          */
         @Override
         public void attributeAdded(final HtmlAttributeChangeEvent event) {
-            nodeChanged(event.getHtmlElement(), event.getName());
+            final HtmlElement element = event.getHtmlElement();
+            nodeChanged(element, element.getParentNode(), event.getName());
         }
 
         /**
@@ -2131,7 +2439,8 @@ public class Window extends EventTarget implements Function, AutoCloseable {
          */
         @Override
         public void attributeRemoved(final HtmlAttributeChangeEvent event) {
-            nodeChanged(event.getHtmlElement(), event.getName());
+            final HtmlElement element = event.getHtmlElement();
+            nodeChanged(element, element.getParentNode(), event.getName());
         }
 
         /**
@@ -2139,10 +2448,11 @@ public class Window extends EventTarget implements Function, AutoCloseable {
          */
         @Override
         public void attributeReplaced(final HtmlAttributeChangeEvent event) {
-            nodeChanged(event.getHtmlElement(), event.getName());
+            final HtmlElement element = event.getHtmlElement();
+            nodeChanged(element, element.getParentNode(), event.getName());
         }
 
-        private void nodeChanged(final DomNode changed, final String attribName) {
+        private void nodeChanged(final DomNode changed, final DomNode parent, final String attribName) {
             // If a stylesheet was changed, all of our calculations could be off; clear the cache.
             if (changed instanceof HtmlStyle) {
                 clearComputedStyles();
@@ -2158,7 +2468,14 @@ public class Window extends EventTarget implements Function, AutoCloseable {
 
             // Apparently it wasn't a stylesheet that changed; be semi-smart about what we evict and when.
             final boolean clearParents = ATTRIBUTES_AFFECTING_PARENT.contains(attribName);
-            cssPropertiesCache_.nodeChanged(changed, clearParents);
+            final boolean affectsMatching;
+            if (attribName != null) {
+                affectsMatching = cssPropertiesCache_.isUsedBySelectors(attribName);
+            }
+            else {
+                affectsMatching = changed instanceof DomElement || cssPropertiesCache_.isUsedBySelectors(null);
+            }
+            cssPropertiesCache_.nodeChanged(changed, parent, clearParents, affectsMatching);
         }
     }
 
@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2002-2019 Gargoyle Software Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gargoylesoftware.htmlunit.javascript.host.css;
+
+import static com.gargoylesoftware.htmlunit.html.DomElement.ATTRIBUTE_NOT_DEFINED;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.gargoylesoftware.css.parser.condition.Condition;
+import com.gargoylesoftware.css.parser.selector.ChildSelector;
+import com.gargoylesoftware.css.parser.selector.DescendantSelector;
+import com.gargoylesoftware.css.parser.selector.DirectAdjacentSelector;
+import com.gargoylesoftware.css.parser.selector.ElementSelector;
+import com.gargoylesoftware.css.parser.selector.GeneralAdjacentSelector;
+import com.gargoylesoftware.css.parser.selector.Selector;
+import com.gargoylesoftware.htmlunit.html.DomElement;
+import com.gargoylesoftware.htmlunit.html.DomNode;
+import com.gargoylesoftware.htmlunit.html.HtmlElement;
+
+/**
+ * A bloom filter of the tag names, ids and classes of the ancestors of an element.
+ *
+ * <p>Selectors with descendant or child combinators require some ancestors to have a specific
+ * tag name, id or class (see {@link #getAncestorHashes(Selector)}). If one of them is not contained
+ * in the filter, the selector can't match the element and the ancestors don't need to be checked.
+ * The filter may report false positives, but never false negatives.</p>
+ *
+ * @author Ronald Brill
+ */
+public final class AncestorFilter {
+
+    /** The filter of an element without ancestors. */
+    public static final AncestorFilter EMPTY = new AncestorFilter();
+
+    private static final int[] NO_HASHES = new int[0];
+
+    private static final int BITS = 2048;
+    private static final int MASK = BITS - 1;
+
+    private static final int TAG_SALT = 0x2F0B3A1D;
+    private static final int ID_SALT = 0x5C91E647;
+    private static final int CLASS_SALT = 0x1B873593;
+
+    private final long[] bits_;
+
+    private AncestorFilter() {
+        bits_ = new long[BITS / Long.SIZE];
+    }
+
+    private AncestorFilter(final AncestorFilter parentFilter, final HtmlElement parent) {
+        bits_ = parentFilter.bits_.clone();
+        add(parent);
+    }
+
+    /**
+     * Creates the filter of the ancestors of the specified element.
+     * @param element the element
+     * @return the filter
+     */
+    public static AncestorFilter of(final DomElement element) {
+        AncestorFilter filter = null;
+        for (DomNode ancestor = element.getParentNode(); ancestor instanceof HtmlElement;
+                ancestor = ancestor.getParentNode()) {
+            if (filter == null) {
+                filter = new AncestorFilter();
+            }
+            filter.add((HtmlElement) ancestor);
+        }
+        if (filter == null) {
+            return EMPTY;
+        }
+        return filter;
+    }
+
+    /**
+     * Returns the filter of the ancestors of the specified element, reusing and filling the specified
+     * map of the filters of the children of the ancestors. This is useful when checking many elements
+     * of the same tree.
+     * @param element the element
+     * @param childrenFilters the filters of the children of the already processed parents
+     * @return the filter
+     */
+    public static AncestorFilter of(final DomElement element, final Map<DomNode, AncestorFilter> childrenFilters) {
+        final DomNode parent = element.getParentNode();
+        if (!(parent instanceof HtmlElement)) {
+            return EMPTY;
+        }
+
+        AncestorFilter filter = childrenFilters.get(parent);
+        if (filter == null) {
+            // collect the ancestors without a filter, the nearest first
+            final List<HtmlElement> ancestors = new ArrayList<>();
+            DomNode ancestor = parent;
+            while (ancestor instanceof HtmlElement && filter == null) {
+                ancestors.add((HtmlElement) ancestor);
+                ancestor = ancestor.getParentNode();
+                filter = childrenFilters.get(ancestor);
+            }
+            if (filter == null) {
+                filter = EMPTY;
+            }
+            for (int i = ancestors.size() - 1; i >= 0; i--) {
+                final HtmlElement htmlElement = ancestors.get(i);
+                filter = new AncestorFilter(filter, htmlElement);
+                childrenFilters.put(htmlElement, filter);
+            }
+        }
+        return filter;
+    }
+
+    /**
+     * Returns the hashes of the tag names, ids and classes the ancestors of an element
+     * need to have to be matched by the specified selector.
+     * @param selector the selector
+     * @return the hashes (maybe empty)
+     */
+    public static int[] getAncestorHashes(final Selector selector) {
+        final List<Integer> hashes = new ArrayList<>();
+        if (!collectHashes(selector, false, hashes) || hashes.isEmpty()) {
+            return NO_HASHES;
+        }
+
+        final int[] result = new int[hashes.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = hashes.get(i);
+        }
+        return result;
+    }
+
+    private static boolean collectHashes(final Selector selector, final boolean ancestor,
+            final List<Integer> hashes) {
+        switch (selector.getSelectorType()) {
+            case ELEMENT_NODE_SELECTOR:
+                if (ancestor) {
+                    final ElementSelector es = (ElementSelector) selector;
+                    final String name = es.getLocalNameLowerCase();
+                    if (name != null) {
+                        hashes.add(hash(name, TAG_SALT));
+                    }
+                    final List<Condition> conditions = es.getConditions();
+                    if (conditions != null) {
+                        for (Condition condition : conditions) {
+                            final String value = condition.getValue();
+                            switch (condition.getConditionType()) {
+                                case ID_CONDITION:
+                                    hashes.add(hash(value, ID_SALT));
+                                    break;
+                                case CLASS_CONDITION:
+                                    // escaped class names are left to the complete check
+                                    if (value.indexOf('\\') == -1) {
+                                        hashes.add(hash(value, CLASS_SALT));
+                                    }
+                                    break;
+                                default:
+                                    break;
+                            }
+                        }
+                    }
+                }
+                return true;
+
+            case CHILD_SELECTOR:
+                final ChildSelector cs = (ChildSelector) selector;
+                return collectHashes(cs.getAncestorSelector(), true, hashes)
+                        && collectHashes(cs.getSimpleSelector(), ancestor, hashes);
+
+            case DESCENDANT_SELECTOR:
+                final DescendantSelector ds = (DescendantSelector) selector;
+                return collectHashes(ds.getAncestorSelector(), true, hashes)
+                        && collectHashes(ds.getSimpleSelector(), ancestor, hashes);
+
+            case DIRECT_ADJACENT_SELECTOR:
+                // the sibling is no ancestor, but its ancestors are
+                final DirectAdjacentSelector das = (DirectAdjacentSelector) selector;
+                return collectHashes(das.getSelector(), false, hashes)
+                        && collectHashes(das.getSimpleSelector(), ancestor, hashes);
+
+            case GENERAL_ADJACENT_SELECTOR:
+                final GeneralAdjacentSelector gas = (GeneralAdjacentSelector) selector;
+                return collectHashes(gas.getSelector(), false, hashes)
+                        && collectHashes(gas.getSimpleSelector(), ancestor, hashes);
+
+            default:
+                // pseudo elements are matched against the element itself
+                return false;
+        }
+    }
+
+    /**
+     * Returns whether the ancestors may have all the tag names, ids and classes of the specified hashes.
+     * @param hashes the hashes returned by {@link #getAncestorHashes(Selector)}
+     * @return {@code false} if a selector with these hashes can't match the element
+     */
+    public boolean mayMatch(final int[] hashes) {
+        for (final int hash : hashes) {
+            if (!contains(hash)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void add(final HtmlElement element) {
+        add(hash(element.getLowercaseName(), TAG_SALT));
+
+        final String id = element.getId();
+        if (ATTRIBUTE_NOT_DEFINED != id) {
+            add(hash(id, ID_SALT));
+        }
+
+        final String classes = element.getAttributeDirect("class");
+        if (ATTRIBUTE_NOT_DEFINED != classes) {
+            for (final String clazz : StringUtils.split(classes)) {
+                add(hash(clazz, CLASS_SALT));
+            }
+        }
+    }
+
+    private void add(final int hash) {
+        final int first = hash & MASK;
+        final int second = (hash >>> 16) & MASK;
+        bits_[first >>> 6] |= 1L << first;
+        bits_[second >>> 6] |= 1L << second;
+    }
+
+    private boolean contains(final int hash) {
+        final int first = hash & MASK;
+        final int second = (hash >>> 16) & MASK;
+        return (bits_[first >>> 6] & (1L << first)) != 0
+                && (bits_[second >>> 6] & (1L << second)) != 0;
+    }
+
+    private static int hash(final String value, final int salt) {
+        return (value.hashCode() ^ salt) * 0x9E3779B1;
+    }
+}
@@ -32,16 +32,20 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.SerializationUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.commons.logging.Log;
@@ -139,7 +143,13 @@ public class CSSStyleSheet extends StyleSheet {
     private static final Pattern UNESCAPE_SELECTOR = Pattern.compile("\\\\([\\[\\]\\.:])");
 
     /** The parsed stylesheet which this host object wraps. */
-    private final CSSStyleSheetImpl wrapped_;
+    private CSSStyleSheetImpl wrapped_;
+
+    /**
+     * Whether the wrapped stylesheet is shared with other host objects, e.g. because it is cached;
+     * it is then copied before the rules are exposed or modified.
+     */
+    private boolean shared_;
 
     /** The HTML element which owns this stylesheet. */
     private final HTMLElement ownerNode_;
@@ -152,13 +162,22 @@ public class CSSStyleSheet extends StyleSheet {
     private final Map<CSSImportRuleImpl, CSSStyleSheet> imports_ = new HashMap<>();
 
     /** cache parsed media strings */
-    private static final transient Map<String, MediaListImpl> media_ = new HashMap<>();
+    private static final transient Map<String, MediaListImpl> media_ =
+            Collections.synchronizedMap(new HashMap<String, MediaListImpl>());
 
     /** This stylesheet's URI (used to resolved contained @import rules). */
     private String uri_;
 
     private boolean enabled_ = true;
 
+    /** The attributes used by the selectors ({@code null} if unknown) and the rule index they were collected of. */
+    private transient Set<String> selectorAttributes_;
+    private transient CSSStyleSheetImpl.CSSStyleSheetRuleIndex selectorAttributesIndex_;
+
+    /** The ancestor hashes of the selectors and the rule index they were computed for. */
+    private transient Map<Selector, int[]> ancestorHashes_;
+    private transient CSSStyleSheetImpl.CSSStyleSheetRuleIndex ancestorHashesIndex_;
+
     private static final Set<String> CSS2_PSEUDO_CLASSES = new HashSet<>(Arrays.asList(
             "link", "visited", "hover", "active",
             "focus", "lang", "first-child"));
@@ -236,6 +255,7 @@ public class CSSStyleSheet extends StyleSheet {
         setParentScope(element.getWindow());
         setPrototype(getPrototype(CSSStyleSheet.class));
         wrapped_ = wrapped;
+        shared_ = true;
         uri_ = uri;
         ownerNode_ = element;
     }
@@ -248,6 +268,14 @@ public class CSSStyleSheet extends StyleSheet {
         return wrapped_;
     }
 
+    /**
+     * Marks the wrapped stylesheet as shared with other host objects, usually because it was cached.
+     * It is then copied as soon as its rules are accessed from JavaScript, so that it is never modified.
+     */
+    public void markShared() {
+        shared_ = true;
+    }
+
     /**
      * Modifies the specified style object by adding any style rules which apply to the specified
      * element.
@@ -259,17 +287,213 @@ public class CSSStyleSheet extends StyleSheet {
      */
     public void modifyIfNecessary(final ComputedCSSStyleDeclaration style, final Element element,
             final String pseudoElement) {
+        applyMatchingRules(style, getMatchingRules(element, pseudoElement));
+    }
 
-        final BrowserVersion browser = getBrowserVersion();
+    /**
+     * Returns the style rules which apply to the specified element. The result stays valid as long as
+     * the {@link #getRulesVersion() rules} of this sheet, the element and the elements used by the
+     * selectors (e.g. the ancestors or siblings) are not changed.
+     *
+     * @param element the element to which style rules must apply
+     * @param pseudoElement a string specifying the pseudo-element to match (may be {@code null})
+     * @return the matching rules
+     */
+    public List<CSSStyleSheetImpl.SelectorEntry> getMatchingRules(final Element element,
+            final String pseudoElement) {
         final DomElement e = element.getDomNodeOrDie();
-        final List<CSSStyleSheetImpl.SelectorEntry> matchingRules =
-                selects(getRuleIndex(), this, browser, e, pseudoElement, false);
+        final AncestorFilter[] ancestorFilter = new AncestorFilter[1];
+        return selects(getRuleIndex(), this, getBrowserVersion(), e, pseudoElement, ancestorFilter);
+    }
+
+    /**
+     * Modifies the specified style object by adding the specified style rules.
+     *
+     * @param style the style to modify
+     * @param matchingRules the rules to add, as returned by {@link #getMatchingRules(Element, String)}
+     */
+    public static void applyMatchingRules(final ComputedCSSStyleDeclaration style,
+            final List<CSSStyleSheetImpl.SelectorEntry> matchingRules) {
         for (CSSStyleSheetImpl.SelectorEntry entry : matchingRules) {
             final CSSStyleDeclarationImpl dec = entry.getRule().getStyle();
             style.applyStyleFromSelector(dec, entry.getSelector());
         }
     }
 
+    /**
+     * Returns an object identifying the current rules of this sheet; a different object
+     * is returned after rules have been inserted or deleted.
+     * @return the current version of the rules
+     */
+    public Object getRulesVersion() {
+        return getRuleIndex();
+    }
+
+    /**
+     * Returns the {@link AncestorFilter#getAncestorHashes(Selector) ancestor hashes} of the specified
+     * selector of this sheet.
+     * @param selector the selector
+     * @return the hashes
+     */
+    private int[] getAncestorHashes(final Selector selector) {
+        final CSSStyleSheetImpl.CSSStyleSheetRuleIndex index = getRuleIndex();
+        if (ancestorHashesIndex_ != index) {
+            ancestorHashes_ = new IdentityHashMap<>();
+            ancestorHashesIndex_ = index;
+        }
+        int[] hashes = ancestorHashes_.get(selector);
+        if (hashes == null) {
+            hashes = AncestorFilter.getAncestorHashes(selector);
+            ancestorHashes_.put(selector, hashes);
+        }
+        return hashes;
+    }
+
+    /**
+     * Returns the names (in lower case) of the attributes the selectors of this sheet depend on.
+     * Changes of other attributes do not change the {@link #getMatchingRules(Element, String)
+     * matching rules} of an element.
+     * @return the attribute names or {@code null} if the selectors may depend on any attribute
+     *         or on the text content (e.g. <tt>:empty</tt> or <tt>:not()</tt>)
+     */
+    public Set<String> getSelectorAttributes() {
+        final CSSStyleSheetImpl.CSSStyleSheetRuleIndex index = getRuleIndex();
+        if (selectorAttributesIndex_ != index) {
+            final Set<String> attributes = new HashSet<>();
+            final Set<String> alreadyProcessing = new HashSet<>();
+            alreadyProcessing.add(getUri());
+            if (collectSelectorAttributes(wrapped_.getCssRules(), attributes, alreadyProcessing)) {
+                selectorAttributes_ = attributes;
+            }
+            else {
+                selectorAttributes_ = null;
+            }
+            selectorAttributesIndex_ = index;
+        }
+        return selectorAttributes_;
+    }
+
+    private boolean collectSelectorAttributes(final CSSRuleListImpl ruleList, final Set<String> attributes,
+            final Set<String> alreadyProcessing) {
+        for (AbstractCSSRuleImpl rule : ruleList.getRules()) {
+            if (rule instanceof CSSStyleRuleImpl) {
+                for (Selector selector : ((CSSStyleRuleImpl) rule).getSelectors()) {
+                    if (!collectSelectorAttributes(selector, attributes)) {
+                        return false;
+                    }
+                }
+            }
+            else if (rule instanceof CSSImportRuleImpl) {
+                final CSSStyleSheet sheet = imports_.get(rule);
+                if (sheet == null) {
+                    return false;
+                }
+                if (alreadyProcessing.add(sheet.getUri())
+                        && !sheet.collectSelectorAttributes(sheet.getWrappedSheet().getCssRules(),
+                                attributes, alreadyProcessing)) {
+                    return false;
+                }
+            }
+            else if (rule instanceof CSSMediaRuleImpl) {
+                if (!collectSelectorAttributes(((CSSMediaRuleImpl) rule).getCssRules(), attributes,
+                        alreadyProcessing)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean collectSelectorAttributes(final Selector selector, final Set<String> attributes) {
+        switch (selector.getSelectorType()) {
+            case ELEMENT_NODE_SELECTOR:
+                final List<Condition> conditions = ((ElementSelector) selector).getConditions();
+                if (conditions != null) {
+                    for (Condition condition : conditions) {
+                        if (!collectConditionAttributes(condition, attributes)) {
+                            return false;
+                        }
+                    }
+                }
+                return true;
+            case CHILD_SELECTOR:
+                final ChildSelector cs = (ChildSelector) selector;
+                return collectSelectorAttributes(cs.getAncestorSelector(), attributes)
+                        && collectSelectorAttributes(cs.getSimpleSelector(), attributes);
+            case DESCENDANT_SELECTOR:
+                final DescendantSelector ds = (DescendantSelector) selector;
+                return collectSelectorAttributes(ds.getAncestorSelector(), attributes)
+                        && collectSelectorAttributes(ds.getSimpleSelector(), attributes);
+            case DIRECT_ADJACENT_SELECTOR:
+                final DirectAdjacentSelector das = (DirectAdjacentSelector) selector;
+                return collectSelectorAttributes(das.getSelector(), attributes)
+                        && collectSelectorAttributes(das.getSimpleSelector(), attributes);
+            case GENERAL_ADJACENT_SELECTOR:
+                final GeneralAdjacentSelector gas = (GeneralAdjacentSelector) selector;
+                return collectSelectorAttributes(gas.getSelector(), attributes)
+                        && collectSelectorAttributes(gas.getSimpleSelector(), attributes);
+            case PSEUDO_ELEMENT_SELECTOR:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean collectConditionAttributes(final Condition condition, final Set<String> attributes) {
+        switch (condition.getConditionType()) {
+            case ID_CONDITION:
+                attributes.add("id");
+                return true;
+            case CLASS_CONDITION:
+                attributes.add("class");
+                return true;
+            case LANG_CONDITION:
+                attributes.add("lang");
+                return true;
+            case ATTRIBUTE_CONDITION:
+            case ONE_OF_ATTRIBUTE_CONDITION:
+            case BEGIN_HYPHEN_ATTRIBUTE_CONDITION:
+            case PREFIX_ATTRIBUTE_CONDITION:
+            case SUBSTRING_ATTRIBUTE_CONDITION:
+            case SUFFIX_ATTRIBUTE_CONDITION:
+                attributes.add(condition.getLocalName().toLowerCase(Locale.ROOT));
+                return true;
+            case PSEUDO_CLASS_CONDITION:
+                final String value = condition.getValue();
+                switch (value) {
+                    case "enabled":
+                    case "disabled":
+                        attributes.add("disabled");
+                        return true;
+                    case "checked":
+                        attributes.add("checked");
+                        attributes.add("selected");
+                        return true;
+                    case "required":
+                    case "optional":
+                        attributes.add("required");
+                        return true;
+                    case "target":
+                        attributes.add("id");
+                        return true;
+                    case "root":
+                    case "focus":
+                    case "hover":
+                    case "first-child":
+                    case "last-child":
+                    case "first-of-type":
+                    case "last-of-type":
+                    case "only-child":
+                    case "only-of-type":
+                        return true;
+                    default:
+                        return value.startsWith("nth-");
+                }
+            default:
+                return false;
+        }
+    }
+
     /**
      * Loads the stylesheet at the specified link or href.
      * @param element the parent DOM element
@@ -317,7 +541,7 @@ public class CSSStyleSheet extends StyleSheet {
             // now we can look into the cache with the fixed request for
             // a cached script
             final Cache cache = client.getCache();
-            final Object fromCache = cache.getCachedObject(request);
+            final Object fromCache = cache.getCachedObject(request, client.getBrowserVersion());
             if (fromCache instanceof CSSStyleSheetImpl) {
                 uri = request.getUrl().toExternalForm();
                 sheet = new CSSStyleSheet(element, (CSSStyleSheetImpl) fromCache, uri);
@@ -343,7 +567,10 @@ public class CSSStyleSheet extends StyleSheet {
                 }
 
                 // cache the style sheet
-                if (!cache.cacheIfPossible(request, response, sheet.getWrappedSheet())) {
+                if (cache.cacheIfPossible(request, response, sheet.getWrappedSheet(), client.getBrowserVersion())) {
+                    sheet.markShared();
+                }
+                else {
                     response.cleanUp();
                 }
             }
@@ -1576,6 +1803,16 @@ public class CSSStyleSheet extends StyleSheet {
 
     private void initCssRules() {
         if (cssRules_ == null) {
+            if (shared_ && wrapped_ != null) {
+                // the rules can be modified through the returned objects
+                final CSSStyleSheetImpl copy;
+                synchronized (wrapped_) {
+                    copy = SerializationUtils.clone(wrapped_);
+                }
+                copy.resetRuleIndex();
+                wrapped_ = copy;
+                shared_ = false;
+            }
             cssRules_ = new com.gargoylesoftware.htmlunit.javascript.host.css.CSSRuleList(this);
             cssRulesIndexFix_ = new ArrayList<>();
             refreshCssRules();
@@ -1584,16 +1821,19 @@ public class CSSStyleSheet extends StyleSheet {
 
     private CSSStyleSheetImpl.CSSStyleSheetRuleIndex getRuleIndex() {
         final CSSStyleSheetImpl styleSheet = getWrappedSheet();
-        CSSStyleSheetImpl.CSSStyleSheetRuleIndex index = styleSheet.getRuleIndex();
+        // a shared stylesheet may be used from other threads
+        synchronized (styleSheet) {
+            CSSStyleSheetImpl.CSSStyleSheetRuleIndex index = styleSheet.getRuleIndex();
 
-        if (index == null) {
-            index = new CSSStyleSheetImpl.CSSStyleSheetRuleIndex();
-            final CSSRuleListImpl ruleList = styleSheet.getCssRules();
-            index(index, ruleList, new HashSet<String>());
+            if (index == null) {
+                index = new CSSStyleSheetImpl.CSSStyleSheetRuleIndex();
+                final CSSRuleListImpl ruleList = styleSheet.getCssRules();
+                index(index, ruleList, new HashSet<String>());
 
-            styleSheet.setRuleIndex(index);
+                styleSheet.setRuleIndex(index);
+            }
+            return index;
         }
-        return index;
     }
 
     private void index(final CSSStyleSheetImpl.CSSStyleSheetRuleIndex index, final CSSRuleListImpl ruleList,
@@ -1666,7 +1906,7 @@ public class CSSStyleSheet extends StyleSheet {
                             final CSSStyleSheetImpl.CSSStyleSheetRuleIndex index,
                             final SimpleScriptable scriptable,
                             final BrowserVersion browserVersion, final DomElement element,
-                            final String pseudoElement, final boolean fromQuerySelectorAll) {
+                            final String pseudoElement, final AncestorFilter[] ancestorFilter) {
 
         final List<CSSStyleSheetImpl.SelectorEntry> matchingRules = new ArrayList<>();
 
@@ -1678,8 +1918,19 @@ public class CSSStyleSheet extends StyleSheet {
 
             CSSStyleSheetImpl.SelectorEntry entry = iter.next();
             while (null != entry) {
-                if (CSSStyleSheet.selects(browserVersion, entry.getSelector(),
-                                            element, pseudoElement, fromQuerySelectorAll)) {
+                final Selector selector = entry.getSelector();
+                final int[] ancestorHashes = getAncestorHashes(selector);
+                if (ancestorHashes.length > 0) {
+                    // the filter is created once per element and only if needed
+                    if (ancestorFilter[0] == null) {
+                        ancestorFilter[0] = AncestorFilter.of(element);
+                    }
+                    if (!ancestorFilter[0].mayMatch(ancestorHashes)) {
+                        entry = iter.next();
+                        continue;
+                    }
+                }
+                if (CSSStyleSheet.selects(browserVersion, selector, element, pseudoElement, false)) {
                     matchingRules.add(entry);
                 }
                 entry = iter.next();
@@ -1687,7 +1938,7 @@ public class CSSStyleSheet extends StyleSheet {
 
             for (CSSStyleSheetImpl.CSSStyleSheetRuleIndex child : index.getChildren()) {
                 matchingRules.addAll(selects(child, scriptable, browserVersion,
-                                                    element, pseudoElement, fromQuerySelectorAll));
+                                                    element, pseudoElement, ancestorFilter));
             }
         }
 
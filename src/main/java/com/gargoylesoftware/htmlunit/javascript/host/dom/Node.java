@@ -43,11 +43,13 @@ import com.gargoylesoftware.htmlunit.javascript.host.html.HTMLDocument;
 import com.gargoylesoftware.htmlunit.javascript.host.html.HTMLHtmlElement;
 
 import net.sourceforge.htmlunit.corejs.javascript.Context;
+import net.sourceforge.htmlunit.corejs.javascript.EvaluatorException;
 import net.sourceforge.htmlunit.corejs.javascript.Function;
 import net.sourceforge.htmlunit.corejs.javascript.Interpreter;
 import net.sourceforge.htmlunit.corejs.javascript.JavaScriptException;
 import net.sourceforge.htmlunit.corejs.javascript.RhinoException;
 import net.sourceforge.htmlunit.corejs.javascript.ScriptRuntime;
+import net.sourceforge.htmlunit.corejs.javascript.ScriptStackElement;
 import net.sourceforge.htmlunit.corejs.javascript.Scriptable;
 import net.sourceforge.htmlunit.corejs.javascript.Undefined;
 
@@ -253,8 +255,6 @@ public class Node extends EventTarget {
         exception.setParentScope(w);
 
         // get current line and file name
-        // this method can only be used in interpreted mode. If one day we choose to use compiled mode,
-        // then we'll have to find an other way here.
         final String fileName;
         final int lineNumber;
         if (Context.getCurrentContext().getOptimizationLevel() == -1) {
@@ -264,7 +264,16 @@ public class Node extends EventTarget {
             lineNumber = linep[0];
         }
         else {
-            throw new Error("HtmlUnit not ready to run in compiled mode");
+            // in compiled mode the script frames are part of the java stack
+            final ScriptStackElement[] stack = new EvaluatorException("").getScriptStack();
+            if (stack.length == 0) {
+                fileName = null;
+                lineNumber = 0;
+            }
+            else {
+                fileName = stack[0].fileName.replaceFirst("script in (.*) from .*", "$1");
+                lineNumber = stack[0].lineNumber;
+            }
         }
 
         exception.setLocation(fileName, lineNumber);
@@ -19,6 +19,7 @@ import static com.gargoylesoftware.htmlunit.javascript.configuration.SupportedBr
 import static com.gargoylesoftware.htmlunit.javascript.configuration.SupportedBrowser.FF52;
 
 import com.gargoylesoftware.css.dom.CSSStyleSheetImpl;
+import com.gargoylesoftware.htmlunit.BrowserVersion;
 import com.gargoylesoftware.htmlunit.Cache;
 import com.gargoylesoftware.htmlunit.html.HtmlStyle;
 import com.gargoylesoftware.htmlunit.javascript.configuration.JsxClass;
@@ -62,7 +63,8 @@ public class HTMLStyleElement extends HTMLElement {
         final String css = style.getTextContent();
 
         final Cache cache = getWindow().getWebWindow().getWebClient().getCache();
-        final CSSStyleSheetImpl cached = cache.getCachedStyleSheet(css);
+        final BrowserVersion browserVersion = getBrowserVersion();
+        final CSSStyleSheetImpl cached = cache.getCachedStyleSheet(css, browserVersion);
         final String uri = getDomNodeOrDie().getPage().getWebResponse().getWebRequest()
                 .getUrl().toExternalForm();
         if (cached != null) {
@@ -70,7 +72,8 @@ public class HTMLStyleElement extends HTMLElement {
         }
         else {
             sheet_ = new CSSStyleSheet(this, css, uri);
-            cache.cache(css, sheet_.getWrappedSheet());
+            cache.cache(css, sheet_.getWrappedSheet(), browserVersion);
+            sheet_.markShared();
         }
 
         return sheet_;
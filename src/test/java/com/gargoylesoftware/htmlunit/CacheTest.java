@@ -14,6 +14,7 @@
  */
 package com.gargoylesoftware.htmlunit;
 
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
 import static org.apache.http.client.utils.DateUtils.formatDate;
 import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.expect;
@@ -21,11 +22,13 @@ import static org.easymock.EasyMock.expectLastCall;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -36,6 +39,7 @@ import org.apache.commons.lang3.time.DateUtils;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import com.gargoylesoftware.css.dom.CSSStyleSheetImpl;
 import com.gargoylesoftware.htmlunit.BrowserRunner.Alerts;
 import com.gargoylesoftware.htmlunit.html.HtmlPage;
 import com.gargoylesoftware.htmlunit.util.MimeType;
@@ -667,6 +671,190 @@ public class CacheTest extends SimpleWebTestCase {
 
         verify(response1);
     }
+
+    /**
+     * A response having only an ETag is revalidated with a conditional request.
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void revalidateWithETag() throws Exception {
+        final URL url = new URL(URL_FIRST, "foo.txt");
+        final List<String> conditions = new ArrayList<>();
+        final MockWebConnection connection = new MockWebConnection() {
+            @Override
+            public WebResponse getResponse(final WebRequest request) throws IOException {
+                conditions.add(request.getAdditionalHeaders().get(HttpHeader.IF_NONE_MATCH));
+                return super.getResponse(request);
+            }
+        };
+        final WebClient client = getWebClient();
+        client.setWebConnection(connection);
+
+        final List<NameValuePair> headers = Collections.singletonList(new NameValuePair("ETag", "\"v1\""));
+        connection.setResponse(url, "hello", 200, "OK", "text/plain", headers);
+        assertEquals("hello", client.getPage(url).getWebResponse().getContentAsString());
+        assertEquals(1, client.getCache().getSize());
+
+        connection.setResponse(url, "", 304, "Not Modified", "text/plain", headers);
+        assertEquals("hello", client.getPage(url).getWebResponse().getContentAsString());
+        assertEquals("hello", client.getPage(url).getWebResponse().getContentAsString());
+        assertEquals(3, connection.getRequestCount());
+        assertEquals(Arrays.asList(null, "\"v1\"", "\"v1\""), conditions);
+        assertEquals(1, client.getCache().getSize());
+
+        connection.setResponse(url, "changed", 200, "OK", "text/plain", headers);
+        assertEquals("changed", client.getPage(url).getWebResponse().getContentAsString());
+        assertEquals(4, connection.getRequestCount());
+        assertEquals(1, client.getCache().getSize());
+    }
+
+    /**
+     * A failed revalidation keeps the cached response; a response removed from the cache
+     * while it is revalidated is still used.
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void revalidateFailure() throws Exception {
+        final URL url = new URL(URL_FIRST, "foo.txt");
+        final WebClient client = getWebClient();
+        final boolean[] clearCache = {false};
+        final MockWebConnection connection = new MockWebConnection() {
+            @Override
+            public WebResponse getResponse(final WebRequest request) throws IOException {
+                if (clearCache[0]) {
+                    client.getCache().clear();
+                }
+                return super.getResponse(request);
+            }
+        };
+        client.setWebConnection(connection);
+        client.getOptions().setThrowExceptionOnFailingStatusCode(false);
+
+        final List<NameValuePair> headers = Collections.singletonList(new NameValuePair("ETag", "\"v1\""));
+        connection.setResponse(url, "hello", 200, "OK", "text/plain", headers);
+        assertEquals("hello", client.getPage(url).getWebResponse().getContentAsString());
+
+        connection.setResponse(url, "error", 500, "Internal Server Error", "text/plain",
+                Collections.<NameValuePair>emptyList());
+        assertEquals(500, client.getPage(url).getWebResponse().getStatusCode());
+        assertEquals(1, client.getCache().getSize());
+
+        clearCache[0] = true;
+        connection.setResponse(url, "", 304, "Not Modified", "text/plain", headers);
+        assertEquals("hello", client.getPage(url).getWebResponse().getContentAsString());
+        assertEquals(3, connection.getRequestCount());
+    }
+
+    /**
+     * The least recently used entries are evicted when the size in bytes is exceeded.
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void maxSizeInBytes() throws Exception {
+        final Cache cache = new Cache();
+        cache.setMaxSizeInBytes(10);
+
+        final WebRequest requestA = cacheResponse(cache, "a.txt");
+        final WebRequest requestB = cacheResponse(cache, "b.txt");
+        assertEquals(8, cache.getSizeInBytes());
+
+        assertNotNull(cache.getCachedResponse(requestA));
+        final WebRequest requestC = cacheResponse(cache, "c.txt");
+
+        assertEquals(2, cache.getSize());
+        assertEquals(8, cache.getSizeInBytes());
+        assertNotNull(cache.getCachedResponse(requestA));
+        assertNull(cache.getCachedResponse(requestB));
+        assertNotNull(cache.getCachedResponse(requestC));
+
+        assertEquals(3, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getEvictionCount());
+
+        cache.clear();
+        assertEquals(0, cache.getSizeInBytes());
+    }
+
+    /**
+     * One cache shared by two clients; the cached style sheet modified by the first one is not
+     * seen by the second one.
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void sharedBetweenClients() throws Exception {
+        final String html = "<html><head>\n"
+            + "<link rel='stylesheet' type='text/css' href='foo.css'>\n"
+            + "<script src='foo.js'></script>\n"
+            + "</head>\n"
+            + "<body onload='var s = document.styleSheets[0]; alert(s.cssRules.length); s.insertRule(\"p {}\", 0);'>\n"
+            + "</body></html>";
+
+        final MockWebConnection connection = new MockWebConnection();
+        final URL pageUrl = new URL(URL_FIRST, "page1.html");
+        connection.setResponse(pageUrl, html);
+        final List<NameValuePair> headers =
+            Collections.singletonList(new NameValuePair("Last-Modified", "Sun, 15 Jul 2007 20:46:27 GMT"));
+        connection.setResponse(new URL(URL_FIRST, "foo.css"), "div { color: red }", 200, "OK",
+                MimeType.TEXT_CSS, headers);
+        connection.setResponse(new URL(URL_FIRST, "foo.js"), "alert('foo');", 200, "OK",
+                MimeType.APPLICATION_JAVASCRIPT, headers);
+
+        final List<String> collectedAlerts = new ArrayList<>();
+        final WebClient client1 = getWebClient();
+        client1.setWebConnection(connection);
+        client1.setAlertHandler(new CollectingAlertHandler(collectedAlerts));
+        client1.getPage(pageUrl);
+
+        try (WebClient client2 = new WebClient(getBrowserVersion())) {
+            client2.setCache(client1.getCache());
+            client2.setWebConnection(connection);
+            client2.setAlertHandler(new CollectingAlertHandler(collectedAlerts));
+            client2.getPage(pageUrl);
+        }
+
+        assertEquals(new String[] {"foo", "1", "foo", "1"}, collectedAlerts);
+        assertEquals(4, connection.getRequestCount());
+
+        final WebRequest scriptRequest = new WebRequest(new URL(URL_FIRST, "foo.js"));
+        assertNotNull(client1.getCache().getCachedObject(scriptRequest, getBrowserVersion()));
+        final BrowserVersion other = getBrowserVersion() == BrowserVersion.CHROME
+                ? BrowserVersion.FIREFOX_60 : BrowserVersion.CHROME;
+        assertNull(client1.getCache().getCachedObject(scriptRequest, other));
+        assertNotNull(client1.getCache().getCachedObject(scriptRequest));
+    }
+
+    /**
+     * The lookups with browser version go through the ones without if a subclass overrides them.
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void overriddenLookupsWithoutBrowserVersion() throws Exception {
+        final Object script = new Object();
+        final CSSStyleSheetImpl styleSheet = new CSSStyleSheetImpl();
+        final Cache cache = new Cache() {
+            @Override
+            public Object getCachedObject(final WebRequest request) {
+                return script;
+            }
+
+            @Override
+            public CSSStyleSheetImpl getCachedStyleSheet(final String css) {
+                return styleSheet;
+            }
+        };
+        final WebRequest request = cacheResponse(cache, "foo.js");
+        assertSame(script, cache.getCachedObject(request, getBrowserVersion()));
+        assertSame(styleSheet, cache.getCachedStyleSheet("div {}", getBrowserVersion()));
+    }
+
+    private static WebRequest cacheResponse(final Cache cache, final String file) throws Exception {
+        final WebRequest request = new WebRequest(new URL(URL_FIRST, file), HttpMethod.GET);
+        final List<NameValuePair> headers = Collections.singletonList(
+                new NameValuePair(HttpHeader.EXPIRES, formatDate(DateUtils.addHours(new Date(), 1))));
+        final WebResponseData data = new WebResponseData("test".getBytes(ISO_8859_1), 200, "OK", headers);
+        assertTrue(cache.cacheIfPossible(request, new WebResponse(data, request, 0), null));
+        return request;
+    }
 }
 
 class DummyWebResponse extends WebResponse {
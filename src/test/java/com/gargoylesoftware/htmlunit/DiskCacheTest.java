@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2002-2019 Gargoyle Software Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gargoylesoftware.htmlunit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.gargoylesoftware.htmlunit.util.NameValuePair;
+
+/**
+ * Tests for {@link DiskCache}.
+ *
+ * @author Ronald Brill
+ */
+public class DiskCacheTest {
+
+    private static final URL URL_FIRST = WebTestCase.URL_FIRST;
+
+    /**
+     * Temporary folder holding the cache.
+     */
+    @Rule
+    public final TemporaryFolder tmpFolderProvider_ = new TemporaryFolder();
+
+    /**
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void sharedBetweenClients() throws Exception {
+        final File directory = tmpFolderProvider_.newFolder();
+        final URL url = new URL(URL_FIRST, "foo.txt");
+        final List<NameValuePair> headers =
+                Collections.singletonList(new NameValuePair("Cache-Control", "max-age=3600"));
+
+        try (WebClient client = new WebClient()) {
+            final MockWebConnection connection = new MockWebConnection();
+            connection.setResponse(url, "hello", 200, "OK", "text/plain", headers);
+            client.setWebConnection(connection);
+            client.setCache(new DiskCache(directory));
+
+            assertEquals("hello", client.getPage(url).getWebResponse().getContentAsString());
+            assertEquals(1, connection.getRequestCount());
+            assertEquals(2, directory.list().length);
+        }
+
+        try (WebClient client = new WebClient()) {
+            final MockWebConnection connection = new MockWebConnection();
+            client.setWebConnection(connection);
+            client.setCache(new DiskCache(directory));
+
+            final Page page = client.getPage(url);
+            assertEquals("hello", page.getWebResponse().getContentAsString());
+            assertEquals("text/plain", page.getWebResponse().getContentType());
+            assertEquals(0, connection.getRequestCount());
+
+            client.getCache().clear();
+            assertEquals(2, directory.list().length);
+
+            ((DiskCache) client.getCache()).deleteStoredResponses();
+            assertEquals(0, directory.list().length);
+        }
+    }
+
+    /**
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void revalidateStoredResponse() throws Exception {
+        final File directory = tmpFolderProvider_.newFolder();
+        final URL url = new URL(URL_FIRST, "foo.txt");
+        final List<NameValuePair> headers = Collections.singletonList(new NameValuePair("ETag", "\"v1\""));
+
+        try (WebClient client = new WebClient()) {
+            final MockWebConnection connection = new MockWebConnection();
+            connection.setResponse(url, "hello", 200, "OK", "text/plain", headers);
+            client.setWebConnection(connection);
+            client.setCache(new DiskCache(directory));
+
+            assertEquals("hello", client.getPage(url).getWebResponse().getContentAsString());
+        }
+
+        try (WebClient client = new WebClient()) {
+            final List<String> conditions = new ArrayList<>();
+            final MockWebConnection connection = new MockWebConnection() {
+                @Override
+                public WebResponse getResponse(final WebRequest request) throws IOException {
+                    conditions.add(request.getAdditionalHeaders().get(HttpHeader.IF_NONE_MATCH));
+                    return super.getResponse(request);
+                }
+            };
+            connection.setResponse(url, "", 304, "Not Modified", "text/plain", headers);
+            client.setWebConnection(connection);
+            client.setCache(new DiskCache(directory));
+
+            assertEquals("hello", client.getPage(url).getWebResponse().getContentAsString());
+            assertEquals(Collections.singletonList("\"v1\""), conditions);
+        }
+    }
+
+    /**
+     * The cookies of a response are not stored.
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void setCookieNotStored() throws Exception {
+        final File directory = tmpFolderProvider_.newFolder();
+        final URL url = new URL(URL_FIRST, "foo.txt");
+        final List<NameValuePair> headers = Arrays.asList(
+                new NameValuePair("Cache-Control", "max-age=3600"),
+                new NameValuePair("Set-Cookie", "session=secret"));
+
+        try (WebClient client = new WebClient()) {
+            final MockWebConnection connection = new MockWebConnection();
+            connection.setResponse(url, "hello", 200, "OK", "text/plain", headers);
+            client.setWebConnection(connection);
+            client.setCache(new DiskCache(directory));
+
+            assertEquals("hello", client.getPage(url).getWebResponse().getContentAsString());
+        }
+
+        try (WebClient client = new WebClient()) {
+            client.setWebConnection(new MockWebConnection());
+            client.setCache(new DiskCache(directory));
+
+            final WebResponse response = client.getPage(url).getWebResponse();
+            assertEquals("hello", response.getContentAsString());
+            assertEquals("max-age=3600", response.getResponseHeaderValue("Cache-Control"));
+            assertNull(response.getResponseHeaderValue("Set-Cookie"));
+        }
+    }
+
+    /**
+     * A response streamed while it is parsed is neither weighed nor stored before the parser has read it.
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void streamedResponseParsedBeforeStored() throws Exception {
+        final File directory = tmpFolderProvider_.newFolder();
+        final StringBuilder html = new StringBuilder("<html><body><script>alert('parsed')</script>\n");
+        for (int i = 0; i < 10_000; i++) {
+            html.append("<p>paragraph ").append(i).append("</p>\n");
+        }
+        html.append("</body></html>");
+        final byte[] body = html.toString().getBytes(StandardCharsets.UTF_8);
+        final List<NameValuePair> headers = Arrays.asList(
+                new NameValuePair("Cache-Control", "max-age=3600"),
+                new NameValuePair(HttpHeader.CONTENT_TYPE, "text/html;charset=UTF-8"));
+
+        final List<String> collectedAlerts = new ArrayList<>();
+        final List<String> alertsAtEndOfContent = new ArrayList<>();
+        try (WebClient client = new WebClient()) {
+            final MockWebConnection connection = new MockWebConnection() {
+                @Override
+                public WebResponse getResponse(final WebRequest request) throws IOException {
+                    final ByteArrayInputStream source = new ByteArrayInputStream(body) {
+                        @Override
+                        public synchronized int read(final byte[] buffer, final int offset, final int length) {
+                            if (available() == 0 && alertsAtEndOfContent.isEmpty()) {
+                                alertsAtEndOfContent.add(String.valueOf(collectedAlerts));
+                            }
+                            return super.read(buffer, offset, Math.min(length, 1024));
+                        }
+                    };
+                    final WebResponseData data = new WebResponseData(
+                            new StreamingDownloadedContent(source, 1024 * 1024), 200, "OK", headers);
+                    return new WebResponse(data, request, 0);
+                }
+            };
+            client.setWebConnection(connection);
+            client.setAlertHandler(new CollectingAlertHandler(collectedAlerts));
+            final DiskCache cache = new DiskCache(directory);
+            cache.setMaxSizeInBytes(10 * 1024 * 1024);
+            client.setCache(cache);
+
+            client.getPage(URL_FIRST);
+            assertEquals(Collections.singletonList("[parsed]"), alertsAtEndOfContent);
+            assertEquals(body.length, cache.getSizeInBytes());
+            assertEquals(2, directory.list().length);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2002-2019 Gargoyle Software Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gargoylesoftware.htmlunit;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URL;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link Http2WebConnection}.
+ *
+ * @author Ronald Brill
+ */
+public class Http2WebConnectionTest {
+
+    private Server server_;
+    private URL url_;
+
+    /**
+     * Starts a server speaking HTTP/2 without TLS.
+     * @throws Exception if the server can't be started
+     */
+    @Before
+    public void startServer() throws Exception {
+        server_ = new Server();
+        final ServerConnector connector = new ServerConnector(server_,
+                new HTTP2CServerConnectionFactory(new HttpConfiguration()));
+        server_.addConnector(connector);
+
+        final ServletContextHandler context = new ServletContextHandler();
+        context.addServlet(ProtocolServlet.class, "/protocol");
+        context.addServlet(RedirectServlet.class, "/redirect");
+        context.addServlet(CookieServlet.class, "/cookies/*");
+        server_.setHandler(context);
+        server_.start();
+
+        url_ = new URL("http://localhost:" + connector.getLocalPort() + "/");
+    }
+
+    /**
+     * Stops the server.
+     * @throws Exception if the server can't be stopped
+     */
+    @After
+    public void stopServer() throws Exception {
+        server_.stop();
+    }
+
+    /**
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void protocolAndCookies() throws Exception {
+        try (WebClient webClient = new WebClient()) {
+            webClient.setWebConnection(new Http2WebConnection(webClient));
+
+            final Page page = webClient.getPage(new URL(url_, "protocol"));
+            assertEquals("HTTP/2.0 no cookie", page.getWebResponse().getContentAsString());
+
+            final Page page2 = webClient.getPage(new URL(url_, "protocol"));
+            assertEquals("HTTP/2.0 visited=true", page2.getWebResponse().getContentAsString());
+        }
+    }
+
+    /**
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void redirect() throws Exception {
+        try (WebClient webClient = new WebClient()) {
+            webClient.setWebConnection(new Http2WebConnection(webClient));
+
+            final Page page = webClient.getPage(new URL(url_, "redirect"));
+            assertEquals(new URL(url_, "protocol"), page.getUrl());
+            assertEquals("HTTP/2.0 no cookie", page.getWebResponse().getContentAsString());
+        }
+    }
+
+    /**
+     * The cookies are validated and matched with the cookie spec: the cookie for another domain is
+     * rejected, the ones for another path or for secure connections are not sent.
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void cookieSpec() throws Exception {
+        try (WebClient webClient = new WebClient()) {
+            webClient.setWebConnection(new Http2WebConnection(webClient));
+
+            webClient.getPage(new URL(url_, "cookies/set"));
+            assertEquals(4, webClient.getCookieManager().getCookies().size());
+
+            final Page page = webClient.getPage(new URL(url_, "cookies/show"));
+            assertEquals("a=1; c=\"3\"", page.getWebResponse().getContentAsString());
+        }
+    }
+
+    /**
+     * Returns the protocol of the request and the cookie sent.
+     */
+    public static class ProtocolServlet extends HttpServlet {
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void doGet(final HttpServletRequest request, final HttpServletResponse response)
+                throws IOException {
+            String cookie = "no cookie";
+            if (request.getCookies() != null) {
+                cookie = request.getCookies()[0].getName() + "=" + request.getCookies()[0].getValue();
+            }
+            response.addCookie(new Cookie("visited", "true"));
+            response.setContentType("text/plain");
+            final Writer writer = response.getWriter();
+            writer.write(request.getProtocol() + " " + cookie);
+        }
+    }
+
+    /**
+     * Sets cookies for different paths and domains, or returns the cookie header.
+     */
+    public static class CookieServlet extends HttpServlet {
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void doGet(final HttpServletRequest request, final HttpServletResponse response)
+                throws IOException {
+            if (request.getRequestURI().endsWith("/set")) {
+                response.addHeader("Set-Cookie", "a=1; Path=/cookies");
+                response.addHeader("Set-Cookie", "b=2; Path=/other");
+                response.addHeader("Set-Cookie", "c=\"3\"");
+                response.addHeader("Set-Cookie", "s=4; Secure");
+                response.addHeader("Set-Cookie", "d=5; Domain=example.com");
+            }
+            response.setContentType("text/plain");
+            final Writer writer = response.getWriter();
+            writer.write(String.valueOf(request.getHeader("Cookie")));
+        }
+    }
+
+    /**
+     * Redirects to {@link ProtocolServlet}.
+     */
+    public static class RedirectServlet extends HttpServlet {
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void doGet(final HttpServletRequest request, final HttpServletResponse response) {
+            response.setStatus(HttpServletResponse.SC_MOVED_TEMPORARILY);
+            response.setHeader("Location", "/protocol");
+        }
+    }
+}
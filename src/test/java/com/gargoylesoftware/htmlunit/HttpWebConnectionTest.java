@@ -28,6 +28,7 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -486,6 +487,93 @@ public class HttpWebConnectionTest extends WebServerTestCase {
         }
     }
 
+    /**
+     * The shared client reuses the connections of the other threads.
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void sharedHttpClient() throws Exception {
+        final Map<String, Class<? extends Servlet>> servlets = new HashMap<>();
+        servlets.put("/test", RemotePortServlet.class);
+        servlets.put("/test1", Cookie1Servlet.class);
+        servlets.put("/test2", Cookie2Servlet.class);
+        startWebServer("./", null, servlets);
+
+        final WebClient client = getWebClient();
+        client.getOptions().setSharedHttpClient(true);
+        client.getOptions().setMaxConnectionsPerRoute(1);
+
+        final List<String> ports = Collections.synchronizedList(new ArrayList<String>());
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            final Thread thread = new Thread(() -> {
+                try {
+                    ports.add(client.getPage(URL_FIRST + "test").getWebResponse().getContentAsString());
+                }
+                catch (final IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            threads.add(thread);
+        }
+        // the threads run in parallel and wait for the single connection of the route
+        for (final Thread thread : threads) {
+            thread.start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(3, ports.size());
+        assertEquals(ports.get(0), ports.get(1));
+        assertEquals(ports.get(0), ports.get(2));
+
+        final HtmlPage page = client.getPage(URL_FIRST + "test1");
+        assertTrue(page.asText().contains("key1=value1"));
+    }
+
+    /**
+     * Changing the SSL settings does not close the connection of a response still being read.
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void reconfigureWhileResponseIsRead() throws Exception {
+        final Map<String, Class<? extends Servlet>> servlets = new HashMap<>();
+        servlets.put("/large", LargeContentServlet.class);
+        servlets.put("/test", RemotePortServlet.class);
+        startWebServer("./", null, servlets);
+
+        final WebClient client = getWebClient();
+        client.getOptions().setStreamHtmlResponses(true);
+        final WebResponse streamed = client.loadWebResponse(new WebRequest(new URL(URL_FIRST, "large")));
+
+        client.getOptions().setUseInsecureSSL(true);
+        client.getPage(URL_FIRST + "test");
+
+        final String content = streamed.getContentAsString();
+        assertEquals(LargeContentServlet.LENGTH, content.length());
+        assertTrue(content.endsWith("</html>"));
+    }
+
+    /**
+     * Servlet for {@link #reconfigureWhileResponseIsRead()}.
+     */
+    public static class LargeContentServlet extends HttpServlet {
+
+        static final int LENGTH = 13 + 1024 * 1024 + 14;
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void doGet(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+            response.setContentType(MimeType.TEXT_HTML);
+            final Writer writer = response.getWriter();
+            writer.write("<html><body>\n");
+            writer.write(StringUtils.repeat('x', 1024 * 1024));
+            writer.write("</body></html>");
+        }
+    }
+
     /**
      * @throws Exception if an error occurs
      */
@@ -537,6 +625,26 @@ public class HttpWebConnectionTest extends WebServerTestCase {
         assertTrue(page.asText(), page.asText().endsWith("visible text"));
     }
 
+    /**
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void streamHtmlResponses() throws Exception {
+        final Map<String, Class<? extends Servlet>> servlets = new HashMap<>();
+        servlets.put("/contentLengthSmallerThanContent", ContentLengthSmallerThanContentLargeContentServlet.class);
+        startWebServer("./", null, servlets);
+
+        final WebClient client = getWebClient();
+        client.getOptions().setStreamHtmlResponses(true);
+        client.getOptions().setMaxInMemory(1024);
+        final HtmlPage page = client.getPage(URL_FIRST + "contentLengthSmallerThanContent");
+        assertTrue(page.asText(), page.asText().endsWith("visible text"));
+
+        final String content = page.getWebResponse().getContentAsString();
+        assertEquals(content.length(), page.getWebResponse().getContentLength());
+        assertTrue(content.endsWith("<p>visible text</p>\n  "));
+    }
+
     /**
      * Servlet for {@link #contentLengthSmallerThanContentLargeContent()}.
      */
@@ -14,6 +14,7 @@
  */
 package com.gargoylesoftware.htmlunit;
 
+import java.net.URL;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
@@ -136,4 +137,44 @@ public class ProxyAutoConfigTest extends SimpleWebTestCase {
         final boolean isInNet = ProxyAutoConfig.isInNet("172.22.0.7", "172.16.0.0", "255.240.0.0");
         assertTrue(isInNet);
     }
+
+    /**
+     * Test case.
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void compile() throws Exception {
+        final String content = "var calls = 0;\n"
+                + "function FindProxyForURL(url, host) {\n"
+                + "  calls++;\n"
+                + "  if (shExpMatch(url, '*.pdf')) return 'DIRECT';\n"
+                + "  return 'PROXY proxy' + calls + ':8080';\n"
+                + "}";
+
+        final ProxyAutoConfig config = ProxyAutoConfig.compile(content, 0);
+        assertEquals("PROXY proxy1:8080", config.evaluate(new URL("http://localhost/")));
+        assertEquals("DIRECT", config.evaluate(new URL("http://localhost/a.pdf")));
+        // the script is not evaluated again, the state is kept
+        assertEquals("PROXY proxy3:8080", config.evaluate(new URL("http://localhost/")));
+
+        assertEquals("PROXY proxy1:8080", ProxyAutoConfig.evaluate(content, new URL("http://localhost/")));
+    }
+
+    /**
+     * Test case.
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void compileResultTimeToLive() throws Exception {
+        final String content = "var calls = 0;\n"
+                + "function FindProxyForURL(url, host) {\n"
+                + "  calls++;\n"
+                + "  return 'PROXY proxy' + calls + ':8080';\n"
+                + "}";
+
+        final ProxyAutoConfig config = ProxyAutoConfig.compile(content, 60_000);
+        assertEquals("PROXY proxy1:8080", config.evaluate(new URL("http://localhost/")));
+        assertEquals("PROXY proxy1:8080", config.evaluate(new URL("http://localhost/other")));
+        assertEquals("PROXY proxy2:8080", config.evaluate(new URL("http://127.0.0.1/")));
+    }
 }
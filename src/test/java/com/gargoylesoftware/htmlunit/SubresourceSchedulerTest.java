@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2002-2019 Gargoyle Software Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gargoylesoftware.htmlunit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.gargoylesoftware.htmlunit.SubresourceScheduler.Priority;
+
+/**
+ * Tests for {@link SubresourceScheduler}.
+ *
+ * @author Ronald Brill
+ */
+public class SubresourceSchedulerTest {
+
+    /**
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void priority() throws Exception {
+        final SubresourceScheduler scheduler = new SubresourceScheduler(1, 1);
+        try {
+            final URL url = new URL("http://localhost/");
+            final CountDownLatch blocked = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(4);
+            final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+            scheduler.schedule(url, Priority.LOW, () -> {
+                await(blocked);
+                done.countDown();
+            });
+            scheduler.schedule(url, Priority.LOW, () -> {
+                order.add("image");
+                done.countDown();
+            });
+            scheduler.schedule(url, Priority.HIGH, () -> {
+                order.add("script");
+                done.countDown();
+            });
+            scheduler.schedule(url, Priority.HIGH, () -> {
+                order.add("stylesheet");
+                done.countDown();
+            });
+            assertEquals(3, scheduler.getWaitingCount());
+
+            blocked.countDown();
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList("script", "stylesheet", "image"), order);
+        }
+        finally {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void maxDownloadsPerHost() throws Exception {
+        final SubresourceScheduler scheduler = new SubresourceScheduler(4, 2);
+        try {
+            final URL first = new URL("http://localhost/");
+            final URL second = new URL("http://127.0.0.1/");
+            final CountDownLatch blocked = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(6);
+            final AtomicInteger running = new AtomicInteger();
+            final AtomicInteger maxRunning = new AtomicInteger();
+
+            for (int i = 0; i < 5; i++) {
+                scheduler.schedule(first, Priority.HIGH, () -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    await(blocked);
+                    running.decrementAndGet();
+                    done.countDown();
+                });
+            }
+            // the other host is not blocked by the first one
+            final CountDownLatch secondHost = new CountDownLatch(1);
+            scheduler.schedule(second, Priority.LOW, () -> {
+                secondHost.countDown();
+                done.countDown();
+            });
+            assertTrue(secondHost.await(10, TimeUnit.SECONDS));
+            assertEquals(3, scheduler.getWaitingCount());
+
+            blocked.countDown();
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(2, maxRunning.get());
+        }
+        finally {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * The tasks take threads of the pool like the downloads.
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void tasksCountAsRunning() throws Exception {
+        final SubresourceScheduler scheduler = new SubresourceScheduler(2, 2);
+        try {
+            final URL url = new URL("http://localhost/");
+            final CountDownLatch blocked = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(4);
+            final AtomicInteger running = new AtomicInteger();
+            final AtomicInteger maxRunning = new AtomicInteger();
+            final Runnable task = () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                await(blocked);
+                running.decrementAndGet();
+                done.countDown();
+            };
+
+            scheduler.execute(task);
+            scheduler.execute(task);
+            scheduler.schedule(url, Priority.HIGH, task);
+            scheduler.schedule(url, Priority.HIGH, task);
+            assertEquals(2, scheduler.getWaitingCount());
+
+            blocked.countDown();
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(2, maxRunning.get());
+            assertEquals(0, scheduler.getWaitingCount());
+        }
+        finally {
+            scheduler.shutdown();
+        }
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
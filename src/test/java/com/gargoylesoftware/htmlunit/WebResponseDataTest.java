@@ -189,6 +189,27 @@ public class WebResponseDataTest extends WebServerTestCase {
         }
     }
 
+    /**
+     * Tests that gzipped content can be read several times.
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void gZippedContentReadTwice() throws Exception {
+        final InputStream stream = getClass().getClassLoader().getResourceAsStream(GZIPPED_FILE);
+        final byte[] zippedContent = IOUtils.toByteArray(stream);
+
+        final List<NameValuePair> headers = new ArrayList<>();
+        headers.add(new NameValuePair("Content-Encoding", "gzip"));
+
+        final WebResponseData data = new WebResponseData(zippedContent, HttpStatus.SC_OK, "OK", headers);
+        try (InputStream first = data.getInputStream(); InputStream second = data.getInputStream()) {
+            final String body = IOUtils.toString(first, UTF_8);
+            assertTrue(StringUtils.contains(body, "Test"));
+            assertEquals(body, IOUtils.toString(second, UTF_8));
+        }
+        assertEquals(new String(data.getBody(), UTF_8), new String(data.getBody(), UTF_8));
+    }
+
     /**
      * Tests that brotli encoded content is handled correctly.
      * @throws Exception if the test fails
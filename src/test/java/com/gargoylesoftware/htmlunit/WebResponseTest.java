@@ -202,6 +202,25 @@ public class WebResponseTest extends WebServerTestCase {
         }
     }
 
+    /**
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void getContentAsStringDecodedOnce() throws Exception {
+        final List<NameValuePair> headers = new ArrayList<>();
+        headers.add(new NameValuePair(HttpHeader.CONTENT_TYPE, "text/plain; charset=UTF-8"));
+        final WebResponseData data = new WebResponseData("\u00e4\u00f6\u00fc".getBytes(UTF_8), 200, "OK", headers);
+        final WebResponse response = new WebResponse(data, URL_FIRST, HttpMethod.GET, 0);
+
+        final String content = response.getContentAsString();
+        assertEquals("\u00e4\u00f6\u00fc", content);
+        assertSame(content, response.getContentAsString());
+        assertSame(content, response.getContentAsString(UTF_8));
+
+        assertEquals(6, response.getContentAsString(ISO_8859_1).length());
+        assertEquals(content, response.getContentAsString());
+    }
+
     /**
      * @throws Exception if the test fails
      */
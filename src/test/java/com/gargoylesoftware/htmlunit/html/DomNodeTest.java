@@ -23,6 +23,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.xml.sax.helpers.AttributesImpl;
 
+import com.gargoylesoftware.css.parser.CSSException;
 import com.gargoylesoftware.htmlunit.BrowserRunner;
 import com.gargoylesoftware.htmlunit.BrowserRunner.Alerts;
 import com.gargoylesoftware.htmlunit.ElementNotFoundException;
@@ -858,4 +859,102 @@ public class DomNodeTest extends SimpleWebTestCase {
         assertTrue(elem1.isDisplayed());
         assertTrue(elem2.isDisplayed());
     }
+
+    /**
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void querySelectorAllCachesSelectors() throws Exception {
+        final String content = "<html><head></head><body>\n"
+            + "<div class='a'><span class='a' id='s1'></span></div>\n"
+            + "<span id='s2'></span>\n"
+            + "</body></html>";
+        final HtmlPage page = loadPage(content);
+        SelectorListCache.clear();
+
+        final String selectors = "div.a > span.a, #s2";
+        assertEquals(2, page.querySelectorAll(selectors).size());
+        assertEquals(1, SelectorListCache.size());
+        assertSame(page.getSelectorList(selectors, getBrowserVersion()),
+                page.getSelectorList(selectors, getBrowserVersion()));
+
+        assertEquals(2, page.querySelectorAll(selectors).size());
+        assertEquals("s1", page.<DomElement>querySelector(selectors).getId());
+        assertEquals(1, SelectorListCache.size());
+
+        // invalid selectors are not cached and fail every time
+        for (int i = 0; i < 2; i++) {
+            try {
+                page.querySelectorAll("div[");
+                fail("CSSException expected");
+            }
+            catch (final CSSException e) {
+                // expected
+            }
+        }
+        assertEquals(1, SelectorListCache.size());
+    }
+
+    /**
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void querySelectorById() throws Exception {
+        final String content = "<html><head></head><body>\n"
+            + "<div id='d1'><span id='s1' class='x'></span><span id='s2'></span></div>\n"
+            + "<div id='d2'><span id='s1'></span></div>\n"
+            + "</body></html>";
+        final HtmlPage page = loadPage(content);
+
+        assertEquals(2, page.querySelectorAll("#s1").size());
+        assertEquals(1, page.querySelectorAll("span#s1.x").size());
+        assertEquals(0, page.querySelectorAll("#unknown").size());
+
+        // only descendants of the node and in document order
+        final DomElement d2 = page.getElementById("d2");
+        assertEquals(1, d2.querySelectorAll("#s1").size());
+        assertSame(d2.getFirstElementChild(), d2.querySelector("#s1"));
+        assertEquals(0, d2.querySelectorAll("#d2").size());
+
+        final DomNodeList<DomNode> list = page.querySelectorAll("#s2, #d1 > #s1, #d2");
+        assertEquals(3, list.size());
+        assertEquals("s1", ((DomElement) list.get(0)).getId());
+        assertEquals("s2", ((DomElement) list.get(1)).getId());
+        assertEquals("d2", ((DomElement) list.get(2)).getId());
+
+        // first match in document order
+        assertSame(page.getElementById("d1"), page.querySelector("div, #s2"));
+
+        // detached nodes are not in the id map
+        final DomElement detached = page.createElement("div");
+        final DomElement span = page.createElement("span");
+        span.setId("s3");
+        detached.appendChild(span);
+        assertEquals(1, detached.querySelectorAll("#s3").size());
+    }
+
+    /**
+     * The id map is not updated if the id of an element other than an {@link HtmlElement} changes.
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void querySelectorByIdOfSvgElement() throws Exception {
+        final String content = "<html><head></head><body>\n"
+            + "<svg xmlns='http://www.w3.org/2000/svg'><rect id='r1'/></svg>\n"
+            + "</body></html>";
+        final HtmlPage page = loadPage(content);
+
+        final DomElement rect = page.querySelector("rect");
+        assertSame(rect, page.querySelector("#r1"));
+
+        rect.setAttribute("id", "r2");
+        assertEquals(0, page.querySelectorAll("#r1").size());
+        assertSame(rect, page.querySelector("#r2"));
+
+        final DomElement circle = page.createElementNS("http://www.w3.org/2000/svg", "circle");
+        page.querySelector("svg").appendChild(circle);
+        circle.setAttribute("id", "c1");
+        assertEquals(1, page.querySelectorAll("#c1").size());
+        assertSame(circle, page.querySelector("svg > #c1"));
+    }
 }
@@ -25,10 +25,13 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -39,6 +42,7 @@ import org.junit.runner.RunWith;
 import org.w3c.dom.NodeList;
 
 import com.gargoylesoftware.htmlunit.BrowserRunner;
+import com.gargoylesoftware.htmlunit.BrowserRunner.Alerts;
 import com.gargoylesoftware.htmlunit.BrowserRunner.NotYetImplemented;
 import com.gargoylesoftware.htmlunit.CollectingAlertHandler;
 import com.gargoylesoftware.htmlunit.ElementNotFoundException;
@@ -59,6 +63,7 @@ import com.gargoylesoftware.htmlunit.util.Cookie;
 import com.gargoylesoftware.htmlunit.util.MimeType;
 import com.gargoylesoftware.htmlunit.util.NameValuePair;
 import com.gargoylesoftware.htmlunit.util.TextUtils;
+import com.gargoylesoftware.htmlunit.util.WebResponseWrapper;
 
 /**
  * Tests for {@link HtmlPage}.
@@ -1069,6 +1074,147 @@ public class HtmlPageTest extends SimpleWebTestCase {
         assertEquals(1, page.getElementsByName("a").size());
     }
 
+    /**
+     * @exception Exception if the test fails
+     */
+    @Test
+    public void getElementsByNameDocumentOrder() throws Exception {
+        final String html = "<html><body>\n"
+            + "<div id='d1'><input id='i1' name='x'></div>\n"
+            + "<div id='d2'><input id='i2' name='x'></div>\n"
+            + "</body></html>";
+        final HtmlPage page = loadPage(html);
+        final DomElement d1 = page.getElementById("d1");
+        final DomElement d2 = page.getElementById("d2");
+
+        // many insertions at the same position until the keys have to be renumbered
+        final List<String> expected = new ArrayList<>();
+        expected.add("i1");
+        for (int i = 0; i < 50; i++) {
+            final DomElement input = page.createElement("input");
+            input.setAttribute("id", "n" + i);
+            input.setAttribute("name", "x");
+            d2.insertBefore(input, d2.getFirstChild());
+            expected.add(1, "n" + i);
+        }
+        expected.add("i2");
+        assertEquals(expected, ids(page.getElementsByName("x")));
+
+        // moving a subtree
+        d1.getParentNode().appendChild(d1);
+        expected.remove("i1");
+        expected.add("i1");
+        assertEquals(expected, ids(page.getElementsByName("x")));
+        assertEquals("n49", page.getElementByName("x").getId());
+    }
+
+    /**
+     * Comparing with a detached node must not renumber the nodes of the page.
+     * @exception Exception if the test fails
+     */
+    @Test
+    public void documentOrderDetachedNode() throws Exception {
+        final String html = "<html><body><div id='d1'></div></body></html>";
+        final HtmlPage page = loadPage(html);
+        final DomElement d1 = page.getElementById("d1");
+        final Comparator<DomNode> order = page.getDocumentOrder();
+        assertTrue(order.compare(page.getBody(), d1) < 0);
+
+        final DomElement added = page.createElement("div");
+        d1.appendChild(added);
+        final long key = added.getDocumentOrder();
+        assertTrue(key != DocumentOrder.UNORDERED);
+
+        final DomElement detached = page.createElement("span");
+        assertTrue(order.compare(d1, detached) != 0);
+        assertEquals(key, added.getDocumentOrder());
+        assertEquals(DocumentOrder.UNORDERED, detached.getDocumentOrder());
+    }
+
+    /**
+     * @throws Exception if the test fails
+     */
+    @Test
+    @Alerts({"script1", "script2", "true"})
+    public void preloadSubresources() throws Exception {
+        final String html = "<html><head>\n"
+            + "<script src='script1.js'></script>\n"
+            + "<!-- <script src='commented.js'></script> -->\n"
+            + "<script type='text/template'><script src='template.js'></script>\n"
+            + "<link rel='stylesheet' href='style.css'>\n"
+            + "<script src='script2.js?a=1&amp;b=2'></script>\n"
+            + "</head><body>\n"
+            + "<img src='image.png'>\n"
+            + "<script>alert(document.styleSheets[0].cssRules.length == 1)</script>\n"
+            + "</body></html>";
+
+        final MockWebConnection webConnection = getMockWebConnection();
+        webConnection.setResponse(new URL(URL_FIRST, "script1.js"), "alert('script1');",
+                MimeType.APPLICATION_JAVASCRIPT);
+        webConnection.setResponse(new URL(URL_FIRST, "script2.js?a=1&b=2"), "alert('script2');",
+                MimeType.APPLICATION_JAVASCRIPT);
+        webConnection.setResponse(new URL(URL_FIRST, "style.css"), "body { color: red }", MimeType.TEXT_CSS);
+
+        getWebClientWithMockWebConnection().getOptions().setPreloadSubresources(true);
+        loadPageWithAlerts(html);
+
+        // every resource is requested once, the image is not downloaded
+        final List<String> requestedUrls = webConnection.getRequestedUrls(URL_FIRST);
+        Collections.sort(requestedUrls);
+        assertEquals(Arrays.asList("", "script1.js", "script2.js?a=1&b=2", "style.css"), requestedUrls);
+    }
+
+    /**
+     * A preloaded response not used by the page is cleaned up with the page.
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void preloadedResponseCleanedUp() throws Exception {
+        final String html = "<html><head>\n"
+            + "<noscript><script src='unused.js'></script></noscript>\n"
+            + "</head><body></body></html>";
+
+        final CountDownLatch requested = new CountDownLatch(1);
+        final CountDownLatch cleanedUp = new CountDownLatch(1);
+        final URL unusedUrl = new URL(URL_FIRST, "unused.js");
+        final MockWebConnection webConnection = new MockWebConnection() {
+            @Override
+            public WebResponse getResponse(final WebRequest request) throws IOException {
+                final WebResponse response = super.getResponse(request);
+                if (!unusedUrl.equals(request.getUrl())) {
+                    return response;
+                }
+                requested.countDown();
+                return new WebResponseWrapper(response) {
+                    @Override
+                    public void cleanUp() {
+                        cleanedUp.countDown();
+                        super.cleanUp();
+                    }
+                };
+            }
+        };
+        webConnection.setResponse(URL_FIRST, html);
+        webConnection.setResponse(unusedUrl, "alert('unused');", MimeType.APPLICATION_JAVASCRIPT);
+
+        final WebClient client = getWebClient();
+        client.setWebConnection(webConnection);
+        client.getOptions().setPreloadSubresources(true);
+        final HtmlPage page = client.getPage(URL_FIRST);
+
+        assertTrue(requested.await(10, TimeUnit.SECONDS));
+        page.cleanUp();
+        assertTrue(cleanedUp.await(10, TimeUnit.SECONDS));
+    }
+
+    private static List<String> ids(final List<DomElement> elements) {
+        final List<String> ids = new ArrayList<>();
+        for (final DomElement element : elements) {
+            ids.add(element.getId());
+        }
+        return ids;
+    }
+
     /**
      * @exception Exception if the test fails
      */
@@ -186,4 +186,71 @@ public class NamedAttrNodeMapImplTest {
         assertEquals("Key2", entry.getKey());
         assertEquals("attr2", entry.getValue().getNodeName());
     }
+
+    /**
+     * Test more attributes than the ones searched linearly.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void manyAttributes() throws Exception {
+        final DomElement dom = new HtmlBreak("", null, null);
+
+        final NamedAttrNodeMapImpl map = new NamedAttrNodeMapImpl(dom, false);
+        for (int i = 0; i < 12; i++) {
+            map.put("Key" + i, new DomAttr(null, "", "attr" + i, null, false));
+        }
+        assertEquals(12, map.getLength());
+        assertEquals("attr11", map.get("key11").getNodeName());
+        assertEquals("attr11", map.item(11).getNodeName());
+
+        // replacing keeps the position
+        map.put("key3", new DomAttr(null, "", "attr3b", null, false));
+        assertEquals("attr3b", map.item(3).getNodeName());
+        assertEquals("attr3b", map.get("key3").getNodeName());
+
+        assertEquals("attr0", map.remove("Key0").getNodeName());
+        assertNull(map.remove("key0"));
+        assertNull(map.get("key0"));
+        assertEquals(11, map.getLength());
+        assertEquals("attr1", map.item(0).getNodeName());
+        assertNull(map.item(11));
+
+        final Iterator<String> keys = map.keySet().iterator();
+        while (keys.hasNext()) {
+            final String key = keys.next();
+            if (!"key5".equals(key)) {
+                keys.remove();
+            }
+        }
+        assertEquals(1, map.size());
+        assertEquals("attr5", map.item(0).getNodeName());
+        assertTrue(map.containsKey("key5"));
+        assertFalse(map.containsKey("key6"));
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get("key5"));
+    }
+
+    /**
+     * Setting the value of an entry replaces the attribute.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void entrySetValue() throws Exception {
+        final DomElement dom = new HtmlBreak("", null, null);
+
+        final NamedAttrNodeMapImpl map = new NamedAttrNodeMapImpl(dom, false);
+        map.put("Key1", new DomAttr(null, "", "attr1", null, false));
+        map.put("Key2", new DomAttr(null, "", "attr2", null, false));
+
+        final Map.Entry<String, DomAttr> entry = map.entrySet().iterator().next();
+        final DomAttr replacement = new DomAttr(null, "", "attr3", null, false);
+        assertEquals("attr1", entry.setValue(replacement).getNodeName());
+        assertEquals("attr3", entry.getValue().getNodeName());
+
+        assertEquals(2, map.size());
+        assertEquals("attr3", map.get("key1").getNodeName());
+        assertEquals("attr3", map.item(0).getNodeName());
+    }
 }
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2002-2019 Gargoyle Software Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gargoylesoftware.htmlunit.html.xpath;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.gargoylesoftware.htmlunit.BrowserRunner;
+import com.gargoylesoftware.htmlunit.SimpleWebTestCase;
+import com.gargoylesoftware.htmlunit.html.DomNode;
+import com.gargoylesoftware.htmlunit.html.HtmlPage;
+
+/**
+ * Tests for {@link NativeXPath}, comparing the results with the ones of Xalan.
+ *
+ * @author Ronald Brill
+ */
+@RunWith(BrowserRunner.class)
+public class NativeXPathTest extends SimpleWebTestCase {
+
+    private static final String CONTENT = "<html><head><title>Test page</title></head>\n"
+            + "<body>\n"
+            + "<div id='d1' class='a b'>text1<span id='s1'>span1</span>text2<!-- comment --></div>\n"
+            + "<div id='d2' TITLE='Upper'><div id='d3'><span id='s2' data-n='3'> span  2 </span></div>\n"
+            + "  <p id='p1'>p1</p><p id='p2'>p2</p><span id='s3' data-n='4.5'>span3</span>\n"
+            + "</div>\n"
+            + "<table><tr><td>1</td><td>2</td></tr></table>\n"
+            + "</body></html>";
+
+    private static final String[] EXPRESSIONS = {
+        "/", "/html", "/html/body/div", "//div", "//DIV", "//span", "//div//span", "//div/span", "//*",
+        "//span[1]", "//div/span[1]", "(//span)[1]", "(//span)[last()]", "//p[last()]", "//p[position() > 1]",
+        "//div[@id='d2']/*", "//div[@id='d2']//span", "//div[span]", "//div[not(span)]", "//@id", "//span/@data-n",
+        "//*[@title]", "//*[@TITLE='Upper']", "//div[contains(@class, 'b')]", "//div[starts-with(@id, 'd')]",
+        "//text()", "//div/text()", "//comment()", "//node()", "/html/body/node()", "//span/..", "//p/.",
+        "//span/ancestor::div", "//span/ancestor-or-self::*", "//p[1]/following-sibling::*",
+        "//p[2]/preceding-sibling::*", "//p[2]/preceding-sibling::*[1]", "//span[@id='s2']/following::*",
+        "//span[@id='s3']/preceding::span", "//span[@id='s3']/preceding::*[1]", "//td[2]/parent::tr",
+        "//span | //p", "//p | //div[@id='d1']", "//span[@data-n > 3]", "//span[@data-n = 3]",
+        "count(//span)", "count(//div) + 1", "sum(//span/@data-n)", "sum(//span/@data-n) div 2", "7 mod 3",
+        "-(3 * 2)", "floor(2.5)", "ceiling(2.5)", "round(2.5)", "round(-2.5)", "1 div 0", "0 div 0",
+        "string(//p)", "string(//span[@id='s2'])", "normalize-space(//span[@id='s2'])", "string-length('abc')",
+        "concat('a', 'b', 'c')", "substring('12345', 2, 3)", "substring('12345', 1.5, 2.6)",
+        "substring-before('a-b', '-')", "substring-after('a-b', '-')", "translate('bar', 'abc', 'ABC')",
+        "local-name(//div)", "namespace-uri(//div)", "//p = 'p2'", "//p != 'p2'", "//p < 'x'", "2 > 1 and 1 > 2",
+        "1 = 1 or 1 = 2", "boolean(//table)", "not(//form)", "true()", "false()", "number('12')", "number('a')",
+        "//td[. = '2']", "//td[text() = '1']", "//*[local-name() = 'p']", "//div[count(*) = 2]",
+        "//div[@id='d2']/descendant::*[2]", "//div[@id='d2']/descendant-or-self::div", "//div[lower-case('A') = 'a']",
+        "/html/body/div[2]/p[2]/self::p", "//span[position() = last()]", "//p[1][@id = 'p1']",
+        "//table//td[2]", "//tr/td[position() mod 2 = 1]"
+    };
+
+    /**
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void sameResultsAsXalan() throws Exception {
+        final HtmlPage page = loadPage(CONTENT);
+        final DomNode div = page.getHtmlElementById("d2");
+        for (final String expression : EXPRESSIONS) {
+            assertNotNull(expression, NativeXPathParser.parse(expression));
+            assertSameResults(page, expression);
+            assertSameResults(div, expression);
+        }
+        assertSameResults(div, "./p");
+        assertSameResults(div, "p[2]");
+        assertSameResults(div, "..");
+        assertSameResults(div, "span");
+        assertSameResults(div, "*[last()]");
+    }
+
+    private static void assertSameResults(final DomNode node, final String expression) {
+        final List<Object> expected = XPathHelper.getByXPath(node, expression, null, false, false);
+        final List<Object> actual = XPathHelper.getByXPath(node, expression, null, false, true);
+        assertEquals(expression, expected, actual);
+
+        final Object first = XPathHelper.getFirstByXPath(node, expression, null, false);
+        assertEquals(expression, expected.isEmpty() ? null : expected.get(0), first);
+    }
+
+    /**
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void unsupported() throws Exception {
+        assertNull(NativeXPathParser.parse("//svg:svg"));
+        assertNull(NativeXPathParser.parse("$var"));
+        assertNull(NativeXPathParser.parse("name(/html)"));
+        assertNull(NativeXPathParser.parse("//div[unknown()]"));
+        assertNull(NativeXPathParser.parse("//div["));
+        assertNull(NativeXPathParser.parse("namespace::*"));
+
+        final HtmlPage page = loadPage(CONTENT);
+        assertEquals("html", page.getFirstByXPath("name(/html)"));
+        try {
+            page.getByXPath("//div[");
+            fail("Invalid expression");
+        }
+        catch (final RuntimeException e) {
+            assertTrue(e.getMessage().startsWith("Could not retrieve XPath >//div[<"));
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2002-2019 Gargoyle Software Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gargoylesoftware.htmlunit.javascript;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.gargoylesoftware.htmlunit.BrowserVersion;
+import com.gargoylesoftware.htmlunit.CollectingAlertHandler;
+import com.gargoylesoftware.htmlunit.MockWebConnection;
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.html.HtmlPage;
+
+import net.sourceforge.htmlunit.corejs.javascript.Script;
+
+/**
+ * Tests for {@link CompiledScriptCache}.
+ *
+ * @author Ronald Brill
+ */
+public class CompiledScriptCacheTest {
+
+    private static final String SCRIPT = "var x = 4; alert(x * 2);";
+
+    private final List<WebClient> clients_ = new ArrayList<>();
+
+    /**
+     * Starts each test with an empty cache.
+     */
+    @Before
+    public void before() {
+        CompiledScriptCache.clear();
+    }
+
+    /**
+     * Closes the clients and restores the default size.
+     */
+    @After
+    public void after() {
+        for (final WebClient client : clients_) {
+            client.close();
+        }
+        CompiledScriptCache.setMaxSize(CompiledScriptCache.DEFAULT_MAX_SIZE);
+        CompiledScriptCache.clear();
+    }
+
+    private HtmlPage loadPage(final BrowserVersion browserVersion, final List<String> alerts) throws Exception {
+        final WebClient client = new WebClient(browserVersion);
+        clients_.add(client);
+        client.setAlertHandler(new CollectingAlertHandler(alerts));
+        final MockWebConnection connection = new MockWebConnection();
+        connection.setDefaultResponse("<html><head></head><body></body></html>");
+        client.setWebConnection(connection);
+        return client.getPage(new URL("http://localhost/"));
+    }
+
+    private static Script compile(final HtmlPage page, final String source) {
+        return page.getWebClient().getJavaScriptEngine().compile(page, source, "test.js", 1);
+    }
+
+    /**
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void sharedByWebClients() throws Exception {
+        final List<String> alerts = new ArrayList<>();
+        final HtmlPage page1 = loadPage(BrowserVersion.FIREFOX_60, alerts);
+        final HtmlPage page2 = loadPage(BrowserVersion.FIREFOX_60, alerts);
+
+        final Script script = compile(page1, SCRIPT);
+        assertNotNull(script);
+        assertSame(script, compile(page2, SCRIPT));
+        assertEquals(1, CompiledScriptCache.getScriptCount());
+        assertEquals(SCRIPT.length(), CompiledScriptCache.getSize());
+
+        // the cached script runs in the scope of each page
+        page1.getWebClient().getJavaScriptEngine().execute(page1, script);
+        page2.getWebClient().getJavaScriptEngine().execute(page2, script);
+        assertEquals(4, ((Number) page1.executeJavaScript("x").getJavaScriptResult()).intValue());
+        assertEquals(4, ((Number) page2.executeJavaScript("x").getJavaScriptResult()).intValue());
+        assertEquals(2, alerts.size());
+    }
+
+    /**
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void keyedByBrowserVersionAndSourceName() throws Exception {
+        final HtmlPage page1 = loadPage(BrowserVersion.FIREFOX_60, new ArrayList<>());
+        final HtmlPage page2 = loadPage(BrowserVersion.CHROME, new ArrayList<>());
+
+        final Script script = compile(page1, SCRIPT);
+        assertNotSame(script, compile(page2, SCRIPT));
+        assertNotSame(script, page1.getWebClient().getJavaScriptEngine().compile(page1, SCRIPT, "other.js", 1));
+        assertNotSame(script, page1.getWebClient().getJavaScriptEngine().compile(page1, SCRIPT, "test.js", 7));
+        assertSame(script, compile(page1, SCRIPT));
+        assertEquals(4, CompiledScriptCache.getScriptCount());
+    }
+
+    /**
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void maxSize() throws Exception {
+        final HtmlPage page = loadPage(BrowserVersion.FIREFOX_60, new ArrayList<>());
+        CompiledScriptCache.setMaxSize(20);
+
+        final Script script1 = compile(page, "var a = 1;");
+        final Script script2 = compile(page, "var b = 2;");
+        assertEquals(2, CompiledScriptCache.getScriptCount());
+
+        // uses script1, script2 is evicted
+        assertSame(script1, compile(page, "var a = 1;"));
+        compile(page, "var c = 3;");
+        assertEquals(2, CompiledScriptCache.getScriptCount());
+        assertEquals(20, CompiledScriptCache.getSize());
+        assertSame(script1, compile(page, "var a = 1;"));
+        assertNotSame(script2, compile(page, "var b = 2;"));
+
+        // too large
+        compile(page, "var abcdefghijklmnopqrstuvwxyz = 1;");
+        assertEquals(2, CompiledScriptCache.getScriptCount());
+
+        CompiledScriptCache.setMaxSize(0);
+        assertEquals(0, CompiledScriptCache.getScriptCount());
+        assertNotSame(compile(page, "var a = 1;"), compile(page, "var a = 1;"));
+        assertEquals(0, CompiledScriptCache.getSize());
+    }
+
+    /**
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void notUsedWithScriptPreProcessor() throws Exception {
+        final HtmlPage page = loadPage(BrowserVersion.FIREFOX_60, new ArrayList<>());
+        page.getWebClient().setScriptPreProcessor(
+            (htmlPage, sourceCode, sourceName, lineNumber, htmlElement) -> sourceCode);
+
+        assertNotSame(compile(page, SCRIPT), compile(page, SCRIPT));
+        assertEquals(0, CompiledScriptCache.getScriptCount());
+    }
+
+    /**
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void syntaxErrorNotCached() throws Exception {
+        final HtmlPage page = loadPage(BrowserVersion.FIREFOX_60, new ArrayList<>());
+        page.getWebClient().getOptions().setThrowExceptionOnScriptError(false);
+
+        assertNull(compile(page, "var x = ;"));
+        assertEquals(0, CompiledScriptCache.getScriptCount());
+    }
+}
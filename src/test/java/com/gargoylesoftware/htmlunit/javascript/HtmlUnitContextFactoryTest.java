@@ -14,12 +14,19 @@
  */
 package com.gargoylesoftware.htmlunit.javascript;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import com.gargoylesoftware.htmlunit.BrowserRunner;
+import com.gargoylesoftware.htmlunit.BrowserRunner.Alerts;
 import com.gargoylesoftware.htmlunit.BrowserVersion;
+import com.gargoylesoftware.htmlunit.CollectingAlertHandler;
+import com.gargoylesoftware.htmlunit.MockWebConnection;
 import com.gargoylesoftware.htmlunit.SimpleWebTestCase;
+import com.gargoylesoftware.htmlunit.WebClient;
 
 /**
  * Tests for {@link HtmlUnitContextFactory}.
@@ -45,4 +52,87 @@ public class HtmlUnitContextFactoryTest extends SimpleWebTestCase {
 
         loadPage(browserVersion, html, null, URL_FIRST);
     }
+
+    /**
+     * @throws Exception if the test fails
+     */
+    @Test
+    @Alerts({"55", "function", "3", "done"})
+    public void compiled() throws Exception {
+        final String html = "<html><head><script>\n"
+            + "  function sum(n) {\n"
+            + "    var s = 0;\n"
+            + "    for (var i = 0; i <= n; i++) { s += i; }\n"
+            + "    return s;\n"
+            + "  }\n"
+            + "  function test() {\n"
+            + "    alert(sum(10));\n"
+            + "    alert(typeof new Function('return 1'));\n"
+            + "    try {\n"
+            + "      document.body.appendChild(document.documentElement);\n"
+            + "    } catch(e) { alert(e.code); }\n"
+            + "    alert(eval('\"done\"'));\n"
+            + "  }\n"
+            + "</script></head><body onload='test()'></body></html>";
+
+        final WebClient client = getWebClient();
+        final HtmlUnitContextFactory contextFactory =
+                ((JavaScriptEngine) client.getJavaScriptEngine()).getContextFactory();
+        contextFactory.setOptimizationLevel(9);
+        assertEquals(9, contextFactory.getOptimizationLevel());
+
+        loadPageWithAlerts(html);
+    }
+
+    /**
+     * A function too large for the class file format is executed by the interpreter.
+     * @throws Exception if the test fails
+     */
+    @Test
+    @Alerts("30000")
+    public void compiledHugeFunction() throws Exception {
+        final StringBuilder html = new StringBuilder("<html><head><script>\n"
+            + "  function test() {\n"
+            + "    var a = 0;\n");
+        for (int i = 0; i < 30_000; i++) {
+            html.append("    a++;\n");
+        }
+        html.append("    alert(a);\n"
+            + "  }\n"
+            + "</script></head><body onload='test()'></body></html>");
+
+        ((JavaScriptEngine) getWebClient().getJavaScriptEngine()).getContextFactory().setOptimizationLevel(9);
+        loadPageWithAlerts(html.toString());
+    }
+
+    /**
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void compiledTimeout() throws Exception {
+        final WebClient client = getWebClient();
+        ((JavaScriptEngine) client.getJavaScriptEngine()).getContextFactory().setOptimizationLevel(9);
+        client.setJavaScriptTimeout(500);
+        client.getOptions().setThrowExceptionOnScriptError(false);
+
+        final List<String> collectedAlerts = new ArrayList<>();
+        client.setAlertHandler(new CollectingAlertHandler(collectedAlerts));
+        final MockWebConnection webConnection = new MockWebConnection();
+        webConnection.setDefaultResponse("<html><body><script>\n"
+                + "  alert('start');\n"
+                + "  while(1) {}\n"
+                + "</script></body></html>");
+        client.setWebConnection(webConnection);
+
+        client.getPage(URL_FIRST);
+        assertEquals(new String[] {"start"}, collectedAlerts);
+    }
+
+    /**
+     * @throws Exception if the test fails
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidOptimizationLevel() throws Exception {
+        ((JavaScriptEngine) getWebClient().getJavaScriptEngine()).getContextFactory().setOptimizationLevel(10);
+    }
 }
@@ -1383,4 +1383,41 @@ public class JavaScriptEngineTest extends SimpleWebTestCase {
         engine.registerWindowAndMaybeStartEventLoop(window);
         assertTrue(getJavaScriptThreads().isEmpty());
     }
+
+    /**
+     * The lazy initialization of the host classes has to be transparent for the scripts.
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void lazyInitialization() throws Exception {
+        final String html
+            = "<html><head><script>\n"
+            + "function test() {\n"
+            + "  var div = document.getElementById('myDiv');\n"
+            + "  alert(div instanceof HTMLDivElement);\n"
+            + "  alert(div instanceof HTMLElement);\n"
+            + "  alert(Object.getPrototypeOf(HTMLDivElement.prototype) === HTMLElement.prototype);\n"
+            + "  alert(Node.ELEMENT_NODE);\n"
+            + "  alert('HTMLCanvasElement' in window);\n"
+            + "  alert(typeof window.HTMLTableElement);\n"
+            + "  alert(document.createElement('table') instanceof HTMLTableElement);\n"
+            + "  alert(div.firstChild.nodeType + ' ' + div.tagName);\n"
+            + "  alert(new Image() instanceof HTMLImageElement);\n"
+            + "  alert(typeof SVGElement);\n"
+            + "}\n"
+            + "</script></head>\n"
+            + "<body onload='test()'><div id='myDiv'>text</div></body></html>";
+
+        final List<String> eagerAlerts = new ArrayList<>();
+        loadPage(getWebClient(), html, eagerAlerts);
+
+        final List<String> lazyAlerts = new ArrayList<>();
+        try (WebClient client = new WebClient(getBrowserVersion())) {
+            client.getOptions().setLazyJavaScriptInitialization(true);
+            loadPage(client, html, lazyAlerts);
+        }
+
+        assertEquals(10, eagerAlerts.size());
+        assertEquals(eagerAlerts, lazyAlerts);
+    }
 }
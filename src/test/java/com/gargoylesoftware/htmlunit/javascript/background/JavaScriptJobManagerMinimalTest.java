@@ -144,6 +144,31 @@ public class JavaScriptJobManagerMinimalTest {
         assertEquals(1, count.intValue());
     }
 
+    /**
+     * The executor parks while there is nothing to do; adding a job has to wake it up.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void addJob_wakesUpIdleExecutor() throws Exception {
+        final MutableInt count = new MutableInt(0);
+        final JavaScriptJob job = new BasicJavaScriptJob(0, null) {
+            @Override
+            public void run() {
+                count.increment();
+            }
+        };
+
+        // once the first job is done, the queue is empty and the executor parks
+        manager_.addJob(job, page_);
+        assertEquals(0, manager_.waitForJobs(500));
+        assertEquals(1, count.intValue());
+
+        // parking lasts longer than the wait; the second job only runs if it wakes up the executor
+        manager_.addJob(job, page_);
+        assertEquals(0, manager_.waitForJobs(500));
+        assertEquals(2, count.intValue());
+    }
+
     /**
      * @throws Exception if an error occurs
      */
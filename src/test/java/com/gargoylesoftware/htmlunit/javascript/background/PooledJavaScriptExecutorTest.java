@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2002-2019 Gargoyle Software Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gargoylesoftware.htmlunit.javascript.background;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.gargoylesoftware.htmlunit.Page;
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.WebWindow;
+
+/**
+ * Tests for {@link PooledJavaScriptExecutor}.
+ *
+ * @author Ronald Brill
+ */
+public class PooledJavaScriptExecutorTest {
+
+    private WebClient client_;
+    private ScheduledThreadPoolExecutor pool_;
+    private PooledJavaScriptExecutor executor_;
+
+    /**
+     * Initializes variables required by the unit tests.
+     */
+    @Before
+    public void before() {
+        client_ = new WebClient();
+        pool_ = new ScheduledThreadPoolExecutor(4);
+        executor_ = new PooledJavaScriptExecutor(client_, pool_);
+    }
+
+    /**
+     * Shuts down the executor.
+     */
+    @After
+    public void after() {
+        executor_.shutdown();
+        pool_.shutdownNow();
+        if (client_ != null) {
+            client_.close();
+        }
+    }
+
+    private JavaScriptJobManagerImpl createWindow(final Page page) {
+        final WebWindow window = EasyMock.createNiceMock(WebWindow.class);
+        final JavaScriptJobManagerImpl manager = new JavaScriptJobManagerImpl(window);
+        EasyMock.expect(window.getEnclosedPage()).andReturn(page).anyTimes();
+        EasyMock.expect(window.getJobManager()).andReturn(manager).anyTimes();
+        EasyMock.replay(window);
+        executor_.addWindow(window);
+        return manager;
+    }
+
+    /**
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void jobsOfManyWindows() throws Exception {
+        final int windows = 20;
+        final AtomicInteger count = new AtomicInteger();
+        final Page page = EasyMock.createNiceMock(Page.class);
+        final JavaScriptJobManagerImpl[] managers = new JavaScriptJobManagerImpl[windows];
+        for (int i = 0; i < windows; i++) {
+            managers[i] = createWindow(page);
+            managers[i].addJob(new BasicJavaScriptJob(10, null) {
+                @Override
+                public void run() {
+                    count.incrementAndGet();
+                }
+            }, page);
+        }
+
+        for (final JavaScriptJobManagerImpl manager : managers) {
+            assertEquals(0, manager.waitForJobs(1000));
+        }
+        assertEquals(windows, count.get());
+    }
+
+    /**
+     * The jobs of one window are never executed in parallel.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void jobsOfOneWindowAreSerialized() throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final AtomicInteger count = new AtomicInteger();
+        final Page page = EasyMock.createNiceMock(Page.class);
+        final JavaScriptJobManagerImpl manager = createWindow(page);
+        for (int i = 0; i < 10; i++) {
+            manager.addJob(new BasicJavaScriptJob(0, null) {
+                @Override
+                public void run() {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(10);
+                    }
+                    catch (final InterruptedException e) {
+                        // ignore
+                    }
+                    running.decrementAndGet();
+                    count.incrementAndGet();
+                }
+            }, page);
+        }
+
+        assertEquals(0, manager.waitForJobs(2000));
+        assertEquals(10, count.get());
+        assertEquals(1, maxRunning.get());
+    }
+
+    /**
+     * A periodic job is executed again and again until it is removed.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void periodicJob() throws Exception {
+        final AtomicInteger count = new AtomicInteger();
+        final CountDownLatch removed = new CountDownLatch(1);
+        final Page page = EasyMock.createNiceMock(Page.class);
+        final JavaScriptJobManagerImpl manager = createWindow(page);
+        final int id = manager.addJob(new BasicJavaScriptJob(5, Integer.valueOf(10)) {
+            @Override
+            public void run() {
+                if (count.incrementAndGet() == 5) {
+                    manager.removeJob(getId().intValue());
+                    removed.countDown();
+                }
+            }
+        }, page);
+
+        assertTrue(id > 0);
+        assertTrue("Job not executed five times", removed.await(10, TimeUnit.SECONDS));
+        assertEquals(0, manager.waitForJobs(10_000));
+        assertEquals(5, count.get());
+    }
+}
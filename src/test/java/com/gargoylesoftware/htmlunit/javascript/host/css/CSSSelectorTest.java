@@ -285,6 +285,45 @@ public class CSSSelectorTest extends WebDriverTestCase {
         loadPageWithAlerts2(html);
     }
 
+    /**
+     * @throws Exception if an error occurs
+     */
+    @Test
+    @Alerts({"s1,s2", "s2", "s1", "s3", "s3", "", "s1,s2,s3", ""})
+    public void descendantSelectors() throws Exception {
+        final String html = "<html><head><title>First</title>\n"
+            + "<meta http-equiv='X-UA-Compatible' content='IE=edge'>\n"
+            + "<script>\n"
+            + "function ids(selector) {\n"
+            + "  var list = document.querySelectorAll(selector);\n"
+            + "  var result = [];\n"
+            + "  for (var i = 0; i < list.length; i++) {\n"
+            + "    result.push(list[i].id);\n"
+            + "  }\n"
+            + "  alert(result.join(','));\n"
+            + "}\n"
+            + "function test() {\n"
+            + "  ids('.outer span');\n"
+            + "  ids('div#d2 .inner > span');\n"
+            + "  ids('.outer > span');\n"
+            + "  ids('p + div span');\n"
+            + "  ids('p ~ div.x span');\n"
+            + "  ids('.inner p span');\n"
+            + "  ids('body span');\n"
+            + "  ids('.missing span, ul span');\n"
+            + "}\n"
+            + "</script></head>\n"
+            + "<body onload='test()'>\n"
+            + "  <div class='outer  other'><span id='s1'></span>\n"
+            + "    <div id='d2'><b class='inner'><span id='s2'></span></b></div>\n"
+            + "  </div>\n"
+            + "  <p></p>\n"
+            + "  <div class='x'><span id='s3'></span></div>\n"
+            + "</body></html>";
+
+        loadPageWithAlerts2(html);
+    }
+
     /**
      * @throws Exception if an error occurs
      */
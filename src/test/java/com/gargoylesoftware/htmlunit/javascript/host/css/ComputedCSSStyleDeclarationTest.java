@@ -2350,4 +2350,81 @@ public class ComputedCSSStyleDeclarationTest extends WebDriverTestCase {
             + "</body></html>";
         loadPageWithAlerts2(html);
     }
+
+    /**
+     * @throws Exception if an error occurs
+     */
+    @Test
+    @Alerts({"none", "inline", "block", "none", "none", "none", "inline"})
+    public void cacheInvalidation() throws Exception {
+        final String html = "<html><head>\n"
+            + "<style>\n"
+            + "  div > p:last-child { display: none }\n"
+            + "  .hide span { display: none }\n"
+            + "</style>\n"
+            + "</head><body>\n"
+            + "<div id='d'><p id='p1'>p1</p></div>\n"
+            + "<div id='d2'><b><span id='s'>s</span></b></div>\n"
+            + "<script>\n"
+            + "  var d = document.getElementById('d');\n"
+            + "  var p1 = document.getElementById('p1');\n"
+            + "  var s = document.getElementById('s');\n"
+            + "  alert(getComputedStyle(p1, null).display);\n"
+            + "  alert(getComputedStyle(s, null).display);\n"
+
+            + "  var p2 = document.createElement('p');\n"
+            + "  d.appendChild(p2);\n"
+            + "  alert(getComputedStyle(p1, null).display);\n"
+            + "  alert(getComputedStyle(p2, null).display);\n"
+
+            + "  d.removeChild(p2);\n"
+            + "  alert(getComputedStyle(p1, null).display);\n"
+
+            + "  document.getElementById('d2').className = 'hide';\n"
+            + "  alert(getComputedStyle(s, null).display);\n"
+            + "  document.getElementById('d2').className = '';\n"
+            + "  alert(getComputedStyle(s, null).display);\n"
+            + "</script>\n"
+            + "</body></html>";
+        loadPageWithAlerts2(html);
+    }
+
+    /**
+     * @throws Exception if an error occurs
+     */
+    @Test
+    @Alerts({"none", "block", "none", "inline", "block", "none"})
+    public void cachedMatchingRules() throws Exception {
+        final String html = "<html><head>\n"
+            + "<style>\n"
+            + "  span { display: none }\n"
+            + "  span[title] { display: block }\n"
+            + "</style>\n"
+            + "</head><body>\n"
+            + "<div><span id='s'>s</span></div>\n"
+            + "<script>\n"
+            + "  var s = document.getElementById('s');\n"
+            + "  alert(getComputedStyle(s, null).display);\n"
+
+            + "  s.setAttribute('title', 't');\n"
+            + "  alert(getComputedStyle(s, null).display);\n"
+
+            + "  s.setAttribute('lang', 'en');\n"
+            + "  s.firstChild.data = 'text';\n"
+            + "  s.removeAttribute('title');\n"
+            + "  alert(getComputedStyle(s, null).display);\n"
+
+            + "  s.style.display = 'inline';\n"
+            + "  alert(getComputedStyle(s, null).display);\n"
+
+            + "  s.style.display = '';\n"
+            + "  s.title = 'again';\n"
+            + "  alert(getComputedStyle(s, null).display);\n"
+
+            + "  s.removeAttribute('title');\n"
+            + "  alert(getComputedStyle(s, null).display);\n"
+            + "</script>\n"
+            + "</body></html>";
+        loadPageWithAlerts2(html);
+    }
 }